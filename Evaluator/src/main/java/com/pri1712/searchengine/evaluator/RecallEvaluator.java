@@ -2,10 +2,16 @@ package com.pri1712.searchengine.evaluator;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pri1712.searchengine.utils.LatencyHistogram;
 import com.pri1712.searchengine.wikiquerying.QueryEngine;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
 public class RecallEvaluator {
@@ -13,10 +19,20 @@ public class RecallEvaluator {
     private final QueryEngine queryEngine;
     private final String FAILURE_LOG_DIR = "evaluation_results/";
     private int MAX_DOCS_EVALUATE;
+    private final int threads;
 
     public RecallEvaluator(QueryEngine engine, int MAX_DOCS) {
+        this(engine, MAX_DOCS, 1);
+    }
+
+    /**
+     * @param threads questions run concurrently against the shared engine, results are still aggregated in question
+     *                order so the metrics do not depend on the thread count.
+     */
+    public RecallEvaluator(QueryEngine engine, int MAX_DOCS, int threads) {
         this.queryEngine = engine;
         this.MAX_DOCS_EVALUATE = MAX_DOCS;
+        this.threads = Math.max(1, threads);
         new File(FAILURE_LOG_DIR).mkdirs();
     }
 
@@ -27,21 +43,14 @@ public class RecallEvaluator {
         System.out.println("=== Starting Multi-TOP_K Evaluation ===");
         System.out.println("TOP_K values: " + Arrays.toString(topKValues));
         System.out.println("Max documents to evaluate: " + MAX_DOCS_EVALUATE);
+        System.out.println("Query threads: " + threads);
         System.out.println();
 
         List<QuestionAnswerPair> qaCache = loadQuestionsAndAnswers(squadJsonPath);
         System.out.println("Loaded " + qaCache.size() + " question-answer pairs");
         System.out.println();
 
-        Map<Integer, EvaluationResults> allResults = new LinkedHashMap<>();
-
-        for (int topK : topKValues) {
-            queryEngine.setTopK(topK);
-            System.out.println("--- Evaluating with TOP_K = " + topK + " ---");
-            EvaluationResults results = evaluateWithTopK(qaCache, topK);
-            allResults.put(topK, results);
-            System.out.println();
-        }
+        Map<Integer, EvaluationResults> allResults = evaluateWithTopKs(qaCache, topKValues);
 
         printComparisonTable(allResults);
 
@@ -53,7 +62,7 @@ public class RecallEvaluator {
      */
     public void runEvaluation(String squadJsonPath, int topK) throws IOException {
         List<QuestionAnswerPair> qaCache = loadQuestionsAndAnswers(squadJsonPath);
-        evaluateWithTopK(qaCache, topK);
+        evaluateWithTopKs(qaCache, new int[]{topK});
     }
 
     /**
@@ -109,20 +118,43 @@ public class RecallEvaluator {
     }
 
     /**
-     * Evaluate with a specific TOP_K value
+     * Retrieves every question once at the largest TOP_K and scores each TOP_K from the prefix of that ranking. A
+     * ranking at a smaller K is exactly the prefix of the deeper one, so the results match one run per K.
      */
-    private EvaluationResults evaluateWithTopK(List<QuestionAnswerPair> qaPairs, int topK) {
-        EvaluationResults results = new EvaluationResults(topK);
+    private Map<Integer, EvaluationResults> evaluateWithTopKs(List<QuestionAnswerPair> qaPairs, int[] topKValues) {
+        int maxTopK = Arrays.stream(topKValues).max().orElse(0);
+        LatencyHistogram latency = new LatencyHistogram();
+        long start = System.nanoTime();
+        QueryOutcome[] outcomes = runQueries(qaPairs, maxTopK, latency);
+        long wallNanos = System.nanoTime() - start;
+        LatencyHistogram.Snapshot latencySnapshot = latency.snapshot();
+
+        Map<Integer, EvaluationResults> allResults = new LinkedHashMap<>();
+        for (int topK : topKValues) {
+            System.out.println("--- Evaluating with TOP_K = " + topK + " ---");
+            EvaluationResults results = new EvaluationResults(topK);
+            results.wallNanos = wallNanos;
+            results.latency = latencySnapshot;
+            aggregate(qaPairs, outcomes, results);
+            allResults.put(topK, results);
+            System.out.println();
+        }
+        return allResults;
+    }
+
+    /**
+     * Adds up the hits of every question within results' TOP_K, in question order, and logs the misses.
+     */
+    private void aggregate(List<QuestionAnswerPair> qaPairs, QueryOutcome[] outcomes, EvaluationResults results) {
+        int topK = results.topK;
         String failureLog = FAILURE_LOG_DIR + "failures_topk" + topK + ".csv";
 
         try (PrintWriter writer = new PrintWriter(new FileWriter(failureLog))) {
             writer.println("QuestionId,Question,Expected_Answer,Top_Result_Snippet,Rank_Found,Result_Status");
 
-            int processed = 0;
-            for (QuestionAnswerPair qa : qaPairs) {
-                List<String> retrievedChunks = queryEngine.start(qa.question);
-
-                HitResult hitResult = checkForHit(retrievedChunks, qa.validAnswers, qa.groundTruthContext);
+            for (int i = 0; i < qaPairs.size(); i++) {
+                QuestionAnswerPair qa = qaPairs.get(i);
+                HitResult hitResult = outcomes[i].firstHits.within(topK);
 
                 results.totalQuestions++;
 
@@ -133,13 +165,8 @@ public class RecallEvaluator {
                     results.reciprocalRanks.add(1.0 / hitResult.rank);
                 } else {
                     results.reciprocalRanks.add(0.0);
-                    logFailure(writer, qa, retrievedChunks, hitResult);
-                }
-
-                processed++;
-                if (processed % 100 == 0) {
-                    System.out.printf("Processed %d/%d questions (%.1f%%)...%n",
-                            processed, qaPairs.size(), (100.0 * processed / qaPairs.size()));
+                    //only the top result and the emptiness of the list are logged, the same for every prefix.
+                    logFailure(writer, qa, outcomes[i].retrievedChunks, hitResult);
                 }
             }
         } catch (IOException e) {
@@ -148,68 +175,134 @@ public class RecallEvaluator {
 
         results.calculateMetrics();
         results.printSummary();
+    }
 
-        return results;
+    /**
+     * Runs every question on the evaluator's threads and checks it for a hit, outcomes are indexed like qaPairs.
+     */
+    private QueryOutcome[] runQueries(List<QuestionAnswerPair> qaPairs, int topK, LatencyHistogram latency) {
+        QueryOutcome[] outcomes = new QueryOutcome[qaPairs.size()];
+        AtomicInteger processed = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "recall-evaluator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(qaPairs.size());
+            for (int i = 0; i < qaPairs.size(); i++) {
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    QuestionAnswerPair qa = qaPairs.get(index);
+                    long queryStart = System.nanoTime();
+                    List<String> retrievedChunks = queryEngine.start(qa.question, topK);
+                    latency.record(System.nanoTime() - queryStart);
+                    outcomes[index] = new QueryOutcome(retrievedChunks, findFirstHits(retrievedChunks, qa));
+
+                    int done = processed.incrementAndGet();
+                    if (done % 100 == 0) {
+                        System.out.printf("Processed %d/%d questions (%.1f%%)...%n",
+                                done, qaPairs.size(), (100.0 * done / qaPairs.size()));
+                    }
+                }));
+            }
+            //Future.get also publishes each worker's outcome to this thread.
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Evaluation query failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while evaluating", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return outcomes;
     }
 
     /**
-     * IMPROVED: Better hit checking with multiple strategies
+     * IMPROVED: Better hit checking with multiple strategies. An answer match anywhere in the top K wins over a
+     * context match, so the first rank of each is kept and FirstHits picks per K.
      */
-    private HitResult checkForHit(List<String> retrievedChunks,
-                                  List<String> validAnswers,
-                                  String groundTruthContext) {
+    private FirstHits findFirstHits(List<String> retrievedChunks, QuestionAnswerPair qa) {
         if (retrievedChunks == null || retrievedChunks.isEmpty()) {
-            return new HitResult(false, -1, "NO_RESULTS");
+            return new FirstHits(0, -1, null, -1);
         }
 
+        //each chunk is normalized and cleaned once, not once per answer and strategy.
+        String[] chunks = new String[retrievedChunks.size()];
+        int answerRank = -1;
+        String answerStatus = null;
+        answerSearch:
         for (int rank = 0; rank < retrievedChunks.size(); rank++) {
             String chunk = normalizeText(retrievedChunks.get(rank));
-
-            for (String answer : validAnswers) {
-                if (chunk.contains(answer)) {
-                    return new HitResult(true, rank + 1, "ANSWER_FOUND");
+            chunks[rank] = chunk;
+            String cleanChunk = null;
+
+            for (int i = 0; i < qa.validAnswers.size(); i++) {
+                if (chunk.contains(qa.validAnswers.get(i))) {
+                    answerRank = rank + 1;
+                    answerStatus = "ANSWER_FOUND";
+                    break answerSearch;
                 }
-                if (fuzzyContains(chunk, answer)) {
-                    return new HitResult(true, rank + 1, "ANSWER_FOUND_FUZZY");
+                if (cleanChunk == null) cleanChunk = cleanForFuzzyMatch(chunk);
+                if (cleanChunk.contains(qa.cleanAnswers.get(i))) {
+                    answerRank = rank + 1;
+                    answerStatus = "ANSWER_FOUND_FUZZY";
+                    break answerSearch;
                 }
             }
         }
 
-        String normalizedGroundTruth = normalizeText(groundTruthContext);
-        for (int rank = 0; rank < retrievedChunks.size(); rank++) {
-            String chunk = normalizeText(retrievedChunks.get(rank));
-            if (calculateOverlap(chunk, normalizedGroundTruth) > 0.8) {
-                return new HitResult(true, rank + 1, "CONTEXT_MATCH");
+        //a context match only decides the K that stop before the answer.
+        int contextRank = -1;
+        int contextDepth = answerRank > 0 ? answerRank - 1 : chunks.length;
+        for (int rank = 0; rank < contextDepth; rank++) {
+            if (calculateOverlap(chunks[rank], qa.groundTruthWords) > 0.8) {
+                contextRank = rank + 1;
+                break;
             }
         }
 
-        return new HitResult(false, -1, "ANSWER_NOT_FOUND");
+        return new FirstHits(retrievedChunks.size(), answerRank, answerStatus, contextRank);
     }
 
     /**
-     * Fuzzy string matching to handle minor differences
+     * What fuzzy matching compares: every run of characters other than a-z, 0-9 and whitespace becomes one space,
+     * the same as replaceAll("[^a-z0-9\\s]", " ").replaceAll("\\s+", " ") in a single pass.
      */
-    private boolean fuzzyContains(String text, String answer) {
-        String cleanText = text.replaceAll("[^a-z0-9\\s]", " ").replaceAll("\\s+", " ");
-        String cleanAnswer = answer.replaceAll("[^a-z0-9\\s]", " ").replaceAll("\\s+", " ");
-
-        return cleanText.contains(cleanAnswer);
+    static String cleanForFuzzyMatch(String text) {
+        StringBuilder clean = new StringBuilder(text.length());
+        boolean inGap = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')) {
+                clean.append(c);
+                inGap = false;
+            } else if (!inGap) {
+                clean.append(' ');
+                inGap = true;
+            }
+        }
+        return clean.toString();
     }
 
     /**
-     * Calculate word overlap between two texts
+     * Jaccard overlap between the words of text and a precomputed word set.
      */
-    private double calculateOverlap(String text1, String text2) {
-        Set<String> words1 = new HashSet<>(Arrays.asList(text1.split("\\s+")));
-        Set<String> words2 = new HashSet<>(Arrays.asList(text2.split("\\s+")));
-
-        Set<String> intersection = new HashSet<>(words1);
-        intersection.retainAll(words2);
-
-        Set<String> union = new HashSet<>(words1);
-        union.addAll(words2);
+    private double calculateOverlap(String text, Set<String> words2) {
+        Set<String> words1 = new HashSet<>(Arrays.asList(text.split("\\s+")));
+
+        Set<String> smaller = words1.size() <= words2.size() ? words1 : words2;
+        Set<String> larger = smaller == words1 ? words2 : words1;
+        int intersection = 0;
+        for (String word : smaller) {
+            if (larger.contains(word)) intersection++;
+        }
+        int union = words1.size() + words2.size() - intersection;
 
-        return union.isEmpty() ? 0.0 : (double) intersection.size() / union.size();
+        return union == 0 ? 0.0 : (double) intersection / union;
     }
 
     /**
@@ -268,14 +361,15 @@ public class RecallEvaluator {
     private void saveDetailedResults(Map<Integer, EvaluationResults> allResults) throws IOException {
         String summaryFile = FAILURE_LOG_DIR + "evaluation_summary.csv";
         try (PrintWriter writer = new PrintWriter(new FileWriter(summaryFile))) {
-            writer.println("TOP_K,Total_Questions,Successful_Hits,Recall,Precision,MRR,Avg_Rank");
+            writer.println("TOP_K,Total_Questions,Successful_Hits,Recall,Precision,MRR,Avg_Rank,QPS,P50_Ms,P99_Ms");
 
             for (Map.Entry<Integer, EvaluationResults> entry : allResults.entrySet()) {
                 int topK = entry.getKey();
                 EvaluationResults res = entry.getValue();
-                writer.printf("%d,%d,%d,%.4f,%.4f,%.4f,%.2f%n",
+                writer.printf("%d,%d,%d,%.4f,%.4f,%.4f,%.2f,%.1f,%.3f,%.3f%n",
                         topK, res.totalQuestions, res.successfulHits,
-                        res.recall, res.precision, res.mrr, res.averageRank);
+                        res.recall, res.precision, res.mrr, res.averageRank, res.qps,
+                        res.latency.percentile(50) / 1e6, res.latency.percentile(99) / 1e6);
             }
         }
         System.out.println("Detailed results saved to: " + summaryFile);
@@ -290,7 +384,10 @@ public class RecallEvaluator {
         String questionId;
         String question;
         List<String> validAnswers;
+        //validAnswers as compared by the fuzzy match, same order.
+        List<String> cleanAnswers;
         String groundTruthContext;
+        Set<String> groundTruthWords;
         String articleTitle;
 
         QuestionAnswerPair(String questionId, String question, List<String> validAnswers,
@@ -298,11 +395,59 @@ public class RecallEvaluator {
             this.questionId = questionId;
             this.question = question;
             this.validAnswers = validAnswers;
+            this.cleanAnswers = new ArrayList<>(validAnswers.size());
+            for (String answer : validAnswers) {
+                cleanAnswers.add(cleanForFuzzyMatch(answer));
+            }
             this.groundTruthContext = groundTruthContext;
+            this.groundTruthWords = new HashSet<>(Arrays.asList(groundTruthContext.split("\\s+")));
             this.articleTitle = articleTitle;
         }
     }
 
+    /**
+     * What one question retrieved and whether it was a hit
+     */
+    private static class QueryOutcome {
+        List<String> retrievedChunks;
+        FirstHits firstHits;
+
+        QueryOutcome(List<String> retrievedChunks, FirstHits firstHits) {
+            this.retrievedChunks = retrievedChunks;
+            this.firstHits = firstHits;
+        }
+    }
+
+    /**
+     * First answer and first context match in a ranking, 1-based and -1 when there is none
+     */
+    private static class FirstHits {
+        int retrieved;
+        int answerRank;
+        String answerStatus;
+        int contextRank;
+
+        FirstHits(int retrieved, int answerRank, String answerStatus, int contextRank) {
+            this.retrieved = retrieved;
+            this.answerRank = answerRank;
+            this.answerStatus = answerStatus;
+            this.contextRank = contextRank;
+        }
+
+        HitResult within(int topK) {
+            if (retrieved == 0) {
+                return new HitResult(false, -1, "NO_RESULTS");
+            }
+            if (answerRank > 0 && answerRank <= topK) {
+                return new HitResult(true, answerRank, answerStatus);
+            }
+            if (contextRank > 0 && contextRank <= topK) {
+                return new HitResult(true, contextRank, "CONTEXT_MATCH");
+            }
+            return new HitResult(false, -1, "ANSWER_NOT_FOUND");
+        }
+    }
+
     /**
      * Stores hit detection result
      */
@@ -332,6 +477,9 @@ public class RecallEvaluator {
         double precision = 0.0;
         double mrr = 0.0;
         double averageRank = 0.0;
+        LatencyHistogram.Snapshot latency;
+        long wallNanos = 0;
+        double qps = 0.0;
 
         EvaluationResults(int topK) {
             this.topK = topK;
@@ -345,6 +493,7 @@ public class RecallEvaluator {
                     reciprocalRanks.stream().mapToDouble(d -> d).average().orElse(0.0);
             averageRank = hitRanks.isEmpty() ? 0.0 :
                     hitRanks.stream().mapToInt(i -> i).average().orElse(0.0);
+            qps = wallNanos == 0 ? 0.0 : totalQuestions / (wallNanos / 1e9);
         }
 
         void printSummary() {
@@ -354,6 +503,12 @@ public class RecallEvaluator {
             System.out.printf("Precision@%d: %.2f%%%n", topK, precision * 100);
             System.out.printf("MRR: %.4f%n", mrr);
             System.out.printf("Average Rank (when found): %.2f%n", averageRank);
+            if (latency != null) {
+                System.out.printf("Query latency (ms): mean %.2f, p50 %.2f, p90 %.2f, p99 %.2f, max %.2f%n",
+                        latency.getMean() / 1e6, latency.percentile(50) / 1e6, latency.percentile(90) / 1e6,
+                        latency.percentile(99) / 1e6, latency.getMax() / 1e6);
+            }
+            System.out.printf("Throughput: %.1f queries/s%n", qps);
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,85 @@
+package com.pri1712.searchengine.benchmarks;
+
+import com.pri1712.searchengine.indexreader.IndexData;
+import com.pri1712.searchengine.indexreader.codec.BitUnpacker;
+import com.pri1712.searchengine.indexreader.codec.PostingsCodec;
+import com.pri1712.searchengine.model.TokenizedChunk;
+import com.pri1712.searchengine.utils.TextUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding one token block of the .blk postings stream per operation, VBYTE against PFOR with the scalar and the
+ * Vector API kernel. The fork loads jdk.incubator.vector, so pfor-vector gets the vector kernel. Tokens are drawn
+ * from the corpus Zipf distribution, postings per operation are reported as the postings counter.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class BlockCodecBenchmark {
+    private static final int BLOCKS = 256;
+
+    @Param({"vbyte", "pfor-scalar", "pfor-vector"})
+    String decoder;
+
+    @Param({"20000"})
+    int chunks;
+
+    private PostingsCodec codec;
+    private BitUnpacker unpacker;
+    private final List<ByteBuffer> blocks = new ArrayList<>();
+    private int next;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Postings {
+        public long postings;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        codec = decoder.startsWith("pfor") ? PostingsCodec.PFOR : PostingsCodec.VBYTE;
+        unpacker = decoder.equals("pfor-scalar") ? BitUnpacker.scalar() : BitUnpacker.best();
+        FixtureIndex fixture = new FixtureIndex(20_000, 42);
+        Map<String, SortedMap<Integer, Integer>> postings = invert(FixtureIndex.tokenize(fixture.texts(chunks, 200)));
+
+        while (blocks.size() < BLOCKS) {
+            List<String> tokens = TextUtils.tokenizeQuery(fixture.nextWord());
+            SortedMap<Integer, Integer> tokenPostings = tokens.isEmpty() ? null : postings.get(tokens.get(0));
+            if (tokenPostings == null) continue;
+            int[] chunkIds = new int[tokenPostings.size()];
+            int[] freqs = new int[tokenPostings.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Integer> posting : tokenPostings.entrySet()) {
+                chunkIds[i] = posting.getKey();
+                freqs[i++] = posting.getValue();
+            }
+            blocks.add(ByteBuffer.wrap(codec.encode(chunkIds, freqs, chunkIds.length)).asReadOnlyBuffer());
+        }
+    }
+
+    private static Map<String, SortedMap<Integer, Integer>> invert(List<TokenizedChunk> tokenizedChunks) {
+        Map<String, SortedMap<Integer, Integer>> postings = new HashMap<>();
+        for (int chunkId = 0; chunkId < tokenizedChunks.size(); chunkId++) {
+            for (String token : tokenizedChunks.get(chunkId).getTokenizedText()) {
+                postings.computeIfAbsent(token, k -> new TreeMap<>()).merge(chunkId, 1, Integer::sum);
+            }
+        }
+        return postings;
+    }
+
+    @Benchmark
+    public IndexData decode(Postings counter) {
+        ByteBuffer block = blocks.get(next++ & (BLOCKS - 1)).duplicate();
+        IndexData indexData = codec.decode(block, null, unpacker);
+        counter.postings += indexData.getIds().size();
+        return indexData;
+    }
+}
@@ -0,0 +1,135 @@
+package com.pri1712.searchengine.benchmarks;
+
+import com.pri1712.searchengine.indexreader.chunks.BlockCache;
+import com.pri1712.searchengine.indexreader.chunks.ChunkBlockReader;
+import com.pri1712.searchengine.indexreader.chunks.ChunkBlockWriter;
+import com.pri1712.searchengine.utils.SegmentFiles;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading chunk text by its index record from the raw chunk data or from deflated blocks, with and without the cache
+ * of inflated blocks. Like the chunker, each document's text is stored once and its chunks are overlapping windows of
+ * it. The reads go in batches of TOP_K chunks drawn from a hot tenth of the store most of the time.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkStoreBenchmark {
+    private static final int READS = 4096;
+    private static final int CHUNK_WORDS = 400;
+    private static final int OVERLAP_WORDS = 100;
+    private static final int CHUNKS_PER_DOCUMENT = 4;
+
+    @Param({"raw", "blocks"})
+    String store;
+
+    @Param({"0", "64"})
+    int cacheMb;
+
+    @Param({"20000"})
+    int chunks;
+
+    private Path dir;
+    private FileChannel rawChannel;
+    private ChunkBlockReader blockReader;
+    private long[] rawOffsets;
+    private long[] blockAddresses;
+    private int[] lengths;
+    private final int[] reads = new int[READS];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        FixtureIndex fixture = new FixtureIndex(20_000, 42);
+        int step = CHUNK_WORDS - OVERLAP_WORDS;
+        List<String> documents = fixture.texts(chunks / CHUNKS_PER_DOCUMENT,
+                step * CHUNKS_PER_DOCUMENT + OVERLAP_WORDS);
+        dir = Files.createTempDirectory("chunk-store-bench");
+        rawOffsets = new long[chunks];
+        blockAddresses = new long[chunks];
+        lengths = new int[chunks];
+        Path rawFile = dir.resolve(SegmentFiles.CHUNK_DATA_FILE);
+        Path blockFile = dir.resolve(SegmentFiles.CHUNK_BLOCKS_FILE);
+        try (OutputStream raw = new BufferedOutputStream(new FileOutputStream(rawFile.toFile()));
+             ChunkBlockWriter blocks = new ChunkBlockWriter(blockFile, ChunkBlockWriter.DEFAULT_BLOCK_SIZE)) {
+            long offset = 0;
+            int chunk = 0;
+            for (String document : documents) {
+                byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+                raw.write(bytes);
+                long address = blocks.add(bytes);
+                int[] wordStarts = wordStarts(bytes);
+                for (int w = 0; w + OVERLAP_WORDS < wordStarts.length; w += step, chunk++) {
+                    int end = Math.min(wordStarts.length, w + CHUNK_WORDS);
+                    int chunkEnd = end == wordStarts.length ? bytes.length : wordStarts[end] - 1;
+                    rawOffsets[chunk] = offset + wordStarts[w];
+                    blockAddresses[chunk] = blocks.address(address, wordStarts[w]);
+                    lengths[chunk] = chunkEnd - wordStarts[w];
+                }
+                offset += bytes.length;
+            }
+            chunks = chunk;
+        }
+        rawChannel = FileChannel.open(rawFile, StandardOpenOption.READ);
+        blockReader = ChunkBlockReader.open(blockFile, new BlockCache(cacheMb * 1024L * 1024));
+        Random random = new Random(7);
+        int hot = Math.max(1, chunks / 10);
+        for (int i = 0; i < READS; i++) {
+            reads[i] = random.nextDouble() < 0.8 ? random.nextInt(hot) : random.nextInt(chunks);
+        }
+    }
+
+    private static int[] wordStarts(byte[] text) {
+        int[] starts = new int[text.length];
+        int words = 1;
+        for (int i = 0; i < text.length; i++) {
+            if (text[i] == ' ') starts[words++] = i + 1;
+        }
+        return Arrays.copyOf(starts, words);
+    }
+
+    @Benchmark
+    public int readTopK() throws IOException {
+        int bytes = 0;
+        for (int k = 0; k < FixtureIndex.TOP_K; k++) {
+            int chunk = reads[next++ & (READS - 1)];
+            bytes += store.equals("blocks") ? blockReader.read(blockAddresses[chunk], lengths[chunk]).length
+                    : readRaw(chunk);
+        }
+        return bytes;
+    }
+
+    private int readRaw(int chunk) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(lengths[chunk]);
+        long position = rawOffsets[chunk];
+        while (buffer.hasRemaining()) {
+            position += rawChannel.read(buffer, position);
+        }
+        return buffer.array().length;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        rawChannel.close();
+        blockReader.close();
+        SegmentFiles.deleteRecursively(dir);
+    }
+}
@@ -0,0 +1,84 @@
+package com.pri1712.searchengine.benchmarks;
+
+import com.pri1712.searchengine.indexreader.postings.ArrayPostingsIterator;
+import com.pri1712.searchengine.indexreader.postings.BitmapPostingsIterator;
+import com.pri1712.searchengine.indexreader.postings.ConjunctionIterator;
+import com.pri1712.searchengine.indexreader.postings.MinShouldMatchIterator;
+import com.pri1712.searchengine.indexreader.postings.PostingsIterator;
+import com.pri1712.searchengine.indexreader.postings.RoaringDocIdSet;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Intersecting and merging two dense posting lists, held as arrays and walked by galloping iterators, or held as
+ * RoaringDocIdSets and combined word by word the way SegmentSearcher does before walking the result. Both lists
+ * cover density of the chunk ids at random.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DensePostingsBenchmark {
+    @Param({"array", "bitmap"})
+    String representation;
+
+    @Param({"0.125", "0.5"})
+    double density;
+
+    @Param({"1000000"})
+    int chunks;
+
+    private int[] first;
+    private int[] second;
+    private RoaringDocIdSet firstSet;
+    private RoaringDocIdSet secondSet;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random random = new Random(42);
+        first = randomList(random);
+        second = randomList(random);
+        firstSet = RoaringDocIdSet.of(first, first.length);
+        secondSet = RoaringDocIdSet.of(second, second.length);
+    }
+
+    private int[] randomList(Random random) {
+        int[] chunkIds = new int[chunks];
+        int count = 0;
+        for (int chunkId = 0; chunkId < chunks; chunkId++) {
+            if (random.nextDouble() < density) chunkIds[count++] = chunkId;
+        }
+        return Arrays.copyOf(chunkIds, count);
+    }
+
+    private List<PostingsIterator> iterators() {
+        if (representation.equals("bitmap")) {
+            return List.of(new BitmapPostingsIterator(firstSet, null), new BitmapPostingsIterator(secondSet, null));
+        }
+        return List.of(new ArrayPostingsIterator(first, null), new ArrayPostingsIterator(second, null));
+    }
+
+    @Benchmark
+    public int intersect() {
+        PostingsIterator conjunction = new ConjunctionIterator(BitmapPostingsIterator.intersectBitmaps(iterators()));
+        return count(conjunction);
+    }
+
+    @Benchmark
+    public int union() {
+        PostingsIterator disjunction = new MinShouldMatchIterator(BitmapPostingsIterator.unionBitmaps(iterators()), 1);
+        return count(disjunction);
+    }
+
+    private static int count(PostingsIterator iterator) {
+        int matches = 0;
+        while (iterator.nextDoc() != PostingsIterator.NO_MORE_DOCS) matches++;
+        return matches;
+    }
+}
@@ -0,0 +1,112 @@
+package com.pri1712.searchengine.benchmarks;
+
+import com.pri1712.searchengine.chunker.SegmentWriter;
+import com.pri1712.searchengine.model.SegmentInfo;
+import com.pri1712.searchengine.model.SegmentManifest;
+import com.pri1712.searchengine.model.TokenizedChunk;
+import com.pri1712.searchengine.model.data.Chunk;
+import com.pri1712.searchengine.utils.SegmentFiles;
+import com.pri1712.searchengine.utils.TextUtils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic corpus for the benchmarks. Words are random letter strings drawn from a Zipf distribution, so postings
+ * lengths range from a handful of chunks to most of the corpus like they do in real text. Everything is derived from
+ * the seed, so every run of a benchmark sees the same data.
+ */
+final class FixtureIndex {
+    static final int RECORD_SIZE = 24;
+    static final int TOP_K = 10;
+
+    private final String[] vocabulary;
+    private final double[] cumulativeWeights;
+    private final Random random;
+
+    FixtureIndex(int vocabularySize, long seed) {
+        this.random = new Random(seed);
+        this.vocabulary = new String[vocabularySize];
+        this.cumulativeWeights = new double[vocabularySize];
+        double total = 0;
+        for (int rank = 0; rank < vocabularySize; rank++) {
+            vocabulary[rank] = randomWord();
+            total += 1.0 / (rank + 1);
+            cumulativeWeights[rank] = total;
+        }
+        for (int rank = 0; rank < vocabularySize; rank++) {
+            cumulativeWeights[rank] /= total;
+        }
+    }
+
+    private String randomWord() {
+        int length = 3 + random.nextInt(7);
+        StringBuilder word = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            word.append((char) ('a' + random.nextInt(26)));
+        }
+        return word.toString();
+    }
+
+    String nextWord() {
+        int rank = Arrays.binarySearch(cumulativeWeights, random.nextDouble());
+        return vocabulary[rank >= 0 ? rank : Math.min(-rank - 1, vocabulary.length - 1)];
+    }
+
+    String text(int words) {
+        StringBuilder text = new StringBuilder(words * 7);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) text.append(' ');
+            text.append(nextWord());
+        }
+        return text.toString();
+    }
+
+    List<String> texts(int count, int wordsPerText) {
+        List<String> texts = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            texts.add(text(wordsPerText));
+        }
+        return texts;
+    }
+
+    static List<TokenizedChunk> tokenize(List<String> chunkTexts) {
+        List<TokenizedChunk> tokenizedChunks = new ArrayList<>(chunkTexts.size());
+        for (int chunkId = 0; chunkId < chunkTexts.size(); chunkId++) {
+            tokenizedChunks.add(TextUtils.tokenizeChunk(new Chunk(chunkId, chunkTexts.get(chunkId))));
+        }
+        return tokenizedChunks;
+    }
+
+    /**
+     * Writes the chunks as a single-segment index version under indexRoot and publishes it, one document per
+     * chunksPerDocument chunks. IndexParams must be set before, the segment's postings follow it.
+     */
+    static void build(Path indexRoot, List<String> chunkTexts, int chunksPerDocument) throws IOException {
+        String versionName = SegmentFiles.versionName(1);
+        Path indexDir = indexRoot.resolve(versionName);
+        String segmentName = SegmentFiles.segmentName(0);
+        SegmentWriter segmentWriter = new SegmentWriter(indexDir, segmentName, 0);
+        List<TokenizedChunk> tokenizedChunks = tokenize(chunkTexts);
+        for (int chunkId = 0; chunkId < chunkTexts.size(); chunkId++) {
+            segmentWriter.writeChunk(chunkId, chunkTexts.get(chunkId).getBytes(StandardCharsets.UTF_8),
+                    chunkId / chunksPerDocument, tokenizedChunks.get(chunkId));
+            if ((chunkId + 1) % chunksPerDocument == 0) segmentWriter.documentFinished();
+        }
+        SegmentInfo segmentInfo = segmentWriter.finish();
+
+        SegmentManifest manifest = new SegmentManifest();
+        manifest.getSegments().add(segmentInfo);
+        manifest.setNextChunkId(chunkTexts.size());
+        manifest.setNextSegmentId(1);
+        manifest.setNextDocId((chunkTexts.size() + chunksPerDocument - 1) / chunksPerDocument);
+        manifest.setGeneration(1);
+        SegmentFiles.writeManifest(indexDir, manifest);
+        SegmentFiles.publishCurrentVersion(indexRoot, versionName);
+    }
+}
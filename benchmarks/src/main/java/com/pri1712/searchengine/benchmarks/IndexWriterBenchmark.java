@@ -0,0 +1,70 @@
+package com.pri1712.searchengine.benchmarks;
+
+import com.pri1712.searchengine.indexwriter.IndexWriter;
+import com.pri1712.searchengine.model.TokenizedChunk;
+import com.pri1712.searchengine.model.params.IndexParams;
+import com.pri1712.searchengine.utils.SegmentFiles;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inverting pre-tokenized chunks into sorted runs, and the full build of one segment's postings: inversion, k-way run
+ * merge and delta encoding. Every invocation writes into a fresh directory.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class IndexWriterBenchmark {
+
+    @Param({"false", "true"})
+    boolean positional;
+
+    @Param({"2000"})
+    int chunks;
+
+    private List<TokenizedChunk> tokenizedChunks;
+    private Path outputDir;
+    private IndexWriter indexWriter;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        tokenizedChunks = FixtureIndex.tokenize(new FixtureIndex(20_000, 42).texts(chunks, 200));
+    }
+
+    @Setup(Level.Invocation)
+    public void openWriter() throws IOException {
+        //the writer reads the flag when it is created.
+        new IndexParams(positional, 0);
+        outputDir = Files.createTempDirectory("index-writer-bench");
+        indexWriter = new IndexWriter(outputDir.toString());
+    }
+
+    @Benchmark
+    public IndexWriter invert() throws IOException {
+        for (TokenizedChunk tokenizedChunk : tokenizedChunks) {
+            indexWriter.indexChunks(tokenizedChunk);
+        }
+        return indexWriter;
+    }
+
+    @Benchmark
+    public IndexWriter invertAndMerge() throws IOException {
+        invert();
+        indexWriter.mergeAllIndexes(outputDir.toString());
+        return indexWriter;
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeWriter() throws IOException {
+        indexWriter.close();
+        SegmentFiles.deleteRecursively(outputDir);
+    }
+}
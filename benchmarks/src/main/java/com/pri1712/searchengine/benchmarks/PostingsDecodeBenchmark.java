@@ -0,0 +1,92 @@
+package com.pri1712.searchengine.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pri1712.searchengine.indexreader.TokenOffsetData;
+import com.pri1712.searchengine.indexreader.decompression.IndexDecompression;
+import com.pri1712.searchengine.model.params.IndexParams;
+import com.pri1712.searchengine.utils.SegmentFiles;
+import com.pri1712.searchengine.utils.TextUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reading and delta-decoding postings lines with IndexDecompression.readCompressedIndex. Tokens are drawn from the
+ * same Zipf distribution as the corpus, so most reads hit the long lists of frequent words.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PostingsDecodeBenchmark {
+    private static final int BATCHES = 256;
+
+    @Param({"1", "8"})
+    int tokensPerRead;
+
+    @Param({"5000"})
+    int chunks;
+
+    private Path indexRoot;
+    private Path postingsFile;
+    private final IndexDecompression indexDecompression = new IndexDecompression();
+    private final List<List<Long>> offsetBatches = new ArrayList<>();
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        new IndexParams(false, 0);
+        FixtureIndex fixture = new FixtureIndex(20_000, 42);
+        indexRoot = Files.createTempDirectory("postings-bench");
+        FixtureIndex.build(indexRoot, fixture.texts(chunks, 200), 4);
+        Path segmentDir = SegmentFiles.segmentDir(SegmentFiles.resolveIndexDir(indexRoot), SegmentFiles.segmentName(0));
+        postingsFile = SegmentFiles.postingsFile(segmentDir);
+        Map<String, Long> offsets = readOffsets(segmentDir.resolve(SegmentFiles.TOKEN_OFFSET_FILE));
+
+        while (offsetBatches.size() < BATCHES) {
+            List<Long> batch = new ArrayList<>(tokensPerRead);
+            while (batch.size() < tokensPerRead) {
+                //the dictionary holds stemmed tokens, so words go through the query tokenizer first.
+                List<String> tokens = TextUtils.tokenizeQuery(fixture.nextWord());
+                Long offset = tokens.isEmpty() ? null : offsets.get(tokens.get(0));
+                if (offset != null) batch.add(offset);
+            }
+            offsetBatches.add(batch);
+        }
+    }
+
+    private static Map<String, Long> readOffsets(Path dictionary) throws IOException {
+        ObjectMapper mapper = new ObjectMapper();
+        Map<String, Long> offsets = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(dictionary.toFile())), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                TokenOffsetData tokenOffsetData = mapper.readValue(line, TokenOffsetData.class);
+                offsets.put(tokenOffsetData.getToken(), tokenOffsetData.getOffset());
+            }
+        }
+        return offsets;
+    }
+
+    @Benchmark
+    public List<Map<Integer, Integer>> readCompressedIndex() throws IOException {
+        return indexDecompression.readCompressedIndex(postingsFile, offsetBatches.get(next++ & (BATCHES - 1)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SegmentFiles.deleteRecursively(indexRoot);
+    }
+}
@@ -0,0 +1,72 @@
+package com.pri1712.searchengine.benchmarks;
+
+import com.pri1712.searchengine.model.Snippet;
+import com.pri1712.searchengine.model.params.IndexParams;
+import com.pri1712.searchengine.model.params.RankingParams;
+import com.pri1712.searchengine.utils.SegmentFiles;
+import com.pri1712.searchengine.wikiquerying.QueryEngine;
+import com.pri1712.searchengine.wikiquerying.snippet.SnippetExtractor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end QueryEngine.start on a generated positional index: tokenization, dictionary lookups, postings decode,
+ * BM25 scoring, proximity rerank and reading the top chunks' text, or their snippets with QueryEngine.snippets. Run
+ * with -t to measure concurrent queries.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark {
+    private static final int QUERIES = 512;
+
+    @Param({"1", "3", "6"})
+    int queryWords;
+
+    @Param({"5000"})
+    int chunks;
+
+    private Path indexRoot;
+    private QueryEngine queryEngine;
+    private List<String> queries;
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        new IndexParams(true, 0);
+        new RankingParams(1.2, 0.75);
+        FixtureIndex fixture = new FixtureIndex(20_000, 42);
+        indexRoot = Files.createTempDirectory("query-bench");
+        FixtureIndex.build(indexRoot, fixture.texts(chunks, 120), 4);
+        queries = fixture.texts(QUERIES, queryWords);
+        queryEngine = new QueryEngine(indexRoot.toString(), FixtureIndex.TOP_K, FixtureIndex.RECORD_SIZE);
+    }
+
+    @Benchmark
+    public List<String> start(Cursor cursor) {
+        return queryEngine.start(queries.get(cursor.next++ & (QUERIES - 1)));
+    }
+
+    @Benchmark
+    public List<Snippet> snippets(Cursor cursor) {
+        return queryEngine.snippets(queries.get(cursor.next++ & (QUERIES - 1)), SnippetExtractor.DEFAULT_WINDOW_TOKENS);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        queryEngine.close();
+        SegmentFiles.deleteRecursively(indexRoot);
+    }
+}
@@ -0,0 +1,62 @@
+package com.pri1712.searchengine.benchmarks;
+
+import com.pri1712.searchengine.model.TokenizedChunk;
+import com.pri1712.searchengine.model.data.Chunk;
+import com.pri1712.searchengine.utils.TextUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Query and chunk tokenization: regex word split, stop word filter and Porter stemming.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    @State(Scope.Thread)
+    public static class Queries {
+        @Param({"3", "8"})
+        int queryWords;
+
+        List<String> queries;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            queries = new FixtureIndex(20_000, 42).texts(256, queryWords);
+        }
+
+        String next() {
+            return queries.get(next++ & 255);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Chunks {
+        //the build's default chunk size is 512 tokens.
+        @Param({"64", "512"})
+        int chunkWords;
+
+        Chunk chunk;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            chunk = new Chunk(0, new FixtureIndex(20_000, 42).text(chunkWords));
+        }
+    }
+
+    @Benchmark
+    public List<String> tokenizeQuery(Queries queries) {
+        return TextUtils.tokenizeQuery(queries.next());
+    }
+
+    @Benchmark
+    public TokenizedChunk tokenizeChunk(Chunks chunks) {
+        return TextUtils.tokenizeChunk(chunks.chunk);
+    }
+}
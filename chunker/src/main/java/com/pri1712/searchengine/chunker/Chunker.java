@@ -4,7 +4,8 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.pri1712.searchengine.model.params.ChunkParams;
-import com.pri1712.searchengine.utils.BatchFileWriter;
+import com.pri1712.searchengine.utils.BuildMetrics;
+import com.pri1712.searchengine.utils.SegmentFiles;
 
 import java.io.*;
 import java.nio.file.Files;
@@ -18,38 +19,50 @@ public class Chunker {
     private static final Logger LOGGER = Logger.getLogger(Chunker.class.getName());
     private int chunkSize;
     private int chunkOverlap;
-    private String chunkedFilePath;
-    private String indexedFilePath;
-    private String docStatsPath;
+    private Path indexRoot;
+    //null when appending to the live version.
+    private String versionName;
+    private Path indexDir;
+    private static final long PROGRESS_INTERVAL_MILLIS = 10_000;
 
     ObjectMapper mapper = new ObjectMapper().configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
             .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, true);
     Path parsedPath;
 
-    private RandomAccessFile chunkDataFile;
-    private RandomAccessFile chunkIndexFile;
+    public Chunker(String parsedFilePath, String indexRootPath) throws IOException {
+        this(parsedFilePath, indexRootPath, false);
+    }
 
-    public Chunker(String parsedFilePath, String chunkedFilePath, String chunkDataFilePath, String chunkIndexFilePath, String indexedFilePath, String docStatsPath) throws IOException {
+    /**
+     * @param append add the parsed documents to the live version as new segments instead of building a new version.
+     */
+    public Chunker(String parsedFilePath, String indexRootPath, boolean append) throws IOException {
         this.chunkSize = ChunkParams.getChunkSize();
         this.chunkOverlap = ChunkParams.getChunkOverlap();
         parsedPath = Paths.get(parsedFilePath);
-        this.chunkedFilePath = chunkedFilePath;
-        this.indexedFilePath = indexedFilePath;
-        this.docStatsPath = docStatsPath;
-
-        BatchFileWriter  batchFileWriter = new BatchFileWriter(chunkedFilePath);
-
-        this.chunkDataFile = new RandomAccessFile(chunkDataFilePath,"rw");
-        this.chunkIndexFile = new RandomAccessFile(chunkIndexFilePath,"rw");
-
-        chunkDataFile.seek(chunkDataFile.length());
-        chunkIndexFile.seek(chunkIndexFile.length());
+        this.indexRoot = Paths.get(indexRootPath);
+        Path liveDir = SegmentFiles.resolveIndexDir(indexRoot);
+        if (append && SegmentFiles.hasManifest(liveDir)) {
+            //segments are immutable and the manifest is swapped atomically, so the live version can grow in place.
+            this.indexDir = liveDir;
+        } else {
+            if (append) {
+                LOGGER.info("No index to append to under " + indexRoot + ", building a new one");
+            }
+            //every full build goes to a fresh version directory, the live version is never written to.
+            this.versionName = SegmentFiles.nextVersionName(indexRoot);
+            this.indexDir = indexRoot.resolve(versionName);
+        }
     }
 
     public void startChunking() throws IOException {
-        ChunkerEngine chunkerEngine = new ChunkerEngine(chunkDataFile,chunkIndexFile,indexedFilePath,docStatsPath);
+        boolean append = versionName == null;
+        LOGGER.info((append ? "Appending to index " : "Building index ") + indexDir);
+        BuildMetrics buildMetrics = new BuildMetrics();
+        buildMetrics.startReporting(PROGRESS_INTERVAL_MILLIS);
+        ChunkerEngine chunkerEngine = new ChunkerEngine(indexDir, append, buildMetrics);
         //read from the parsed data and then chunk that data.
-        try (Stream<Path> fileStream = Files.list(parsedPath).filter(f -> f.toString().endsWith(".json.gz"))) {
+        try (buildMetrics; Stream<Path> fileStream = Files.list(parsedPath).filter(f -> f.toString().endsWith(".json.gz")).sorted()) {
             fileStream.forEach(parsedFile -> {
                 try {
                     LOGGER.log(Level.FINE, "Processing file: " + parsedFile.getFileName().toString());
@@ -60,6 +73,9 @@ public class Chunker {
             });
             chunkerEngine.finish();
         }
+        if (append) return;
+        //older versions are deleted by the readers once they have drained them, the build cannot tell who still reads.
+        SegmentFiles.publishCurrentVersion(indexRoot, versionName);
     }
 
 }
@@ -6,17 +6,23 @@ import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 
-import com.pri1712.searchengine.indexwriter.IndexWriter;
-import com.pri1712.searchengine.model.BM25Stats;
+import com.pri1712.searchengine.model.SegmentInfo;
+import com.pri1712.searchengine.model.SegmentManifest;
 import com.pri1712.searchengine.model.TokenizedChunk;
-import com.pri1712.searchengine.model.data.Chunk;
 import com.pri1712.searchengine.model.params.ChunkParams;
 import com.pri1712.searchengine.model.ParsedDocument;
-import com.pri1712.searchengine.tokenizer.Tokenizer;
+import com.pri1712.searchengine.model.params.IndexParams;
+import com.pri1712.searchengine.utils.BuildMetrics;
+import com.pri1712.searchengine.utils.ManifestLock;
+import com.pri1712.searchengine.utils.SegmentFiles;
+import com.pri1712.searchengine.utils.TextUtils;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -27,12 +33,17 @@ public class ChunkerEngine {
     private final int minChunkLength;
     private final int chunkSize;
     private final int chunkOverlap;
-    private final RandomAccessFile chunkDataFile;
-    private final RandomAccessFile chunkIndexFile;
     private final double alphaRatio;
-    private String indexFilePath;
-    private String docStatsFilePath;
-    private final BM25Stats stats;
+    private final int maxSegmentChunks;
+    private final Path indexDir;
+    //segments written by this run, added to the manifest on disk in finish().
+    private final List<SegmentInfo> newSegments = new ArrayList<>();
+    //appended documents are renumbered past the documents already in the index.
+    private final int docIdBase;
+    private int nextDocId;
+    private final BuildMetrics buildMetrics;
+    //held from the start of an append until its segments are published, null for a new version.
+    private final FileChannel appendLock;
     ObjectMapper mapper = new ObjectMapper().configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
             .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, true)
             .enable(SerializationFeature.INDENT_OUTPUT);
@@ -40,23 +51,44 @@ public class ChunkerEngine {
 
     private long totalChunks = 0;
     private long totalTokens = 0;
-    private long averageChunkSize = 0;
 
-    Tokenizer tokenizer = new Tokenizer();
-    IndexWriter indexWriter;
+    private SegmentWriter currentSegment;
 
-    public ChunkerEngine(RandomAccessFile chunkDataFile, RandomAccessFile chunkIndexFile, String indexedFilePath, String docStatsPath) throws IOException {
+    /**
+     * @param append continue chunk and doc ids from the manifest already in indexDir instead of starting a new index.
+     */
+    public ChunkerEngine(Path indexDir, boolean append) throws IOException {
+        this(indexDir, append, new BuildMetrics());
+    }
+
+    /**
+     * @param buildMetrics counts the documents, chunks and tokens of this run and is handed to every segment writer.
+     */
+    public ChunkerEngine(Path indexDir, boolean append, BuildMetrics buildMetrics) throws IOException {
+        this.buildMetrics = buildMetrics;
         this.chunkSize = ChunkParams.getChunkSize();
         this.chunkOverlap = ChunkParams.getChunkOverlap();
         this.minChunkLength = ChunkParams.getMinChunkLength();
         this.alphaRatio = ChunkParams.getAlphabetRatio();
-        this.chunkDataFile = chunkDataFile;
-        this.chunkIndexFile = chunkIndexFile;
-        this.indexFilePath = indexedFilePath;
-        this.docStatsFilePath = docStatsPath;
-        indexWriter = new IndexWriter(indexFilePath);
-
-        stats = new BM25Stats();
+        this.maxSegmentChunks = IndexParams.getMaxSegmentChunks();
+        this.indexDir = indexDir;
+        if (append) {
+            this.appendLock = SegmentFiles.lockAppend(indexDir);
+            SegmentManifest manifest;
+            try (ManifestLock lock = SegmentFiles.lockManifest(indexDir)) {
+                manifest = lock.readManifest();
+            } catch (IOException | RuntimeException e) {
+                appendLock.close();
+                throw e;
+            }
+            this.chunkId = manifest.getNextChunkId();
+            this.docIdBase = manifest.getNextDocId() > 0 ? manifest.getNextDocId() : nextDocIdFromChunkIndexes(manifest);
+            LOGGER.info("Appending to " + indexDir + " from chunk id " + chunkId + " and doc id " + docIdBase);
+        } else {
+            this.appendLock = null;
+            this.docIdBase = 0;
+        }
+        this.nextDocId = docIdBase;
     }
 
     public void processFile(Path parsedFile) throws IOException {
@@ -74,53 +106,130 @@ public class ChunkerEngine {
                 String fullText = parsedDocument.getTitle() + " " + parsedDocument.getText();
                 LOGGER.log(Level.FINE, "Processing text: " + fullText);
                 chunkText(fullText, parsedDocument.getId());
+                //segments are only cut between documents, so all chunks of a document live in the same segment.
+                if (maxSegmentChunks > 0 && currentSegment != null && currentSegment.getChunkCount() >= maxSegmentChunks) {
+                    closeSegment();
+                }
             }
 //            LOGGER.log(Level.INFO, "Processed " + docCount + " documents");
         }
     }
 
-    private void chunkText(String text, String docId) {
+    private void chunkText(String text, String docId) throws IOException {
         if (text == null || text.isBlank()) return;
         if (!validateText(text)) {
             LOGGER.log(Level.INFO, "Invalid text {0}", text);
             return;
         }
+        SegmentWriter segment = currentSegment();
+        int globalDocId = docIdBase + Integer.parseInt(docId);
+        nextDocId = Math.max(nextDocId, globalDocId + 1);
         String[] words = text.split("\\s+");
         int slidingWindowSize = chunkSize - chunkOverlap;
+        //the overlap is tokenized once, chunks are slices of the document's tokens. With shared document text it is
+        //also stored once and chunks are byte ranges of the text.
+        byte[] textBytes = String.join(" ", words).getBytes(StandardCharsets.UTF_8);
+        int[] wordStarts = wordStarts(textBytes, words.length);
+        int[] tokenStarts = new int[words.length + 1];
+        List<String> tokens = TextUtils.tokenizeWords(words, tokenStarts);
+        boolean sharedText = IndexParams.isSharedDocumentText();
+        if (sharedText) segment.writeDocumentText(textBytes);
 
         for (int i = 0; i < words.length; i+=slidingWindowSize) {
             int end = Math.min(words.length, i + chunkSize);
-            String[] chunkWords = java.util.Arrays.copyOfRange(words, i, end);
-            String chunkText = String.join(" ", chunkWords);
-            byte[] chunkBytes = chunkText.getBytes(StandardCharsets.UTF_8);
-            long chunkBytesLength = chunkBytes.length;
+            int chunkStart = wordStarts[i];
+            int chunkEnd = end == words.length ? textBytes.length : wordStarts[end] - 1;
 
             try {
-                // Tokenize and Index
-                TokenizedChunk tokenizedChunk = tokenizer.tokenizeChunk(new Chunk(chunkId,chunkText));
-                indexWriter.indexChunks(tokenizedChunk);
-                int postProcessedTokenCount = tokenizedChunk.getTokenizedText().size();
-                totalTokens += postProcessedTokenCount;
+                // Index the chunk's slice of the document tokens
+                TokenizedChunk tokenizedChunk = new TokenizedChunk(
+                        new ArrayList<>(tokens.subList(tokenStarts[i], tokenStarts[end])), String.valueOf(chunkId));
+                if (sharedText) {
+                    segment.writeChunk(chunkId, chunkStart, chunkEnd - chunkStart, globalDocId, tokenizedChunk);
+                } else {
+                    segment.writeChunk(chunkId, Arrays.copyOfRange(textBytes, chunkStart, chunkEnd), globalDocId,
+                            tokenizedChunk);
+                }
+                totalTokens += tokenizedChunk.getTokenizedText().size();
                 totalChunks++;
-                long dataFilePointer = chunkDataFile.getFilePointer();
-                chunkDataFile.write(chunkBytes);
-
-                chunkIndexFile.writeInt(chunkId); //4 BYTES
-                chunkIndexFile.writeLong(dataFilePointer); //8 BYTES
-                chunkIndexFile.writeInt((int) chunkBytesLength);//4 BYTES
-                chunkIndexFile.writeInt((int) Integer.parseInt(docId));//4 BYTES
-                chunkIndexFile.writeInt(postProcessedTokenCount);//4 BYTES
+                buildMetrics.addChunk(tokenizedChunk.getTokenizedText().size());
+                //ids are only used by written chunks, a segment's chunk index has no holes and ranges stay adjacent.
+                chunkId++;
 
             } catch (Exception ex) {
                 LOGGER.log(Level.WARNING, ex.getMessage(), ex);
             }
 
-            chunkId++;
             if (end == words.length) break;
         }
+        segment.documentFinished();
+        buildMetrics.addDocument();
         LOGGER.log(Level.FINE, "Chunk ID {0}", chunkId);
     }
 
+    //byte offset of every word in text, which is the words joined by single spaces.
+    private static int[] wordStarts(byte[] text, int words) {
+        int[] starts = new int[words];
+        int word = 1;
+        for (int i = 0; i < text.length && word < words; i++) {
+            if (text[i] == ' ') starts[word++] = i + 1;
+        }
+        return starts;
+    }
+
+    private SegmentWriter currentSegment() throws IOException {
+        if (currentSegment == null) {
+            currentSegment = new SegmentWriter(indexDir, SegmentFiles.reserveSegmentName(indexDir), chunkId, buildMetrics);
+        }
+        return currentSegment;
+    }
+
+    private void closeSegment() throws IOException {
+        if (currentSegment == null) return;
+        SegmentInfo segmentInfo = currentSegment.finish();
+        if (segmentInfo != null) {
+            newSegments.add(segmentInfo);
+        }
+        currentSegment = null;
+    }
+
+    /**
+     * Refuses to publish segments whose chunk id ranges overlap segments already in the manifest, the searcher maps
+     * every chunk id to exactly one segment.
+     */
+    private void checkChunkIdsFree(List<SegmentInfo> existing) {
+        for (SegmentInfo added : newSegments) {
+            long addedEnd = added.getBaseChunkId() + added.getChunkCount();
+            for (SegmentInfo segment : existing) {
+                long end = segment.getBaseChunkId() + segment.getChunkCount();
+                if (added.getBaseChunkId() < end && segment.getBaseChunkId() < addedEnd) {
+                    throw new IllegalStateException("Segment " + added.getName() + " overlaps the chunk ids of "
+                            + segment.getName() + " in " + indexDir);
+                }
+            }
+        }
+    }
+
+    /**
+     * Highest doc id in the chunk indexes plus one, for manifests written before they recorded nextDocId.
+     */
+    private int nextDocIdFromChunkIndexes(SegmentManifest manifest) throws IOException {
+        int next = 0;
+        for (SegmentInfo segmentInfo : manifest.getSegments()) {
+            Path chunkIndex = SegmentFiles.segmentDir(indexDir, segmentInfo.getName()).resolve(SegmentFiles.CHUNK_INDEX_FILE);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(chunkIndex.toFile())))) {
+                for (long i = 0; i < segmentInfo.getChunkCount(); i++) {
+                    in.readInt(); //chunk id
+                    in.readLong(); //data offset
+                    in.readInt(); //data length
+                    next = Math.max(next, in.readInt() + 1); //doc id
+                    in.readInt(); //token count
+                }
+            }
+        }
+        return next;
+    }
+
     private boolean validateText(String text) {
         if (text == null || text.isBlank()) return false;
         int length = text.length();
@@ -138,22 +247,23 @@ public class ChunkerEngine {
     }
 
     public void finish() throws IOException {
-        if (totalChunks > 0) {
-            averageChunkSize = totalTokens / totalChunks;
-        }
-
-        stats.setTotalChunks(totalChunks);
-        stats.setTotalTokens(totalTokens);
-        stats.setAverageChunkSize(averageChunkSize);
+        closeSegment();
+        long averageChunkSize = totalChunks > 0 ? totalTokens / totalChunks : 0;
 
-        File statsFile = new File(docStatsFilePath);
-        if (statsFile.getParentFile() != null) {
-            statsFile.getParentFile().mkdirs();
+        //re-read under the lock, a background merge may have replaced segments while this run was writing.
+        try (ManifestLock lock = SegmentFiles.lockManifest(indexDir)) {
+            SegmentManifest manifest = lock.readManifest();
+            checkChunkIdsFree(manifest.getSegments());
+            manifest.getSegments().addAll(newSegments);
+            manifest.setNextChunkId(Math.max(manifest.getNextChunkId(), chunkId));
+            manifest.setNextDocId(Math.max(manifest.getNextDocId(), nextDocId));
+            manifest.setGeneration(manifest.getGeneration() + 1);
+            lock.writeManifest(manifest);
+        } finally {
+            if (appendLock != null) appendLock.close();
         }
-        mapper.writeValue(statsFile, stats);
-        indexWriter.close();
 
         LOGGER.log(Level.FINE, "Indexing finished. Total Chunks: {0}, Avg Length: {1}",
                 new Object[]{totalChunks, averageChunkSize});
     }
-}
\ No newline at end of file
+}
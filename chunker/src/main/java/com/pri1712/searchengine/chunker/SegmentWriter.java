@@ -0,0 +1,169 @@
+package com.pri1712.searchengine.chunker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.pri1712.searchengine.indexreader.chunks.ChunkBlockWriter;
+import com.pri1712.searchengine.indexreader.codec.PostingsCodec;
+import com.pri1712.searchengine.indexreader.impacts.ImpactHeader;
+import com.pri1712.searchengine.indexwriter.IndexWriter;
+import com.pri1712.searchengine.indexwriter.compression.ImpactEncoder;
+import com.pri1712.searchengine.model.BM25Stats;
+import com.pri1712.searchengine.model.SegmentInfo;
+import com.pri1712.searchengine.model.TokenizedChunk;
+import com.pri1712.searchengine.model.params.IndexParams;
+import com.pri1712.searchengine.model.params.RankingParams;
+import com.pri1712.searchengine.utils.BuildMetrics;
+import com.pri1712.searchengine.utils.SegmentFiles;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes one self-contained segment: chunk store, chunk index records, postings and dictionary, and BM25 stats.
+ */
+public class SegmentWriter {
+    private static final Logger LOGGER = Logger.getLogger(SegmentWriter.class.getName());
+
+    private final String name;
+    private final Path indexDir;
+    private final Path segmentDir;
+    private final int baseChunkId;
+    //exactly one of these two holds the chunk text, see IndexParams.getChunkBlockSize.
+    private final RandomAccessFile chunkDataFile;
+    private final ChunkBlockWriter chunkBlocks;
+    private final RandomAccessFile chunkIndexFile;
+    private final IndexWriter indexWriter;
+    ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    //where the text of the document being chunked starts in the chunk store.
+    private long documentAddress;
+    private long chunkCount = 0;
+    private long totalTokens = 0;
+    private long documentCount = 0;
+
+    public SegmentWriter(Path indexRoot, String name, int baseChunkId) throws IOException {
+        this(indexRoot, name, baseChunkId, new BuildMetrics());
+    }
+
+    /**
+     * @param buildMetrics receives the flush, merge and compression counters of the segment's index writer.
+     */
+    public SegmentWriter(Path indexRoot, String name, int baseChunkId, BuildMetrics buildMetrics) throws IOException {
+        this.name = name;
+        this.indexDir = indexRoot;
+        this.segmentDir = SegmentFiles.segmentDir(indexRoot, name);
+        this.baseChunkId = baseChunkId;
+        Files.createDirectories(segmentDir);
+        if (IndexParams.getChunkBlockSize() > 0) {
+            this.chunkDataFile = null;
+            this.chunkBlocks = new ChunkBlockWriter(segmentDir.resolve(SegmentFiles.CHUNK_BLOCKS_FILE),
+                    IndexParams.getChunkBlockSize());
+        } else {
+            this.chunkDataFile = new RandomAccessFile(segmentDir.resolve(SegmentFiles.CHUNK_DATA_FILE).toFile(),
+                    "rw");
+            this.chunkBlocks = null;
+        }
+        this.chunkIndexFile = new RandomAccessFile(segmentDir.resolve(SegmentFiles.CHUNK_INDEX_FILE).toFile(), "rw");
+        this.indexWriter = new IndexWriter(segmentDir.toString());
+        indexWriter.setBuildMetrics(buildMetrics);
+    }
+
+    /**
+     * Stores the chunk text on its own, for chunks that are not windows of a document written with writeDocumentText.
+     */
+    public void writeChunk(int chunkId, byte[] chunkBytes, int docId, TokenizedChunk tokenizedChunk) throws IOException {
+        writeDocumentText(chunkBytes);
+        writeChunk(chunkId, 0, chunkBytes.length, docId, tokenizedChunk);
+    }
+
+    /**
+     * Stores a document's text once, the chunks written after it are byte ranges of it. A block store cuts a text
+     * longer than a block into consecutive blocks, a chunk's range can then cross from one into the next.
+     */
+    public void writeDocumentText(byte[] text) throws IOException {
+        if (chunkBlocks != null) {
+            documentAddress = chunkBlocks.add(text);
+        } else {
+            documentAddress = chunkDataFile.getFilePointer();
+            chunkDataFile.write(text);
+        }
+    }
+
+    /**
+     * Indexes a chunk whose text is the length bytes at start in the last document text written.
+     */
+    public void writeChunk(int chunkId, int start, int length, int docId, TokenizedChunk tokenizedChunk)
+            throws IOException {
+        indexWriter.indexChunks(tokenizedChunk);
+        int postProcessedTokenCount = tokenizedChunk.getTokenizedText().size();
+        totalTokens += postProcessedTokenCount;
+        chunkCount++;
+
+        chunkIndexFile.writeInt(chunkId); //4 BYTES
+        //8 BYTES, a block address in a block store.
+        chunkIndexFile.writeLong(chunkBlocks != null ? chunkBlocks.address(documentAddress, start)
+                : documentAddress + start);
+        chunkIndexFile.writeInt(length);//4 BYTES
+        chunkIndexFile.writeInt(docId);//4 BYTES
+        chunkIndexFile.writeInt(postProcessedTokenCount);//4 BYTES
+    }
+
+    public void documentFinished() {
+        documentCount++;
+    }
+
+    public long getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Merges the segment's postings runs into the final postings and dictionary and writes the segment stats.
+     * Returns null for a segment that never received a chunk, its directory is removed.
+     */
+    public SegmentInfo finish() throws IOException {
+        if (chunkBlocks != null) {
+            chunkBlocks.close();
+            LOGGER.log(Level.INFO, "Segment {0} chunk store: {1} bytes of text deflated to {2} bytes in {3} blocks",
+                    new Object[]{name, chunkBlocks.getRawBytes(), chunkBlocks.getCompressedBytes(),
+                            chunkBlocks.blockCount()});
+        } else {
+            chunkDataFile.close();
+        }
+        chunkIndexFile.close();
+        if (chunkCount == 0) {
+            LOGGER.info("Segment " + name + " is empty, dropping it");
+            try (var files = Files.list(segmentDir)) {
+                for (Path file : files.toList()) Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(segmentDir);
+            return null;
+        }
+        long averageChunkSize = totalTokens / chunkCount;
+        if (IndexParams.getImpactBits() > 0) {
+            //the chunk index is complete, so every posting's chunk length is known before the postings are encoded.
+            ImpactHeader impactHeader = new ImpactHeader(IndexParams.getImpactBits(),
+                    RankingParams.getTERM_FREQUENCY_SATURATION(), RankingParams.getDOCUMENT_LENGTH_NORMALIZATION(),
+                    SegmentFiles.impactAverageChunkSize(indexDir, averageChunkSize));
+            indexWriter.setImpactEncoder(ImpactEncoder.fromChunkIndex(
+                    segmentDir.resolve(SegmentFiles.CHUNK_INDEX_FILE), baseChunkId, impactHeader));
+        }
+        if (IndexParams.getPostingsCodec() != null) {
+            indexWriter.setPostingsCodec(PostingsCodec.fromName(IndexParams.getPostingsCodec()), chunkCount);
+        }
+        indexWriter.mergeAllIndexes(segmentDir.toString());
+        indexWriter.close();
+
+        mapper.writeValue(segmentDir.resolve(SegmentFiles.STATS_FILE).toFile(),
+                new BM25Stats(chunkCount, totalTokens, averageChunkSize));
+
+        SegmentInfo segmentInfo = new SegmentInfo(name, baseChunkId, chunkCount, totalTokens, documentCount,
+                SegmentFiles.directorySize(segmentDir));
+        LOGGER.log(Level.INFO, "Finished segment {0}: {1} chunks from chunk id {2}, {3} bytes",
+                new Object[]{name, chunkCount, baseChunkId, segmentInfo.getSizeInBytes()});
+        return segmentInfo;
+    }
+}
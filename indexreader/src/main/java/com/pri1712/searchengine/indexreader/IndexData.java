@@ -1,31 +1,82 @@
 package com.pri1712.searchengine.indexreader;
 
+import com.pri1712.searchengine.indexreader.postings.ArrayPostingsIterator;
+import com.pri1712.searchengine.indexreader.postings.BitmapPostingsIterator;
+import com.pri1712.searchengine.indexreader.postings.PackedInts;
+import com.pri1712.searchengine.indexreader.postings.PostingsIterator;
+import com.pri1712.searchengine.indexreader.postings.RoaringDocIdSet;
+
+import java.util.AbstractList;
 import java.util.List;
 
 public class IndexData {
-    private List<Integer> chunkIds;
-    private List<Integer> freqs;
+    private int[] chunkIds;
+    private int[] freqs;
+    //dense lists decoded from block postings keep their chunk ids as a bitmap and their frequencies packed, the
+    //arrays above are then null.
+    private RoaringDocIdSet denseChunkIds;
+    private PackedInts packedFreqs;
     private String token;
+    //quantized BM25 impact of each posting, null when the index was built without impacts.
+    private int[] impacts;
     public IndexData(List<Integer> docIds, List<Integer> freqs,String token) {
-        this.chunkIds = docIds;
+        this(toArray(docIds), toArray(freqs), token);
+    }
+
+    public IndexData(int[] chunkIds, int[] freqs, String token) {
+        this.chunkIds = chunkIds;
         this.freqs = freqs;
         this.token = token;
     }
 
+    public IndexData(RoaringDocIdSet chunkIds, PackedInts freqs, String token) {
+        this.denseChunkIds = chunkIds;
+        this.packedFreqs = freqs;
+        this.token = token;
+    }
+
+    //a read-only view, the postings are kept as arrays or a bitmap.
     public List<Integer> getIds() {
-        return chunkIds;
+        if (denseChunkIds == null) return asList(chunkIds);
+        return new AbstractList<>() {
+            private int[] materialized;
+
+            @Override
+            public Integer get(int index) {
+                if (materialized == null) materialized = denseChunkIds.toArray();
+                return materialized[index];
+            }
+
+            @Override
+            public int size() {
+                return denseChunkIds.cardinality();
+            }
+        };
     }
 
     public void setChunkIds(List<Integer> chunkIds) {
-        this.chunkIds = chunkIds;
+        unpackDense();
+        this.chunkIds = toArray(chunkIds);
     }
 
     public List<Integer> getFreqs() {
-        return freqs;
+        if (packedFreqs == null) return asList(freqs);
+        return new AbstractList<>() {
+            @Override
+            public Integer get(int index) {
+                return packedFreqs.get(index);
+            }
+
+            @Override
+            public int size() {
+                return packedFreqs.size();
+            }
+        };
     }
 
     public void setFreqs(List<Integer> freqs) {
-        this.freqs = freqs;
+        unpackDense();
+        this.freqs = toArray(freqs);
     }
 
     public String getToken() {
@@ -35,4 +86,65 @@ public class IndexData {
     public void setToken(String token) {
         this.token = token;
     }
+
+    public int[] getImpacts() {
+        return impacts;
+    }
+
+    public void setImpacts(int[] impacts) {
+        this.impacts = impacts;
+    }
+
+    /**
+     * Iterator over this token's postings, chunk ids are in increasing order as they come out of the delta decoding.
+     */
+    public PostingsIterator iterator() {
+        if (denseChunkIds != null) return new BitmapPostingsIterator(denseChunkIds, packedFreqs::get);
+        return new ArrayPostingsIterator(chunkIds, freqs);
+    }
+
+    /**
+     * Iterator over this token's postings whose freq() is the posting's impact instead of its term frequency.
+     */
+    public PostingsIterator impactIterator() {
+        if (denseChunkIds != null) {
+            int[] values = impacts;
+            return new BitmapPostingsIterator(denseChunkIds, values == null ? null : rank -> values[rank]);
+        }
+        return new ArrayPostingsIterator(chunkIds, impacts);
+    }
+
+    //back to arrays before a setter replaces one side, so ids and frequencies stay in the same form.
+    private void unpackDense() {
+        if (denseChunkIds == null) return;
+        chunkIds = denseChunkIds.toArray();
+        freqs = new int[chunkIds.length];
+        for (int i = 0; i < freqs.length; i++) freqs[i] = packedFreqs.get(i);
+        denseChunkIds = null;
+        packedFreqs = null;
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        if (values == null) return null;
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+
+    private static List<Integer> asList(int[] values) {
+        if (values == null) return null;
+        return new AbstractList<>() {
+            @Override
+            public Integer get(int index) {
+                return values[index];
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
 }
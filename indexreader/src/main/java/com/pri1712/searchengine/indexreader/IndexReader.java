@@ -3,7 +3,13 @@ package com.pri1712.searchengine.indexreader;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pri1712.searchengine.indexreader.codec.PostingsCodec;
+import com.pri1712.searchengine.indexreader.decompression.ImpactSegmentsCursor;
 import com.pri1712.searchengine.indexreader.decompression.IndexDecompression;
+import com.pri1712.searchengine.indexreader.decompression.PositionsCursor;
+import com.pri1712.searchengine.indexreader.impacts.ImpactHeader;
+import com.pri1712.searchengine.utils.Accountable;
+import com.pri1712.searchengine.utils.RamUsage;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -17,12 +23,24 @@ import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 
 
-public class IndexReader {
+public class IndexReader implements Accountable {
     private static final Logger LOGGER = Logger.getLogger(String.valueOf(IndexReader.class));
+    //token, offset, positionOffset, impactOffset, impactOrderOffset, blockOffset and docFreq.
+    private static final long TOKEN_OFFSET_DATA_BYTES = RamUsage.shallowInstance(1, 8 + 8 + 8 + 8 + 8 + 4);
     private Path indexedFilePath;
     private Path indexTokenOffsetFilePath;
-    private Map<String,Long> tokenOffsetMap;
-    ObjectMapper mapper = new ObjectMapper().configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
+    private Path positionsFilePath;
+    private Path impactsFilePath;
+    private Path impactOrderFilePath;
+    //binary postings decoded instead of the JSON lines, null for indexes built without them.
+    private Path blockPostingsFilePath;
+    private PostingsCodec postingsCodec;
+    private ImpactHeader impactHeader;
+    private Map<String,TokenOffsetData> tokenOffsetMap;
+    //entries and their tokens, the map's own table and nodes are added in ramBytesUsed.
+    private long dictionaryEntryBytes = 0;
+    //shared by every segment, a mapper per reader would keep its serializer caches alive for each dictionary.
+    static ObjectMapper mapper = new ObjectMapper().configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
             .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, true);
     IndexDecompression indexDecompression = new IndexDecompression();
    List<Integer> docIds = new ArrayList<>();
@@ -38,6 +56,36 @@ public class IndexReader {
             LOGGER.log(Level.SEVERE,e.getMessage(),e);
         }
         this.indexTokenOffsetFilePath = Paths.get(indexTokenOffsetFilePath);
+        if (this.indexedFilePath != null) {
+            //positions are optional, indexes built without them simply have no .pos stream.
+            Path positions = this.indexedFilePath.resolveSibling(
+                    this.indexedFilePath.getFileName().toString().replace("_delta_encoded.json", "_delta_encoded.pos"));
+            this.positionsFilePath = Files.exists(positions) ? positions : null;
+            Path blocks = this.indexedFilePath.resolveSibling(
+                    this.indexedFilePath.getFileName().toString().replace("_delta_encoded.json", "_delta_encoded.blk"));
+            if (Files.exists(blocks)) {
+                try {
+                    this.postingsCodec = PostingsCodec.readHeader(blocks);
+                    this.blockPostingsFilePath = blocks;
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Unreadable block postings in " + blocks + ", reading the JSON postings", e);
+                }
+            }
+            //impacts are optional too, the header says which k1, b and avgdl they were computed with.
+            Path impacts = this.indexedFilePath.resolveSibling(
+                    this.indexedFilePath.getFileName().toString().replace("_delta_encoded.json", "_delta_encoded.imp"));
+            if (Files.exists(impacts)) {
+                try {
+                    this.impactHeader = ImpactHeader.read(impacts);
+                    this.impactsFilePath = impacts;
+                    Path impactOrder = impacts.resolveSibling(
+                            impacts.getFileName().toString().replace("_delta_encoded.imp", "_delta_encoded.iop"));
+                    this.impactOrderFilePath = Files.exists(impactOrder) ? impactOrder : null;
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Unreadable impacts in " + impacts + ", scoring without them", e);
+                }
+            }
+        }
         tokenOffsetMap = new HashMap<>();
         try {
             loadTokenMapInMemory(indexTokenOffsetFilePath);
@@ -55,12 +103,34 @@ public class IndexReader {
         String line;
         while ((line = buffRead.readLine()) != null) {
             TokenOffsetData tokenOffsetData = mapper.readValue(line, TokenOffsetData.class);
-            tokenOffsetMap.put(tokenOffsetData.getToken(), tokenOffsetData.getOffset());//storing token to offset in memory in a map.
+            tokenOffsetMap.put(tokenOffsetData.getToken(), tokenOffsetData);//storing token to offsets in memory in a map.
+            //the key is the entry's own token, so the string is only counted once.
+            dictionaryEntryBytes += TOKEN_OFFSET_DATA_BYTES + RamUsage.sizeOf(tokenOffsetData.getToken());
         }
     }
 
+    /**
+     * Document frequency of every term in a dictionary file without loading the dictionary, terms written before
+     * document frequencies were recorded are left out.
+     */
+    public static Map<String, Integer> readDocFreqs(Path indexTokenOffsetFilePath) throws IOException {
+        Map<String, Integer> docFreqs = new HashMap<>();
+        try (BufferedReader buffRead = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(indexTokenOffsetFilePath.toFile())), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = buffRead.readLine()) != null) {
+                TokenOffsetData tokenOffsetData = mapper.readValue(line, TokenOffsetData.class);
+                if (tokenOffsetData.getDocFreq() >= 0) {
+                    docFreqs.put(tokenOffsetData.getToken(), tokenOffsetData.getDocFreq());
+                }
+            }
+        }
+        return docFreqs;
+    }
+
     public IndexData readTokenIndex(String token) throws IOException {
-        Long tokenOffset = tokenOffsetMap.get(token);
+        TokenOffsetData tokenOffsetData = tokenOffsetMap.get(token);
+        Long tokenOffset = tokenOffsetData == null ? null : tokenOffsetData.getOffset();
         List<Long> tokenOffsets = new ArrayList<>();
         addTokenOffset(tokenOffset,tokenOffsets);
         List<Map<Integer,Integer>> decompressedPostingList = indexDecompression.readCompressedIndex(indexedFilePath,tokenOffsets);
@@ -76,34 +146,153 @@ public class IndexReader {
 
     //reads the token offsets and the tokens, and returns a list of {freq,chunkID,token} objects for each token.
     public List<IndexData> readTokenIndex(List<String> tokens) throws IOException {
-        List<IndexData> indexDataList = new ArrayList<>();
-        List<String> validTokens = new ArrayList<>();
-        List<Long> validOffsets = new ArrayList<>();
+        return readPostings(lookupTokens(tokens));
+    }
 
+    /**
+     * Dictionary entries of the tokens that have postings, in query order. Only touches the in-memory dictionary.
+     */
+    public List<TokenOffsetData> lookupTokens(List<String> tokens) {
+        List<TokenOffsetData> entries = new ArrayList<>();
         for (String token : tokens) {
-            Long offset = tokenOffsetMap.get(token);
-            if (offset != null && offset >= 0) {
-                validTokens.add(token);
-                validOffsets.add(offset);
+            TokenOffsetData tokenOffsetData = tokenOffsetMap.get(token);
+            if (tokenOffsetData != null && tokenOffsetData.getOffset() >= 0) {
+                entries.add(tokenOffsetData);
             }
         }
+        return entries;
+    }
 
-        if (validOffsets.isEmpty()) {
+    /**
+     * Reads and decodes the postings of dictionary entries returned by lookupTokens.
+     */
+    public List<IndexData> readPostings(List<TokenOffsetData> entries) throws IOException {
+        List<IndexData> indexDataList = new ArrayList<>();
+        if (entries.isEmpty()) {
             return indexDataList;
         }
+        if (blockPostingsFilePath != null) {
+            indexDataList = indexDecompression.readBlockPostings(blockPostingsFilePath, entries, postingsCodec);
+        } else {
+            List<Long> offsets = new ArrayList<>(entries.size());
+            for (TokenOffsetData entry : entries) {
+                offsets.add(entry.getOffset());
+            }
 
-        List<Map<Integer, Integer>> allPostings = indexDecompression.readCompressedIndex(indexedFilePath, validOffsets);
+            List<Map<Integer, Integer>> allPostings = indexDecompression.readCompressedIndex(indexedFilePath, offsets);
 
-        for (int i = 0; i < validTokens.size(); i++) {
-            String token = validTokens.get(i);
-            Map<Integer, Integer> postingsMap = allPostings.get(i);
-            List<Integer> chunkIds = new ArrayList<>(postingsMap.keySet());
-            List<Integer> freqs = new ArrayList<>(postingsMap.values());
-            indexDataList.add(new IndexData(chunkIds, freqs, token));
+            for (int i = 0; i < entries.size(); i++) {
+                Map<Integer, Integer> postingsMap = allPostings.get(i);
+                List<Integer> chunkIds = new ArrayList<>(postingsMap.keySet());
+                List<Integer> freqs = new ArrayList<>(postingsMap.values());
+                indexDataList.add(new IndexData(chunkIds, freqs, entries.get(i).getToken()));
+            }
+        }
+        if (impactsFilePath != null) {
+            List<Long> impactOffsets = new ArrayList<>(entries.size());
+            List<Integer> counts = new ArrayList<>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                impactOffsets.add(entries.get(i).getImpactOffset());
+                counts.add(indexDataList.get(i).getIds().size());
+            }
+            List<int[]> impacts = indexDecompression.readImpacts(impactsFilePath, impactOffsets, counts,
+                    impactHeader.bytesPerImpact());
+            for (int i = 0; i < entries.size(); i++) {
+                indexDataList.get(i).setImpacts(impacts.get(i));
+            }
         }
 
         return indexDataList;
     }
+    /**
+     * Number of chunks containing the token, 0 when the token is not in the dictionary. Used to sum document
+     * frequencies across segments before any postings are read.
+     */
+    public int docFreq(String token) throws IOException {
+        TokenOffsetData tokenOffsetData = tokenOffsetMap.get(token);
+        if (tokenOffsetData == null || tokenOffsetData.getOffset() < 0) {
+            return 0;
+        }
+        if (tokenOffsetData.getDocFreq() >= 0) {
+            return tokenOffsetData.getDocFreq();
+        }
+        //older dictionaries have no df, fall back to decoding the postings.
+        List<IndexData> indexData = readTokenIndex(List.of(token));
+        return indexData.isEmpty() ? 0 : indexData.get(0).getIds().size();
+    }
+
+    public int getDictionarySize() {
+        return tokenOffsetMap == null ? 0 : tokenOffsetMap.size();
+    }
+
+    /**
+     * Bytes of the in-memory term dictionary. Postings and positions are read from disk per query and not retained.
+     */
+    @Override
+    public long ramBytesUsed() {
+        if (tokenOffsetMap == null) return 0;
+        return RamUsage.sizeOfHashMap(tokenOffsetMap.size()) + dictionaryEntryBytes;
+    }
+
+    public boolean hasImpacts() {
+        return impactsFilePath != null;
+    }
+
+    public boolean hasImpactOrder() {
+        return impactOrderFilePath != null;
+    }
+
+    /**
+     * Cursor over the impact-ordered postings of a dictionary entry, null when the index has none for it.
+     */
+    public ImpactSegmentsCursor openImpactSegments(TokenOffsetData entry) throws IOException {
+        if (impactOrderFilePath == null || entry.getImpactOrderOffset() < 0) {
+            return null;
+        }
+        return indexDecompression.openImpactSegments(impactOrderFilePath, entry.getImpactOrderOffset());
+    }
+
+    /**
+     * Scoring settings the impacts were written with, null for an index without impacts.
+     */
+    public ImpactHeader getImpactHeader() {
+        return impactHeader;
+    }
+
+    /**
+     * Codec of the block postings queries decode, null when they read the JSON postings.
+     */
+    public PostingsCodec getPostingsCodec() {
+        return postingsCodec;
+    }
+
+    public boolean hasPositions() {
+        return positionsFilePath != null;
+    }
+
+    /**
+     * Reads the positions of indexData's token in the given chunks, chunk ids without the token are left out.
+     */
+    public Map<Integer,int[]> readPositions(IndexData indexData, Set<Integer> chunkIds) throws IOException {
+        TokenOffsetData tokenOffsetData = tokenOffsetMap.get(indexData.getToken());
+        if (positionsFilePath == null || tokenOffsetData == null) {
+            return Map.of();
+        }
+        return indexDecompression.readPositions(positionsFilePath, tokenOffsetData.getPositionOffset(),
+                indexData.getIds(), chunkIds);
+    }
+
+    /**
+     * Cursor over the positions of indexData's token, null when the index has no positions for it.
+     */
+    public PositionsCursor openPositions(IndexData indexData) throws IOException {
+        TokenOffsetData tokenOffsetData = tokenOffsetMap.get(indexData.getToken());
+        if (positionsFilePath == null || tokenOffsetData == null || tokenOffsetData.getPositionOffset() < 0) {
+            return null;
+        }
+        return indexDecompression.openPositions(positionsFilePath, tokenOffsetData.getPositionOffset(), indexData.getIds());
+    }
+
     private void addTokenOffset(Long offset,List<Long> tokenOffsets) {
         tokenOffsets.add(offset);
     }
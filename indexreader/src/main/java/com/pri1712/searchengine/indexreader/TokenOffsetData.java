@@ -3,12 +3,28 @@ package com.pri1712.searchengine.indexreader;
 public class TokenOffsetData {
     private String token;
     private long offset;
+    //offset of the token's block in the .pos stream, -1 when the index was built without positions.
+    private long positionOffset = -1;
+    //offset of the token's block in the .imp stream, -1 when the index was built without impacts.
+    private long impactOffset = -1;
+    //offset of the token's impact-ordered block in the .iop stream, -1 when the index was built without impacts.
+    private long impactOrderOffset = -1;
+    //offset of the token's block in the .blk stream, -1 when the index was built without block postings.
+    private long blockOffset = -1;
+    //number of chunks containing the token, -1 for dictionaries written before it was recorded.
+    private int docFreq = -1;
     public TokenOffsetData() {}
     public TokenOffsetData(String token, long offset) {
         this.token = token;
         this.offset = offset;
     }
 
+    public TokenOffsetData(String token, long offset, long positionOffset) {
+        this.token = token;
+        this.offset = offset;
+        this.positionOffset = positionOffset;
+    }
+
     public String getToken() {
         return token;
     }
@@ -24,4 +40,44 @@ public class TokenOffsetData {
     public void setOffset(long offset) {
         this.offset = offset;
     }
+
+    public long getPositionOffset() {
+        return positionOffset;
+    }
+
+    public void setPositionOffset(long positionOffset) {
+        this.positionOffset = positionOffset;
+    }
+
+    public long getImpactOffset() {
+        return impactOffset;
+    }
+
+    public void setImpactOffset(long impactOffset) {
+        this.impactOffset = impactOffset;
+    }
+
+    public long getImpactOrderOffset() {
+        return impactOrderOffset;
+    }
+
+    public void setImpactOrderOffset(long impactOrderOffset) {
+        this.impactOrderOffset = impactOrderOffset;
+    }
+
+    public long getBlockOffset() {
+        return blockOffset;
+    }
+
+    public void setBlockOffset(long blockOffset) {
+        this.blockOffset = blockOffset;
+    }
+
+    public int getDocFreq() {
+        return docFreq;
+    }
+
+    public void setDocFreq(int docFreq) {
+        this.docFreq = docFreq;
+    }
 }
@@ -0,0 +1,102 @@
+package com.pri1712.searchengine.indexreader.chunks;
+
+import com.pri1712.searchengine.utils.Accountable;
+import com.pri1712.searchengine.utils.RamUsage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Inflated chunk blocks of any number of ChunkBlockReaders, least recently used first out once their bytes pass
+ * maxBytes. A cache of 0 bytes keeps nothing.
+ */
+public class BlockCache implements Accountable {
+    //the map entry, its key and the block array header.
+    private static final long ENTRY_OVERHEAD = RamUsage.shallowInstance(4, 4 + 1) + RamUsage.shallowInstance(1, 4)
+            + RamUsage.ARRAY_HEADER_BYTES;
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, byte[]> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    public BlockCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized byte[] get(ChunkBlockReader store, int block) {
+        byte[] inflated = blocks.get(new Key(store, block));
+        if (inflated == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return inflated;
+    }
+
+    synchronized void put(ChunkBlockReader store, int block, byte[] inflated) {
+        long size = inflated.length + ENTRY_OVERHEAD;
+        if (size > maxBytes) return;
+        if (blocks.put(new Key(store, block), inflated) == null) bytes += size;
+        Iterator<byte[]> eldest = blocks.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().length + ENTRY_OVERHEAD;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drops the blocks of a store that is being closed.
+     */
+    synchronized void invalidate(ChunkBlockReader store) {
+        Iterator<Map.Entry<Key, byte[]>> entries = blocks.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, byte[]> entry = entries.next();
+            if (entry.getKey().store == store) {
+                bytes -= entry.getValue().length + ENTRY_OVERHEAD;
+                entries.remove();
+            }
+        }
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    @Override
+    public synchronized long ramBytesUsed() {
+        return bytes;
+    }
+
+    private static final class Key {
+        private final ChunkBlockReader store;
+        private final int block;
+
+        Key(ChunkBlockReader store, int block) {
+            this.store = store;
+            this.block = block;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return store == other.store && block == other.block;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(store) + block;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.pri1712.searchengine.indexreader.chunks;
+
+import com.pri1712.searchengine.utils.Accountable;
+import com.pri1712.searchengine.utils.RamUsage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads chunks from a store written by ChunkBlockWriter. A block is inflated whole the first time one of its chunks is
+ * read and kept in the cache, the chunks around it are usually asked for next. A chunk of a text cut into several
+ * blocks is copied together from each block it covers. Safe for concurrent reads.
+ */
+public class ChunkBlockReader implements Accountable, AutoCloseable {
+    //block count and magic.
+    private static final int TRAILER_BYTES = 4 + 4;
+    private static final int FOOTER_ENTRY_BYTES = 8 + 4;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final BlockCache cache;
+    //one more offset than blocks, the last is where the footer starts.
+    private final long[] blockOffsets;
+    private final int[] inflatedLengths;
+
+    private ChunkBlockReader(Path file, FileChannel channel, BlockCache cache, long[] blockOffsets,
+                             int[] inflatedLengths) {
+        this.file = file;
+        this.channel = channel;
+        this.cache = cache;
+        this.blockOffsets = blockOffsets;
+        this.inflatedLengths = inflatedLengths;
+    }
+
+    public static ChunkBlockReader open(Path file, BlockCache cache) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_BYTES);
+            readFully(channel, trailer, size - TRAILER_BYTES);
+            trailer.flip();
+            int blockCount = trailer.getInt();
+            if (trailer.getInt() != ChunkBlockWriter.MAGIC) {
+                throw new IOException("Not a chunk block store: " + file);
+            }
+            long footerStart = size - TRAILER_BYTES - (long) blockCount * FOOTER_ENTRY_BYTES;
+            ByteBuffer footer = ByteBuffer.allocate(blockCount * FOOTER_ENTRY_BYTES);
+            readFully(channel, footer, footerStart);
+            footer.flip();
+            long[] blockOffsets = new long[blockCount + 1];
+            int[] inflatedLengths = new int[blockCount];
+            for (int b = 0; b < blockCount; b++) {
+                blockOffsets[b] = footer.getLong();
+                inflatedLengths[b] = footer.getInt();
+            }
+            blockOffsets[blockCount] = footerStart;
+            return new ChunkBlockReader(file, channel, cache, blockOffsets, inflatedLengths);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The length bytes at an address returned by ChunkBlockWriter.add or ChunkBlockWriter.address.
+     */
+    public byte[] read(long address, int length) throws IOException {
+        int block = (int) (address >>> 32);
+        int offset = (int) address;
+        byte[] chunk = new byte[length];
+        int copied = 0;
+        if (block < 0 || block >= blockCount()) {
+            throw new EOFException("Block " + block + " past the end of " + file);
+        }
+        while (copied < length) {
+            if (block >= blockCount()) {
+                throw new EOFException("Chunk at " + (int) address + " of block " + (int) (address >>> 32)
+                        + " runs past the end of " + file);
+            }
+            if (offset >= inflatedLengths[block]) {
+                //the range starts in a later block, which does not need inflating to skip this one.
+                offset -= inflatedLengths[block++];
+                continue;
+            }
+            byte[] inflated = inflate(block);
+            int n = Math.min(length - copied, inflated.length - offset);
+            System.arraycopy(inflated, offset, chunk, copied, n);
+            copied += n;
+            block++;
+            offset = 0;
+        }
+        return chunk;
+    }
+
+    private byte[] inflate(int block) throws IOException {
+        byte[] inflated = cache.get(this, block);
+        if (inflated != null) return inflated;
+        ByteBuffer compressed = ByteBuffer.allocate((int) (blockOffsets[block + 1] - blockOffsets[block]));
+        readFully(channel, compressed, blockOffsets[block]);
+        inflated = new byte[inflatedLengths[block]];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed.array());
+            int n = 0;
+            while (n < inflated.length && !inflater.finished()) {
+                int read = inflater.inflate(inflated, n, inflated.length - n);
+                if (read == 0 && inflater.needsInput()) break;
+                n += read;
+            }
+            if (n != inflated.length) throw new EOFException("Block " + block + " of " + file + " is truncated");
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt block " + block + " in " + file, e);
+        } finally {
+            inflater.end();
+        }
+        cache.put(this, block, inflated);
+        return inflated;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException("EOF at position " + position);
+            position += read;
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    public int blockCount() {
+        return inflatedLengths.length;
+    }
+
+    //file offset of a block, blockCount() gives the end of the last one.
+    long blockOffset(int block) {
+        return blockOffsets[block];
+    }
+
+    int inflatedLength(int block) {
+        return inflatedLengths[block];
+    }
+
+    public long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return RamUsage.shallowInstance(5, 0) + RamUsage.sizeOfArray(blockOffsets.length, Long.BYTES)
+                + RamUsage.sizeOfArray(inflatedLengths.length, Integer.BYTES);
+    }
+
+    @Override
+    public void close() throws IOException {
+        cache.invalidate(this);
+        channel.close();
+    }
+}
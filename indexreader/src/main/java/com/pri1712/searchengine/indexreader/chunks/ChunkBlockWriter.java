@@ -0,0 +1,166 @@
+package com.pri1712.searchengine.indexreader.chunks;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a segment's chunk text as blocks of at most blockSize bytes, each block deflated on its own. A text that fits
+ * in a block is never split, it starts a new block when the current one has no room left. A longer text, such as a
+ * whole article stored once for all of its chunks, is cut into consecutive blocks, so a read never inflates more than
+ * blockSize bytes per block it touches. The address add returns goes into the chunk's index record in place of the
+ * data offset: the block number in the high 32 bits and the offset inside the inflated block in the low ones. A range
+ * starting at an address may run on into the following blocks.
+ * <p>
+ * Layout: magic, the blocks, then per block its file offset as a long and its inflated length as an int, the block
+ * count and the magic again.
+ */
+public class ChunkBlockWriter implements AutoCloseable {
+    static final int MAGIC = 0x43484B31; //"CHK1"
+    //the deflate window is 32 KB, so a chunk repeating the previous chunk's overlap always finds it.
+    public static final int DEFAULT_BLOCK_SIZE = 32 * 1024;
+
+    private final int blockSize;
+    private final DataOutputStream out;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final byte[] compressed = new byte[64 * 1024];
+    private byte[] block;
+    private int blockLength = 0;
+    private long[] blockOffsets = new long[16];
+    private int[] blockLengths = new int[16];
+    private int blockCount = 0;
+    private long position;
+    private long rawBytes = 0;
+
+    public ChunkBlockWriter(Path file, int blockSize) throws IOException {
+        this.blockSize = blockSize;
+        this.block = new byte[blockSize];
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file.toFile()), 64 * 1024));
+        out.writeInt(MAGIC);
+        position = Integer.BYTES;
+    }
+
+    public long add(byte[] text) throws IOException {
+        if (blockLength > 0 && blockLength + text.length > blockSize) flushBlock();
+        long address = (long) blockCount << 32 | blockLength;
+        int written = 0;
+        while (written < text.length) {
+            if (blockLength == blockSize) flushBlock();
+            int length = Math.min(text.length - written, blockSize - blockLength);
+            System.arraycopy(text, written, block, blockLength, length);
+            blockLength += length;
+            written += length;
+        }
+        rawBytes += text.length;
+        return address;
+    }
+
+    /**
+     * The address of the byte delta bytes after address, both inside text added to this writer.
+     */
+    public long address(long address, long delta) {
+        int block = (int) (address >>> 32);
+        long offset = (int) address + delta;
+        while (offset >= blockLength(block) && block < blockCount) {
+            offset -= blockLength(block);
+            block++;
+        }
+        return (long) block << 32 | offset;
+    }
+
+    //the current block once every earlier one is flushed.
+    private int blockLength(int block) {
+        return block < blockCount ? blockLengths[block] : blockLength;
+    }
+
+    /**
+     * Appends every block of source as it is, without inflating it. Returns the number the source's first block gets
+     * here, which a chunk address of source needs added to its high 32 bits.
+     */
+    public int addBlocks(ChunkBlockReader source) throws IOException {
+        flushBlock();
+        int firstBlock = blockCount;
+        try (FileChannel channel = FileChannel.open(source.getFile(), StandardOpenOption.READ)) {
+            channel.position(source.blockOffset(0));
+            InputStream in = Channels.newInputStream(channel);
+            for (int b = 0; b < source.blockCount(); b++) {
+                int length = (int) (source.blockOffset(b + 1) - source.blockOffset(b));
+                byte[] bytes = in.readNBytes(length);
+                if (bytes.length != length) throw new IOException("Truncated block " + b + " in " + source.getFile());
+                addBlock(bytes, bytes.length, source.inflatedLength(b));
+            }
+        }
+        return firstBlock;
+    }
+
+    public int blockCount() {
+        return blockCount;
+    }
+
+    //bytes of chunk text added, before compression.
+    public long getRawBytes() {
+        return rawBytes;
+    }
+
+    //bytes written so far, the footer is not counted before close.
+    public long getCompressedBytes() {
+        return position;
+    }
+
+    private void flushBlock() throws IOException {
+        if (blockLength == 0) return;
+        deflater.reset();
+        deflater.setInput(block, 0, blockLength);
+        deflater.finish();
+        long start = position;
+        while (!deflater.finished()) {
+            int n = deflater.deflate(compressed);
+            out.write(compressed, 0, n);
+            position += n;
+        }
+        recordBlock(start, blockLength);
+        blockLength = 0;
+    }
+
+    private void addBlock(byte[] bytes, int length, int inflatedLength) throws IOException {
+        long start = position;
+        out.write(bytes, 0, length);
+        position += length;
+        rawBytes += inflatedLength;
+        recordBlock(start, inflatedLength);
+    }
+
+    private void recordBlock(long offset, int inflatedLength) {
+        if (blockCount == blockOffsets.length) {
+            blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+            blockLengths = Arrays.copyOf(blockLengths, blockCount * 2);
+        }
+        blockOffsets[blockCount] = offset;
+        blockLengths[blockCount] = inflatedLength;
+        blockCount++;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBlock();
+            for (int b = 0; b < blockCount; b++) {
+                out.writeLong(blockOffsets[b]);
+                out.writeInt(blockLengths[b]);
+            }
+            out.writeInt(blockCount);
+            out.writeInt(MAGIC);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.pri1712.searchengine.indexreader.codec;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Unpacks one PFOR block of 128 values packed with bitWidth bits each. The packing is interleaved over 4 lanes: value
+ * i lives in lane i % 4, and each lane packs its 32 values into bitWidth consecutive 32-bit words, so word k of lane l
+ * is packed[4 * k + l]. Every step then shifts and masks four neighbouring words into four consecutive values, which is
+ * exactly one 128-bit vector operation.
+ */
+public interface BitUnpacker {
+    int BLOCK_SIZE = 128;
+    int LANES = 4;
+
+    /**
+     * Writes the 128 values packed in the first 4 * bitWidth ints of packed to out, starting at outOffset.
+     */
+    void unpack(int[] packed, int bitWidth, int[] out, int outOffset);
+
+    static BitUnpacker scalar() {
+        return Holder.SCALAR;
+    }
+
+    /**
+     * The Vector API kernel when the JVM runs with --add-modules jdk.incubator.vector, the scalar one otherwise.
+     */
+    static BitUnpacker best() {
+        return Holder.BEST;
+    }
+
+    final class Holder {
+        private static final Logger LOGGER = Logger.getLogger(BitUnpacker.class.getName());
+        private static final BitUnpacker SCALAR = new ScalarBitUnpacker();
+        private static final BitUnpacker BEST = select();
+
+        private Holder() {}
+
+        private static BitUnpacker select() {
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+                LOGGER.fine("jdk.incubator.vector is not loaded, PFOR blocks are unpacked with the scalar kernel");
+                return SCALAR;
+            }
+            try {
+                return new VectorBitUnpacker();
+            } catch (LinkageError e) {
+                LOGGER.log(Level.WARNING, "Vector API unavailable, PFOR blocks are unpacked with the scalar kernel", e);
+                return SCALAR;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.pri1712.searchengine.indexreader.codec;
+
+import com.pri1712.searchengine.utils.VarIntUtils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Patched frame of reference over 128 non-negative ints. The bit width is chosen so that packing every value's low
+ * bits plus patching the few that do not fit is smallest. Layout: bit width and exception count as one byte each,
+ * 4 * bitWidth packed ints in the interleaved layout of BitUnpacker, then per exception its index as a byte and its
+ * high bits as a vint.
+ */
+final class PForBlock {
+    private static final int BLOCK_SIZE = BitUnpacker.BLOCK_SIZE;
+    private static final int LANES = BitUnpacker.LANES;
+
+    private PForBlock() {}
+
+    static void encode(int[] values, int offset, DataOutputStream out) throws IOException {
+        int bitWidth = bestBitWidth(values, offset);
+        int mask = bitWidth == 32 ? -1 : (1 << bitWidth) - 1;
+        int exceptions = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            if ((values[offset + i] & ~mask) != 0) exceptions++;
+        }
+        out.writeByte(bitWidth);
+        out.writeByte(exceptions);
+        int[] packed = new int[LANES * bitWidth];
+        for (int i = 0; i < BLOCK_SIZE && bitWidth > 0; i++) {
+            int value = values[offset + i] & mask;
+            int lane = i % LANES;
+            int bitOffset = (i / LANES) * bitWidth;
+            int word = (bitOffset >>> 5) * LANES + lane;
+            int shift = bitOffset & 31;
+            packed[word] |= value << shift;
+            if (shift + bitWidth > 32) {
+                packed[word + LANES] |= value >>> (32 - shift);
+            }
+        }
+        for (int word : packed) {
+            out.writeInt(word);
+        }
+        for (int i = 0; i < BLOCK_SIZE && exceptions > 0; i++) {
+            int high = values[offset + i] >>> bitWidth;
+            if (high != 0) {
+                out.writeByte(i);
+                VarIntUtils.writeVInt(out, high);
+            }
+        }
+    }
+
+    /**
+     * Decodes one block into out[outOffset, outOffset + 128). packed is scratch space of at least 128 ints.
+     */
+    static void decode(ByteBuffer in, int[] out, int outOffset, int[] packed, BitUnpacker unpacker) {
+        int bitWidth = in.get() & 0xFF;
+        int exceptions = in.get() & 0xFF;
+        int words = LANES * bitWidth;
+        in.asIntBuffer().get(packed, 0, words);
+        in.position(in.position() + words * Integer.BYTES);
+        unpacker.unpack(packed, bitWidth, out, outOffset);
+        for (int e = 0; e < exceptions; e++) {
+            int index = in.get() & 0xFF;
+            out[outOffset + index] |= VarIntUtils.readVInt(in) << bitWidth;
+        }
+    }
+
+    /**
+     * The width with the fewest bytes, each value above it costs an index byte and about a byte per 7 high bits.
+     */
+    private static int bestBitWidth(int[] values, int offset) {
+        int[] widthCounts = new int[33];
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            widthCounts[32 - Integer.numberOfLeadingZeros(values[offset + i])]++;
+        }
+        int maxWidth = 32;
+        while (maxWidth > 0 && widthCounts[maxWidth] == 0) maxWidth--;
+        int bestWidth = maxWidth;
+        long bestBytes = (long) LANES * maxWidth * Integer.BYTES;
+        int exceptions = 0;
+        for (int width = maxWidth - 1; width >= 0; width--) {
+            exceptions += widthCounts[width + 1];
+            long bytes = (long) LANES * width * Integer.BYTES + exceptions * (1L + (maxWidth - width + 6) / 7);
+            if (bytes < bestBytes) {
+                bestBytes = bytes;
+                bestWidth = width;
+            }
+        }
+        return bestWidth;
+    }
+}
@@ -0,0 +1,174 @@
+package com.pri1712.searchengine.indexreader.codec;
+
+import com.pri1712.searchengine.indexreader.IndexData;
+import com.pri1712.searchengine.indexreader.postings.PackedInts;
+import com.pri1712.searchengine.indexreader.postings.RoaringDocIdSet;
+import com.pri1712.searchengine.utils.VarIntUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+
+/**
+ * Binary encodings of one token's postings in a segment's .blk stream, which the query path decodes instead of the
+ * JSON postings line. Every token block starts with the posting count shifted left by one as a vint, chunk ids are
+ * stored as deltas and term frequencies minus one, so most of them are 0. The low bit marks a dense list, which is
+ * stored as a RoaringDocIdSet followed by its frequencies as PackedInts whatever the codec. The stream starts with a
+ * header naming the codec.
+ */
+public enum PostingsCodec {
+    //delta, frequency pairs as vints.
+    VBYTE(1) {
+        @Override
+        void encodeValues(int[] deltas, int[] freqs, int count, DataOutputStream out) throws IOException {
+            writePairs(deltas, freqs, 0, count, out);
+        }
+
+        @Override
+        void decodeValues(ByteBuffer in, int[] deltas, int[] freqs, BitUnpacker unpacker) {
+            readPairs(in, deltas, freqs, 0);
+        }
+    },
+    //blocks of 128 deltas then 128 frequencies as PFOR, the tail under 128 postings as VBYTE pairs.
+    PFOR(2) {
+        @Override
+        void encodeValues(int[] deltas, int[] freqs, int count, DataOutputStream out) throws IOException {
+            int i = 0;
+            for (; count - i >= BitUnpacker.BLOCK_SIZE; i += BitUnpacker.BLOCK_SIZE) {
+                PForBlock.encode(deltas, i, out);
+                PForBlock.encode(freqs, i, out);
+            }
+            writePairs(deltas, freqs, i, count, out);
+        }
+
+        @Override
+        void decodeValues(ByteBuffer in, int[] deltas, int[] freqs, BitUnpacker unpacker) {
+            int[] packed = new int[BitUnpacker.BLOCK_SIZE];
+            int i = 0;
+            for (; deltas.length - i >= BitUnpacker.BLOCK_SIZE; i += BitUnpacker.BLOCK_SIZE) {
+                PForBlock.decode(in, deltas, i, packed, unpacker);
+                PForBlock.decode(in, freqs, i, packed, unpacker);
+            }
+            readPairs(in, deltas, freqs, i);
+        }
+    };
+
+    private static final int MAGIC = 0x424C4B32; //"BLK2", BLK1 had no dense lists
+    //magic and codec id.
+    public static final int HEADER_BYTES = 4 + 1;
+
+    private final int id;
+
+    PostingsCodec(int id) {
+        this.id = id;
+    }
+
+    abstract void encodeValues(int[] deltas, int[] freqs, int count, DataOutputStream out) throws IOException;
+
+    abstract void decodeValues(ByteBuffer in, int[] deltas, int[] freqs, BitUnpacker unpacker);
+
+    public static PostingsCodec fromName(String name) {
+        return valueOf(name.toUpperCase(Locale.ROOT));
+    }
+
+    public void writeHeader(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(id);
+    }
+
+    public static PostingsCodec readHeader(Path blockFile) throws IOException {
+        try (InputStream in = Files.newInputStream(blockFile)) {
+            DataInputStream data = new DataInputStream(in);
+            int magic = data.readInt();
+            if (magic != MAGIC) {
+                throw new IOException("Not a block postings stream, bad magic " + Integer.toHexString(magic));
+            }
+            int id = data.readUnsignedByte();
+            for (PostingsCodec codec : values()) {
+                if (codec.id == id) return codec;
+            }
+            throw new IOException("Unknown postings codec " + id + " in " + blockFile);
+        }
+    }
+
+    public byte[] encode(int[] chunkIds, int[] freqs, int count) throws IOException {
+        return encode(chunkIds, freqs, count, false);
+    }
+
+    /**
+     * Encodes count postings, chunk ids increasing. A dense list goes into bitmap containers instead of this codec.
+     */
+    public byte[] encode(int[] chunkIds, int[] freqs, int count, boolean dense) throws IOException {
+        if (dense) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(count / 4 + 64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            VarIntUtils.writeVInt(out, count << 1 | 1);
+            RoaringDocIdSet.of(chunkIds, count).write(out);
+            PackedInts.pack(freqs, count).write(out);
+            out.flush();
+            return bytes.toByteArray();
+        }
+        int[] deltas = new int[count];
+        int[] freqsMinusOne = new int[count];
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            deltas[i] = chunkIds[i] - previous;
+            previous = chunkIds[i];
+            freqsMinusOne[i] = freqs[i] - 1;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(count * 2 + 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        VarIntUtils.writeVInt(out, count << 1);
+        encodeValues(deltas, freqsMinusOne, count, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    public IndexData decode(ByteBuffer in, String token) {
+        return decode(in, token, BitUnpacker.best());
+    }
+
+    /**
+     * Decodes one token block written by encode, with the given kernel for PFOR blocks.
+     */
+    public IndexData decode(ByteBuffer in, String token, BitUnpacker unpacker) {
+        int header = VarIntUtils.readVInt(in);
+        int count = header >>> 1;
+        if ((header & 1) != 0) {
+            RoaringDocIdSet chunkIds = RoaringDocIdSet.read(in);
+            return new IndexData(chunkIds, PackedInts.read(in, count), token);
+        }
+        int[] chunkIds = new int[count];
+        int[] freqs = new int[count];
+        decodeValues(in, chunkIds, freqs, unpacker);
+        int chunkId = 0;
+        for (int i = 0; i < count; i++) {
+            chunkId += chunkIds[i];
+            chunkIds[i] = chunkId;
+            freqs[i]++;
+        }
+        return new IndexData(chunkIds, freqs, token);
+    }
+
+    private static void writePairs(int[] deltas, int[] freqs, int from, int to, DataOutputStream out)
+            throws IOException {
+        for (int i = from; i < to; i++) {
+            VarIntUtils.writeVInt(out, deltas[i]);
+            VarIntUtils.writeVInt(out, freqs[i]);
+        }
+    }
+
+    private static void readPairs(ByteBuffer in, int[] deltas, int[] freqs, int from) {
+        for (int i = from; i < deltas.length; i++) {
+            deltas[i] = VarIntUtils.readVInt(in);
+            freqs[i] = VarIntUtils.readVInt(in);
+        }
+    }
+}
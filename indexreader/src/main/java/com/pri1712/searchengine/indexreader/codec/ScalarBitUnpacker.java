@@ -0,0 +1,32 @@
+package com.pri1712.searchengine.indexreader.codec;
+
+import java.util.Arrays;
+
+/**
+ * Plain Java unpacking of the interleaved layout, used when the Vector API is not available.
+ */
+final class ScalarBitUnpacker implements BitUnpacker {
+
+    @Override
+    public void unpack(int[] packed, int bitWidth, int[] out, int outOffset) {
+        if (bitWidth == 0) {
+            Arrays.fill(out, outOffset, outOffset + BLOCK_SIZE, 0);
+            return;
+        }
+        int mask = bitWidth == 32 ? -1 : (1 << bitWidth) - 1;
+        for (int j = 0; j < BLOCK_SIZE / LANES; j++) {
+            int bitOffset = j * bitWidth;
+            int word = (bitOffset >>> 5) * LANES;
+            int shift = bitOffset & 31;
+            boolean spans = shift + bitWidth > 32;
+            int target = outOffset + j * LANES;
+            for (int lane = 0; lane < LANES; lane++) {
+                int value = packed[word + lane] >>> shift;
+                if (spans) {
+                    value |= packed[word + LANES + lane] << (32 - shift);
+                }
+                out[target + lane] = value & mask;
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.pri1712.searchengine.indexreader.codec;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * Unpacks the interleaved layout four values per instruction with the incubating Vector API. Only loaded through
+ * BitUnpacker.best(), after checking that jdk.incubator.vector is part of the boot layer.
+ */
+final class VectorBitUnpacker implements BitUnpacker {
+    //the layout has 4 lanes of 32-bit words, one 128-bit vector.
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_128;
+
+    @Override
+    public void unpack(int[] packed, int bitWidth, int[] out, int outOffset) {
+        if (bitWidth == 0) {
+            Arrays.fill(out, outOffset, outOffset + BLOCK_SIZE, 0);
+            return;
+        }
+        int mask = bitWidth == 32 ? -1 : (1 << bitWidth) - 1;
+        for (int j = 0; j < BLOCK_SIZE / LANES; j++) {
+            int bitOffset = j * bitWidth;
+            int word = (bitOffset >>> 5) * LANES;
+            int shift = bitOffset & 31;
+            IntVector values = IntVector.fromArray(SPECIES, packed, word).lanewise(VectorOperators.LSHR, shift);
+            if (shift + bitWidth > 32) {
+                values = values.or(IntVector.fromArray(SPECIES, packed, word + LANES)
+                        .lanewise(VectorOperators.LSHL, 32 - shift));
+            }
+            values.and(mask).intoArray(out, outOffset + j * LANES);
+        }
+    }
+}
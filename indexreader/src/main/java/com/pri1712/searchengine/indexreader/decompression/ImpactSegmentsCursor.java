@@ -0,0 +1,72 @@
+package com.pri1712.searchengine.indexreader.decompression;
+
+import com.pri1712.searchengine.utils.VarIntUtils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams one token's block of the .iop stream, its postings grouped by impact with the highest impact first. Each
+ * impact segment is decoded when the cursor moves onto it, so a traversal that stops early never reads the tail.
+ */
+public class ImpactSegmentsCursor implements Closeable {
+    private static final int[] NO_CHUNK_IDS = new int[0];
+
+    private final FileChannel channel;
+    private final InputStream in;
+    private int remainingSegments;
+    private int impact = 0;
+    private int[] chunkIds = NO_CHUNK_IDS;
+
+    ImpactSegmentsCursor(Path impactOrderFilePath, long impactOrderOffset) throws IOException {
+        this.channel = FileChannel.open(impactOrderFilePath, StandardOpenOption.READ);
+        this.channel.position(impactOrderOffset);
+        this.in = new BufferedInputStream(Channels.newInputStream(channel), 4096);
+        this.remainingSegments = VarIntUtils.readVInt(in);
+    }
+
+    /**
+     * Moves to the next impact segment, false once every segment has been read.
+     */
+    public boolean nextSegment() throws IOException {
+        if (remainingSegments == 0) {
+            chunkIds = NO_CHUNK_IDS;
+            return false;
+        }
+        remainingSegments--;
+        impact = VarIntUtils.readVInt(in);
+        int count = VarIntUtils.readVInt(in);
+        chunkIds = new int[count];
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += VarIntUtils.readVInt(in);
+            chunkIds[i] = previous;
+        }
+        return true;
+    }
+
+    /**
+     * Quantized impact shared by every posting of the current segment.
+     */
+    public int impact() {
+        return impact;
+    }
+
+    /**
+     * Chunk ids of the current segment in increasing order.
+     */
+    public int[] chunkIds() {
+        return chunkIds;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
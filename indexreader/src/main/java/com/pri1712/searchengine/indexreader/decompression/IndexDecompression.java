@@ -5,11 +5,15 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pri1712.searchengine.indexreader.IndexData;
+import com.pri1712.searchengine.indexreader.TokenOffsetData;
+import com.pri1712.searchengine.indexreader.codec.PostingsCodec;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.util.*;
@@ -27,27 +31,116 @@ public class IndexDecompression {
         //read data from the given offset, it returns a delta encoded list of docId and freq of the term in that docId.
         List<Map<Integer,Integer>> indexList = new ArrayList<>();
         LOGGER.fine("token offsets: " + tokenOffsets);
-        RandomAccessFile indexRAF = new RandomAccessFile(indexfilePath.toFile(), "r");
-        for (var offset : tokenOffsets) {
-            if (offset == null || offset < 0) {
-                //skip if no tokn offset exists, this happens for common words like 'a'.
-                indexList.add(Map.of());
-                continue;
-            }
-            indexRAF.seek(offset);
-            String decodedLine = decodeUTF8(indexRAF);
-            LOGGER.fine(decodedLine);
+        try (RandomAccessFile indexRAF = new RandomAccessFile(indexfilePath.toFile(), "r")) {
+            for (var offset : tokenOffsets) {
+                if (offset == null || offset < 0) {
+                    //skip if no tokn offset exists, this happens for common words like 'a'.
+                    indexList.add(Map.of());
+                    continue;
+                }
+                indexRAF.seek(offset);
+                String decodedLine = decodeUTF8(indexRAF);
+                LOGGER.fine(decodedLine);
 
-            if (decodedLine==null || decodedLine.isEmpty()) {
-                indexList.add(Map.of());
+                if (decodedLine==null || decodedLine.isEmpty()) {
+                    indexList.add(Map.of());
+                    continue;
+                }
+                Map<Integer,Integer> decodedIndexLine = parsePostingsLine(decodedLine);
+                LOGGER.fine(decodedIndexLine.toString());
+                indexList.add(decodedIndexLine);
             }
-            Map<Integer,Integer> decodedIndexLine = parsePostingsLine(decodedLine);
-            LOGGER.fine(decodedIndexLine.toString());
-            indexList.add(decodedIndexLine);
         }
         return indexList;
     }
 
+    /**
+     * Reads and decodes the .blk blocks of dictionary entries, each block is its length as an int followed by the
+     * codec's encoding of the token's postings.
+     */
+    public List<IndexData> readBlockPostings(Path blockFilePath, List<TokenOffsetData> entries, PostingsCodec codec)
+            throws IOException {
+        List<IndexData> indexDataList = new ArrayList<>(entries.size());
+        try (RandomAccessFile blockRAF = new RandomAccessFile(blockFilePath.toFile(), "r")) {
+            for (TokenOffsetData entry : entries) {
+                if (entry.getBlockOffset() < 0) {
+                    throw new IOException("Token " + entry.getToken() + " has no block in " + blockFilePath);
+                }
+                blockRAF.seek(entry.getBlockOffset());
+                byte[] block = new byte[blockRAF.readInt()];
+                blockRAF.readFully(block);
+                indexDataList.add(codec.decode(ByteBuffer.wrap(block), entry.getToken()));
+            }
+        }
+        return indexDataList;
+    }
+
+    /**
+     * Reads the impact blocks of several tokens, counts.get(i) impacts at offsets.get(i). A negative offset gives null.
+     */
+    public List<int[]> readImpacts(Path impactsFilePath, List<Long> impactOffsets, List<Integer> counts,
+                                   int bytesPerImpact) throws IOException {
+        List<int[]> impactList = new ArrayList<>(impactOffsets.size());
+        try (RandomAccessFile impactsRAF = new RandomAccessFile(impactsFilePath.toFile(), "r")) {
+            for (int i = 0; i < impactOffsets.size(); i++) {
+                long offset = impactOffsets.get(i);
+                if (offset < 0) {
+                    impactList.add(null);
+                    continue;
+                }
+                byte[] block = new byte[counts.get(i) * bytesPerImpact];
+                impactsRAF.seek(offset);
+                impactsRAF.readFully(block);
+                int[] impacts = new int[counts.get(i)];
+                for (int j = 0; j < impacts.length; j++) {
+                    impacts[j] = bytesPerImpact == 2
+                            ? ((block[2 * j] & 0xFF) << 8) | (block[2 * j + 1] & 0xFF)
+                            : block[j] & 0xFF;
+                }
+                impactList.add(impacts);
+            }
+        }
+        return impactList;
+    }
+
+    /**
+     * Reads the positions of one token for the requested chunks.
+     * @param postingChunkIds the token's chunk ids in posting order, as returned by readCompressedIndex.
+     */
+    public Map<Integer,int[]> readPositions(Path positionsFilePath, long positionOffset,
+                                            List<Integer> postingChunkIds, Set<Integer> wantedChunkIds) throws IOException {
+        Map<Integer,int[]> positions = new HashMap<>();
+        if (positionOffset < 0 || wantedChunkIds.isEmpty()) {
+            return positions;
+        }
+        List<Integer> sortedWanted = new ArrayList<>(wantedChunkIds);
+        Collections.sort(sortedWanted);
+        try (PositionsCursor cursor = openPositions(positionsFilePath, positionOffset, postingChunkIds)) {
+            for (int chunkId : sortedWanted) {
+                int[] chunkPositions = cursor.positions(chunkId);
+                if (chunkPositions.length > 0) {
+                    positions.put(chunkId, chunkPositions);
+                }
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Opens a cursor over one token's position block, postings that are never asked for are skipped without decoding.
+     */
+    public PositionsCursor openPositions(Path positionsFilePath, long positionOffset,
+                                         List<Integer> postingChunkIds) throws IOException {
+        return new PositionsCursor(positionsFilePath, positionOffset, postingChunkIds);
+    }
+
+    /**
+     * Opens a cursor over one token's impact-ordered postings, highest impact first.
+     */
+    public ImpactSegmentsCursor openImpactSegments(Path impactOrderFilePath, long impactOrderOffset) throws IOException {
+        return new ImpactSegmentsCursor(impactOrderFilePath, impactOrderOffset);
+    }
+
     private static String decodeUTF8(RandomAccessFile raf) throws IOException {
         //decode UTF8 manually since RAF reads in a different encoding format.
         ByteArrayOutputStream baos = new ByteArrayOutputStream(512);
@@ -95,7 +188,7 @@ public class IndexDecompression {
         return decodeDeltaEncoding(postingList);
     }
 
-    private static Map<Integer, Integer> decodeDeltaEncoding(List<Integer> postingList) {
+    static Map<Integer, Integer> decodeDeltaEncoding(List<Integer> postingList) {
         Map<Integer, Integer> decodedPostings = new LinkedHashMap<>();
         if (postingList == null || postingList.isEmpty()) {
             return decodedPostings;
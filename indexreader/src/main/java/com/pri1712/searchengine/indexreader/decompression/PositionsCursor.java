@@ -0,0 +1,65 @@
+package com.pri1712.searchengine.indexreader.decompression;
+
+import com.pri1712.searchengine.utils.VarIntUtils;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Streams one token's block of the .pos stream in posting order. Callers ask for chunk ids in increasing order and
+ * the cursor only decodes the postings they stop at, everything in between is skipped.
+ */
+public class PositionsCursor implements Closeable {
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final FileChannel channel;
+    private final InputStream in;
+    private final List<Integer> postingChunkIds;
+    private int postingIndex = 0;
+
+    PositionsCursor(Path positionsFilePath, long positionOffset, List<Integer> postingChunkIds) throws IOException {
+        this.channel = FileChannel.open(positionsFilePath, StandardOpenOption.READ);
+        this.channel.position(positionOffset);
+        this.in = new BufferedInputStream(Channels.newInputStream(channel), 4096);
+        this.postingChunkIds = postingChunkIds;
+    }
+
+    /**
+     * Positions of the token in chunkId, or an empty array when the token does not occur there.
+     * chunkId must not be smaller than the one passed in the previous call.
+     */
+    public int[] positions(int chunkId) throws IOException {
+        while (postingIndex < postingChunkIds.size()) {
+            int postingChunkId = postingChunkIds.get(postingIndex);
+            if (postingChunkId > chunkId) {
+                return NO_POSITIONS;
+            }
+            postingIndex++;
+            int count = VarIntUtils.readVInt(in);
+            if (postingChunkId < chunkId) {
+                VarIntUtils.skipVInts(in, count);
+                continue;
+            }
+            int[] chunkPositions = new int[count];
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                previous += VarIntUtils.readVInt(in);
+                chunkPositions[i] = previous;
+            }
+            return chunkPositions;
+        }
+        return NO_POSITIONS;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,101 @@
+package com.pri1712.searchengine.indexreader.decompression;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pri1712.searchengine.utils.VarIntUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Reads a whole delta encoded postings file front to back, one token at a time, together with its positions. Position
+ * blocks are written in the same token order as the postings lines, so both files are read sequentially without the
+ * dictionary. Used to feed existing segments back into a merge.
+ */
+public class PostingsStream implements Closeable {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    private final BufferedReader postingsReader;
+    //null when the segment was built without positions.
+    private final InputStream positionsStream;
+
+    private String token;
+    private Map<Integer, Integer> postings;
+    private Map<Integer, List<Integer>> positions;
+    private long bytesRead = 0;
+
+    public PostingsStream(Path postingsFile, Path positionsFile) throws IOException {
+        this.postingsReader = Files.newBufferedReader(postingsFile, StandardCharsets.UTF_8);
+        this.positionsStream = positionsFile == null ? null
+                : new BufferedInputStream(new FileInputStream(positionsFile.toFile()), 64 * 1024);
+    }
+
+    /**
+     * Moves to the next token, false at the end of the file.
+     */
+    public boolean next() throws IOException {
+        String line;
+        do {
+            line = postingsReader.readLine();
+            if (line == null) {
+                token = null;
+                return false;
+            }
+        } while (line.isBlank());
+        bytesRead += line.length() + 1L;
+        Map<String, List<Integer>> tokenIndexList = mapper.readValue(line, new TypeReference<>() {});
+        Map.Entry<String, List<Integer>> entry = tokenIndexList.entrySet().iterator().next();
+        token = entry.getKey();
+        postings = IndexDecompression.decodeDeltaEncoding(entry.getValue());
+        positions = positionsStream == null ? null : readPositionBlock(postings.keySet());
+        return true;
+    }
+
+    private Map<Integer, List<Integer>> readPositionBlock(Collection<Integer> chunkIds) throws IOException {
+        Map<Integer, List<Integer>> block = new LinkedHashMap<>();
+        for (int chunkId : chunkIds) {
+            int count = VarIntUtils.readVInt(positionsStream);
+            List<Integer> chunkPositions = new ArrayList<>(count);
+            int position = 0;
+            for (int i = 0; i < count; i++) {
+                position += VarIntUtils.readVInt(positionsStream);
+                chunkPositions.add(position);
+            }
+            //a vint is at most 5 bytes, this only feeds the merge throttle so an estimate is enough.
+            bytesRead += 1 + count;
+            block.put(chunkId, chunkPositions);
+        }
+        return block;
+    }
+
+    public String token() {
+        return token;
+    }
+
+    //chunk id -> term frequency, in chunk id order.
+    public Map<Integer, Integer> postings() {
+        return postings;
+    }
+
+    //chunk id -> positions, null without a positions file.
+    public Map<Integer, List<Integer>> positions() {
+        return positions;
+    }
+
+    public boolean hasPositions() {
+        return positionsStream != null;
+    }
+
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    public void close() throws IOException {
+        postingsReader.close();
+        if (positionsStream != null) positionsStream.close();
+    }
+}
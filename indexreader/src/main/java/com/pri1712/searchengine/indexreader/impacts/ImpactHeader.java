@@ -0,0 +1,114 @@
+package com.pri1712.searchengine.indexreader.impacts;
+
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Header of a segment's .imp stream, which holds one quantized BM25 term-frequency component per posting, in the same
+ * order as the postings. The component tf * (k1 + 1) / (tf + k1 * (1 - b + b * dl / avgdl)) only depends on values
+ * that are fixed when the segment is written, so the header records them and a change of k1 or b needs a rebuild.
+ * IDF is not part of the impact, document frequencies are summed over segments at query time.
+ */
+public class ImpactHeader {
+    private static final int MAGIC = 0x494D5031; //"IMP1"
+    //magic, bits, k1, b and avgdl.
+    public static final int BYTES = 4 + 1 + 8 + 8 + 8;
+
+    private final int bits;
+    private final double k1;
+    private final double b;
+    private final long averageChunkSize;
+
+    public ImpactHeader(int bits, double k1, double b, long averageChunkSize) {
+        if (bits != 8 && bits != 16) {
+            throw new IllegalArgumentException("Impacts are quantized to 8 or 16 bits, not " + bits);
+        }
+        this.bits = bits;
+        this.k1 = k1;
+        this.b = b;
+        this.averageChunkSize = averageChunkSize;
+    }
+
+    public static ImpactHeader read(DataInput in) throws IOException {
+        int magic = in.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("Not an impacts stream, bad magic " + Integer.toHexString(magic));
+        }
+        return new ImpactHeader(in.readUnsignedByte(), in.readDouble(), in.readDouble(), in.readLong());
+    }
+
+    public static ImpactHeader read(Path impactsFile) throws IOException {
+        try (InputStream in = Files.newInputStream(impactsFile)) {
+            return read(new DataInputStream(in));
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(bits);
+        out.writeDouble(k1);
+        out.writeDouble(b);
+        out.writeLong(averageChunkSize);
+    }
+
+    /**
+     * The exact term-frequency component of BM25 for a posting.
+     */
+    public double termScore(int tf, int chunkLength) {
+        return tf * (k1 + 1) / (tf + k1 * (1 - b + b * ((double) chunkLength / averageChunkSize)));
+    }
+
+    /**
+     * termScore rounded to one of maxImpact() steps of scale(). The component is always below k1 + 1, and a posting
+     * never quantizes to 0 so every matching chunk keeps a score.
+     */
+    public int quantize(int tf, int chunkLength) {
+        long quantized = Math.round(termScore(tf, chunkLength) / scale());
+        return (int) Math.max(1, Math.min(maxImpact(), quantized));
+    }
+
+    public double scale() {
+        return (k1 + 1) / maxImpact();
+    }
+
+    public int maxImpact() {
+        return (1 << bits) - 1;
+    }
+
+    public int bytesPerImpact() {
+        return bits / 8;
+    }
+
+    public int getBits() {
+        return bits;
+    }
+
+    public double getK1() {
+        return k1;
+    }
+
+    public double getB() {
+        return b;
+    }
+
+    public long getAverageChunkSize() {
+        return averageChunkSize;
+    }
+
+    /**
+     * True when impacts written with other were computed with the same k1, b and quantization.
+     */
+    public boolean sameScoring(ImpactHeader other) {
+        return bits == other.bits && Double.compare(k1, other.k1) == 0 && Double.compare(b, other.b) == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d-bit impacts with k1=%s, b=%s, avgdl=%d", bits, k1, b, averageChunkSize);
+    }
+}
@@ -0,0 +1,70 @@
+package com.pri1712.searchengine.indexreader.postings;
+
+/**
+ * Iterator over decoded posting arrays. advance gallops (exponential probe, then binary search in the last step),
+ * so skipping far ahead costs O(log distance) instead of a linear scan.
+ */
+public class ArrayPostingsIterator implements PostingsIterator {
+    private final int[] chunkIds;
+    private final int[] freqs;
+    private final int length;
+    private int index = -1;
+    private int docId = -1;
+
+    public ArrayPostingsIterator(int[] chunkIds, int[] freqs) {
+        this.chunkIds = chunkIds;
+        this.freqs = freqs;
+        this.length = chunkIds.length;
+    }
+
+    @Override
+    public int docId() {
+        return docId;
+    }
+
+    @Override
+    public int nextDoc() {
+        index++;
+        docId = index < length ? chunkIds[index] : NO_MORE_DOCS;
+        return docId;
+    }
+
+    @Override
+    public int advance(int target) {
+        if (docId >= target) return docId;
+        int low = index + 1;
+        if (low >= length) {
+            index = length;
+            return docId = NO_MORE_DOCS;
+        }
+        int step = 1;
+        int high = low;
+        while (high < length && chunkIds[high] < target) {
+            low = high + 1;
+            high = low + step;
+            step <<= 1;
+        }
+        high = Math.min(high, length - 1);
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (chunkIds[mid] < target) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        index = low;
+        docId = index < length ? chunkIds[index] : NO_MORE_DOCS;
+        return docId;
+    }
+
+    @Override
+    public int freq() {
+        return freqs == null ? 1 : freqs[index];
+    }
+
+    @Override
+    public long cost() {
+        return length;
+    }
+}
@@ -0,0 +1,113 @@
+package com.pri1712.searchengine.indexreader.postings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Iterator over a posting list held as a RoaringDocIdSet. The rank of the current chunk id indexes the list's
+ * parallel values, so freq() looks its value up there, 1 when the list has none.
+ */
+public class BitmapPostingsIterator implements PostingsIterator {
+    private final RoaringDocIdSet chunkIds;
+    private final IntUnaryOperator valueAtRank;
+    private int container = -1;
+    private RoaringDocIdSet.Cursor cursor;
+    private int high;
+    private int docId = -1;
+
+    public BitmapPostingsIterator(RoaringDocIdSet chunkIds, IntUnaryOperator valueAtRank) {
+        this.chunkIds = chunkIds;
+        this.valueAtRank = valueAtRank;
+    }
+
+    /**
+     * Replaces the bitmap iterators among iterators that have not moved yet with one iterator over the
+     * intersection of their sets, computed word by word. The iterators passed in are left where they are; the one
+     * returned in their place has no values. Lists with fewer than two such iterators come back as they are.
+     */
+    public static List<PostingsIterator> intersectBitmaps(List<PostingsIterator> iterators) {
+        return combineBitmaps(iterators, true);
+    }
+
+    /**
+     * Like intersectBitmaps with the union of the sets, for disjunctions where one matching list is enough.
+     */
+    public static List<PostingsIterator> unionBitmaps(List<PostingsIterator> iterators) {
+        return combineBitmaps(iterators, false);
+    }
+
+    private static List<PostingsIterator> combineBitmaps(List<PostingsIterator> iterators, boolean intersect) {
+        List<PostingsIterator> others = new ArrayList<>(iterators.size());
+        RoaringDocIdSet combined = null;
+        int bitmaps = 0;
+        for (PostingsIterator iterator : iterators) {
+            if (iterator instanceof BitmapPostingsIterator && iterator.docId() == -1) {
+                RoaringDocIdSet set = ((BitmapPostingsIterator) iterator).chunkIds;
+                combined = combined == null ? set : intersect ? combined.and(set) : combined.or(set);
+                bitmaps++;
+            } else {
+                others.add(iterator);
+            }
+        }
+        if (bitmaps < 2) return iterators;
+        others.add(new BitmapPostingsIterator(combined, null));
+        return others;
+    }
+
+    public RoaringDocIdSet getChunkIds() {
+        return chunkIds;
+    }
+
+    @Override
+    public int docId() {
+        return docId;
+    }
+
+    @Override
+    public int nextDoc() {
+        if (docId == NO_MORE_DOCS) return docId;
+        if (cursor != null) {
+            int low = cursor.next();
+            if (low >= 0) return docId = high | low;
+        }
+        return moveTo(container + 1, 0);
+    }
+
+    @Override
+    public int advance(int target) {
+        if (docId >= target) return docId;
+        int key = target >>> 16;
+        if (cursor != null && high >>> 16 == key) {
+            int low = cursor.advance(target & 0xFFFF);
+            if (low >= 0) return docId = high | low;
+            return moveTo(container + 1, 0);
+        }
+        int next = chunkIds.findContainer(key, container + 1);
+        return moveTo(next, next < chunkIds.containerCount() && chunkIds.key(next) == key ? target & 0xFFFF : 0);
+    }
+
+    //first chunk id in container index or later, at least lowTarget inside that first container.
+    private int moveTo(int index, int lowTarget) {
+        for (; index < chunkIds.containerCount(); index++, lowTarget = 0) {
+            container = index;
+            cursor = chunkIds.cursor(index);
+            high = chunkIds.key(index) << 16;
+            int low = cursor.advance(lowTarget);
+            if (low >= 0) return docId = high | low;
+        }
+        container = chunkIds.containerCount();
+        cursor = null;
+        return docId = NO_MORE_DOCS;
+    }
+
+    @Override
+    public int freq() {
+        return valueAtRank == null ? 1 : valueAtRank.applyAsInt(chunkIds.rankBase(container) + cursor.rank());
+    }
+
+    @Override
+    public long cost() {
+        return chunkIds.cardinality();
+    }
+}
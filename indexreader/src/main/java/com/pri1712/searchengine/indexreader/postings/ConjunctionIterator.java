@@ -0,0 +1,66 @@
+package com.pri1712.searchengine.indexreader.postings;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Intersection of several posting iterators. The cheapest iterator leads and the others are advanced to its
+ * candidates, whenever one of them overshoots the lead jumps forward to that chunk id (leapfrog).
+ */
+public class ConjunctionIterator implements PostingsIterator {
+    private final PostingsIterator lead;
+    private final List<PostingsIterator> others;
+    private int docId = -1;
+
+    public ConjunctionIterator(List<PostingsIterator> iterators) {
+        if (iterators.isEmpty()) {
+            throw new IllegalArgumentException("Conjunction needs at least one iterator");
+        }
+        List<PostingsIterator> sorted = new ArrayList<>(iterators);
+        sorted.sort(Comparator.comparingLong(PostingsIterator::cost));
+        this.lead = sorted.get(0);
+        this.others = sorted.subList(1, sorted.size());
+    }
+
+    @Override
+    public int docId() {
+        return docId;
+    }
+
+    @Override
+    public int nextDoc() {
+        return docId = align(lead.nextDoc());
+    }
+
+    @Override
+    public int advance(int target) {
+        if (docId >= target) return docId;
+        return docId = align(lead.advance(target));
+    }
+
+    private int align(int candidate) {
+        outer:
+        while (candidate != NO_MORE_DOCS) {
+            for (PostingsIterator other : others) {
+                int otherDoc = other.advance(candidate);
+                if (otherDoc > candidate) {
+                    candidate = lead.advance(otherDoc);
+                    continue outer;
+                }
+            }
+            return candidate;
+        }
+        return NO_MORE_DOCS;
+    }
+
+    @Override
+    public int freq() {
+        return lead.freq();
+    }
+
+    @Override
+    public long cost() {
+        return lead.cost();
+    }
+}
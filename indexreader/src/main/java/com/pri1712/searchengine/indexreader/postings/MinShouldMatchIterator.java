@@ -0,0 +1,95 @@
+package com.pri1712.searchengine.indexreader.postings;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Chunks that appear in at least minShouldMatch of several posting iterators, document at a time. A chunk matching
+ * minShouldMatch of n lists is in at least one of any n - minShouldMatch + 1 of them, so the cheapest that many lead
+ * and only their chunk ids become candidates. The remaining, longest lists are advanced to a candidate cheapest first
+ * and are left alone as soon as the candidate can no longer reach minShouldMatch.
+ */
+public class MinShouldMatchIterator implements PostingsIterator {
+    //in constructor order, matches(i) refers to these.
+    private final PostingsIterator[] iterators;
+    private final PostingsIterator[] leads;
+    private final PostingsIterator[] tail;
+    private final int minShouldMatch;
+    private int docId = -1;
+    private int matchCount;
+
+    public MinShouldMatchIterator(List<PostingsIterator> iterators, int minShouldMatch) {
+        if (minShouldMatch < 1) {
+            throw new IllegalArgumentException("minShouldMatch must be at least 1, got " + minShouldMatch);
+        }
+        this.iterators = iterators.toArray(new PostingsIterator[0]);
+        this.minShouldMatch = minShouldMatch;
+        PostingsIterator[] byCost = this.iterators.clone();
+        Arrays.sort(byCost, Comparator.comparingLong(PostingsIterator::cost));
+        //with fewer lists than minShouldMatch nothing can match and there are no leads.
+        int leadCount = Math.max(0, byCost.length - minShouldMatch + 1);
+        this.leads = Arrays.copyOfRange(byCost, 0, leadCount);
+        this.tail = Arrays.copyOfRange(byCost, leadCount, byCost.length);
+    }
+
+    @Override
+    public int docId() {
+        return docId;
+    }
+
+    @Override
+    public int nextDoc() {
+        if (docId == NO_MORE_DOCS) return docId;
+        return advance(docId + 1);
+    }
+
+    @Override
+    public int advance(int target) {
+        if (docId >= target) return docId;
+        while (true) {
+            int candidate = NO_MORE_DOCS;
+            for (PostingsIterator lead : leads) {
+                int leadDoc = lead.docId() < target ? lead.advance(target) : lead.docId();
+                candidate = Math.min(candidate, leadDoc);
+            }
+            if (candidate == NO_MORE_DOCS) {
+                return docId = NO_MORE_DOCS;
+            }
+            int matched = 0;
+            for (PostingsIterator lead : leads) {
+                if (lead.docId() == candidate) matched++;
+            }
+            for (int i = 0; i < tail.length && matched + tail.length - i >= minShouldMatch; i++) {
+                if (tail[i].advance(candidate) == candidate) matched++;
+            }
+            if (matched >= minShouldMatch) {
+                matchCount = matched;
+                return docId = candidate;
+            }
+            target = candidate + 1;
+        }
+    }
+
+    /**
+     * Whether the iterator at this index of the constructor list is on the current chunk.
+     */
+    public boolean matches(int index) {
+        return iterators[index].docId() == docId;
+    }
+
+    /** Number of lists containing the current chunk. */
+    @Override
+    public int freq() {
+        return matchCount;
+    }
+
+    @Override
+    public long cost() {
+        long cost = 0;
+        for (PostingsIterator lead : leads) {
+            cost += lead.cost();
+        }
+        return cost;
+    }
+}
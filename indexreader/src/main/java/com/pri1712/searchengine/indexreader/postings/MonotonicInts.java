@@ -0,0 +1,71 @@
+package com.pri1712.searchengine.indexreader.postings;
+
+import com.pri1712.searchengine.utils.Accountable;
+import com.pri1712.searchengine.utils.RamUsage;
+
+/**
+ * Non-decreasing ints in blocks of 1024. A block keeps its first value and average step, and each value as its
+ * distance from that line as PackedInts, so a sequence climbing at a steady rate takes a few bits per value.
+ */
+public final class MonotonicInts implements Accountable {
+    private static final int BLOCK_SHIFT = 10;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private final int size;
+    private final int[] base;
+    private final float[] step;
+    private final PackedInts[] deviations;
+
+    private MonotonicInts(int size, int[] base, float[] step, PackedInts[] deviations) {
+        this.size = size;
+        this.base = base;
+        this.step = step;
+        this.deviations = deviations;
+    }
+
+    /**
+     * The first count values. Any sequence round-trips, one that is not non-decreasing just packs worse.
+     */
+    public static MonotonicInts pack(int[] values, int count) {
+        int blocks = (count + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+        int[] base = new int[blocks];
+        float[] step = new float[blocks];
+        PackedInts[] deviations = new PackedInts[blocks];
+        int[] deviation = new int[BLOCK_SIZE];
+        for (int block = 0; block < blocks; block++) {
+            int from = block << BLOCK_SHIFT;
+            int length = Math.min(BLOCK_SIZE, count - from);
+            base[block] = values[from];
+            step[block] = length > 1 ? (float) (values[from + length - 1] - values[from]) / (length - 1) : 0;
+            for (int i = 0; i < length; i++) {
+                deviation[i] = values[from + i] - expected(base[block], step[block], i);
+            }
+            deviations[block] = PackedInts.pack(deviation, length);
+        }
+        return new MonotonicInts(count, base, step, deviations);
+    }
+
+    private static int expected(int base, float step, int index) {
+        return base + (int) (step * index);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int index) {
+        int block = index >>> BLOCK_SHIFT;
+        int i = index & (BLOCK_SIZE - 1);
+        return expected(base[block], step[block], i) + deviations[block].get(i);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long bytes = RamUsage.shallowInstance(3, 4) + RamUsage.sizeOfArray(base.length, Integer.BYTES)
+                + RamUsage.sizeOfArray(step.length, Float.BYTES) + RamUsage.sizeOfReferenceArray(deviations.length);
+        for (PackedInts block : deviations) {
+            bytes += block.ramBytesUsed();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,94 @@
+package com.pri1712.searchengine.indexreader.postings;
+
+import com.pri1712.searchengine.utils.Accountable;
+import com.pri1712.searchengine.utils.RamUsage;
+import com.pri1712.searchengine.utils.VarIntUtils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed number of ints stored as their distance from the smallest one, each in just enough bits for the largest
+ * distance. Holds the term frequencies next to a RoaringDocIdSet, where most of them are the same small number, and
+ * the token counts of a segment's chunks.
+ */
+public final class PackedInts implements Accountable {
+    private final int size;
+    private final int minValue;
+    private final int bitsPerValue;
+    private final long[] words;
+
+    private PackedInts(int size, int minValue, int bitsPerValue, long[] words) {
+        this.size = size;
+        this.minValue = minValue;
+        this.bitsPerValue = bitsPerValue;
+        this.words = words;
+    }
+
+    public static PackedInts pack(int[] values, int count) {
+        int min = Integer.MAX_VALUE;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            min = Math.min(min, values[i]);
+            max = Math.max(max, values[i]);
+        }
+        if (count == 0) min = max = 0;
+        int bitsPerValue = 32 - Integer.numberOfLeadingZeros(max - min);
+        long[] words = new long[wordCount(count, bitsPerValue)];
+        for (int i = 0; i < count && bitsPerValue > 0; i++) {
+            long value = (values[i] - min) & 0xFFFFFFFFL;
+            long bitOffset = (long) i * bitsPerValue;
+            int word = (int) (bitOffset >>> 6);
+            int shift = (int) (bitOffset & 63);
+            words[word] |= value << shift;
+            if (shift + bitsPerValue > 64) {
+                words[word + 1] |= value >>> (64 - shift);
+            }
+        }
+        return new PackedInts(count, min, bitsPerValue, words);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int index) {
+        if (bitsPerValue == 0) return minValue;
+        long bitOffset = (long) index * bitsPerValue;
+        int word = (int) (bitOffset >>> 6);
+        int shift = (int) (bitOffset & 63);
+        long value = words[word] >>> shift;
+        if (shift + bitsPerValue > 64) {
+            value |= words[word + 1] << (64 - shift);
+        }
+        return minValue + (int) (value & ((1L << bitsPerValue) - 1));
+    }
+
+    /**
+     * Smallest value as a vint, bits per value as a byte, then the words. The size is not written, readers know it.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        VarIntUtils.writeVInt(out, minValue);
+        out.writeByte(bitsPerValue);
+        for (long word : words) out.writeLong(word);
+    }
+
+    public static PackedInts read(ByteBuffer in, int size) {
+        int minValue = VarIntUtils.readVInt(in);
+        int bitsPerValue = in.get() & 0xFF;
+        long[] words = new long[wordCount(size, bitsPerValue)];
+        in.asLongBuffer().get(words);
+        in.position(in.position() + words.length * Long.BYTES);
+        return new PackedInts(size, minValue, bitsPerValue, words);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return RamUsage.shallowInstance(1, 4 + 4 + 4) + RamUsage.sizeOfArray(words.length, Long.BYTES);
+    }
+
+    private static int wordCount(int size, int bitsPerValue) {
+        return (int) (((long) size * bitsPerValue + 63) >>> 6);
+    }
+}
@@ -0,0 +1,22 @@
+package com.pri1712.searchengine.indexreader.postings;
+
+/**
+ * Forward only cursor over a posting list sorted by chunk id. Starts positioned before the first posting.
+ */
+public interface PostingsIterator {
+    int NO_MORE_DOCS = Integer.MAX_VALUE;
+
+    /** Current chunk id, -1 before the first call to nextDoc/advance and NO_MORE_DOCS once exhausted. */
+    int docId();
+
+    int nextDoc();
+
+    /** Moves to the first chunk id >= target and returns it, never moves backwards. */
+    int advance(int target);
+
+    /** Term frequency of the current posting. */
+    int freq();
+
+    /** Upper bound of postings this iterator can return, used to order iterators cheapest first. */
+    long cost();
+}
@@ -0,0 +1,531 @@
+package com.pri1712.searchengine.indexreader.postings;
+
+import com.pri1712.searchengine.utils.VarIntUtils;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sorted set of chunk ids laid out like a roaring bitmap. Ids sharing their high 16 bits go into one container, which
+ * holds their low 16 bits as a sorted array, a 65536-bit bitmap or a list of runs, whichever is smallest. Dense posting
+ * lists are kept this way, so intersecting or merging two of them works on 64 ids per step wherever both sides are
+ * bitmaps.
+ */
+public final class RoaringDocIdSet {
+    //a container with more ids than this is smaller as a bitmap than as an array.
+    public static final int ARRAY_MAX_CARDINALITY = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+    private static final byte ARRAY = 0;
+    private static final byte BITMAP = 1;
+    private static final byte RUN = 2;
+
+    private final char[] keys;
+    private final Container[] containers;
+    //ids in all containers before each one, an iterator adds its rank inside the container to get the posting index.
+    private final int[] rankBase;
+    private final int cardinality;
+
+    private RoaringDocIdSet(char[] keys, Container[] containers) {
+        this.keys = keys;
+        this.containers = containers;
+        this.rankBase = new int[containers.length];
+        int rank = 0;
+        for (int i = 0; i < containers.length; i++) {
+            rankBase[i] = rank;
+            rank += containers[i].cardinality();
+        }
+        this.cardinality = rank;
+    }
+
+    /**
+     * The first count ids, which have to be non-negative and strictly increasing.
+     */
+    public static RoaringDocIdSet of(int[] sortedIds, int count) {
+        Builder builder = new Builder();
+        long[] words = new long[BITMAP_WORDS];
+        int i = 0;
+        while (i < count) {
+            int key = sortedIds[i] >>> 16;
+            Arrays.fill(words, 0);
+            for (; i < count && sortedIds[i] >>> 16 == key; i++) {
+                int low = sortedIds[i] & 0xFFFF;
+                words[low >>> 6] |= 1L << low;
+            }
+            builder.add(key, Container.fromBitmap(words));
+        }
+        return builder.build();
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public int[] toArray() {
+        int[] ids = new int[cardinality];
+        BitmapPostingsIterator iterator = new BitmapPostingsIterator(this, null);
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = iterator.nextDoc();
+        }
+        return ids;
+    }
+
+    /**
+     * Ids in both sets. Bitmap containers are intersected word by word, array containers are filtered by membership.
+     */
+    public RoaringDocIdSet and(RoaringDocIdSet other) {
+        Builder builder = new Builder();
+        int i = 0, j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                builder.add(keys[i], Container.and(containers[i], other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Ids in either set, merged word by word.
+     */
+    public RoaringDocIdSet or(RoaringDocIdSet other) {
+        Builder builder = new Builder();
+        int i = 0, j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                builder.add(keys[i], containers[i++]);
+            } else if (i == keys.length || keys[i] > other.keys[j]) {
+                builder.add(other.keys[j], other.containers[j++]);
+            } else {
+                long[] words = containers[i++].toBitmap();
+                long[] otherWords = other.containers[j].toBitmap();
+                for (int w = 0; w < BITMAP_WORDS; w++) words[w] |= otherWords[w];
+                builder.add(other.keys[j++], Container.fromBitmap(words));
+            }
+        }
+        return builder.build();
+    }
+
+    int containerCount() {
+        return containers.length;
+    }
+
+    int key(int container) {
+        return keys[container];
+    }
+
+    int rankBase(int container) {
+        return rankBase[container];
+    }
+
+    Cursor cursor(int container) {
+        return containers[container].cursor();
+    }
+
+    /**
+     * Index of the first container at or after from whose key is at least key, containerCount() if there is none.
+     */
+    int findContainer(int key, int from) {
+        int index = Arrays.binarySearch(keys, from, keys.length, (char) key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Container count as a vint, then per container its key as a char, its kind as a byte and its content.
+     */
+    public void write(DataOutputStream out) throws IOException {
+        VarIntUtils.writeVInt(out, containers.length);
+        for (int i = 0; i < containers.length; i++) {
+            out.writeChar(keys[i]);
+            out.writeByte(containers[i].kind());
+            containers[i].write(out);
+        }
+    }
+
+    public static RoaringDocIdSet read(ByteBuffer in) {
+        int count = VarIntUtils.readVInt(in);
+        char[] keys = new char[count];
+        Container[] containers = new Container[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = in.getChar();
+            byte kind = in.get();
+            switch (kind) {
+                case ARRAY -> containers[i] = new ArrayContainer(readChars(in, VarIntUtils.readVInt(in)));
+                case BITMAP -> {
+                    int cardinality = VarIntUtils.readVInt(in);
+                    long[] words = new long[BITMAP_WORDS];
+                    in.asLongBuffer().get(words);
+                    in.position(in.position() + BITMAP_WORDS * Long.BYTES);
+                    containers[i] = new BitmapContainer(words, cardinality);
+                }
+                case RUN -> {
+                    int runs = VarIntUtils.readVInt(in);
+                    containers[i] = new RunContainer(readChars(in, runs), readChars(in, runs));
+                }
+                default -> throw new IllegalStateException("Unknown container kind " + kind);
+            }
+        }
+        return new RoaringDocIdSet(keys, containers);
+    }
+
+    private static char[] readChars(ByteBuffer in, int count) {
+        char[] chars = new char[count];
+        in.asCharBuffer().get(chars);
+        in.position(in.position() + count * Character.BYTES);
+        return chars;
+    }
+
+    private static final class Builder {
+        private final List<Character> keys = new ArrayList<>();
+        private final List<Container> containers = new ArrayList<>();
+
+        //empty containers are left out.
+        void add(int key, Container container) {
+            if (container == null) return;
+            keys.add((char) key);
+            containers.add(container);
+        }
+
+        RoaringDocIdSet build() {
+            char[] keyArray = new char[keys.size()];
+            for (int i = 0; i < keyArray.length; i++) keyArray[i] = keys.get(i);
+            return new RoaringDocIdSet(keyArray, containers.toArray(new Container[0]));
+        }
+    }
+
+    /**
+     * Walks the low 16 bits of one container in increasing order. next and advance return -1 once it is exhausted.
+     */
+    abstract static class Cursor {
+        abstract int next();
+
+        /** First value >= target, target is above the current value. */
+        abstract int advance(int target);
+
+        /** Number of values in the container before the current one. */
+        abstract int rank();
+    }
+
+    private abstract static class Container {
+        abstract int cardinality();
+
+        abstract boolean contains(int low);
+
+        abstract long[] toBitmap();
+
+        abstract Cursor cursor();
+
+        abstract byte kind();
+
+        abstract void write(DataOutputStream out) throws IOException;
+
+        /**
+         * The smallest container holding the set bits of words, null when there are none. Array costs 2 bytes per id,
+         * the bitmap 8 KB and runs 4 bytes per run.
+         */
+        static Container fromBitmap(long[] words) {
+            int cardinality = 0;
+            int runs = 0;
+            long carry = 0;
+            for (long word : words) {
+                cardinality += Long.bitCount(word);
+                //a run starts at every set bit whose lower neighbour is clear.
+                runs += Long.bitCount(word & ~((word << 1) | carry));
+                carry = word >>> 63;
+            }
+            if (cardinality == 0) return null;
+            long arrayBytes = 2L * cardinality;
+            long runBytes = 4L * runs;
+            long bitmapBytes = BITMAP_WORDS * Long.BYTES;
+            if (runBytes < arrayBytes && runBytes < bitmapBytes) {
+                char[] starts = new char[runs];
+                char[] lengths = new char[runs];
+                int run = -1;
+                int previous = -2;
+                for (int low : values(words, cardinality)) {
+                    if (low != previous + 1) starts[++run] = (char) low;
+                    lengths[run] = (char) (low - starts[run]);
+                    previous = low;
+                }
+                return new RunContainer(starts, lengths);
+            }
+            if (arrayBytes <= bitmapBytes) {
+                int[] values = values(words, cardinality);
+                char[] lows = new char[cardinality];
+                for (int i = 0; i < cardinality; i++) lows[i] = (char) values[i];
+                return new ArrayContainer(lows);
+            }
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        static Container and(Container a, Container b) {
+            if (b instanceof ArrayContainer) {
+                Container swap = a;
+                a = b;
+                b = swap;
+            }
+            if (a instanceof ArrayContainer) {
+                char[] values = ((ArrayContainer) a).values;
+                char[] kept = new char[values.length];
+                int count = 0;
+                for (char value : values) {
+                    if (b.contains(value)) kept[count++] = value;
+                }
+                return count == 0 ? null : new ArrayContainer(Arrays.copyOf(kept, count));
+            }
+            long[] words = a.toBitmap();
+            long[] otherWords = b.toBitmap();
+            for (int w = 0; w < BITMAP_WORDS; w++) words[w] &= otherWords[w];
+            return fromBitmap(words);
+        }
+
+        private static int[] values(long[] words, int cardinality) {
+            int[] values = new int[cardinality];
+            int count = 0;
+            for (int w = 0; w < words.length; w++) {
+                for (long word = words[w]; word != 0; word &= word - 1) {
+                    values[count++] = (w << 6) | Long.numberOfTrailingZeros(word);
+                }
+            }
+            return values;
+        }
+    }
+
+    private static final class ArrayContainer extends Container {
+        private final char[] values;
+
+        ArrayContainer(char[] values) {
+            this.values = values;
+        }
+
+        @Override
+        int cardinality() {
+            return values.length;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return Arrays.binarySearch(values, (char) low) >= 0;
+        }
+
+        @Override
+        long[] toBitmap() {
+            long[] words = new long[BITMAP_WORDS];
+            for (char value : values) words[value >>> 6] |= 1L << value;
+            return words;
+        }
+
+        @Override
+        byte kind() {
+            return ARRAY;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            VarIntUtils.writeVInt(out, values.length);
+            for (char value : values) out.writeChar(value);
+        }
+
+        @Override
+        Cursor cursor() {
+            return new Cursor() {
+                private int index = -1;
+
+                @Override
+                int next() {
+                    return ++index < values.length ? values[index] : exhausted();
+                }
+
+                @Override
+                int advance(int target) {
+                    if (index >= values.length) return -1;
+                    int found = Arrays.binarySearch(values, index + 1, values.length, (char) target);
+                    index = found >= 0 ? found : -found - 1;
+                    return index < values.length ? values[index] : exhausted();
+                }
+
+                private int exhausted() {
+                    index = values.length;
+                    return -1;
+                }
+
+                @Override
+                int rank() {
+                    return index;
+                }
+            };
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private final int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(int low) {
+            return (words[low >>> 6] & (1L << low)) != 0;
+        }
+
+        @Override
+        long[] toBitmap() {
+            return words.clone();
+        }
+
+        @Override
+        byte kind() {
+            return BITMAP;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            VarIntUtils.writeVInt(out, cardinality);
+            for (long word : words) out.writeLong(word);
+        }
+
+        @Override
+        Cursor cursor() {
+            return new Cursor() {
+                private int wordIndex = 0;
+                //bits of words[wordIndex] not yet returned.
+                private long word = words[0];
+                //set bits in the words before wordIndex.
+                private int rankBefore = 0;
+                private int low = -1;
+
+                @Override
+                int next() {
+                    while (word == 0) {
+                        if (wordIndex + 1 >= BITMAP_WORDS) {
+                            wordIndex = BITMAP_WORDS;
+                            return low = -1;
+                        }
+                        rankBefore += Long.bitCount(words[wordIndex]);
+                        word = words[++wordIndex];
+                    }
+                    low = (wordIndex << 6) | Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                    return low;
+                }
+
+                @Override
+                int advance(int target) {
+                    if (wordIndex >= BITMAP_WORDS) return -1;
+                    int targetWord = target >>> 6;
+                    if (targetWord > wordIndex) {
+                        //whole words skipped only cost a popcount each for the rank.
+                        for (int w = wordIndex; w < targetWord; w++) rankBefore += Long.bitCount(words[w]);
+                        wordIndex = targetWord;
+                        word = words[targetWord];
+                    }
+                    word &= -1L << target;
+                    return next();
+                }
+
+                @Override
+                int rank() {
+                    return rankBefore + Long.bitCount(words[wordIndex] & ((1L << low) - 1));
+                }
+            };
+        }
+    }
+
+    private static final class RunContainer extends Container {
+        private final char[] starts;
+        //each run covers starts[i] to starts[i] + lengths[i].
+        private final char[] lengths;
+
+        RunContainer(char[] starts, char[] lengths) {
+            this.starts = starts;
+            this.lengths = lengths;
+        }
+
+        @Override
+        int cardinality() {
+            int cardinality = 0;
+            for (char length : lengths) cardinality += length + 1;
+            return cardinality;
+        }
+
+        @Override
+        boolean contains(int low) {
+            int run = Arrays.binarySearch(starts, (char) low);
+            if (run >= 0) return true;
+            run = -run - 2;
+            return run >= 0 && low <= starts[run] + lengths[run];
+        }
+
+        @Override
+        long[] toBitmap() {
+            long[] words = new long[BITMAP_WORDS];
+            for (int run = 0; run < starts.length; run++) {
+                for (int low = starts[run]; low <= starts[run] + lengths[run]; low++) {
+                    words[low >>> 6] |= 1L << low;
+                }
+            }
+            return words;
+        }
+
+        @Override
+        byte kind() {
+            return RUN;
+        }
+
+        @Override
+        void write(DataOutputStream out) throws IOException {
+            VarIntUtils.writeVInt(out, starts.length);
+            for (char start : starts) out.writeChar(start);
+            for (char length : lengths) out.writeChar(length);
+        }
+
+        @Override
+        Cursor cursor() {
+            return new Cursor() {
+                private int run = 0;
+                //values in the runs before run.
+                private int rankBefore = 0;
+                private int low = -1;
+
+                @Override
+                int next() {
+                    return advance(low + 1);
+                }
+
+                @Override
+                int advance(int target) {
+                    for (; run < starts.length; run++) {
+                        if (target <= starts[run] + lengths[run]) {
+                            return low = Math.max(target, starts[run]);
+                        }
+                        rankBefore += lengths[run] + 1;
+                    }
+                    //past the last run, next keeps landing here.
+                    low = 1 << 16;
+                    return -1;
+                }
+
+                @Override
+                int rank() {
+                    return rankBefore + low - starts[run];
+                }
+            };
+        }
+    }
+}
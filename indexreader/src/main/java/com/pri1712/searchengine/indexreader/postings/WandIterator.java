@@ -0,0 +1,137 @@
+package com.pri1712.searchengine.indexreader.postings;
+
+import java.util.List;
+
+/**
+ * Weak AND over several posting iterators. Each list has an upper bound on the score it adds to a chunk and
+ * maxFactor[m] bounds what a chunk matching m lists is multiplied by afterwards. With the iterators ordered by their
+ * current chunk id, the pivot is the first one at which the bounds summed so far could reach the competitive score
+ * with at least minShouldMatch lists. Chunks before the pivot's chunk id cannot, so the lists before the pivot are
+ * advanced straight to it. The caller scores every chunk returned and raises the competitive score as its results fill.
+ */
+public class WandIterator implements PostingsIterator {
+    private final PostingsIterator[] iterators;
+    private final double[] upperBounds;
+    private final double[] maxFactor;
+    private final int minShouldMatch;
+    //indexes into iterators ordered by current chunk id, kept sorted with an insertion sort since lists are few.
+    private final int[] order;
+    private double minCompetitiveScore = 0;
+    private int docId = -1;
+    private int matchCount;
+
+    /**
+     * @param upperBounds highest score each iterator can add to a chunk.
+     * @param maxFactor non-decreasing, at least minShouldMatch + 1 long up to iterators.size() + 1, entry m bounds the
+     *                  factor applied to a chunk matching m iterators.
+     */
+    public WandIterator(List<PostingsIterator> iterators, double[] upperBounds, double[] maxFactor, int minShouldMatch) {
+        if (minShouldMatch < 1) {
+            throw new IllegalArgumentException("minShouldMatch must be at least 1, got " + minShouldMatch);
+        }
+        if (upperBounds.length != iterators.size() || maxFactor.length <= iterators.size()) {
+            throw new IllegalArgumentException("Need one upper bound per iterator and a factor per match count");
+        }
+        this.iterators = iterators.toArray(new PostingsIterator[0]);
+        this.upperBounds = upperBounds;
+        this.maxFactor = maxFactor;
+        this.minShouldMatch = minShouldMatch;
+        this.order = new int[this.iterators.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+    }
+
+    /**
+     * Chunks whose bound is below this are skipped from now on. Only ever raised.
+     */
+    public void setMinCompetitiveScore(double minCompetitiveScore) {
+        this.minCompetitiveScore = Math.max(this.minCompetitiveScore, minCompetitiveScore);
+    }
+
+    @Override
+    public int docId() {
+        return docId;
+    }
+
+    @Override
+    public int nextDoc() {
+        if (docId == NO_MORE_DOCS) return docId;
+        return advance(docId + 1);
+    }
+
+    @Override
+    public int advance(int target) {
+        if (docId >= target) return docId;
+        while (true) {
+            for (PostingsIterator iterator : iterators) {
+                if (iterator.docId() < target) iterator.advance(target);
+            }
+            sortByDocId();
+            int pivot = findPivot();
+            if (pivot < 0) {
+                return docId = NO_MORE_DOCS;
+            }
+            int pivotDoc = iterators[order[pivot]].docId();
+            if (iterators[order[0]].docId() != pivotDoc) {
+                //only the lists before the pivot hold chunks below pivotDoc, and together they are not competitive.
+                target = pivotDoc;
+                continue;
+            }
+            int matched = 0;
+            double bound = 0;
+            for (int i = 0; i < order.length && iterators[order[i]].docId() == pivotDoc; i++) {
+                matched++;
+                bound += upperBounds[order[i]];
+            }
+            if (bound * maxFactor[matched] >= minCompetitiveScore) {
+                matchCount = matched;
+                return docId = pivotDoc;
+            }
+            target = pivotDoc + 1;
+        }
+    }
+
+    private int findPivot() {
+        double bound = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (iterators[order[i]].docId() == NO_MORE_DOCS) return -1;
+            bound += upperBounds[order[i]];
+            if (i + 1 >= minShouldMatch && bound * maxFactor[i + 1] >= minCompetitiveScore) return i;
+        }
+        return -1;
+    }
+
+    private void sortByDocId() {
+        for (int i = 1; i < order.length; i++) {
+            int current = order[i];
+            int currentDoc = iterators[current].docId();
+            int j = i - 1;
+            while (j >= 0 && iterators[order[j]].docId() > currentDoc) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = current;
+        }
+    }
+
+    /**
+     * Whether the iterator at this index of the constructor list is on the current chunk.
+     */
+    public boolean matches(int index) {
+        return iterators[index].docId() == docId;
+    }
+
+    /** Number of lists containing the current chunk. */
+    @Override
+    public int freq() {
+        return matchCount;
+    }
+
+    @Override
+    public long cost() {
+        long cost = 0;
+        for (PostingsIterator iterator : iterators) {
+            cost += iterator.cost();
+        }
+        return cost;
+    }
+}
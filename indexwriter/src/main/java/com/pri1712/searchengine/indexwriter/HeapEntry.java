@@ -5,13 +5,14 @@ import java.io.IOException;
 import java.util.Map;
 
 
-public class HeapEntry {
+public class HeapEntry<T> {
     String token;
-    Map<Integer,Integer> docFreq;
+    //chunkId -> freq for postings runs, chunkId -> positions for positional runs.
+    Map<Integer,T> postings;
     BufferedReader reader;
-    public HeapEntry(String token, Map<Integer,Integer> docFreq, BufferedReader reader) throws IOException {
+    public HeapEntry(String token, Map<Integer,T> postings, BufferedReader reader) throws IOException {
         this.token = token;
-        this.docFreq = docFreq;
+        this.postings = postings;
         this.reader = reader;
     }
 }
@@ -5,9 +5,15 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import com.pri1712.searchengine.indexreader.codec.PostingsCodec;
+import com.pri1712.searchengine.indexreader.postings.RoaringDocIdSet;
+import com.pri1712.searchengine.indexwriter.compression.ImpactEncoder;
 import com.pri1712.searchengine.indexwriter.compression.IndexCompression;
 import com.pri1712.searchengine.model.TokenizedChunk;
+import com.pri1712.searchengine.model.params.IndexParams;
 import com.pri1712.searchengine.utils.BatchFileWriter;
+import com.pri1712.searchengine.utils.BuildMetrics;
+import com.pri1712.searchengine.utils.IoThrottle;
 import com.pri1712.searchengine.model.TokenizedData;
 
 import java.io.*;
@@ -22,6 +28,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.*;
 import java.util.logging.Level;
+import java.util.function.BinaryOperator;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
@@ -41,8 +48,16 @@ public class IndexWriter {
     private BatchFileWriter batchFileWriter;
 
     Map<String, Map<Integer,Integer>>  invertedIndex = new TreeMap<>();
+    //token -> chunkId -> positions of the token inside the tokenized chunk, only filled for positional indexes.
+    Map<String, Map<Integer, List<Integer>>> positionIndex = new TreeMap<>();
+
+    private final boolean positional = IndexParams.isPositionalIndex();
 
     IndexCompression compressor = new IndexCompression();
+    //only background merges are throttled, builds write at full speed.
+    private IoThrottle ioThrottle = IoThrottle.unlimited();
+    //writers that are not part of a reported build count into metrics nobody reads.
+    private BuildMetrics buildMetrics = new BuildMetrics();
 
     public IndexWriter(String indexedFilePath) throws IOException {
         //figure out how to do checkpointing here, it cant be as simple as the parser and tokenizer.
@@ -53,6 +68,43 @@ public class IndexWriter {
 
     public IndexWriter() throws IOException {}
 
+    public void setIoThrottle(IoThrottle ioThrottle) {
+        this.ioThrottle = ioThrottle;
+    }
+
+    public void setBuildMetrics(BuildMetrics buildMetrics) {
+        this.buildMetrics = buildMetrics;
+        compressor.setBuildMetrics(buildMetrics);
+    }
+
+    /**
+     * Makes the final delta encoding also write the quantized BM25 impact of every posting.
+     */
+    public void setImpactEncoder(ImpactEncoder impactEncoder) {
+        compressor.setImpactEncoder(impactEncoder);
+    }
+
+    /**
+     * Makes the final delta encoding also write binary block postings with the codec, queries then decode those. Terms
+     * in at least IndexParams' dense share of the segment's chunkCount chunks get bitmap postings instead, if they are
+     * long enough to fill a bitmap container at all.
+     */
+    public void setPostingsCodec(PostingsCodec postingsCodec, long chunkCount) {
+        compressor.setPostingsCodec(postingsCodec);
+        double denseRatio = IndexParams.getDensePostingsRatio();
+        long denseMinPostings = Math.max((long) Math.ceil(denseRatio * chunkCount),
+                RoaringDocIdSet.ARRAY_MAX_CARDINALITY + 1);
+        compressor.setDenseMinPostings(denseRatio > 0 ? denseMinPostings : Long.MAX_VALUE);
+    }
+
+    /**
+     * Document frequencies the dictionary records in place of the posting counts. A pruned segment keeps fewer
+     * postings than chunks containing the term, and its idf has to stay that of the full index.
+     */
+    public void setDocFreqs(Map<String, Integer> docFreqs) {
+        compressor.setDocFreqs(docFreqs);
+    }
+
     public void indexData(String filePath) throws IOException {
         Path tokenizedPath = Paths.get(filePath);
         try (Stream<Path> fileStream = Files.list(tokenizedPath).filter(f -> f.toString().endsWith(".json.gz"))) {
@@ -80,46 +132,77 @@ public class IndexWriter {
     //merge all the created inverted indexes.
     public void mergeAllIndexes(String indexFilePath) throws IOException {
         if (!invertedIndex.isEmpty()) {
-            batchFileWriter.writeChunk(invertedIndex, indexFileCounter);
-            indexFileCounter++;
-            invertedIndex.clear();
+            flushChunkRun();
         }
 
         Path indexedPath = Paths.get(indexFilePath);
         Path tokenIndexOutputPath = indexedPath.resolve(String.format("token_index_offset.json.gz"));
 
-        int indexRound = 0;
         List<Path> indexFiles = Files.list(indexedPath)
                 .filter(p -> {
                     String name = p.getFileName().toString();
-                    return name.endsWith(".json.gz") && !name.startsWith("merged_") && !name.startsWith("token_");
+                    return name.endsWith(".json.gz") && !name.startsWith("merged_") && !name.startsWith("token_")
+                            && !name.startsWith("positions_");
+                }).sorted().toList();
+        List<Path> positionFiles = Files.list(indexedPath)
+                .filter(p -> {
+                    String name = p.getFileName().toString();
+                    return name.startsWith("positions_") && name.endsWith(".json.gz");
                 }).sorted().toList();
         //create a list of all the index files.
-        while (indexFiles.size() > 1) {
-            //till we have only one index file (final inverted index)
-            LOGGER.log(Level.FINE,"index files size: {0}", indexFiles.size());
-            List<Path> nextRoundIndexes = new ArrayList<>();
-            for (int i =0; i<indexFiles.size(); i+=MAX_FILE_STREAM) {
-                List<Path> batch = indexFiles.subList(i, Math.min(i+MAX_FILE_STREAM, indexFiles.size()));
-                Path outputPath = indexedPath.resolve(String.format("merged_index%d_%03d.json.gz", indexRound, i / MAX_FILE_STREAM));
-                LOGGER.fine("Starting to merge indexed files; round " + indexRound);
-                mergeBatch(batch, outputPath);
-                nextRoundIndexes.add(outputPath);
-                for (Path p : batch) Files.deleteIfExists(p);
-            }
-            indexFiles = nextRoundIndexes;
-            indexRound++;
-        }
+        indexFiles = mergeRuns(indexFiles, indexedPath, "index",
+                new TypeReference<Map<String, Map<Integer, Integer>>>() {}, Integer::sum);
+        //positional runs were flushed together with the postings runs, so both merges see the same tokens in the same order.
+        positionFiles = mergeRuns(positionFiles, indexedPath, "positions",
+                new TypeReference<Map<String, Map<Integer, List<Integer>>>>() {}, IndexWriter::concatPositions);
         LOGGER.info("Indexed all data.");
         //delta encoding on final inverted index.
-        compressor.deltaEncode(indexFiles.get(0),tokenIndexOutputPath);
+        Path positionFile = positionFiles.isEmpty() ? null : positionFiles.get(0);
+        compressor.deltaEncode(indexFiles.get(0), positionFile, tokenIndexOutputPath);
         try {
             deleteOriginalIndex(indexFilePath);
+            if (positionFile != null) {
+                Files.deleteIfExists(positionFile);
+            }
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Failed to delete original index due to IO exception", e);
         }
     }
 
+    private <T> List<Path> mergeRuns(List<Path> runFiles, Path indexedPath, String runName,
+                                     TypeReference<Map<String, Map<Integer, T>>> type,
+                                     BinaryOperator<T> combine) throws IOException {
+        int indexRound = 0;
+        while (runFiles.size() > 1) {
+            //till we have only one index file (final inverted index)
+            LOGGER.log(Level.FINE,"index files size: {0}", runFiles.size());
+            long roundStart = System.nanoTime();
+            List<Path> nextRoundIndexes = new ArrayList<>();
+            for (int i =0; i<runFiles.size(); i+=MAX_FILE_STREAM) {
+                List<Path> batch = runFiles.subList(i, Math.min(i+MAX_FILE_STREAM, runFiles.size()));
+                Path outputPath = indexedPath.resolve(String.format("merged_%s%d_%03d.json.gz", runName, indexRound, i / MAX_FILE_STREAM));
+                LOGGER.fine("Starting to merge " + runName + " files; round " + indexRound);
+                mergeBatch(batch, outputPath, type, combine);
+                nextRoundIndexes.add(outputPath);
+                for (Path p : batch) Files.deleteIfExists(p);
+            }
+            long roundBytes = 0;
+            for (Path p : nextRoundIndexes) roundBytes += Files.size(p);
+            buildMetrics.addMergeRound(runName, indexRound, runFiles.size(), roundBytes, System.nanoTime() - roundStart);
+            runFiles = nextRoundIndexes;
+            indexRound++;
+        }
+        return runFiles;
+    }
+
+    private static List<Integer> concatPositions(List<Integer> first, List<Integer> second) {
+        //a chunk is flushed in exactly one run, this only happens if the same chunk id was indexed twice.
+        List<Integer> merged = new ArrayList<>(first);
+        merged.addAll(second);
+        Collections.sort(merged);
+        return merged;
+    }
+
     private void deleteOriginalIndex(String indexPath) throws IOException {
         try (DirectoryStream<Path> stream =
                      Files.newDirectoryStream(Paths.get(indexPath), "*.json.gz")) {
@@ -135,7 +218,9 @@ public class IndexWriter {
             }
         }
     }
-    private void mergeBatch(List<Path> batch, Path outputIndexPath) throws IOException {
+    private <T> void mergeBatch(List<Path> batch, Path outputIndexPath,
+                                TypeReference<Map<String, Map<Integer, T>>> type,
+                                BinaryOperator<T> combine) throws IOException {
         //actual file merging logic.
         long byteOffset = 0;
         FileOutputStream fos = new FileOutputStream(outputIndexPath.toFile());
@@ -143,8 +228,8 @@ public class IndexWriter {
         BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(gos, StandardCharsets.UTF_8));
         //null countingoutputstream
 
-        PriorityQueue<HeapEntry> heap = new PriorityQueue<>(Comparator.comparing(heapEntry -> heapEntry.token));
-        List<HeapEntry> entries = new ArrayList<>();
+        PriorityQueue<HeapEntry<T>> heap = new PriorityQueue<>(Comparator.comparing(heapEntry -> heapEntry.token));
+        List<HeapEntry<T>> entries = new ArrayList<>();
         LOGGER.fine("Batch size is " + batch.size());
         //basically read the first element of all the files part of batch.
         for (Path p : batch) {
@@ -157,10 +242,10 @@ public class IndexWriter {
 //                LOGGER.log(Level.INFO, "Processing line " + line + " from file " + p);
                 if (line != null) {
                     //create heapentry obj.
-                    Map <String,Map<Integer,Integer>> keyValueIndex = mapper.readValue(line, new TypeReference<>() {});
+                    Map <String,Map<Integer,T>> keyValueIndex = mapper.readValue(line, type);
                     String token = keyValueIndex.keySet().iterator().next();
-                    Map<Integer,Integer> docFreqMap = keyValueIndex.get(token);
-                    HeapEntry heapEntry = new HeapEntry(token, docFreqMap, br);
+                    Map<Integer,T> docFreqMap = keyValueIndex.get(token);
+                    HeapEntry<T> heapEntry = new HeapEntry<>(token, docFreqMap, br);
 //                    LOGGER.info("adding token:" + heapEntry.token + " to entries array");
                     entries.add(heapEntry);
                 }
@@ -171,33 +256,36 @@ public class IndexWriter {
         heap.addAll(entries);
 
         while (!heap.isEmpty()) {
-            HeapEntry heapEntry = heap.poll();
+            HeapEntry<T> heapEntry = heap.poll();
             //now find all the ones with the same token.
             String token = heapEntry.token;
-            Map<Integer,Integer> docFreqMap = new HashMap<>(heapEntry.docFreq);
+            Map<Integer,T> docFreqMap = new HashMap<>(heapEntry.postings);
             while (!heap.isEmpty() && heap.peek().token.equals(token)) {
               //finding all the entries with the same token.
-                HeapEntry matchingEntry = heap.poll();
-                matchingEntry.docFreq.forEach((doc, freq) -> docFreqMap.merge(doc, freq, Integer::sum));
-                nextLine(matchingEntry,heap,mapper);
+                HeapEntry<T> matchingEntry = heap.poll();
+                matchingEntry.postings.forEach((doc, freq) -> docFreqMap.merge(doc, freq, combine));
+                nextLine(matchingEntry,heap,mapper,type);
             }
             //sorting doc ID by key for delta encoding.
-            List<Map.Entry<Integer, Integer>> sortedEntries = new ArrayList<>(docFreqMap.entrySet());
+            List<Map.Entry<Integer, T>> sortedEntries = new ArrayList<>(docFreqMap.entrySet());
             sortedEntries.sort(Map.Entry.comparingByKey());
 
-            Map<Integer, Integer> sortedDocFreqMap = new LinkedHashMap<>();
+            Map<Integer, T> sortedDocFreqMap = new LinkedHashMap<>();
             for (var e : sortedEntries) {
               sortedDocFreqMap.put(e.getKey(), e.getValue());
             }
-            mapper.writeValue(bw, Map.of(token,sortedDocFreqMap));
+            String mergedLine = mapper.writeValueAsString(Map.of(token,sortedDocFreqMap));
+            bw.write(mergedLine);
             bw.newLine();
-            nextLine(heapEntry,heap,mapper);
+            ioThrottle.acquire(mergedLine.length() + 1L);
+            nextLine(heapEntry,heap,mapper,type);
         }
         bw.flush();
         gos.finish();
     }
 
-    private void nextLine(HeapEntry heapEntry, PriorityQueue<HeapEntry> heap, ObjectMapper mapper) throws IOException {
+    private <T> void nextLine(HeapEntry<T> heapEntry, PriorityQueue<HeapEntry<T>> heap, ObjectMapper mapper,
+                              TypeReference<Map<String, Map<Integer, T>>> type) throws IOException {
         try {
             String nextLine = heapEntry.reader.readLine();
             if (nextLine == null) {
@@ -207,10 +295,10 @@ public class IndexWriter {
 //                LOGGER.info("temp counter: " + temp_counter);
                 return;
             }
-            Map<String,Map<Integer,Integer>> keyValueIndex = mapper.readValue(nextLine, new TypeReference<>() {});
+            Map<String,Map<Integer,T>> keyValueIndex = mapper.readValue(nextLine, type);
             String token = keyValueIndex.keySet().iterator().next();
-            Map<Integer,Integer> docFreqMap = keyValueIndex.get(token);
-            HeapEntry nextHeapEntry = new HeapEntry(token, docFreqMap, heapEntry.reader);
+            Map<Integer,T> docFreqMap = keyValueIndex.get(token);
+            HeapEntry<T> nextHeapEntry = new HeapEntry<>(token, docFreqMap, heapEntry.reader);
             heap.add(nextHeapEntry);
         } catch (IOException e) {
             e.printStackTrace();
@@ -251,9 +339,7 @@ public class IndexWriter {
             addChunk(tokenizedChunk);
             if (shouldFlush()) {
                 LOGGER.fine("Flushing to disk");
-                batchFileWriter.writeChunk(invertedIndex,indexFileCounter);
-                invertedIndex.clear();
-                indexFileCounter++;
+                flushChunkRun();
             }
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE,"Failed to add tokenized chunk to disk",e);
@@ -281,11 +367,32 @@ public class IndexWriter {
         List<String> chunkText = tokenizedChunk.getTokenizedText();
         String chunkId = tokenizedChunk.getChunkId();
         //in chunks the title and text is all treated as a chunk itself, there is no distinction while tokenizing it.
-        for (String token : chunkText) {
+        int id = Integer.parseInt(chunkId);
+        for (int position = 0; position < chunkText.size(); position++) {
+            String token = chunkText.get(position);
             invertedIndex
                     .computeIfAbsent(token, k -> new HashMap<>())
-                    .merge(Integer.parseInt(chunkId), 1, Integer::sum);
+                    .merge(id, 1, Integer::sum);
+            if (positional) {
+                //positions are ordinals in the tokenized chunk, so stopwords removed by the tokenizer do not leave gaps.
+                positionIndex
+                        .computeIfAbsent(token, k -> new HashMap<>())
+                        .computeIfAbsent(id, k -> new ArrayList<>())
+                        .add(position);
+            }
+        }
+    }
+
+    private void flushChunkRun() throws IOException {
+        long start = System.nanoTime();
+        long bytes = batchFileWriter.writeChunk(invertedIndex,indexFileCounter);
+        if (positional) {
+            bytes += batchFileWriter.writePositions(positionIndex, indexFileCounter);
+            positionIndex.clear();
         }
+        invertedIndex.clear();
+        indexFileCounter++;
+        buildMetrics.addFlush(bytes, System.nanoTime() - start);
     }
 
     private boolean shouldFlush() {
@@ -0,0 +1,62 @@
+package com.pri1712.searchengine.indexwriter.compression;
+
+import com.pri1712.searchengine.indexreader.impacts.ImpactHeader;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Quantizes the postings of one segment into impacts. The chunk lengths come from the segment's chunk index, which is
+ * complete before its postings are delta encoded, both in a build and in a merge.
+ */
+public class ImpactEncoder {
+    private static final int RECORD_SIZE = 24;
+
+    private final ImpactHeader header;
+    private final int baseChunkId;
+    private final int[] chunkLengths;
+
+    private ImpactEncoder(ImpactHeader header, int baseChunkId, int[] chunkLengths) {
+        this.header = header;
+        this.baseChunkId = baseChunkId;
+        this.chunkLengths = chunkLengths;
+    }
+
+    /**
+     * Reads the token count of every chunk in the chunk index, records start at baseChunkId and have no holes.
+     */
+    public static ImpactEncoder fromChunkIndex(Path chunkIndexFile, int baseChunkId, ImpactHeader header) throws IOException {
+        int chunkCount = (int) (Files.size(chunkIndexFile) / RECORD_SIZE);
+        int[] chunkLengths = new int[chunkCount];
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(chunkIndexFile.toFile())))) {
+            for (int i = 0; i < chunkCount; i++) {
+                int chunkId = in.readInt();
+                if (chunkId != baseChunkId + i) {
+                    throw new IllegalStateException("Chunk index " + chunkIndexFile + " has chunk id " + chunkId
+                            + " where " + (baseChunkId + i) + " was expected");
+                }
+                in.readLong(); //data offset
+                in.readInt(); //data length
+                in.readInt(); //doc id
+                chunkLengths[i] = in.readInt(); //token count
+            }
+        }
+        return new ImpactEncoder(header, baseChunkId, chunkLengths);
+    }
+
+    public int impact(int chunkId, int tf) {
+        return header.quantize(tf, chunkLengths[chunkId - baseChunkId]);
+    }
+
+    /**
+     * The exact term-frequency component of BM25 before quantization.
+     */
+    public double termScore(int chunkId, int tf) {
+        return header.termScore(tf, chunkLengths[chunkId - baseChunkId]);
+    }
+
+    public ImpactHeader getHeader() {
+        return header;
+    }
+}
@@ -6,7 +6,11 @@ import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.pri1712.searchengine.indexreader.TokenOffsetData;
+import com.pri1712.searchengine.indexreader.codec.PostingsCodec;
+import com.pri1712.searchengine.indexreader.impacts.ImpactHeader;
+import com.pri1712.searchengine.utils.BuildMetrics;
 import com.pri1712.searchengine.utils.CountingOutputStream;
+import com.pri1712.searchengine.utils.VarIntUtils;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
@@ -27,27 +31,112 @@ public class IndexCompression {
             .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, true);
     CountingOutputStream counter = new CountingOutputStream();
     JsonGenerator gen = mapper.getFactory().createGenerator(counter, JsonEncoding.UTF8);
+    private BuildMetrics buildMetrics = new BuildMetrics();
+    //null unless the index is built with impacts.
+    private ImpactEncoder impactEncoder;
+    //document frequencies to record instead of the posting counts, null records the counts.
+    private Map<String, Integer> docFreqs;
+    //null unless the index also gets binary block postings for queries to decode.
+    private PostingsCodec postingsCodec;
+    //block postings with at least this many chunks are written as bitmaps.
+    private long denseMinPostings = Long.MAX_VALUE;
+
+    public void setBuildMetrics(BuildMetrics buildMetrics) {
+        this.buildMetrics = buildMetrics;
+    }
+
+    public void setImpactEncoder(ImpactEncoder impactEncoder) {
+        this.impactEncoder = impactEncoder;
+    }
+
+    public void setDocFreqs(Map<String, Integer> docFreqs) {
+        this.docFreqs = docFreqs;
+    }
+
+    public void setPostingsCodec(PostingsCodec postingsCodec) {
+        this.postingsCodec = postingsCodec;
+    }
+
+    public void setDenseMinPostings(long denseMinPostings) {
+        this.denseMinPostings = denseMinPostings;
+    }
 
     public void deltaEncode(Path inputFilePath, Path tokenIndexOffsetPath) {
+        deltaEncode(inputFilePath, null, tokenIndexOffsetPath);
+    }
+
+    /**
+     * Delta encodes the final merged index. When a merged positions file is given, the positions of every posting are
+     * written to a separate .pos stream next to the postings, so queries that never look at positions don't pay for them.
+     * With an impact encoder set, every posting's quantized BM25 impact goes to a .imp stream in the same order, and
+     * the postings are written again to a .iop stream grouped by impact, highest first, for score-at-a-time queries.
+     * With a postings codec set, every token's postings are also written to a .blk stream in that binary encoding,
+     * which is what queries decode, or as bitmaps for terms with at least denseMinPostings chunks. The JSON lines stay
+     * the source for merges and pruning.
+     */
+    public void deltaEncode(Path inputFilePath, Path positionsFilePath, Path tokenIndexOffsetPath) {
         Path outputFilePath = Paths.get(inputFilePath.getParent().toString(),
                 inputFilePath.getFileName().toString().replace(".json.gz", "_delta_encoded.json")
         );
+        Path positionsOutputPath = Paths.get(inputFilePath.getParent().toString(),
+                inputFilePath.getFileName().toString().replace(".json.gz", "_delta_encoded.pos")
+        );
+        Path impactsOutputPath = Paths.get(inputFilePath.getParent().toString(),
+                inputFilePath.getFileName().toString().replace(".json.gz", "_delta_encoded.imp")
+        );
+        long start = System.nanoTime();
         long byteOffset = 0;
-        Map<String,Long> tokenOffsets = new LinkedHashMap<>();
+        long positionOffset = 0;
+        Path impactOrderOutputPath = Paths.get(inputFilePath.getParent().toString(),
+                inputFilePath.getFileName().toString().replace(".json.gz", "_delta_encoded.iop")
+        );
+        long impactOffset = ImpactHeader.BYTES;
+        long impactOrderOffset = 0;
+        Path blockOutputPath = Paths.get(inputFilePath.getParent().toString(),
+                inputFilePath.getFileName().toString().replace(".json.gz", "_delta_encoded.blk")
+        );
+        long blockOffset = PostingsCodec.HEADER_BYTES;
+        int denseLists = 0;
+        Map<String,TokenOffsetData> tokenOffsets = new LinkedHashMap<>();
 
-        try (FileInputStream fis = new FileInputStream(inputFilePath.toFile())) {
-            GZIPInputStream gis = new GZIPInputStream(fis);
-            BufferedReader br = new BufferedReader(new InputStreamReader(gis,StandardCharsets.UTF_8));
-            FileOutputStream fos = new FileOutputStream(outputFilePath.toFile());
-            BufferedOutputStream bos = new BufferedOutputStream(fos);
+        try (FileInputStream fis = new FileInputStream(inputFilePath.toFile());
+             GZIPInputStream gis = new GZIPInputStream(fis);
+             BufferedReader br = new BufferedReader(new InputStreamReader(gis,StandardCharsets.UTF_8));
+             BufferedReader positionsReader = positionsFilePath == null ? null : new BufferedReader(new InputStreamReader(
+                     new GZIPInputStream(new FileInputStream(positionsFilePath.toFile())), StandardCharsets.UTF_8));
+             FileOutputStream fos = new FileOutputStream(outputFilePath.toFile());
+             BufferedOutputStream bos = new BufferedOutputStream(fos);
+             BufferedOutputStream posStream = positionsFilePath == null ? null :
+                     new BufferedOutputStream(new FileOutputStream(positionsOutputPath.toFile()));
+             DataOutputStream impactStream = impactEncoder == null ? null : new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(impactsOutputPath.toFile())));
+             BufferedOutputStream impactOrderStream = impactEncoder == null ? null :
+                     new BufferedOutputStream(new FileOutputStream(impactOrderOutputPath.toFile()));
+             DataOutputStream blockStream = postingsCodec == null ? null : new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(blockOutputPath.toFile())))) {
+            if (impactStream != null) {
+                impactEncoder.getHeader().write(impactStream);
+            }
+            if (blockStream != null) {
+                postingsCodec.writeHeader(blockStream);
+            }
             String line;
             while ((line = br.readLine()) != null){
                 Map<String, Map<Integer,Integer>> index = mapper.readValue(line, new TypeReference<>() {});
+                Map<String, Map<Integer, List<Integer>>> positions = null;
+                if (positionsReader != null) {
+                    String positionsLine = positionsReader.readLine();
+                    if (positionsLine == null) {
+                        throw new IllegalStateException("Positions file ended before the postings file " + inputFilePath);
+                    }
+                    positions = mapper.readValue(positionsLine, new TypeReference<>() {});
+                }
 
                 for (var e : index.entrySet()) {
                     String token = e.getKey();
                     Map<Integer,Integer> docFreqMap = e.getValue();
-                    List<Integer> docIDs = new ArrayList<>(docFreqMap.keySet());
+                    //runs written from a single flush are not sorted by chunk id, merged ones are.
+                    List<Integer> docIDs = new ArrayList<>(new TreeSet<>(docFreqMap.keySet()));
                     if (docIDs.isEmpty()) continue;
                     List<Integer> flatDeltaList = new ArrayList<>(docIDs.size() * 2);
 
@@ -67,30 +156,155 @@ public class IndexCompression {
                         prevDocID = currentDocID;
                     }
                     byte[] jsonBytes = mapper.writeValueAsBytes(Map.of(token, flatDeltaList));
-                    tokenOffsets.put(token, byteOffset);
+                    TokenOffsetData tokenOffsetData = new TokenOffsetData(token, byteOffset);
+                    tokenOffsetData.setDocFreq(docFreqs == null ? docIDs.size()
+                            : Math.max(docIDs.size(), docFreqs.getOrDefault(token, docIDs.size())));
+                    if (posStream != null) {
+                        Map<Integer, List<Integer>> tokenPositions = positions.get(token);
+                        if (tokenPositions == null) {
+                            throw new IllegalStateException("Positions out of sync with postings at token " + token);
+                        }
+                        tokenOffsetData.setPositionOffset(positionOffset);
+                        positionOffset += writePositions(posStream, docIDs, tokenPositions);
+                    }
+                    if (impactStream != null) {
+                        tokenOffsetData.setImpactOffset(impactOffset);
+                        int[] impacts = impactsOf(docIDs, docFreqMap);
+                        tokenOffsetData.setImpactOrderOffset(impactOrderOffset);
+                        impactOffset += writeImpacts(impactStream, impacts);
+                        impactOrderOffset += writeImpactOrder(impactOrderStream, docIDs, impacts);
+                    }
+                    if (blockStream != null) {
+                        boolean dense = docIDs.size() >= denseMinPostings;
+                        if (dense) denseLists++;
+                        tokenOffsetData.setBlockOffset(blockOffset);
+                        blockOffset += writeBlock(blockStream, docIDs, docFreqMap, dense);
+                    }
+                    tokenOffsets.put(token, tokenOffsetData);
                     bos.write(jsonBytes);
                     bos.write('\n');
                     byteOffset += jsonBytes.length + 1L;
                 }
             }
-            FileOutputStream offsetOutputStream = new FileOutputStream(tokenIndexOffsetPath.toFile());
-            GZIPOutputStream gos2 = new GZIPOutputStream(offsetOutputStream);
-            OutputStreamWriter osw = new OutputStreamWriter(gos2, StandardCharsets.UTF_8);
-            for (Map.Entry<String,Long> entry : tokenOffsets.entrySet()) {
-                TokenOffsetData tokenOffsetData = new TokenOffsetData(entry.getKey(), entry.getValue());
-                mapper.writeValue(osw, tokenOffsetData);
-                osw.write("\n");;
+            bos.flush();
+            if (posStream != null) {
+                posStream.flush();
+            }
+            if (impactStream != null) {
+                impactStream.flush();
+                impactOrderStream.flush();
+            }
+            if (blockStream != null) {
+                blockStream.flush();
+                LOGGER.info(String.format("Postings of %s: %d bytes as JSON, %d bytes as %s with %d bitmap lists",
+                        inputFilePath.getFileName(), byteOffset, blockOffset, postingsCodec, denseLists));
+            }
+            try (FileOutputStream offsetOutputStream = new FileOutputStream(tokenIndexOffsetPath.toFile());
+                 GZIPOutputStream gos2 = new GZIPOutputStream(offsetOutputStream);
+                 OutputStreamWriter osw = new OutputStreamWriter(gos2, StandardCharsets.UTF_8)) {
+                for (TokenOffsetData tokenOffsetData : tokenOffsets.values()) {
+                    mapper.writeValue(osw, tokenOffsetData);
+                    osw.write("\n");
+                }
+                osw.flush();
+                gos2.finish();
             }
             LOGGER.fine("Wrote token offsets to " + tokenIndexOffsetPath);
-            osw.flush();
-            osw.close();
-            gos2.finish();
-            gos2.close();
+            long impactBytes = impactStream == null ? 0 : impactOffset + impactOrderOffset;
+            long blockBytes = blockStream == null ? 0 : blockOffset;
+            buildMetrics.addCompression(byteOffset + positionOffset + impactBytes + blockBytes,
+                    System.nanoTime() - start);
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Could not open input file " + inputFilePath.toString(), e);
         }
     }
 
+    /**
+     * Writes one token's position block: for every posting, in chunk id order, the number of positions followed by
+     * the delta encoded positions, all as vints. Returns the number of bytes written.
+     */
+    private long writePositions(OutputStream posStream, List<Integer> sortedChunkIds,
+                                Map<Integer, List<Integer>> tokenPositions) throws IOException {
+        long written = 0;
+        for (int chunkId : sortedChunkIds) {
+            List<Integer> chunkPositions = tokenPositions.getOrDefault(chunkId, List.of());
+            written += VarIntUtils.writeVInt(posStream, chunkPositions.size());
+            int previous = 0;
+            for (int position : chunkPositions) {
+                written += VarIntUtils.writeVInt(posStream, position - previous);
+                previous = position;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Writes one token's block postings, the encoded length as an int and then the encoding, bitmaps when dense.
+     * Returns the number of bytes written.
+     */
+    private long writeBlock(DataOutputStream blockStream, List<Integer> sortedChunkIds,
+                            Map<Integer, Integer> docFreqMap, boolean dense) throws IOException {
+        int[] chunkIds = new int[sortedChunkIds.size()];
+        int[] freqs = new int[chunkIds.length];
+        for (int i = 0; i < chunkIds.length; i++) {
+            chunkIds[i] = sortedChunkIds.get(i);
+            freqs[i] = docFreqMap.get(chunkIds[i]);
+        }
+        byte[] block = postingsCodec.encode(chunkIds, freqs, chunkIds.length, dense);
+        blockStream.writeInt(block.length);
+        blockStream.write(block);
+        return Integer.BYTES + (long) block.length;
+    }
+
+    private int[] impactsOf(List<Integer> sortedChunkIds, Map<Integer, Integer> docFreqMap) {
+        int[] impacts = new int[sortedChunkIds.size()];
+        for (int i = 0; i < impacts.length; i++) {
+            int chunkId = sortedChunkIds.get(i);
+            impacts[i] = impactEncoder.impact(chunkId, docFreqMap.get(chunkId));
+        }
+        return impacts;
+    }
+
+    /**
+     * Writes one token's impacts, one or two bytes per posting in chunk id order. Returns the number of bytes written.
+     */
+    private long writeImpacts(DataOutputStream impactStream, int[] impacts) throws IOException {
+        boolean wide = impactEncoder.getHeader().bytesPerImpact() == 2;
+        for (int impact : impacts) {
+            if (wide) {
+                impactStream.writeShort(impact);
+            } else {
+                impactStream.writeByte(impact);
+            }
+        }
+        return (long) impacts.length * impactEncoder.getHeader().bytesPerImpact();
+    }
+
+    /**
+     * Writes one token's impact-ordered block: the number of impact segments, then for every distinct impact from the
+     * highest down the impact, the posting count and the delta encoded chunk ids, all as vints. Returns the number of
+     * bytes written.
+     */
+    private long writeImpactOrder(OutputStream impactOrderStream, List<Integer> sortedChunkIds, int[] impacts)
+            throws IOException {
+        TreeMap<Integer, List<Integer>> segments = new TreeMap<>(Comparator.reverseOrder());
+        for (int i = 0; i < impacts.length; i++) {
+            //chunk ids are added in increasing order, so every segment comes out sorted.
+            segments.computeIfAbsent(impacts[i], impact -> new ArrayList<>()).add(sortedChunkIds.get(i));
+        }
+        long written = VarIntUtils.writeVInt(impactOrderStream, segments.size());
+        for (var segment : segments.entrySet()) {
+            written += VarIntUtils.writeVInt(impactOrderStream, segment.getKey());
+            written += VarIntUtils.writeVInt(impactOrderStream, segment.getValue().size());
+            int previous = 0;
+            for (int chunkId : segment.getValue()) {
+                written += VarIntUtils.writeVInt(impactOrderStream, chunkId - previous);
+                previous = chunkId;
+            }
+        }
+        return written;
+    }
+
     public void deltaEncode(Path inputFilePath) {
         Path outputFilePath = Paths.get(inputFilePath.getParent().toString(),
                 inputFilePath.getFileName().toString().replace(".json.gz", "_delta_encoded.json")
@@ -0,0 +1,120 @@
+package com.pri1712.searchengine.indexwriter.merge;
+
+import com.pri1712.searchengine.model.SegmentInfo;
+import com.pri1712.searchengine.model.SegmentManifest;
+import com.pri1712.searchengine.utils.ManifestLock;
+import com.pri1712.searchengine.utils.SegmentFiles;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/**
+ * Periodically asks the merge policy for work on the live index version and runs it on a single background thread.
+ * A merged segment becomes visible through a new manifest generation. The segments it replaced are handed to the
+ * obsolete-segment callback, which is expected to delete them once no reader has them open.
+ */
+public class BackgroundMerger {
+    private static final Logger LOGGER = Logger.getLogger(BackgroundMerger.class.getName());
+
+    private final Path indexRoot;
+    private final TieredMergePolicy mergePolicy;
+    private final SegmentMerger segmentMerger;
+    private final Consumer<List<Path>> onObsoleteSegments;
+    private final ScheduledExecutorService scheduler;
+
+    public BackgroundMerger(Path indexRoot, TieredMergePolicy mergePolicy, SegmentMerger segmentMerger,
+                            Consumer<List<Path>> onObsoleteSegments) {
+        this.indexRoot = indexRoot;
+        this.mergePolicy = mergePolicy;
+        this.segmentMerger = segmentMerger;
+        this.onObsoleteSegments = onObsoleteSegments;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-merger");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    public void start(long intervalMillis) {
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                while (maybeMerge()) {
+                    //keep going while the policy finds work, a merge can complete a tier one level up.
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Background merge failed, retrying next round", e);
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        LOGGER.info("Background merger started, checking every " + intervalMillis + " ms");
+    }
+
+    /**
+     * Runs at most one merge on the live version.
+     * @return true if a merged segment was published.
+     */
+    public boolean maybeMerge() throws IOException {
+        Path indexDir = SegmentFiles.resolveIndexDir(indexRoot);
+        List<SegmentInfo> sources = mergePolicy.findMerge(SegmentFiles.readManifest(indexDir).getSegments());
+        if (sources.isEmpty()) return false;
+        //the segment id is reserved up front so a concurrent writer cannot pick the same name.
+        String targetName = SegmentFiles.reserveSegmentName(indexDir);
+
+        LOGGER.info("Merging " + sources.stream().map(SegmentInfo::getName).toList() + " into " + targetName);
+        SegmentInfo merged = segmentMerger.merge(indexDir, sources, targetName);
+
+        try (ManifestLock lock = SegmentFiles.lockManifest(indexDir)) {
+            SegmentManifest manifest = lock.readManifest();
+            Set<String> sourceNames = sources.stream().map(SegmentInfo::getName).collect(Collectors.toSet());
+            List<SegmentInfo> segments = new ArrayList<>();
+            boolean placed = false;
+            int replaced = 0;
+            for (SegmentInfo segment : manifest.getSegments()) {
+                if (sourceNames.contains(segment.getName())) {
+                    replaced++;
+                    if (!placed) {
+                        segments.add(merged);
+                        placed = true;
+                    }
+                } else {
+                    segments.add(segment);
+                }
+            }
+            if (replaced != sources.size()) {
+                //the manifest changed under the merge, e.g. a rebuild, the merged segment is no longer valid.
+                LOGGER.warning("Segments of merge " + targetName + " are no longer live, discarding it");
+                SegmentFiles.deleteRecursively(SegmentFiles.segmentDir(indexDir, targetName));
+                return false;
+            }
+            manifest.setSegments(segments);
+            manifest.setGeneration(manifest.getGeneration() + 1);
+            lock.writeManifest(manifest);
+        }
+
+        List<Path> obsolete = new ArrayList<>();
+        for (SegmentInfo source : sources) {
+            obsolete.add(SegmentFiles.segmentDir(indexDir, source.getName()));
+        }
+        onObsoleteSegments.accept(obsolete);
+        return true;
+    }
+
+    public void close() {
+        scheduler.shutdownNow();
+        try {
+            scheduler.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,330 @@
+package com.pri1712.searchengine.indexwriter.merge;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.pri1712.searchengine.indexreader.IndexReader;
+import com.pri1712.searchengine.indexreader.chunks.BlockCache;
+import com.pri1712.searchengine.indexreader.chunks.ChunkBlockReader;
+import com.pri1712.searchengine.indexreader.chunks.ChunkBlockWriter;
+import com.pri1712.searchengine.indexreader.codec.PostingsCodec;
+import com.pri1712.searchengine.indexreader.decompression.PostingsStream;
+import com.pri1712.searchengine.indexreader.impacts.ImpactHeader;
+import com.pri1712.searchengine.indexwriter.IndexWriter;
+import com.pri1712.searchengine.indexwriter.compression.ImpactEncoder;
+import com.pri1712.searchengine.model.BM25Stats;
+import com.pri1712.searchengine.model.SegmentInfo;
+import com.pri1712.searchengine.utils.BatchFileWriter;
+import com.pri1712.searchengine.utils.IoThrottle;
+import com.pri1712.searchengine.utils.SegmentFiles;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Combines adjacent segments into one. Every source segment's postings and positions are streamed back out as sorted
+ * runs, the runs go through the same k-way merge and delta encoding as a build, and the chunk stores are concatenated
+ * with their data offsets shifted. Chunk ids do not change.
+ */
+public class SegmentMerger {
+    private static final Logger LOGGER = Logger.getLogger(SegmentMerger.class.getName());
+    //tokens per exported run, same flush size as the IndexWriter uses while building.
+    private static final int RUN_TOKENS = 1000;
+    private static final int RECORD_SIZE = 24;
+
+    private final IoThrottle ioThrottle;
+    ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public SegmentMerger(IoThrottle ioThrottle) {
+        this.ioThrottle = ioThrottle;
+    }
+
+    /**
+     * Writes the merged segment targetName under indexDir. The sources are left untouched, the caller publishes the
+     * result and removes them once no reader needs them. A failed merge removes its partial output.
+     */
+    public SegmentInfo merge(Path indexDir, List<SegmentInfo> sources, String targetName) throws IOException {
+        checkAdjacent(sources);
+        Path targetDir = SegmentFiles.segmentDir(indexDir, targetName);
+        if (Files.exists(targetDir)) {
+            throw new IllegalStateException("Merge target " + targetDir + " already exists");
+        }
+        Files.createDirectories(targetDir);
+        long start = System.nanoTime();
+        try {
+            long chunkCount = 0, totalTokens = 0, documentCount = 0;
+            for (SegmentInfo source : sources) {
+                chunkCount += source.getChunkCount();
+                totalTokens += source.getTotalTokens();
+                documentCount += source.getDocumentCount();
+            }
+            long averageChunkSize = chunkCount > 0 ? totalTokens / chunkCount : 0;
+            exportRuns(indexDir, sources, targetDir);
+            //the merged chunk index comes first, impacts are recomputed from it against the version's impact avgdl.
+            copyChunkStores(indexDir, sources, targetDir);
+            IndexWriter indexWriter = new IndexWriter(targetDir.toString());
+            indexWriter.setIoThrottle(ioThrottle);
+            ImpactHeader impactHeader = mergedImpactHeader(indexDir, sources, averageChunkSize);
+            if (impactHeader != null) {
+                indexWriter.setImpactEncoder(ImpactEncoder.fromChunkIndex(
+                        targetDir.resolve(SegmentFiles.CHUNK_INDEX_FILE), sources.get(0).getBaseChunkId(), impactHeader));
+            }
+            indexWriter.setPostingsCodec(mergedPostingsCodec(indexDir, sources), chunkCount);
+            indexWriter.setDocFreqs(sourceDocFreqs(indexDir, sources));
+            indexWriter.mergeAllIndexes(targetDir.toString());
+            indexWriter.close();
+
+            mapper.writeValue(targetDir.resolve(SegmentFiles.STATS_FILE).toFile(),
+                    new BM25Stats(chunkCount, totalTokens, averageChunkSize));
+            SegmentInfo merged = new SegmentInfo(targetName, sources.get(0).getBaseChunkId(), chunkCount, totalTokens,
+                    documentCount, SegmentFiles.directorySize(targetDir));
+            LOGGER.info(String.format("Merged %d segments into %s: %d chunks, %d bytes in %d ms", sources.size(),
+                    targetName, chunkCount, merged.getSizeInBytes(), (System.nanoTime() - start) / 1_000_000));
+            return merged;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Merge into " + targetName + " failed, removing partial output", e);
+            SegmentFiles.deleteRecursively(targetDir);
+            throw e;
+        }
+    }
+
+    private void checkAdjacent(List<SegmentInfo> sources) {
+        if (sources.size() < 2) {
+            throw new IllegalArgumentException("A merge needs at least two segments");
+        }
+        for (int i = 1; i < sources.size(); i++) {
+            SegmentInfo previous = sources.get(i - 1);
+            if (previous.getBaseChunkId() + previous.getChunkCount() != sources.get(i).getBaseChunkId()) {
+                throw new IllegalArgumentException("Segments " + previous.getName() + " and " + sources.get(i).getName()
+                        + " do not hold adjacent chunk id ranges");
+            }
+        }
+    }
+
+    /**
+     * Document frequencies summed over the sources' dictionaries. They equal the merged posting counts unless a source
+     * was pruned, in which case they keep the idf of the unpruned index.
+     */
+    private Map<String, Integer> sourceDocFreqs(Path indexDir, List<SegmentInfo> sources) throws IOException {
+        Map<String, Integer> docFreqs = new HashMap<>();
+        for (SegmentInfo source : sources) {
+            Path dictionary = SegmentFiles.segmentDir(indexDir, source.getName()).resolve(SegmentFiles.TOKEN_OFFSET_FILE);
+            IndexReader.readDocFreqs(dictionary).forEach((token, docFreq) -> docFreqs.merge(token, docFreq, Integer::sum));
+        }
+        return docFreqs;
+    }
+
+    /**
+     * Impact settings for the merged segment, taken from the sources' headers since the merging process may not be
+     * configured with the k1 and b they were built with. Null, and no impacts, unless every source has impacts with
+     * the same settings.
+     */
+    private ImpactHeader mergedImpactHeader(Path indexDir, List<SegmentInfo> sources, long averageChunkSize)
+            throws IOException {
+        List<ImpactHeader> headers = new ArrayList<>();
+        for (SegmentInfo source : sources) {
+            Path impactsFile = SegmentFiles.impactsFile(
+                    SegmentFiles.postingsFile(SegmentFiles.segmentDir(indexDir, source.getName())));
+            if (impactsFile != null) headers.add(ImpactHeader.read(impactsFile));
+        }
+        if (headers.isEmpty()) return null;
+        ImpactHeader first = headers.get(0);
+        if (headers.size() < sources.size() || !headers.stream().allMatch(first::sameScoring)) {
+            LOGGER.info("Merged segments disagree on impacts, the merged segment is written without them");
+            return null;
+        }
+        return new ImpactHeader(first.getBits(), first.getK1(), first.getB(),
+                SegmentFiles.impactAverageChunkSize(indexDir, averageChunkSize));
+    }
+
+    /**
+     * Codec of the sources' block postings, null, and JSON postings only, unless every source has them in the same one.
+     */
+    private PostingsCodec mergedPostingsCodec(Path indexDir, List<SegmentInfo> sources) throws IOException {
+        PostingsCodec merged = null;
+        for (SegmentInfo source : sources) {
+            Path blockFile = SegmentFiles.blockPostingsFile(
+                    SegmentFiles.postingsFile(SegmentFiles.segmentDir(indexDir, source.getName())));
+            PostingsCodec codec = blockFile == null ? null : PostingsCodec.readHeader(blockFile);
+            if (codec == null || (merged != null && merged != codec)) {
+                if (merged != null || codec != null) {
+                    LOGGER.info("Merged segments disagree on block postings, the merged segment is written without them");
+                }
+                return null;
+            }
+            merged = codec;
+        }
+        return merged;
+    }
+
+    /**
+     * Streams every source back out as index_/positions_ runs in the target directory. Each source is sorted by token,
+     * so cutting it every RUN_TOKENS tokens gives sorted runs, and postings and positions runs hold the same tokens.
+     * Positions are only kept when every source has them.
+     */
+    private void exportRuns(Path indexDir, List<SegmentInfo> sources, Path targetDir) throws IOException {
+        List<Path> postingsFiles = new ArrayList<>();
+        boolean positional = true;
+        for (SegmentInfo source : sources) {
+            Path postingsFile = SegmentFiles.postingsFile(SegmentFiles.segmentDir(indexDir, source.getName()));
+            postingsFiles.add(postingsFile);
+            positional &= SegmentFiles.positionsFile(postingsFile) != null;
+        }
+        if (!positional) {
+            LOGGER.info("Not every merged segment has positions, the merged segment is written without them");
+        }
+        BatchFileWriter batchFileWriter = new BatchFileWriter(targetDir.toString());
+        int runCounter = 0;
+        for (Path postingsFile : postingsFiles) {
+            Path positionsFile = positional ? SegmentFiles.positionsFile(postingsFile) : null;
+            try (PostingsStream stream = new PostingsStream(postingsFile, positionsFile)) {
+                Map<String, Map<Integer, Integer>> postingsRun = new TreeMap<>();
+                Map<String, Map<Integer, List<Integer>>> positionsRun = new TreeMap<>();
+                long throttled = 0;
+                while (stream.next()) {
+                    postingsRun.put(stream.token(), stream.postings());
+                    if (positional) positionsRun.put(stream.token(), stream.positions());
+                    if (postingsRun.size() >= RUN_TOKENS) {
+                        writeRun(batchFileWriter, postingsRun, positionsRun, positional, runCounter++);
+                    }
+                    ioThrottle.acquire(stream.getBytesRead() - throttled);
+                    throttled = stream.getBytesRead();
+                }
+                if (!postingsRun.isEmpty()) {
+                    writeRun(batchFileWriter, postingsRun, positionsRun, positional, runCounter++);
+                }
+            }
+        }
+        LOGGER.fine("Exported " + runCounter + " runs from " + sources.size() + " segments");
+    }
+
+    private void writeRun(BatchFileWriter batchFileWriter, Map<String, Map<Integer, Integer>> postingsRun,
+                          Map<String, Map<Integer, List<Integer>>> positionsRun, boolean positional,
+                          int runCounter) throws IOException {
+        batchFileWriter.writeChunk(postingsRun, runCounter);
+        if (positional) {
+            batchFileWriter.writePositions(positionsRun, runCounter);
+            positionsRun.clear();
+        }
+        postingsRun.clear();
+    }
+
+    /**
+     * Appends the sources' chunk data and index records in chunk id order, shifting each record's data offset by the
+     * bytes of data already written.
+     */
+    private void copyChunkStores(Path indexDir, List<SegmentInfo> sources, Path targetDir) throws IOException {
+        for (SegmentInfo source : sources) {
+            Path sourceDir = SegmentFiles.segmentDir(indexDir, source.getName());
+            if (Files.exists(sourceDir.resolve(SegmentFiles.CHUNK_BLOCKS_FILE))) {
+                copyChunkBlocks(indexDir, sources, targetDir);
+                return;
+            }
+        }
+        try (DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(
+                     new FileOutputStream(targetDir.resolve(SegmentFiles.CHUNK_DATA_FILE).toFile()), 64 * 1024));
+             DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(
+                     new FileOutputStream(targetDir.resolve(SegmentFiles.CHUNK_INDEX_FILE).toFile()), 64 * 1024))) {
+            long dataBase = 0;
+            byte[] buffer = new byte[64 * 1024];
+            for (SegmentInfo source : sources) {
+                Path sourceDir = SegmentFiles.segmentDir(indexDir, source.getName());
+                try (InputStream dataIn = new BufferedInputStream(
+                        new FileInputStream(sourceDir.resolve(SegmentFiles.CHUNK_DATA_FILE).toFile()))) {
+                    int read;
+                    while ((read = dataIn.read(buffer)) != -1) {
+                        dataOut.write(buffer, 0, read);
+                        ioThrottle.acquire(read);
+                    }
+                }
+                try (DataInputStream indexIn = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(sourceDir.resolve(SegmentFiles.CHUNK_INDEX_FILE).toFile())))) {
+                    for (long i = 0; i < source.getChunkCount(); i++) {
+                        indexOut.writeInt(indexIn.readInt()); //chunk id
+                        indexOut.writeLong(indexIn.readLong() + dataBase); //data offset
+                        indexOut.writeInt(indexIn.readInt()); //data length
+                        indexOut.writeInt(indexIn.readInt()); //doc id
+                        indexOut.writeInt(indexIn.readInt()); //token count
+                    }
+                    ioThrottle.acquire(source.getChunkCount() * RECORD_SIZE);
+                }
+                dataBase += Files.size(sourceDir.resolve(SegmentFiles.CHUNK_DATA_FILE));
+            }
+        }
+    }
+
+    /**
+     * copyChunkStores once any source keeps its chunk text in blocks. Block stores are appended still compressed and
+     * their records get the block number shifted by the blocks already written, raw chunk data is packed into new
+     * blocks one document at a time. The chunks of a document cover one contiguous range of the raw data, which is
+     * added whole, so chunks sharing their overlap keep sharing it.
+     */
+    private void copyChunkBlocks(Path indexDir, List<SegmentInfo> sources, Path targetDir) throws IOException {
+        try (ChunkBlockWriter blocksOut = new ChunkBlockWriter(targetDir.resolve(SegmentFiles.CHUNK_BLOCKS_FILE),
+                     ChunkBlockWriter.DEFAULT_BLOCK_SIZE);
+             DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(
+                     new FileOutputStream(targetDir.resolve(SegmentFiles.CHUNK_INDEX_FILE).toFile()), 64 * 1024))) {
+            for (SegmentInfo source : sources) {
+                Path sourceDir = SegmentFiles.segmentDir(indexDir, source.getName());
+                Path sourceBlocks = sourceDir.resolve(SegmentFiles.CHUNK_BLOCKS_FILE);
+                try (DataInputStream indexIn = new DataInputStream(new BufferedInputStream(
+                        new FileInputStream(sourceDir.resolve(SegmentFiles.CHUNK_INDEX_FILE).toFile())))) {
+                    if (Files.exists(sourceBlocks)) {
+                        long blockBase;
+                        try (ChunkBlockReader blocksIn = ChunkBlockReader.open(sourceBlocks, new BlockCache(0))) {
+                            blockBase = (long) blocksOut.addBlocks(blocksIn) << 32;
+                        }
+                        ioThrottle.acquire(Files.size(sourceBlocks));
+                        for (long i = 0; i < source.getChunkCount(); i++) {
+                            indexOut.writeInt(indexIn.readInt()); //chunk id
+                            indexOut.writeLong(indexIn.readLong() + blockBase); //block address
+                            indexOut.writeInt(indexIn.readInt()); //data length
+                            indexOut.writeInt(indexIn.readInt()); //doc id
+                            indexOut.writeInt(indexIn.readInt()); //token count
+                        }
+                    } else {
+                        try (RandomAccessFile dataIn = new RandomAccessFile(
+                                sourceDir.resolve(SegmentFiles.CHUNK_DATA_FILE).toFile(), "r")) {
+                            packDocuments(indexIn, source.getChunkCount(), dataIn, blocksOut, indexOut);
+                        }
+                    }
+                    ioThrottle.acquire(source.getChunkCount() * RECORD_SIZE);
+                }
+            }
+        }
+    }
+
+    private void packDocuments(DataInputStream indexIn, long chunkCount, RandomAccessFile dataIn,
+                               ChunkBlockWriter blocksOut, DataOutputStream indexOut) throws IOException {
+        List<long[]> document = new ArrayList<>();
+        for (long i = 0; i <= chunkCount; i++) {
+            //chunk id, data offset, data length, doc id, token count.
+            long[] record = i < chunkCount ? new long[]{indexIn.readInt(), indexIn.readLong(), indexIn.readInt(),
+                    indexIn.readInt(), indexIn.readInt()} : null;
+            if (!document.isEmpty() && (record == null || record[3] != document.get(0)[3])) {
+                long start = Long.MAX_VALUE, end = 0;
+                for (long[] chunk : document) {
+                    start = Math.min(start, chunk[1]);
+                    end = Math.max(end, chunk[1] + chunk[2]);
+                }
+                byte[] text = new byte[(int) (end - start)];
+                dataIn.seek(start);
+                dataIn.readFully(text);
+                long address = blocksOut.add(text);
+                for (long[] chunk : document) {
+                    indexOut.writeInt((int) chunk[0]);
+                    indexOut.writeLong(blocksOut.address(address, chunk[1] - start)); //block address
+                    indexOut.writeInt((int) chunk[2]);
+                    indexOut.writeInt((int) chunk[3]);
+                    indexOut.writeInt((int) chunk[4]);
+                }
+                ioThrottle.acquire(text.length);
+                document.clear();
+            }
+            if (record != null) document.add(record);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.pri1712.searchengine.indexwriter.merge;
+
+import com.pri1712.searchengine.model.SegmentInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks segments to merge by size tier. Segments up to FLOOR_SEGMENT_BYTES are tier 0, after that every factor of
+ * tierSizeRatio is one tier up. Once segmentsPerTier adjacent segments share a tier they are merged into one segment of
+ * the next tier, so each byte is rewritten about once per tier. Only adjacent segments are merged because a segment
+ * addresses its chunk records by a contiguous chunk id range.
+ */
+public class TieredMergePolicy {
+    //small segments are all treated as the same size, otherwise every tiny flush would start its own tier.
+    private static final long FLOOR_SEGMENT_BYTES = 2L * 1024 * 1024;
+
+    private final int segmentsPerTier;
+    private final int maxMergeAtOnce;
+    private final double tierSizeRatio;
+    private final int maxSegmentCount;
+
+    public TieredMergePolicy(int segmentsPerTier, int maxMergeAtOnce, double tierSizeRatio, int maxSegmentCount) {
+        if (segmentsPerTier < 2 || maxMergeAtOnce < 2 || tierSizeRatio <= 1.0) {
+            throw new IllegalArgumentException("Merge policy needs segmentsPerTier >= 2, maxMergeAtOnce >= 2 and tierSizeRatio > 1");
+        }
+        this.segmentsPerTier = segmentsPerTier;
+        this.maxMergeAtOnce = maxMergeAtOnce;
+        this.tierSizeRatio = tierSizeRatio;
+        this.maxSegmentCount = maxSegmentCount;
+    }
+
+    /**
+     * Adjacent segments to merge next, in manifest order, or an empty list when the index is within policy.
+     * The lowest full tier is merged first since it is the cheapest. Past maxSegmentCount the adjacent run with
+     * the fewest bytes is merged even if its segments are in different tiers.
+     */
+    public List<SegmentInfo> findMerge(List<SegmentInfo> segments) {
+        int n = segments.size();
+        if (n < 2) return List.of();
+        int[] tiers = new int[n];
+        for (int i = 0; i < n; i++) {
+            tiers[i] = tier(segments.get(i).getSizeInBytes());
+        }
+
+        int bestStart = -1;
+        int bestEnd = -1;
+        for (int i = 0; i < n; ) {
+            int j = i;
+            while (j < n && tiers[j] == tiers[i]) j++;
+            if (j - i >= segmentsPerTier && (bestStart < 0 || tiers[i] < tiers[bestStart])) {
+                bestStart = i;
+                bestEnd = Math.min(j, i + maxMergeAtOnce);
+            }
+            i = j;
+        }
+        if (bestStart >= 0) {
+            return new ArrayList<>(segments.subList(bestStart, bestEnd));
+        }
+
+        if (maxSegmentCount > 0 && n > maxSegmentCount) {
+            int width = Math.max(2, Math.min(maxMergeAtOnce, n - maxSegmentCount + 1));
+            long bestBytes = Long.MAX_VALUE;
+            for (int i = 0; i + width <= n; i++) {
+                long bytes = 0;
+                for (int k = i; k < i + width; k++) bytes += segments.get(k).getSizeInBytes();
+                if (bytes < bestBytes) {
+                    bestBytes = bytes;
+                    bestStart = i;
+                }
+            }
+            return new ArrayList<>(segments.subList(bestStart, bestStart + width));
+        }
+        return List.of();
+    }
+
+    private int tier(long sizeInBytes) {
+        if (sizeInBytes <= FLOOR_SEGMENT_BYTES) return 0;
+        return 1 + (int) Math.floor(Math.log((double) sizeInBytes / FLOOR_SEGMENT_BYTES) / Math.log(tierSizeRatio));
+    }
+}
@@ -0,0 +1,476 @@
+package com.pri1712.searchengine.indexwriter.prune;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.pri1712.searchengine.indexreader.IndexReader;
+import com.pri1712.searchengine.indexreader.codec.PostingsCodec;
+import com.pri1712.searchengine.indexreader.decompression.PostingsStream;
+import com.pri1712.searchengine.indexreader.impacts.ImpactHeader;
+import com.pri1712.searchengine.indexwriter.IndexWriter;
+import com.pri1712.searchengine.indexwriter.compression.ImpactEncoder;
+import com.pri1712.searchengine.model.BM25Stats;
+import com.pri1712.searchengine.model.SegmentInfo;
+import com.pri1712.searchengine.model.SegmentManifest;
+import com.pri1712.searchengine.model.params.RankingParams;
+import com.pri1712.searchengine.utils.BatchFileWriter;
+import com.pri1712.searchengine.utils.SegmentFiles;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Offline static pruning. Writes a copy of an index version in which every term only keeps its highest scoring
+ * postings, scored with the full index's BM25 statistics. GLOBAL drops every posting below one score threshold chosen
+ * so that keepRatio of all postings survive, TERM keeps the best keepRatio of each term's postings. Every term keeps at
+ * least its best posting, and the dictionaries record the unpruned document frequencies, so idf and BM25 scores of the
+ * postings that are kept do not change. Chunk stores are copied unchanged. GLOBAL strips common terms first, their
+ * low idf puts all of their postings under the threshold, which starves the half-the-terms candidate filter, so TERM is
+ * the default. With a target size the share or threshold is searched for instead of given, see forTargetBytes.
+ */
+public class IndexPruner {
+    private static final Logger LOGGER = Logger.getLogger(IndexPruner.class.getName());
+    //tokens per run, same flush size as the IndexWriter uses while building.
+    private static final int RUN_TOKENS = 1000;
+    //resolution of the score histogram the global threshold is picked from.
+    private static final int HISTOGRAM_BUCKETS = 1 << 16;
+    //pruning passes a target size search may take, and how close to the target a pass has to land to stop early.
+    private static final int TARGET_PASSES = 3;
+    private static final double TARGET_TOLERANCE = 0.05;
+    public static final String REPORT_FILE = "prune_report.json";
+
+    public enum Strategy {
+        GLOBAL,
+        TERM
+    }
+
+    private final double keepRatio;
+    //0 when keepRatio is used as given.
+    private final long targetBytes;
+    private final Strategy strategy;
+    private final int topK;
+    ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    /**
+     * @param keepRatio share of postings to keep, between 0 and 1.
+     * @param topK depth of the per-term top-K the recall loss estimate is computed at.
+     */
+    public IndexPruner(double keepRatio, Strategy strategy, int topK) {
+        this(keepRatio, 0, strategy, topK);
+        if (keepRatio <= 0 || keepRatio > 1) {
+            throw new IllegalArgumentException("Keep ratio must be in (0, 1], got " + keepRatio);
+        }
+    }
+
+    private IndexPruner(double keepRatio, long targetBytes, Strategy strategy, int topK) {
+        this.keepRatio = keepRatio;
+        this.targetBytes = targetBytes;
+        this.strategy = strategy;
+        this.topK = topK;
+    }
+
+    /**
+     * Prunes to an index of about targetBytes: the share of each term's postings for TERM, or the score threshold for
+     * GLOBAL, is the one whose kept postings fill what the target leaves after the files pruning does not shrink. The
+     * bytes per kept posting are first taken from the source and then from each pass's output, so a miss of more than
+     * TARGET_TOLERANCE is pruned again, at most TARGET_PASSES times.
+     */
+    public static IndexPruner forTargetBytes(long targetBytes, Strategy strategy, int topK) {
+        if (targetBytes <= 0) {
+            throw new IllegalArgumentException("Target size must be positive, got " + targetBytes);
+        }
+        return new IndexPruner(1.0, targetBytes, strategy, topK);
+    }
+
+    /**
+     * Writes the pruned copy of the version at sourceIndexDir as a new version under targetRoot, publishes it and
+     * stores the report next to its manifest.
+     */
+    public PruneReport prune(Path sourceIndexDir, Path targetRoot) throws IOException {
+        long start = System.nanoTime();
+        SegmentManifest manifest = SegmentFiles.readManifest(sourceIndexDir);
+        BM25Stats stats = manifest.getGlobalStats();
+        Map<String, Integer> globalDocFreqs = new HashMap<>();
+        for (SegmentInfo segment : manifest.getSegments()) {
+            IndexReader.readDocFreqs(dictionaryFile(sourceIndexDir, segment))
+                    .forEach((token, docFreq) -> globalDocFreqs.merge(token, docFreq, Integer::sum));
+        }
+        String versionName = SegmentFiles.nextVersionName(targetRoot);
+        Path targetDir = targetRoot.resolve(versionName);
+        Files.createDirectories(targetDir);
+
+        PruneReport report;
+        try {
+            PostingsProfile profile = strategy == Strategy.GLOBAL || targetBytes > 0
+                    ? profile(sourceIndexDir, manifest, stats, globalDocFreqs) : null;
+            if (targetBytes > 0) {
+                report = pruneToTarget(sourceIndexDir, manifest, stats, globalDocFreqs, targetDir, profile);
+            } else {
+                double threshold = strategy == Strategy.GLOBAL ? profile.thresholdForRatio(keepRatio) : 0;
+                report = pruneInto(sourceIndexDir, manifest, stats, globalDocFreqs, targetDir, keepRatio, threshold);
+            }
+            mapper.writeValue(targetDir.resolve(REPORT_FILE).toFile(), report);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Pruning into " + targetDir + " failed, removing partial output", e);
+            SegmentFiles.deleteRecursively(targetDir);
+            throw e;
+        }
+        SegmentFiles.publishCurrentVersion(targetRoot, versionName);
+        LOGGER.info(String.format("Pruned %s into %s in %d ms", sourceIndexDir, targetDir,
+                (System.nanoTime() - start) / 1_000_000));
+        return report;
+    }
+
+    private PruneReport pruneToTarget(Path sourceIndexDir, SegmentManifest manifest, BM25Stats stats,
+                                      Map<String, Integer> globalDocFreqs, Path targetDir,
+                                      PostingsProfile profile) throws IOException {
+        double bytesPerPosting = (double) profile.postingBytes / Math.max(1, profile.totalPostings);
+        PruneReport report = null;
+        for (int pass = 1; pass <= TARGET_PASSES; pass++) {
+            long wanted = (long) Math.max(0, (targetBytes - profile.fixedBytes) / bytesPerPosting);
+            boolean floor = wanted <= profile.termCount();
+            if (wanted < profile.termCount()) {
+                LOGGER.warning(String.format("Target of %d bytes is below the %d bytes of a copy keeping one posting "
+                                + "per term, pruning to that instead", targetBytes,
+                        profile.fixedBytes + (long) (bytesPerPosting * profile.termCount())));
+            }
+            double ratio;
+            double threshold = 0;
+            if (strategy == Strategy.TERM) {
+                ratio = profile.ratioKeeping(wanted);
+            } else {
+                int bucket = profile.bucketKeeping(wanted);
+                threshold = profile.maxScore * bucket / HISTOGRAM_BUCKETS;
+                ratio = (double) profile.keptFrom(bucket) / Math.max(1, profile.totalPostings);
+            }
+            if (pass > 1) {
+                for (SegmentInfo segment : manifest.getSegments()) {
+                    SegmentFiles.deleteRecursively(SegmentFiles.segmentDir(targetDir, segment.getName()));
+                }
+            }
+            report = pruneInto(sourceIndexDir, manifest, stats, globalDocFreqs, targetDir, ratio, threshold);
+            report.setTargetBytes(targetBytes, pass);
+            long missed = Math.abs(report.getBytesAfter() - targetBytes);
+            LOGGER.info(String.format("Target size pass %d kept %.2f%% of postings: %d bytes for a target of %d",
+                    pass, 100.0 * report.getKeptPostings() / Math.max(1, report.getTotalPostings()),
+                    report.getBytesAfter(), targetBytes));
+            if (missed <= targetBytes * TARGET_TOLERANCE || ratio >= 1 || floor) break;
+            //gaps between the kept postings grow as more are dropped, so the real cost per posting is measured.
+            bytesPerPosting = Math.max(1e-3, (double) (report.getBytesAfter() - profile.fixedBytes)
+                    / report.getKeptPostings());
+        }
+        return report;
+    }
+
+    private PruneReport pruneInto(Path sourceIndexDir, SegmentManifest manifest, BM25Stats stats,
+                                  Map<String, Integer> globalDocFreqs, Path targetDir, double ratio,
+                                  double threshold) throws IOException {
+        PruneReport report = new PruneReport(strategy.name(), ratio, topK);
+        report.setScoreThreshold(threshold);
+        List<SegmentInfo> prunedSegments = new ArrayList<>();
+        for (SegmentInfo segment : manifest.getSegments()) {
+            SegmentInfo pruned = pruneSegment(sourceIndexDir, segment, targetDir, stats, globalDocFreqs, ratio,
+                    threshold, report);
+            prunedSegments.add(pruned);
+            report.addBytes(segment.getSizeInBytes(), pruned.getSizeInBytes());
+        }
+        SegmentManifest prunedManifest = new SegmentManifest();
+        prunedManifest.setNextChunkId(manifest.getNextChunkId());
+        prunedManifest.setNextSegmentId(manifest.getNextSegmentId());
+        prunedManifest.setNextDocId(manifest.getNextDocId());
+        //impacts are copied as they were, so they keep the avgdl they were quantized against.
+        prunedManifest.setImpactAverageChunkSize(manifest.getImpactAverageChunkSize());
+        prunedManifest.setSegments(prunedSegments);
+        SegmentFiles.writeManifest(targetDir, prunedManifest);
+        return report;
+    }
+
+    /**
+     * One pass over every posting. It counts the postings lists by length, which is all TERM pruning needs to tell how
+     * many postings a share keeps, and for GLOBAL fills a histogram of every posting's score and one of each list's
+     * best score. It also splits the source's bytes into postings files and the rest, which pruning copies or barely
+     * changes.
+     */
+    private PostingsProfile profile(Path sourceIndexDir, SegmentManifest manifest, BM25Stats stats,
+                                    Map<String, Integer> globalDocFreqs) throws IOException {
+        double maxK1 = 0;
+        for (SegmentInfo segment : manifest.getSegments()) {
+            maxK1 = Math.max(maxK1, scoringHeader(sourceIndexDir, segment, stats).getK1());
+        }
+        //no posting scores above the idf of a term in one chunk times the saturation limit k1 + 1.
+        PostingsProfile profile = new PostingsProfile(idf(1, stats) * (maxK1 + 1));
+        boolean scored = strategy == Strategy.GLOBAL;
+        for (SegmentInfo segment : manifest.getSegments()) {
+            Path segmentDir = SegmentFiles.segmentDir(sourceIndexDir, segment.getName());
+            try (var files = Files.list(segmentDir)) {
+                for (Path file : files.filter(Files::isRegularFile).toList()) {
+                    if (file.getFileName().toString().contains("_delta_encoded.")) {
+                        profile.postingBytes += Files.size(file);
+                    } else {
+                        profile.fixedBytes += Files.size(file);
+                    }
+                }
+            }
+            ImpactEncoder scorer = scored ? scorer(sourceIndexDir, segment, stats) : null;
+            try (PostingsStream stream = new PostingsStream(SegmentFiles.postingsFile(segmentDir), null)) {
+                while (stream.next()) {
+                    Map<Integer, Integer> postings = stream.postings();
+                    profile.addList(postings.size());
+                    if (!scored) continue;
+                    double idf = idf(globalDocFreqs.getOrDefault(stream.token(), postings.size()), stats);
+                    double best = 0;
+                    for (var posting : postings.entrySet()) {
+                        double score = idf * scorer.termScore(posting.getKey(), posting.getValue());
+                        profile.scoreHistogram[bucket(score, profile.maxScore)]++;
+                        best = Math.max(best, score);
+                    }
+                    profile.bestScoreHistogram[bucket(best, profile.maxScore)]++;
+                }
+            }
+        }
+        return profile;
+    }
+
+    private static int bucket(double score, double maxScore) {
+        return (int) Math.min(HISTOGRAM_BUCKETS - 1, Math.max(0, score / maxScore * HISTOGRAM_BUCKETS));
+    }
+
+    private SegmentInfo pruneSegment(Path sourceIndexDir, SegmentInfo segment, Path targetDir, BM25Stats stats,
+                                     Map<String, Integer> globalDocFreqs, double ratio, double threshold,
+                                     PruneReport report) throws IOException {
+        Path sourceSegmentDir = SegmentFiles.segmentDir(sourceIndexDir, segment.getName());
+        Path targetSegmentDir = SegmentFiles.segmentDir(targetDir, segment.getName());
+        Files.createDirectories(targetSegmentDir);
+        Path chunkDataFile = SegmentFiles.chunkDataFile(sourceSegmentDir);
+        Files.copy(chunkDataFile, targetSegmentDir.resolve(chunkDataFile.getFileName()));
+        for (String file : List.of(SegmentFiles.CHUNK_INDEX_FILE, SegmentFiles.STATS_FILE)) {
+            Files.copy(sourceSegmentDir.resolve(file), targetSegmentDir.resolve(file));
+        }
+        Path postingsFile = SegmentFiles.postingsFile(sourceSegmentDir);
+        Path positionsFile = SegmentFiles.positionsFile(postingsFile);
+        Path impactsFile = SegmentFiles.impactsFile(postingsFile);
+        ImpactEncoder scorer = scorer(sourceIndexDir, segment, stats);
+        long keptBefore = report.getKeptPostings();
+        long totalBefore = report.getTotalPostings();
+
+        BatchFileWriter batchFileWriter = new BatchFileWriter(targetSegmentDir.toString());
+        Map<String, Map<Integer, Integer>> postingsRun = new TreeMap<>();
+        Map<String, Map<Integer, List<Integer>>> positionsRun = new TreeMap<>();
+        int runCounter = 0;
+        try (PostingsStream stream = new PostingsStream(postingsFile, positionsFile)) {
+            while (stream.next()) {
+                Map<Integer, Integer> postings = stream.postings();
+                double idf = idf(globalDocFreqs.getOrDefault(stream.token(), postings.size()), stats);
+                int[] chunkIds = new int[postings.size()];
+                int[] freqs = new int[postings.size()];
+                double[] scores = new double[postings.size()];
+                int i = 0;
+                for (var posting : postings.entrySet()) {
+                    chunkIds[i] = posting.getKey();
+                    freqs[i] = posting.getValue();
+                    scores[i++] = idf * scorer.termScore(posting.getKey(), posting.getValue());
+                }
+                boolean[] keep = select(scores, ratio, threshold);
+                report.addTerm(freqs, scores, keep);
+
+                Map<Integer, Integer> keptPostings = new LinkedHashMap<>();
+                Map<Integer, List<Integer>> keptPositions = new LinkedHashMap<>();
+                for (int j = 0; j < chunkIds.length; j++) {
+                    if (!keep[j]) continue;
+                    keptPostings.put(chunkIds[j], postings.get(chunkIds[j]));
+                    if (positionsFile != null) keptPositions.put(chunkIds[j], stream.positions().get(chunkIds[j]));
+                }
+                postingsRun.put(stream.token(), keptPostings);
+                if (positionsFile != null) positionsRun.put(stream.token(), keptPositions);
+                if (postingsRun.size() >= RUN_TOKENS) {
+                    writeRun(batchFileWriter, postingsRun, positionsRun, positionsFile != null, runCounter++);
+                }
+            }
+        }
+        if (!postingsRun.isEmpty()) {
+            writeRun(batchFileWriter, postingsRun, positionsRun, positionsFile != null, runCounter++);
+        }
+
+        IndexWriter indexWriter = new IndexWriter(targetSegmentDir.toString());
+        if (impactsFile != null) {
+            //the chunk store is unchanged, so the kept postings get the same impacts they had.
+            indexWriter.setImpactEncoder(ImpactEncoder.fromChunkIndex(
+                    targetSegmentDir.resolve(SegmentFiles.CHUNK_INDEX_FILE), segment.getBaseChunkId(),
+                    ImpactHeader.read(impactsFile)));
+        }
+        Path blockFile = SegmentFiles.blockPostingsFile(postingsFile);
+        if (blockFile != null) {
+            indexWriter.setPostingsCodec(PostingsCodec.readHeader(blockFile), segment.getChunkCount());
+        }
+        indexWriter.setDocFreqs(IndexReader.readDocFreqs(dictionaryFile(sourceIndexDir, segment)));
+        indexWriter.mergeAllIndexes(targetSegmentDir.toString());
+        indexWriter.close();
+
+        SegmentInfo pruned = new SegmentInfo(segment.getName(), segment.getBaseChunkId(), segment.getChunkCount(),
+                segment.getTotalTokens(), segment.getDocumentCount(), SegmentFiles.directorySize(targetSegmentDir));
+        LOGGER.info(String.format("Pruned segment %s: kept %d of %d postings, %d -> %d bytes", segment.getName(),
+                report.getKeptPostings() - keptBefore, report.getTotalPostings() - totalBefore,
+                segment.getSizeInBytes(), pruned.getSizeInBytes()));
+        return pruned;
+    }
+
+    /**
+     * Postings of one term that survive. The best posting is always kept so no term disappears from a segment.
+     */
+    private boolean[] select(double[] scores, double ratio, double threshold) {
+        boolean[] keep = new boolean[scores.length];
+        Integer[] byScore = new Integer[scores.length];
+        for (int i = 0; i < scores.length; i++) byScore[i] = i;
+        Arrays.sort(byScore, (a, b) -> Double.compare(scores[b], scores[a]));
+        keep[byScore[0]] = true;
+        if (strategy == Strategy.TERM) {
+            int keepCount = (int) Math.ceil(scores.length * ratio);
+            for (int i = 0; i < keepCount; i++) keep[byScore[i]] = true;
+        } else {
+            for (int i = 0; i < scores.length; i++) {
+                if (scores[i] >= threshold) keep[i] = true;
+            }
+        }
+        return keep;
+    }
+
+    private void writeRun(BatchFileWriter batchFileWriter, Map<String, Map<Integer, Integer>> postingsRun,
+                          Map<String, Map<Integer, List<Integer>>> positionsRun, boolean positional,
+                          int runCounter) throws IOException {
+        batchFileWriter.writeChunk(postingsRun, runCounter);
+        if (positional) {
+            batchFileWriter.writePositions(positionsRun, runCounter);
+            positionsRun.clear();
+        }
+        postingsRun.clear();
+    }
+
+    /**
+     * Scores postings of a segment with the k1 and b its impacts were written with, or the configured ones for a
+     * segment without impacts, and the global avgdl. The header is only used for its term score.
+     */
+    private ImpactEncoder scorer(Path sourceIndexDir, SegmentInfo segment, BM25Stats stats) throws IOException {
+        return ImpactEncoder.fromChunkIndex(
+                SegmentFiles.segmentDir(sourceIndexDir, segment.getName()).resolve(SegmentFiles.CHUNK_INDEX_FILE),
+                segment.getBaseChunkId(), scoringHeader(sourceIndexDir, segment, stats));
+    }
+
+    private ImpactHeader scoringHeader(Path sourceIndexDir, SegmentInfo segment, BM25Stats stats) throws IOException {
+        Path impactsFile = SegmentFiles.impactsFile(
+                SegmentFiles.postingsFile(SegmentFiles.segmentDir(sourceIndexDir, segment.getName())));
+        double k1 = RankingParams.getTERM_FREQUENCY_SATURATION();
+        double b = RankingParams.getDOCUMENT_LENGTH_NORMALIZATION();
+        if (impactsFile != null) {
+            ImpactHeader header = ImpactHeader.read(impactsFile);
+            k1 = header.getK1();
+            b = header.getB();
+        }
+        return new ImpactHeader(16, k1, b, stats.getAverageChunkSize());
+    }
+
+    private static Path dictionaryFile(Path indexDir, SegmentInfo segment) {
+        return SegmentFiles.segmentDir(indexDir, segment.getName()).resolve(SegmentFiles.TOKEN_OFFSET_FILE);
+    }
+
+    //same idf as the query side, over the whole index.
+    private static double idf(int docFreq, BM25Stats stats) {
+        long totalDocs = stats.getTotalChunks();
+        return Math.log(1.0 + (totalDocs - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    /**
+     * What profile collected. List lengths are kept as a count per length, there are far fewer distinct lengths than
+     * terms.
+     */
+    private static final class PostingsProfile {
+        private final double maxScore;
+        private final long[] scoreHistogram;
+        private final long[] bestScoreHistogram;
+        private final Map<Integer, Long> listsByLength = new HashMap<>();
+        private long totalPostings;
+        private long postingBytes;
+        private long fixedBytes;
+
+        PostingsProfile(double maxScore) {
+            this.maxScore = maxScore;
+            this.scoreHistogram = new long[HISTOGRAM_BUCKETS];
+            this.bestScoreHistogram = new long[HISTOGRAM_BUCKETS];
+        }
+
+        void addList(int length) {
+            listsByLength.merge(length, 1L, Long::sum);
+            totalPostings += length;
+        }
+
+        //postings lists over all segments, the least any pruning keeps.
+        long termCount() {
+            long count = 0;
+            for (long lists : listsByLength.values()) count += lists;
+            return count;
+        }
+
+        /**
+         * Threshold of the bucket where ratio of the postings have been counted from the top.
+         */
+        double thresholdForRatio(double ratio) {
+            long wanted = (long) Math.ceil(totalPostings * ratio);
+            long seen = 0;
+            for (int i = HISTOGRAM_BUCKETS - 1; i >= 0; i--) {
+                seen += scoreHistogram[i];
+                if (seen >= wanted) return maxScore * i / HISTOGRAM_BUCKETS;
+            }
+            return 0;
+        }
+
+        /**
+         * Lowest bucket whose lower edge as the threshold keeps at most wanted postings, counting the best posting
+         * every list keeps. Raising the threshold past a bucket drops its postings and gives back one for each list
+         * whose best score was in it, so the count only goes down.
+         */
+        int bucketKeeping(long wanted) {
+            long kept = totalPostings;
+            for (int i = 0; i < HISTOGRAM_BUCKETS - 1; i++) {
+                if (kept <= wanted) return i;
+                kept += bestScoreHistogram[i] - scoreHistogram[i];
+            }
+            return HISTOGRAM_BUCKETS - 1;
+        }
+
+        long keptFrom(int bucket) {
+            long kept = 0;
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                kept += i >= bucket ? scoreHistogram[i] : bestScoreHistogram[i];
+            }
+            return kept;
+        }
+
+        /**
+         * Largest share of each list that keeps at most wanted postings, the same ceil and best posting select uses.
+         */
+        double ratioKeeping(long wanted) {
+            if (keptAtRatio(1.0) <= wanted) return 1.0;
+            double low = 0;
+            double high = 1;
+            for (int i = 0; i < 40; i++) {
+                double mid = (low + high) / 2;
+                if (keptAtRatio(mid) <= wanted) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            return Math.max(low, Double.MIN_NORMAL);
+        }
+
+        private long keptAtRatio(double ratio) {
+            long kept = 0;
+            for (Map.Entry<Integer, Long> entry : listsByLength.entrySet()) {
+                kept += Math.max(1, (long) Math.ceil(entry.getKey() * ratio)) * entry.getValue();
+            }
+            return kept;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.pri1712.searchengine.indexwriter.prune;
+
+import java.util.Arrays;
+
+/**
+ * What a pruning pass kept, written as prune_report.json next to the pruned manifest. A chunk is only a candidate when
+ * it matches at least half of the query terms, so the expected recall loss is estimated for a query of
+ * ESTIMATE_QUERY_TERMS terms drawn from the text: each term still points at the answer chunk with the share of term
+ * occurrences whose posting was kept, and the chunk is lost when fewer than half of them do. The share of each term's
+ * own top-K postings that survived is reported next to it, it is what a single-term query keeps at depth K. Both are per
+ * segment, a term split over segments is counted once per segment.
+ */
+public class PruneReport {
+    //questions in the evaluation sets are mostly three content terms long once stop words are gone.
+    static final int ESTIMATE_QUERY_TERMS = 3;
+
+    private final String strategy;
+    private final double keepRatio;
+    private final int topK;
+    private double scoreThreshold;
+    //0 unless the keep ratio was searched for to hit this size.
+    private long targetBytes;
+    private int targetPasses;
+    private long totalTerms;
+    private long totalPostings;
+    private long keptPostings;
+    private long topKPostings;
+    private long keptTopKPostings;
+    private long termsWithTopKIntact;
+    private double scoreMass;
+    private double keptScoreMass;
+    private long bytesBefore;
+    private long bytesAfter;
+    private long occurrences;
+    private long keptOccurrences;
+
+    PruneReport(String strategy, double keepRatio, int topK) {
+        this.strategy = strategy;
+        this.keepRatio = keepRatio;
+        this.topK = topK;
+    }
+
+    void addTerm(int[] freqs, double[] scores, boolean[] keep) {
+        totalTerms++;
+        for (int i = 0; i < freqs.length; i++) {
+            occurrences += freqs[i];
+            if (keep[i]) keptOccurrences += freqs[i];
+        }
+        totalPostings += scores.length;
+        Integer[] byScore = new Integer[scores.length];
+        for (int i = 0; i < scores.length; i++) {
+            byScore[i] = i;
+            scoreMass += scores[i];
+            if (keep[i]) {
+                keptPostings++;
+                keptScoreMass += scores[i];
+            }
+        }
+        Arrays.sort(byScore, (a, b) -> Double.compare(scores[b], scores[a]));
+        int depth = Math.min(topK, scores.length);
+        int kept = 0;
+        for (int i = 0; i < depth; i++) {
+            if (keep[byScore[i]]) kept++;
+        }
+        topKPostings += depth;
+        keptTopKPostings += kept;
+        if (kept == depth) termsWithTopKIntact++;
+    }
+
+    void addBytes(long before, long after) {
+        bytesBefore += before;
+        bytesAfter += after;
+    }
+
+    void setScoreThreshold(double scoreThreshold) {
+        this.scoreThreshold = scoreThreshold;
+    }
+
+    void setTargetBytes(long targetBytes, int targetPasses) {
+        this.targetBytes = targetBytes;
+        this.targetPasses = targetPasses;
+    }
+
+    public String getStrategy() {
+        return strategy;
+    }
+
+    public double getKeepRatio() {
+        return keepRatio;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    //0 for TERM pruning, which has no global threshold.
+    public double getScoreThreshold() {
+        return scoreThreshold;
+    }
+
+    public long getTargetBytes() {
+        return targetBytes;
+    }
+
+    public int getTargetPasses() {
+        return targetPasses;
+    }
+
+    public long getTotalTerms() {
+        return totalTerms;
+    }
+
+    public long getTotalPostings() {
+        return totalPostings;
+    }
+
+    public long getKeptPostings() {
+        return keptPostings;
+    }
+
+    public long getTermsWithTopKIntact() {
+        return termsWithTopKIntact;
+    }
+
+    public double getKeptScoreMassRatio() {
+        return scoreMass == 0 ? 1.0 : keptScoreMass / scoreMass;
+    }
+
+    /**
+     * Share of the per-term top-K postings that were pruned.
+     */
+    public double getTopKPostingLoss() {
+        return topKPostings == 0 ? 0.0 : 1.0 - (double) keptTopKPostings / topKPostings;
+    }
+
+    /**
+     * Share of term occurrences whose chunk is still in the term's postings. Common terms carry most occurrences and
+     * have the lowest scores, so a global threshold drops them first.
+     */
+    public double getKeptOccurrenceRatio() {
+        return occurrences == 0 ? 1.0 : (double) keptOccurrences / occurrences;
+    }
+
+    /**
+     * Chance that a query of ESTIMATE_QUERY_TERMS terms no longer reaches its answer chunk because fewer than half of
+     * its terms kept the chunk's posting, taking the terms as independent.
+     */
+    public double getExpectedRecallLoss() {
+        double p = getKeptOccurrenceRatio();
+        int needed = (ESTIMATE_QUERY_TERMS + 1) / 2;
+        double reached = 0;
+        for (int matched = needed; matched <= ESTIMATE_QUERY_TERMS; matched++) {
+            reached += binomial(ESTIMATE_QUERY_TERMS, matched) * Math.pow(p, matched)
+                    * Math.pow(1 - p, ESTIMATE_QUERY_TERMS - matched);
+        }
+        return 1.0 - reached;
+    }
+
+    private static double binomial(int n, int k) {
+        double result = 1;
+        for (int i = 1; i <= k; i++) {
+            result = result * (n - k + i) / i;
+        }
+        return result;
+    }
+
+    public long getBytesBefore() {
+        return bytesBefore;
+    }
+
+    public long getBytesAfter() {
+        return bytesAfter;
+    }
+
+    public String summary() {
+        return String.format("%s pruning at %.0f%%: kept %d of %d postings (%.1f%%) and %.1f%% of the score mass, "
+                        + "%d -> %d bytes (%.1f%%). Top-%d intact for %d of %d terms (%.2f%% of top-K postings lost), "
+                        + "%.1f%% of term occurrences kept, expected recall loss %.2f%%",
+                strategy, keepRatio * 100, keptPostings, totalPostings,
+                totalPostings == 0 ? 100.0 : 100.0 * keptPostings / totalPostings, 100 * getKeptScoreMassRatio(),
+                bytesBefore, bytesAfter, bytesBefore == 0 ? 100.0 : 100.0 * bytesAfter / bytesBefore, topK,
+                termsWithTopKIntact, totalTerms, 100 * getTopKPostingLoss(), 100 * getKeptOccurrenceRatio(),
+                100 * getExpectedRecallLoss())
+                + (targetBytes == 0 ? ""
+                        : String.format(", target %d bytes after %d passes", targetBytes, targetPasses));
+    }
+}
@@ -1,5 +1,7 @@
 package com.pri1712.searchengine.model;
 
+import java.util.Collection;
+
 public class BM25Stats {
     private long totalChunks;
     private long totalTokens;
@@ -12,6 +14,28 @@ public class BM25Stats {
         this.averageChunkSize = averageChunkSize;
     }
 
+    /**
+     * Stats of a collection with the given totals, the average chunk size is derived the same way everywhere so
+     * the parts of a split index score exactly like the whole.
+     */
+    public static BM25Stats fromTotals(long totalChunks, long totalTokens) {
+        return new BM25Stats(totalChunks, totalTokens, totalChunks > 0 ? totalTokens / totalChunks : 0);
+    }
+
+    /**
+     * Stats of the collection made of all the parts. Totals are summed and the average recomputed from them, averaging
+     * the parts' averages would weight small parts too heavily.
+     */
+    public static BM25Stats combine(Collection<BM25Stats> parts) {
+        long totalChunks = 0;
+        long totalTokens = 0;
+        for (BM25Stats part : parts) {
+            totalChunks += part.getTotalChunks();
+            totalTokens += part.getTotalTokens();
+        }
+        return fromTotals(totalChunks, totalTokens);
+    }
+
     public long getAverageChunkSize() {
         return averageChunkSize;
     }
@@ -1,13 +1,30 @@
 package com.pri1712.searchengine.model;
 
+import java.util.Map;
+
 public class ScoredChunk {
     private double score;
     private int chunkId;
     private ChunkMetaData chunkMetaData;
+    //which segment of the index the chunk was scored in, its chunk data is read from that segment.
+    private int segmentOrdinal;
+    //positions of the query terms in the chunk by token when the proximity rerank read them, null otherwise.
+    private Map<String, int[]> termPositions;
     public ScoredChunk(double score, int chunkId, ChunkMetaData chunkMetaData) {
+        this(score, chunkId, chunkMetaData, 0);
+    }
+
+    public ScoredChunk(double score, int chunkId, ChunkMetaData chunkMetaData, int segmentOrdinal) {
+        this(score, chunkId, chunkMetaData, segmentOrdinal, null);
+    }
+
+    public ScoredChunk(double score, int chunkId, ChunkMetaData chunkMetaData, int segmentOrdinal,
+                       Map<String, int[]> termPositions) {
         this.score = score;
         this.chunkId = chunkId;
         this.chunkMetaData = chunkMetaData;
+        this.segmentOrdinal = segmentOrdinal;
+        this.termPositions = termPositions;
     }
 
     public ChunkMetaData getChunkMetaData() {
@@ -21,4 +38,12 @@ public class ScoredChunk {
     public double getScore() {
         return score;
     }
+
+    public int getSegmentOrdinal() {
+        return segmentOrdinal;
+    }
+
+    public Map<String, int[]> getTermPositions() {
+        return termPositions;
+    }
 }
@@ -0,0 +1,73 @@
+package com.pri1712.searchengine.model;
+
+/**
+ * Describes one immutable segment of the index as recorded in the segment manifest.
+ */
+public class SegmentInfo {
+    private String name;
+    //chunk ids are global, the segment holds [baseChunkId, baseChunkId + chunkCount).
+    private int baseChunkId;
+    private long chunkCount;
+    private long totalTokens;
+    private long documentCount;
+    private long sizeInBytes;
+
+    public SegmentInfo() {}
+
+    public SegmentInfo(String name, int baseChunkId, long chunkCount, long totalTokens, long documentCount, long sizeInBytes) {
+        this.name = name;
+        this.baseChunkId = baseChunkId;
+        this.chunkCount = chunkCount;
+        this.totalTokens = totalTokens;
+        this.documentCount = documentCount;
+        this.sizeInBytes = sizeInBytes;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public int getBaseChunkId() {
+        return baseChunkId;
+    }
+
+    public void setBaseChunkId(int baseChunkId) {
+        this.baseChunkId = baseChunkId;
+    }
+
+    public long getChunkCount() {
+        return chunkCount;
+    }
+
+    public void setChunkCount(long chunkCount) {
+        this.chunkCount = chunkCount;
+    }
+
+    public long getTotalTokens() {
+        return totalTokens;
+    }
+
+    public void setTotalTokens(long totalTokens) {
+        this.totalTokens = totalTokens;
+    }
+
+    public long getDocumentCount() {
+        return documentCount;
+    }
+
+    public void setDocumentCount(long documentCount) {
+        this.documentCount = documentCount;
+    }
+
+    public long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public void setSizeInBytes(long sizeInBytes) {
+        this.sizeInBytes = sizeInBytes;
+    }
+}
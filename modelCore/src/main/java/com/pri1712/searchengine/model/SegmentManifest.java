@@ -0,0 +1,118 @@
+package com.pri1712.searchengine.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The list of live segments of an index. Readers open exactly the segments listed here, so publishing a new manifest
+ * is what makes a build visible.
+ */
+public class SegmentManifest {
+    private long generation;
+    private int nextChunkId;
+    private int nextSegmentId;
+    //doc ids of appended documents start here, parsers number every input from 0.
+    private int nextDocId;
+    //avgdl every segment of this version quantizes its impacts against, fixed by the first one written, 0 until then.
+    private long impactAverageChunkSize;
+    private List<SegmentInfo> segments = new ArrayList<>();
+
+    public SegmentManifest() {}
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    public void setGeneration(long generation) {
+        this.generation = generation;
+    }
+
+    public int getNextChunkId() {
+        return nextChunkId;
+    }
+
+    public void setNextChunkId(int nextChunkId) {
+        this.nextChunkId = nextChunkId;
+    }
+
+    public int getNextSegmentId() {
+        return nextSegmentId;
+    }
+
+    public void setNextSegmentId(int nextSegmentId) {
+        this.nextSegmentId = nextSegmentId;
+    }
+
+    public int getNextDocId() {
+        return nextDocId;
+    }
+
+    public void setNextDocId(int nextDocId) {
+        this.nextDocId = nextDocId;
+    }
+
+    public long getImpactAverageChunkSize() {
+        return impactAverageChunkSize;
+    }
+
+    public void setImpactAverageChunkSize(long impactAverageChunkSize) {
+        this.impactAverageChunkSize = impactAverageChunkSize;
+    }
+
+    public List<SegmentInfo> getSegments() {
+        return segments;
+    }
+
+    public void setSegments(List<SegmentInfo> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * BM25 statistics over every segment, so a term scores the same no matter which segment it is found in.
+     */
+    @JsonIgnore
+    public BM25Stats getGlobalStats() {
+        return statsOf(segments);
+    }
+
+    public static BM25Stats statsOf(List<SegmentInfo> segments) {
+        long totalChunks = 0;
+        long totalTokens = 0;
+        for (SegmentInfo segment : segments) {
+            totalChunks += segment.getChunkCount();
+            totalTokens += segment.getTotalTokens();
+        }
+        return BM25Stats.fromTotals(totalChunks, totalTokens);
+    }
+
+    /**
+     * The segments served by one of shardCount shards. Shards take consecutive runs of segments, so each one covers a
+     * contiguous chunk id range, and the runs are cut where the running chunk count passes an equal share. Every shard
+     * gets at least one segment.
+     */
+    public List<SegmentInfo> shardSegments(int shard, int shardCount) {
+        if (shardCount < 1 || shard < 0 || shard >= shardCount) {
+            throw new IllegalArgumentException("Shard " + shard + " out of range for " + shardCount + " shards");
+        }
+        if (shardCount > segments.size()) {
+            throw new IllegalArgumentException("Cannot split " + segments.size() + " segments into " + shardCount + " shards");
+        }
+        long[] chunksBefore = new long[segments.size() + 1];
+        for (int i = 0; i < segments.size(); i++) {
+            chunksBefore[i + 1] = chunksBefore[i] + segments.get(i).getChunkCount();
+        }
+        long totalChunks = chunksBefore[segments.size()];
+        int start = 0;
+        for (int s = 0; ; s++) {
+            //leave at least one segment for each of the shards after this one.
+            int lastEnd = segments.size() - (shardCount - s - 1);
+            long target = totalChunks * (s + 1) / shardCount;
+            int end = start + 1;
+            while (end < lastEnd && chunksBefore[end] < target) end++;
+            if (s == shard) return new ArrayList<>(segments.subList(start, end));
+            start = end;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.pri1712.searchengine.model;
+
+/**
+ * The best window of a scored chunk's text for a query instead of the whole chunk. highlights holds the start and end
+ * char of every query term match in text, in pairs, so highlights[2 * i] to highlights[2 * i + 1] is the i-th match.
+ */
+public class Snippet {
+    private double score;
+    private int chunkId;
+    private int docId;
+    private String text;
+    //char offset of text in the chunk's text.
+    private int chunkOffset;
+    private int[] highlights;
+
+    public Snippet() {}
+
+    public Snippet(double score, int chunkId, int docId, String text, int chunkOffset, int[] highlights) {
+        this.score = score;
+        this.chunkId = chunkId;
+        this.docId = docId;
+        this.text = text;
+        this.chunkOffset = chunkOffset;
+        this.highlights = highlights;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public void setScore(double score) {
+        this.score = score;
+    }
+
+    public int getChunkId() {
+        return chunkId;
+    }
+
+    public void setChunkId(int chunkId) {
+        this.chunkId = chunkId;
+    }
+
+    public int getDocId() {
+        return docId;
+    }
+
+    public void setDocId(int docId) {
+        this.docId = docId;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public int getChunkOffset() {
+        return chunkOffset;
+    }
+
+    public void setChunkOffset(int chunkOffset) {
+        this.chunkOffset = chunkOffset;
+    }
+
+    public int[] getHighlights() {
+        return highlights;
+    }
+
+    public void setHighlights(int[] highlights) {
+        this.highlights = highlights;
+    }
+
+    /**
+     * The text with every highlight wrapped in open and close, e.g. for printing to a terminal.
+     */
+    public String highlighted(String open, String close) {
+        int extra = highlights.length / 2 * (open.length() + close.length());
+        StringBuilder marked = new StringBuilder(text.length() + extra);
+        int last = 0;
+        for (int i = 0; i < highlights.length; i += 2) {
+            marked.append(text, last, highlights[i]).append(open).append(text, highlights[i], highlights[i + 1])
+                    .append(close);
+            last = highlights[i + 1];
+        }
+        return marked.append(text, last, text.length()).toString();
+    }
+}
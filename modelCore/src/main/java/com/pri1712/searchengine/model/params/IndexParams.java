@@ -0,0 +1,78 @@
+package com.pri1712.searchengine.model.params;
+
+public class IndexParams {
+    private static boolean POSITIONAL_INDEX;
+    private static int MAX_SEGMENT_CHUNKS;
+    private static int IMPACT_BITS;
+    private static String POSTINGS_CODEC;
+    private static double DENSE_POSTINGS_RATIO;
+    private static int CHUNK_BLOCK_SIZE;
+    private static boolean SHARED_DOCUMENT_TEXT;
+
+    public IndexParams(boolean positionalIndex, int maxSegmentChunks) {
+        this(positionalIndex, maxSegmentChunks, 0);
+    }
+
+    public IndexParams(boolean positionalIndex, int maxSegmentChunks, int impactBits) {
+        this(positionalIndex, maxSegmentChunks, impactBits, null);
+    }
+
+    public IndexParams(boolean positionalIndex, int maxSegmentChunks, int impactBits, String postingsCodec) {
+        this(positionalIndex, maxSegmentChunks, impactBits, postingsCodec, 0);
+    }
+
+    public IndexParams(boolean positionalIndex, int maxSegmentChunks, int impactBits, String postingsCodec,
+                       double densePostingsRatio) {
+        this(positionalIndex, maxSegmentChunks, impactBits, postingsCodec, densePostingsRatio, 0);
+    }
+
+    public IndexParams(boolean positionalIndex, int maxSegmentChunks, int impactBits, String postingsCodec,
+                       double densePostingsRatio, int chunkBlockSize) {
+        this(positionalIndex, maxSegmentChunks, impactBits, postingsCodec, densePostingsRatio, chunkBlockSize, true);
+    }
+
+    public IndexParams(boolean positionalIndex, int maxSegmentChunks, int impactBits, String postingsCodec,
+                       double densePostingsRatio, int chunkBlockSize, boolean sharedDocumentText) {
+        POSITIONAL_INDEX = positionalIndex;
+        MAX_SEGMENT_CHUNKS = maxSegmentChunks;
+        IMPACT_BITS = impactBits;
+        POSTINGS_CODEC = postingsCodec;
+        DENSE_POSTINGS_RATIO = densePostingsRatio;
+        CHUNK_BLOCK_SIZE = chunkBlockSize;
+        SHARED_DOCUMENT_TEXT = sharedDocumentText;
+    }
+
+    public static boolean isPositionalIndex() {
+        return POSITIONAL_INDEX;
+    }
+
+    //a build starts a new segment once the current one holds this many chunks, 0 keeps the whole build in one segment.
+    public static int getMaxSegmentChunks() {
+        return MAX_SEGMENT_CHUNKS;
+    }
+
+    //bits of the quantized BM25 impact stored per posting, 0 builds the index without impacts.
+    public static int getImpactBits() {
+        return IMPACT_BITS;
+    }
+
+    //vbyte or pfor also writes binary block postings that queries decode, null keeps the JSON postings only.
+    public static String getPostingsCodec() {
+        return POSTINGS_CODEC;
+    }
+
+    //block postings of terms in at least this share of a segment's chunks are stored as bitmaps, 0 never does.
+    public static double getDensePostingsRatio() {
+        return DENSE_POSTINGS_RATIO;
+    }
+
+    //chunk text is deflated in blocks of about this many bytes, 0 stores it raw.
+    public static int getChunkBlockSize() {
+        return CHUNK_BLOCK_SIZE;
+    }
+
+    //each document's text is stored once and chunks are ranges of it, false stores every chunk's text on its own.
+    public static boolean isSharedDocumentText() {
+        return SHARED_DOCUMENT_TEXT;
+    }
+}
@@ -0,0 +1,48 @@
+package com.pri1712.searchengine.model.params;
+
+public class MergeParams {
+    private static int SEGMENTS_PER_TIER;
+    private static int MAX_MERGE_AT_ONCE;
+    private static double TIER_SIZE_RATIO;
+    private static int MAX_SEGMENT_COUNT;
+    private static long MERGE_BYTES_PER_SECOND;
+    private static long MERGE_INTERVAL_MILLIS;
+
+    public MergeParams(int segmentsPerTier, int maxMergeAtOnce, double tierSizeRatio, int maxSegmentCount,
+                       long mergeBytesPerSecond, long mergeIntervalMillis) {
+        SEGMENTS_PER_TIER = segmentsPerTier;
+        MAX_MERGE_AT_ONCE = maxMergeAtOnce;
+        TIER_SIZE_RATIO = tierSizeRatio;
+        MAX_SEGMENT_COUNT = maxSegmentCount;
+        MERGE_BYTES_PER_SECOND = mergeBytesPerSecond;
+        MERGE_INTERVAL_MILLIS = mergeIntervalMillis;
+    }
+
+    //adjacent segments of the same tier are merged once there are this many of them.
+    public static int getSegmentsPerTier() {
+        return SEGMENTS_PER_TIER;
+    }
+
+    public static int getMaxMergeAtOnce() {
+        return MAX_MERGE_AT_ONCE;
+    }
+
+    //segments whose sizes are within this factor of each other share a tier.
+    public static double getTierSizeRatio() {
+        return TIER_SIZE_RATIO;
+    }
+
+    //hard cap on the number of live segments, above it the cheapest adjacent segments are merged regardless of tier.
+    public static int getMaxSegmentCount() {
+        return MAX_SEGMENT_COUNT;
+    }
+
+    //0 merges at full speed.
+    public static long getMergeBytesPerSecond() {
+        return MERGE_BYTES_PER_SECOND;
+    }
+
+    public static long getMergeIntervalMillis() {
+        return MERGE_INTERVAL_MILLIS;
+    }
+}
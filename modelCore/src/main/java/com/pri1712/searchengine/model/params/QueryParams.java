@@ -3,9 +3,44 @@ package com.pri1712.searchengine.model.params;
 public class QueryParams {
     private static int TOP_K;
     private static int RECORD_SIZE;
+    private static long MEMORY_BUDGET_BYTES;
+    private static long POSTING_BUDGET;
+    private static long TIME_BUDGET_MICROS;
+    private static double DF_CEILING;
+    private static boolean REQUIRE_ALL_TERMS;
+    private static long CHUNK_CACHE_BYTES;
     public QueryParams(int TOP_K, int RECORD_SIZE) {
+        this(TOP_K, RECORD_SIZE, 0);
+    }
+
+    public QueryParams(int TOP_K, int RECORD_SIZE, long memoryBudgetBytes) {
+        this(TOP_K, RECORD_SIZE, memoryBudgetBytes, 0, 0);
+    }
+
+    public QueryParams(int TOP_K, int RECORD_SIZE, long memoryBudgetBytes, long postingBudget, long timeBudgetMicros) {
+        this(TOP_K, RECORD_SIZE, memoryBudgetBytes, postingBudget, timeBudgetMicros, 0);
+    }
+
+    public QueryParams(int TOP_K, int RECORD_SIZE, long memoryBudgetBytes, long postingBudget, long timeBudgetMicros,
+                       double dfCeiling) {
+        this(TOP_K, RECORD_SIZE, memoryBudgetBytes, postingBudget, timeBudgetMicros, dfCeiling, false);
+    }
+
+    public QueryParams(int TOP_K, int RECORD_SIZE, long memoryBudgetBytes, long postingBudget, long timeBudgetMicros,
+                       double dfCeiling, boolean requireAllTerms) {
+        this(TOP_K, RECORD_SIZE, memoryBudgetBytes, postingBudget, timeBudgetMicros, dfCeiling, requireAllTerms, 0);
+    }
+
+    public QueryParams(int TOP_K, int RECORD_SIZE, long memoryBudgetBytes, long postingBudget, long timeBudgetMicros,
+                       double dfCeiling, boolean requireAllTerms, long chunkCacheBytes) {
         QueryParams.TOP_K = TOP_K;
         QueryParams.RECORD_SIZE = RECORD_SIZE;
+        QueryParams.MEMORY_BUDGET_BYTES = memoryBudgetBytes;
+        QueryParams.POSTING_BUDGET = postingBudget;
+        QueryParams.TIME_BUDGET_MICROS = timeBudgetMicros;
+        QueryParams.DF_CEILING = dfCeiling;
+        QueryParams.REQUIRE_ALL_TERMS = requireAllTerms;
+        QueryParams.CHUNK_CACHE_BYTES = chunkCacheBytes;
     }
 
     public static int getTOP_K() {
@@ -14,4 +49,39 @@ public class QueryParams {
     public static int getRECORD_SIZE() {
         return RECORD_SIZE;
     }
+
+    //heap an opened index may retain in its resident structures, 0 opens indexes of any size.
+    public static long getMemoryBudgetBytes() {
+        return MEMORY_BUDGET_BYTES;
+    }
+
+    //postings a segment may score per query before its impact-ordered traversal stops, 0 for no limit.
+    public static long getPostingBudget() {
+        return POSTING_BUDGET;
+    }
+
+    //time a segment may spend in its impact-ordered traversal per query, 0 for no limit.
+    public static long getTimeBudgetMicros() {
+        return TIME_BUDGET_MICROS;
+    }
+
+    //with either budget set, segments built with impacts answer queries score-at-a-time.
+    public static boolean hasQueryBudget() {
+        return POSTING_BUDGET > 0 || TIME_BUDGET_MICROS > 0;
+    }
+
+    //share of all chunks above which a query term only scores candidates found by rarer terms, 0 never demotes.
+    public static double getDfCeiling() {
+        return DF_CEILING;
+    }
+
+    //AND mode, every query term is required as if written +term.
+    public static boolean isRequireAllTerms() {
+        return REQUIRE_ALL_TERMS;
+    }
+
+    //inflated chunk blocks an index keeps on the heap, 0 inflates a block for every chunk read.
+    public static long getChunkCacheBytes() {
+        return CHUNK_CACHE_BYTES;
+    }
 }
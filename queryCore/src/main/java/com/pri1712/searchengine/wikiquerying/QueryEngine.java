@@ -3,62 +3,163 @@ package com.pri1712.searchengine.wikiquerying;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.pri1712.searchengine.indexreader.IndexData;
 import com.pri1712.searchengine.indexreader.IndexReader;
+import com.pri1712.searchengine.indexreader.chunks.BlockCache;
 import com.pri1712.searchengine.model.BM25Stats;
-import com.pri1712.searchengine.model.ChunkMetaData;
 import com.pri1712.searchengine.model.ScoredChunk;
-import com.pri1712.searchengine.model.params.RankingParams;
-import com.pri1712.searchengine.utils.TextUtils;
+import com.pri1712.searchengine.model.SegmentInfo;
+import com.pri1712.searchengine.model.SegmentManifest;
+import com.pri1712.searchengine.model.Snippet;
+import com.pri1712.searchengine.model.params.QueryParams;
+import com.pri1712.searchengine.utils.Accountable;
+import com.pri1712.searchengine.utils.SegmentFiles;
+import com.pri1712.searchengine.wikiquerying.metrics.QueryMetrics;
+import com.pri1712.searchengine.wikiquerying.metrics.QueryMetrics.Stage;
+import com.pri1712.searchengine.wikiquerying.query.ParsedQuery;
+import com.pri1712.searchengine.wikiquerying.query.QueryParser;
+import com.pri1712.searchengine.wikiquerying.segment.SegmentSearcher;
+import com.pri1712.searchengine.wikiquerying.snippet.SnippetExtractor;
 
 import java.io.*;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-public class QueryEngine {
+/**
+ * Runs queries over every segment of an index. Document frequencies are summed over the segment dictionaries first,
+ * then each segment is scored on its own thread and the per-segment top-K lists are merged.
+ */
+public class QueryEngine implements Accountable {
     private static final Logger LOGGER = Logger.getLogger(QueryEngine.class.getName());
 
     private final ObjectMapper mapper = new ObjectMapper()
             .configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false)
             .configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, true);
 
-    private final String invertedIndex;
     private final String docStats;
-    private final String tokenIndexOffset;
     private int TOP_K;
     private final int RECORD_SIZE;
-    private final double TERM_FREQUENCY_SATURATION; // k1
-    private final double DOCUMENT_LENGTH_NORMALIZATION; // b
 
+    private final List<SegmentSearcher> segments = new ArrayList<>();
+    //inflated blocks of the segments' chunk stores, bounded on its own and not part of the memory budget.
+    private final BlockCache chunkCache = new BlockCache(QueryParams.getChunkCacheBytes());
+    //null with a single segment, which is searched on the calling thread.
+    private final ExecutorService segmentExecutor;
+    private volatile BM25Stats stats;
+    private final String version;
+    //manifest generation the segments were opened from, -1 for a pre-segment index.
+    private final long generation;
+    private final List<Runnable> closeListeners = new ArrayList<>();
+    private volatile QueryMetrics queryMetrics = new QueryMetrics();
+    private boolean closed = false;
+    //starts with the reference held by whoever opened the engine, the engine closes when the count reaches 0.
+    private final AtomicInteger refCount = new AtomicInteger(1);
 
-    private final RandomAccessFile chunkIndexFile;
-    private final RandomAccessFile chunkDataFile;
-    private IndexReader indexReader;
-    private BM25Stats stats;
-
+    /**
+     * Opens a pre-segment index: one postings directory plus one chunk store, scored as a single segment.
+     */
     public QueryEngine(IndexReader indexReader,String invertedIndex, String docStats, String tokenIndexOffset, int TOP_K,
                        String chunkDataFilePath, String chunkIndexFilePath, int RECORD_SIZE) throws IOException {
-        this.invertedIndex = invertedIndex;
         this.docStats = docStats;
-        this.tokenIndexOffset = tokenIndexOffset;
         this.TOP_K = TOP_K;
         this.RECORD_SIZE = RECORD_SIZE;
-        this.TERM_FREQUENCY_SATURATION = RankingParams.getTERM_FREQUENCY_SATURATION();
-        this.DOCUMENT_LENGTH_NORMALIZATION = RankingParams.getDOCUMENT_LENGTH_NORMALIZATION();
-        this.indexReader = indexReader;
-        this.chunkIndexFile = new RandomAccessFile(chunkIndexFilePath, "r");
-        this.chunkDataFile = new RandomAccessFile(chunkDataFilePath, "r");
 
         Path indexDirectory = Paths.get(invertedIndex);
-        Files.list(indexDirectory)
-                .filter(p -> p.getFileName().toString().endsWith("_delta_encoded.json"))
-                .findFirst()
-                .orElseThrow(() -> new RuntimeException("No inverted index found in directory: " + invertedIndex));
+        try (var files = Files.list(indexDirectory)) {
+            files.filter(p -> p.getFileName().toString().endsWith("_delta_encoded.json"))
+                    .findFirst()
+                    .orElseThrow(() -> new RuntimeException("No inverted index found in directory: " + invertedIndex));
+        }
+        segments.add(new SegmentSearcher(indexDirectory.getFileName().toString(), 0, indexReader,
+                Paths.get(chunkIndexFilePath), Paths.get(chunkDataFilePath), 0, RECORD_SIZE, chunkCache));
+        try {
+            checkMemoryBudget();
+        } catch (IllegalStateException e) {
+            closeSegments();
+            throw e;
+        }
+        this.segmentExecutor = null;
+        this.version = indexDirectory.getFileName().toString();
+        this.generation = -1;
+        LOGGER.info("Resident index memory:\n" + memoryReport());
+    }
+
+    /**
+     * Opens every segment listed in the manifest of the CURRENT version under indexRootPath. A version directory can
+     * also be passed directly.
+     */
+    public QueryEngine(String indexRootPath, int TOP_K, int RECORD_SIZE) throws IOException {
+        this(indexRootPath, 0, 1, TOP_K, RECORD_SIZE);
+    }
+
+    /**
+     * Opens only the segments of one shard of the index, see SegmentManifest.shardSegments. The engine's stats cover
+     * just those segments, a coordinator scoring across shards passes the global ones to search.
+     */
+    public QueryEngine(String indexRootPath, int shard, int shardCount, int TOP_K, int RECORD_SIZE) throws IOException {
+        this.docStats = null;
+        this.TOP_K = TOP_K;
+        this.RECORD_SIZE = RECORD_SIZE;
+
+        Path indexRoot = SegmentFiles.resolveIndexDir(Paths.get(indexRootPath));
+        this.version = indexRoot.getFileName().toString();
+        SegmentManifest manifest = SegmentFiles.readManifest(indexRoot);
+        if (manifest.getSegments().isEmpty()) {
+            throw new FileNotFoundException("No segments listed in manifest under " + indexRoot.toAbsolutePath());
+        }
+        List<SegmentInfo> segmentInfos = shardCount == 1 ? manifest.getSegments() : manifest.shardSegments(shard, shardCount);
+        try {
+            for (SegmentInfo segmentInfo : segmentInfos) {
+                segments.add(SegmentSearcher.open(indexRoot, segmentInfo, manifest.getImpactAverageChunkSize(),
+                        segments.size(), RECORD_SIZE, chunkCache));
+                //checked after every segment, so an index far over budget fails before loading all dictionaries.
+                checkMemoryBudget();
+            }
+        } catch (IOException | RuntimeException e) {
+            closeSegments();
+            throw e;
+        }
+        this.stats = SegmentManifest.statsOf(segmentInfos);
+        this.generation = manifest.getGeneration();
+        long impactAverageChunkSize = manifest.getImpactAverageChunkSize();
+        long averageChunkSize = manifest.getGlobalStats().getAverageChunkSize();
+        //impacts stay quantized against the avgdl of the version's first segment while appends move the real one.
+        if (impactAverageChunkSize > 0 && Math.abs(impactAverageChunkSize - averageChunkSize) * 10 > averageChunkSize) {
+            LOGGER.info("Impacts of " + version + " are quantized against avgdl " + impactAverageChunkSize
+                    + " while the index-wide avgdl is " + averageChunkSize + ", a rebuild brings them back in line");
+        }
+        this.segmentExecutor = segments.size() > 1 ? newSegmentExecutor(segments.size()) : null;
+        LOGGER.info("Opened " + segments.size() + " segments of generation " + manifest.getGeneration()
+                + " with " + stats.getTotalChunks() + " chunks"
+                + (shardCount == 1 ? "" : " as shard " + shard + " of " + shardCount));
+        LOGGER.info("Resident index memory:\n" + memoryReport());
+    }
+
+    private void checkMemoryBudget() {
+        long budget = QueryParams.getMemoryBudgetBytes();
+        if (budget <= 0) return;
+        long used = ramBytesUsed();
+        if (used > budget) {
+            throw new IllegalStateException(String.format("Index needs more than its memory budget of %d bytes: %d "
+                    + "bytes resident after opening %d segments", budget, used, segments.size()));
+        }
+    }
+
+    private static ExecutorService newSegmentExecutor(int segmentCount) {
+        int threads = Math.min(segmentCount, Runtime.getRuntime().availableProcessors());
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "segment-search");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public void setTopK(int topK) {
@@ -70,210 +171,325 @@ public class QueryEngine {
      * @return List of the actual text content of the top matching chunks.
      */
     public List<String> start(String query) {
-        try {
-            if (this.stats == null) {
-                initParams();
-            }
-            List<String> tokens = preprocessQuery(query);
-            LOGGER.finest("tokenized query: " + tokens);
-            if (tokens.isEmpty()) return Collections.emptyList();
-
-            List<IndexData> queryIndexData = indexReader.readTokenIndex(tokens);
-
-            if (queryIndexData.isEmpty()) {
-                LOGGER.info("No matching tokens found in index.");
-                return Collections.emptyList();
-            }
-
-            Set<Integer> uniqueChunkIds = new HashSet<>();
-            for (IndexData data : queryIndexData) {
-                LOGGER.finest("chunkIds: " + data.getIds());
-                uniqueChunkIds.addAll(data.getIds());
-            }
-
-            Map<Integer, ChunkMetaData> metadataMap = fetchMetadataMap(uniqueChunkIds);
-            //number of tokens per chunkID, to reward those with higher number of matches.
-            Map<Integer, Integer> matchedTerms = new HashMap<>();
-            Map<Integer, Double> aggregatedScores = new HashMap<>();
-
-            for (IndexData indexData : queryIndexData) {
-                //done per token.
-                LOGGER.fine("chunk ID size: " + indexData.getIds().size());
-                List<Integer> chunkIds = indexData.getIds();
-                List<Integer> freqs = indexData.getFreqs();
-
-                for (int i = 0; i < chunkIds.size(); i++) {
-                    int chunkId = chunkIds.get(i);
-                    int tf = freqs.get(i);
+        return start(query, TOP_K);
+    }
 
-                    ChunkMetaData meta = metadataMap.get(chunkId);
-                    if (meta == null) continue;
+    /**
+     * Like start(query) with its own topK, so threads sharing the engine can ask for different depths.
+     */
+    public List<String> start(String query, int topK) {
+        QueryMetrics metrics = queryMetrics;
+        QueryMetrics.Trace trace = metrics.newTrace();
+        long queryStart = System.nanoTime();
+        try {
+            long stageStart = System.nanoTime();
+            ParsedQuery parsedQuery = QueryParser.parse(query);
+            trace.add(Stage.TOKENIZE, System.nanoTime() - stageStart);
+            LOGGER.finest("tokenized query: " + parsedQuery.getTokens());
+
+            List<ScoredChunk> topChunks = topChunks(parsedQuery, topK, trace);
+            if (topChunks == null) return Collections.emptyList();
+            stageStart = System.nanoTime();
+            List<String> chunks = getChunkData(topChunks, trace);
+            trace.add(Stage.CHUNK_READ, System.nanoTime() - stageStart);
+            return chunks;
 
-                    double score = calculateBM25SingleTerm(meta, tf, chunkIds.size());
-                    aggregatedScores.merge(chunkId, score, Double::sum);
-                    matchedTerms.merge(chunkId, 1, Integer::sum);
-                }
-            }
-            List<ScoredChunk> allScoredChunks = new ArrayList<>();
-
-            int querySize = tokens.size();
-            double avgChunkSize = stats.getAverageChunkSize();
-
-            for (Map.Entry<Integer, Double> entry : aggregatedScores.entrySet()) {
-                int chunkId = entry.getKey();
-                double baseScore = entry.getValue();
-                ChunkMetaData meta = metadataMap.get(chunkId);
-                if (meta == null) continue;
-                int matched = matchedTerms.getOrDefault(chunkId, 0);
-
-                if (querySize >= 2) {
-                    double matchRatio = (double) matched / querySize;
-                    if (matchRatio < 0.5) {
-                        continue;
-                    }
-                }
-                double coverage = (double) matched / querySize;
-                double coverageBoost = 1.0 + (0.3 * coverage);
-                double termDensity = (double) matched / meta.getTokenCount();
-                double densityBoost = 1.0 + Math.min(0.2, termDensity * 10);
-                double proximityBoost = calculateProximityBoostSimple(chunkId,tokens,metadataMap);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Search execution failed", e);
+            return Collections.emptyList();
+        } finally {
+            metrics.record(trace, System.nanoTime() - queryStart);
+        }
+    }
 
-                double finalScore = baseScore * coverageBoost * densityBoost * proximityBoost;
+    /**
+     * Like start, but each hit is only its best window of windowTokens tokens for the query, with the matches
+     * highlighted, see SnippetExtractor.
+     */
+    public List<Snippet> snippets(String query, int windowTokens) {
+        return snippets(query, TOP_K, windowTokens);
+    }
 
-                allScoredChunks.add(new ScoredChunk(finalScore, chunkId, meta));
-            }
-            List<ChunkMetaData> topKMetadata = filterTopKWithDeduplication(allScoredChunks);
+    public List<Snippet> snippets(String query, int topK, int windowTokens) {
+        QueryMetrics metrics = queryMetrics;
+        QueryMetrics.Trace trace = metrics.newTrace();
+        long queryStart = System.nanoTime();
+        try {
+            long stageStart = System.nanoTime();
+            ParsedQuery parsedQuery = QueryParser.parse(query);
+            trace.add(Stage.TOKENIZE, System.nanoTime() - stageStart);
 
-            return getChunkData(topKMetadata);
+            List<ScoredChunk> topChunks = topChunks(parsedQuery, topK, trace);
+            if (topChunks == null) return Collections.emptyList();
+            stageStart = System.nanoTime();
+            List<Snippet> snippets = readSnippets(topChunks, parsedQuery.getTokens(), windowTokens, trace);
+            trace.add(Stage.CHUNK_READ, System.nanoTime() - stageStart);
+            return snippets;
 
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Search execution failed", e);
             return Collections.emptyList();
+        } finally {
+            metrics.record(trace, System.nanoTime() - queryStart);
         }
     }
 
     /**
-     * Reads metadata for a set of chunk IDs in one go to minimize disk head movement logic.
+     * Best topK chunks for the query with the engine's own stats, null when no query token is in the index.
      */
-    private Map<Integer, ChunkMetaData> fetchMetadataMap(Set<Integer> chunkIds) throws IOException {
-        Map<Integer, ChunkMetaData> map = new HashMap<>();
-
-        LOGGER.fine("RECORD SIZE: " + RECORD_SIZE);
-        for (int chunkId : chunkIds) {
-            long positionInIndex = (long) chunkId * RECORD_SIZE;
+    private List<ScoredChunk> topChunks(ParsedQuery parsedQuery, int topK, QueryMetrics.Trace trace)
+            throws IOException {
+        if (this.stats == null) {
+            initParams();
+        }
+        List<String> tokens = parsedQuery.getTokens();
+        if (tokens.isEmpty()) return null;
+
+        long stageStart = System.nanoTime();
+        Map<String, Integer> docFreqs = docFreqs(tokens);
+        trace.add(Stage.DICTIONARY_LOOKUP, System.nanoTime() - stageStart);
+        if (docFreqs.values().stream().allMatch(df -> df == 0)) {
+            LOGGER.info("No matching tokens found in index.");
+            return null;
+        }
+        return search(parsedQuery, docFreqs, stats, topK, trace);
+    }
 
-            if (positionInIndex >= chunkIndexFile.length()) {
-                LOGGER.warning("ChunkID " + chunkId + " is out of bounds in index file.");
-                continue;
-            }
+    /**
+     * The plan every segment would run the query with, see QueryPlanner, without running it.
+     */
+    public String explain(String query) throws IOException {
+        ParsedQuery parsedQuery = QueryParser.parse(query);
+        if (parsedQuery.getTokens().isEmpty()) return "Query has no terms after tokenizing.\n";
+        Map<String, Integer> docFreqs = docFreqs(parsedQuery.getTokens());
+        StringBuilder explain = new StringBuilder("terms: " + parsedQuery.getTokens() + "\n");
+        for (SegmentSearcher segment : segments) {
+            explain.append(segment.explain(parsedQuery, docFreqs, getStats(), TOP_K));
+        }
+        return explain.toString();
+    }
 
-            chunkIndexFile.seek(positionInIndex);
-            int trueChunkId = chunkIndexFile.readInt();
-            long dataOffset = chunkIndexFile.readLong();
-            int dataLength = chunkIndexFile.readInt();
-            int docId = chunkIndexFile.readInt();
-            int tokenCount = chunkIndexFile.readInt();
-            LOGGER.finest("CHUNK_ID: " + chunkId +
-                    " | DATA FILE OFFSET: " + dataOffset +
-                    " | CHUNK LENGTH BYTES: " + dataLength +
-                    " | TOKENS: " + tokenCount);
-            LOGGER.finest("expected Chunk ID: " + chunkId);
-            LOGGER.finest("actual Chunk ID: " + trueChunkId);
-            if (trueChunkId != chunkId) {
-                LOGGER.severe("Chunk ID being read does not match the chunk ID expected ");
-                throw new IllegalStateException("Chunk ID being read does not match the chunk ID expected ");
+    /**
+     * Document frequency of each distinct query token summed over the engine's segments, so idf does not depend on
+     * which segment a chunk was written to.
+     */
+    public Map<String, Integer> docFreqs(List<String> tokens) throws IOException {
+        Map<String, Integer> docFreqs = new HashMap<>();
+        for (String token : tokens) {
+            if (docFreqs.containsKey(token)) continue;
+            int docFreq = 0;
+            for (SegmentSearcher segment : segments) {
+                docFreq += segment.docFreq(token);
             }
-            map.put(chunkId, new ChunkMetaData(dataOffset, dataLength, docId, tokenCount));
+            docFreqs.put(token, docFreq);
         }
-        return map;
+        return docFreqs;
     }
 
     /**
-     * Calculates the BM25 score for a single term in a specific chunk.
+     * Best topK chunks over all segments, at most one per docId, scored with the given document frequencies and
+     * collection stats.
      */
-    private double calculateBM25SingleTerm(ChunkMetaData meta, int tf, int docFreq) {
-        long totalDocs = stats.getTotalChunks();
-        double avgdl = stats.getAverageChunkSize();
-        int docLength = meta.getTokenCount();
-        double idf = Math.log(1.0 + (totalDocs - docFreq + 0.5) / (docFreq + 0.5));
-        double num = tf * (TERM_FREQUENCY_SATURATION + 1);
-        double denom = tf + TERM_FREQUENCY_SATURATION * (1 - DOCUMENT_LENGTH_NORMALIZATION +
-                DOCUMENT_LENGTH_NORMALIZATION * ((double) docLength / avgdl));
+    public List<ScoredChunk> search(ParsedQuery parsedQuery, Map<String, Integer> docFreqs, BM25Stats stats,
+                                    int topK) throws IOException {
+        QueryMetrics metrics = queryMetrics;
+        QueryMetrics.Trace trace = metrics.newTrace();
+        long queryStart = System.nanoTime();
+        try {
+            return search(parsedQuery, docFreqs, stats, topK, trace);
+        } finally {
+            metrics.record(trace, System.nanoTime() - queryStart);
+        }
+    }
 
-        return idf * (num / denom);
+    private List<ScoredChunk> search(ParsedQuery parsedQuery, Map<String, Integer> docFreqs, BM25Stats stats,
+                                     int topK, QueryMetrics.Trace trace) throws IOException {
+        List<ScoredChunk> scoredChunks = searchSegments(parsedQuery, docFreqs, stats, topK, trace);
+        long stageStart = System.nanoTime();
+        List<ScoredChunk> topChunks = mergeTopK(scoredChunks, topK);
+        trace.add(Stage.TOP_K, System.nanoTime() - stageStart);
+        return topChunks;
     }
 
     /**
-     * Uses a Min-Heap to efficiently select the Top K results.
+     * Per-segment results concatenated in segment order. A segment that fails is logged and left out, the query is
+     * answered from the others.
      */
-    private List<ChunkMetaData> filterTOPK(List<ScoredChunk> scoredChunkList) {
-        PriorityQueue<ScoredChunk> pq = new PriorityQueue<>(
-                Comparator.comparingDouble(ScoredChunk::getScore)
-        );
-
-        for (ScoredChunk chunk : scoredChunkList) {
-            pq.add(chunk);
-            if (pq.size() > TOP_K) {
-                pq.poll();
+    private List<ScoredChunk> searchSegments(ParsedQuery parsedQuery, Map<String, Integer> docFreqs, BM25Stats stats,
+                                             int topK, QueryMetrics.Trace trace) throws IOException {
+        List<ScoredChunk> scoredChunks = new ArrayList<>();
+        if (segmentExecutor == null) {
+            for (SegmentSearcher segment : segments) {
+                scoredChunks.addAll(segment.search(parsedQuery, docFreqs, stats, topK, trace));
             }
+            return scoredChunks;
         }
-        List<ChunkMetaData> result = new ArrayList<>();
-        while (!pq.isEmpty()) {
-            ScoredChunk polledElement = pq.poll();
-            LOGGER.fine("Score is " + polledElement.getScore());
-            result.add(0, polledElement.getChunkMetaData());
+        List<Future<List<ScoredChunk>>> futures = new ArrayList<>(segments.size());
+        for (SegmentSearcher segment : segments) {
+            futures.add(segmentExecutor.submit(() -> segment.search(parsedQuery, docFreqs, stats, topK, trace)));
         }
-        return result;
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                scoredChunks.addAll(futures.get(i).get());
+            } catch (ExecutionException e) {
+                LOGGER.log(Level.WARNING, "Search failed in segment " + segments.get(i).getName(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<List<ScoredChunk>> future : futures) future.cancel(true);
+                throw new InterruptedIOException("Interrupted while waiting for segment results");
+            }
+        }
+        return scoredChunks;
     }
 
     /*
-    Handles deduplication by recording docId of chunks, allowing only one chunk per DocId in the final results.
+    Merges the per-segment lists, allowing only one chunk per DocId in the final results. The sort is stable, so ties
+    keep segment order and results do not depend on thread scheduling.
      */
-    private List<ChunkMetaData> filterTopKWithDeduplication(List<ScoredChunk> scoredChunkList) {
+    private List<ScoredChunk> mergeTopK(List<ScoredChunk> scoredChunkList, int topK) {
         scoredChunkList.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
 
-        List<ChunkMetaData> result = new ArrayList<>();
+        List<ScoredChunk> result = new ArrayList<>();
         Set<Integer> usedDocIds = new HashSet<>();
 
         for (ScoredChunk chunk : scoredChunkList) {
-            LOGGER.finest("Score is " + chunk.getScore() + " for chunkID: " + chunk.getChunkId());
             int docId = chunk.getChunkMetaData().getDocId();
-            if (!usedDocIds.contains(docId)) {
-                LOGGER.fine("Score: " + chunk.getScore() + " | DocId: " + docId);
-                result.add(chunk.getChunkMetaData());
-                usedDocIds.add(docId);
-
-                if (result.size() >= TOP_K) {
+            if (usedDocIds.add(docId)) {
+                result.add(chunk);
+                if (result.size() >= topK) {
                     break;
                 }
             } else {
                 LOGGER.finest("Skipped duplicate docId: " + docId + " (overlap)");
             }
         }
-
         return result;
     }
 
     /**
-     * Reads the actual text content from the chunks.data file.
+     * Reads the actual text content of the chunks from the segments that hold them.
      */
-    private List<String> getChunkData(List<ChunkMetaData> chunkMetaDataList) throws IOException {
+    private List<String> getChunkData(List<ScoredChunk> scoredChunks, QueryMetrics.Trace trace) throws IOException {
         List<String> chunks = new ArrayList<>();
-        for (ChunkMetaData meta : chunkMetaDataList) {
-            chunkDataFile.seek(meta.getDataOffset());
-            byte[] buffer = new byte[meta.getDataLength()];
-            try {
-                chunkDataFile.readFully(buffer);
-                LOGGER.finest("data read is: " + new String(buffer));
-                chunks.add(new String(buffer, StandardCharsets.UTF_8));
-            } catch (EOFException e) {
-                LOGGER.warning("Unexpected EOF reading chunk at offset: " + meta.getDataOffset());
+        for (ScoredChunk chunk : scoredChunks) {
+            String text = readChunk(chunk);
+            if (text != null) {
+                chunks.add(text);
+                trace.addChunkBytesRead(chunk.getChunkMetaData().getDataLength());
             }
         }
         return chunks;
     }
 
-    private void initParams() throws IOException {
+    /**
+     * Snippets of chunks returned by this engine's search, in the same order, leaving out chunks whose data is
+     * truncated. Like readChunk, the bytes read are not counted in the query metrics.
+     */
+    public List<Snippet> readSnippets(List<ScoredChunk> scoredChunks, List<String> tokens, int windowTokens)
+            throws IOException {
+        return readSnippets(scoredChunks, tokens, windowTokens, queryMetrics.newTrace());
+    }
+
+    private List<Snippet> readSnippets(List<ScoredChunk> scoredChunks, List<String> tokens, int windowTokens,
+                                       QueryMetrics.Trace trace) throws IOException {
+        SnippetExtractor extractor = new SnippetExtractor(tokens, windowTokens);
+        Map<Integer, List<ScoredChunk>> chunksBySegment = new TreeMap<>();
+        for (ScoredChunk chunk : scoredChunks) {
+            chunksBySegment.computeIfAbsent(chunk.getSegmentOrdinal(), k -> new ArrayList<>()).add(chunk);
+        }
+        Map<Integer, Snippet> snippetsByChunk = new HashMap<>();
+        for (Map.Entry<Integer, List<ScoredChunk>> entry : chunksBySegment.entrySet()) {
+            SegmentSearcher segment = segments.get(entry.getKey());
+            for (Snippet snippet : segment.readSnippets(entry.getValue(), extractor, trace)) {
+                snippetsByChunk.put(snippet.getChunkId(), snippet);
+            }
+        }
+        List<Snippet> snippets = new ArrayList<>(snippetsByChunk.size());
+        for (ScoredChunk chunk : scoredChunks) {
+            Snippet snippet = snippetsByChunk.get(chunk.getChunkId());
+            if (snippet != null) snippets.add(snippet);
+        }
+        return snippets;
+    }
+
+    /**
+     * Text of a chunk returned by this engine's search, null if its data is truncated.
+     */
+    public String readChunk(ScoredChunk chunk) throws IOException {
+        return segments.get(chunk.getSegmentOrdinal()).readChunk(chunk.getChunkMetaData());
+    }
+
+    /**
+     * One line per segment with the number of queries it served and its average and max search latency.
+     */
+    public String segmentLatencyReport() {
+        StringBuilder report = new StringBuilder();
+        for (SegmentSearcher segment : segments) {
+            long count = segment.getQueryCount();
+            double avgMs = count == 0 ? 0.0 : segment.getTotalLatencyNanos() / (count * 1_000_000.0);
+            report.append(String.format("%s: queries=%d avg=%.3f ms max=%.3f ms%n", segment.getName(), count, avgMs,
+                    segment.getMaxLatencyNanos() / 1_000_000.0));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Heap retained by the open segments. Query metrics are left out, they can be shared by several engines, and so is
+     * the chunk block cache, which has its own bound.
+     */
+    @Override
+    public long ramBytesUsed() {
+        long bytes = 0;
+        for (SegmentSearcher segment : segments) {
+            bytes += segment.ramBytesUsed();
+        }
+        return bytes;
+    }
+
+    /**
+     * One line per segment with its dictionary size and retained bytes, then the totals against the memory budget.
+     * Chunk stores are listed separately because they live in the page cache, not on the heap, and so is the cache of
+     * their inflated blocks.
+     */
+    public String memoryReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-16s %10s %14s %16s%n", "segment", "terms", "heap bytes", "chunk store bytes"));
+        long chunkStoreBytes = 0;
+        for (SegmentSearcher segment : segments) {
+            long segmentChunkStore;
+            try {
+                segmentChunkStore = segment.getChunkStoreBytes();
+            } catch (IOException e) {
+                segmentChunkStore = -1;
+            }
+            chunkStoreBytes += Math.max(segmentChunkStore, 0);
+            report.append(String.format("%-16s %10d %14d %16d%n", segment.getName(), segment.getDictionarySize(),
+                    segment.ramBytesUsed(), segmentChunkStore));
+        }
+        long used = ramBytesUsed();
+        long budget = QueryParams.getMemoryBudgetBytes();
+        report.append(String.format("%-16s %10s %14d %16d%n", "total", "", used, chunkStoreBytes));
+        report.append(String.format("chunk block cache: %d of %d bytes, %d hits, %d misses%n",
+                chunkCache.ramBytesUsed(), chunkCache.getMaxBytes(), chunkCache.getHits(), chunkCache.getMisses()));
+        report.append(String.format("query metrics: %d bytes, budget: %s%n", queryMetrics.ramBytesUsed(),
+                budget <= 0 ? "none" : String.format("%d bytes (%.1f%% used)", budget, 100.0 * used / budget)));
+        return report.toString();
+    }
+
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    /**
+     * Records this engine's queries into metrics from now on, so stage latencies can outlive a version swap.
+     */
+    public void setQueryMetrics(QueryMetrics queryMetrics) {
+        this.queryMetrics = queryMetrics;
+    }
+
+    private synchronized void initParams() throws IOException {
+        //queries on several threads can race to the first load.
+        if (this.stats != null) return;
         File file = new File(docStats);
         if (!file.exists()) {
             throw new FileNotFoundException("Stats file not found: " + docStats);
@@ -281,38 +497,92 @@ public class QueryEngine {
         this.stats = mapper.readValue(file, BM25Stats.class);
     }
 
-    private List<String> preprocessQuery(String line) {
-        return TextUtils.tokenizeQuery(line);
+    /**
+     * Chunk and token totals of the segments this engine serves.
+     */
+    public BM25Stats getStats() throws IOException {
+        if (this.stats == null) {
+            initParams();
+        }
+        return stats;
     }
 
-    public void close() throws IOException {
-        if (chunkIndexFile != null) chunkIndexFile.close();
-        if (chunkDataFile != null) chunkDataFile.close();
+    public String getVersion() {
+        return version;
     }
 
-    private double calculateProximityBoostSimple(int chunkId, List<String> queryTokens,
-                                                 Map<Integer, ChunkMetaData> metadataMap) {
-        if (queryTokens.size() <= 1) return 1.0;
+    public long getGeneration() {
+        return generation;
+    }
 
-        // Without position data, we can only estimate based on:
-        // 1. Term frequency - if terms appear multiple times, more likely to be close
-        // 2. Chunk size - smaller chunks mean terms are inherently closer
+    /**
+     * Runs the listener once this engine is closed, right away if it already is.
+     */
+    public void onClose(Runnable listener) {
+        synchronized (closeListeners) {
+            if (!closed) {
+                closeListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
 
-        ChunkMetaData meta = metadataMap.get(chunkId);
-        if (meta == null) return 1.0;
+    /**
+     * Takes a reference for one query or batch of queries, false once the engine has been released by everyone and closed.
+     */
+    public boolean tryIncRef() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) return false;
+            if (refCount.compareAndSet(count, count + 1)) return true;
+        }
+    }
 
-        int chunkSize = meta.getTokenCount();
+    /**
+     * Drops a reference, the last one closes the segments.
+     */
+    public void decRef() throws IOException {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            LOGGER.info("Last reference to index version " + version + " released, closing it");
+            close();
+        } else if (count < 0) {
+            throw new IllegalStateException("Index version " + version + " released more often than acquired");
+        }
+    }
 
-        // Smaller chunks get a small proximity boost
-        // Rationale: In a 100-token chunk, 3 terms are likely closer than in a 500-token chunk
-        if (chunkSize < 100) {
-            return 1.15;
-        } else if (chunkSize < 200) {
-            return 1.10;
-        } else if (chunkSize < 300) {
-            return 1.05;
+    public void close() throws IOException {
+        List<Runnable> listeners;
+        synchronized (closeListeners) {
+            if (closed) return;
+            closed = true;
+            listeners = new ArrayList<>(closeListeners);
+            closeListeners.clear();
         }
+        if (segmentExecutor != null) segmentExecutor.shutdownNow();
+        try {
+            closeSegments();
+        } finally {
+            for (Runnable listener : listeners) {
+                try {
+                    listener.run();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Close listener of index version " + version + " failed", e);
+                }
+            }
+        }
+    }
 
-        return 1.0;
+    private void closeSegments() throws IOException {
+        IOException failure = null;
+        for (SegmentSearcher segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
     }
-}
\ No newline at end of file
+}
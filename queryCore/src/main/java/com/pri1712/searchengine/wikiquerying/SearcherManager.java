@@ -0,0 +1,222 @@
+package com.pri1712.searchengine.wikiquerying;
+
+import com.pri1712.searchengine.model.Snippet;
+import com.pri1712.searchengine.utils.SegmentFiles;
+import com.pri1712.searchengine.wikiquerying.metrics.QueryMetrics;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hands out the live QueryEngine and swaps it when a new index version is published. Every query runs between
+ * acquire and release, so a swapped-out engine keeps serving the queries already holding it and is closed when the
+ * last of them releases it. A new version is warmed with recent queries before it becomes visible. Versions older than
+ * the live one are deleted once no engine of the manager is left on them.
+ */
+public class SearcherManager {
+    private static final Logger LOGGER = Logger.getLogger(SearcherManager.class.getName());
+    private static final int WARMUP_QUERIES = 32;
+
+    //null for an index without versions, such a manager never refreshes.
+    private final Path indexRoot;
+    private final int TOP_K;
+    private final int RECORD_SIZE;
+    private final AtomicReference<QueryEngine> current = new AtomicReference<>();
+    private final Deque<String> recentQueries = new ArrayDeque<>();
+    //shared by every engine the manager serves, warm-up queries run before an engine is attached and are not counted.
+    private final QueryMetrics queryMetrics = new QueryMetrics();
+    //open engines per version, a version is only deleted once its count is gone.
+    private final Map<String, Integer> openVersions = new HashMap<>();
+    private volatile boolean closed = false;
+
+    public SearcherManager(String indexRootPath, int TOP_K, int RECORD_SIZE) throws IOException {
+        this.indexRoot = Paths.get(indexRootPath);
+        this.TOP_K = TOP_K;
+        this.RECORD_SIZE = RECORD_SIZE;
+        QueryEngine queryEngine = new QueryEngine(indexRootPath, TOP_K, RECORD_SIZE);
+        queryEngine.setQueryMetrics(queryMetrics);
+        track(queryEngine);
+        current.set(queryEngine);
+    }
+
+    /**
+     * Manages an already opened engine that has no versions to refresh from.
+     */
+    public SearcherManager(QueryEngine queryEngine) {
+        this.indexRoot = null;
+        this.TOP_K = 0;
+        this.RECORD_SIZE = 0;
+        queryEngine.setQueryMetrics(queryMetrics);
+        current.set(queryEngine);
+    }
+
+    /**
+     * The live engine with a reference taken for the caller, who must hand it back to release.
+     */
+    public QueryEngine acquire() {
+        while (true) {
+            if (closed) throw new IllegalStateException("Searcher manager is closed");
+            QueryEngine engine = current.get();
+            //a swap can close the engine between get and tryIncRef, in that case the next get sees the new one.
+            if (engine.tryIncRef()) return engine;
+        }
+    }
+
+    public void release(QueryEngine engine) throws IOException {
+        engine.decRef();
+    }
+
+    /**
+     * Runs one query against the live engine and remembers it for warming the next version.
+     */
+    public List<String> search(String query) throws IOException {
+        rememberQuery(query);
+        QueryEngine engine = acquire();
+        try {
+            return engine.start(query);
+        } finally {
+            release(engine);
+        }
+    }
+
+    /**
+     * Like search, with each hit cut down to its snippet of windowTokens tokens.
+     */
+    public List<Snippet> snippets(String query, int windowTokens) throws IOException {
+        rememberQuery(query);
+        QueryEngine engine = acquire();
+        try {
+            return engine.snippets(query, windowTokens);
+        } finally {
+            release(engine);
+        }
+    }
+
+    /**
+     * Opens the version CURRENT points to if it or its manifest generation differs from the live one, warms it and
+     * swaps it in.
+     * @return true if a new version is now live.
+     */
+    public synchronized boolean maybeRefresh() throws IOException {
+        if (indexRoot == null || closed) return false;
+        QueryEngine live = current.get();
+        Path indexDir = SegmentFiles.resolveIndexDir(indexRoot);
+        String version = indexDir.getFileName().toString();
+        long generation = SegmentFiles.readManifest(indexDir).getGeneration();
+        if (Objects.equals(version, live.getVersion()) && generation == live.getGeneration()) {
+            return false;
+        }
+        QueryEngine fresh = new QueryEngine(indexDir.toString(), TOP_K, RECORD_SIZE);
+        warm(fresh);
+        fresh.setQueryMetrics(queryMetrics);
+        track(fresh);
+        current.set(fresh);
+        LOGGER.info("Swapped index version " + live.getVersion() + " generation " + live.getGeneration() + " for "
+                + version + " generation " + fresh.getGeneration());
+        //drops the manager's own reference, queries still holding the old engine finish on it.
+        live.decRef();
+        return true;
+    }
+
+    /**
+     * Moves readers off segments that a merge replaced and deletes the segment directories once every engine that
+     * may still read them has been released.
+     */
+    public synchronized void retireSegments(List<Path> segmentDirs) {
+        QueryEngine live = current.get();
+        try {
+            maybeRefresh();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Refresh after merge failed, old segments stay until the next swap", e);
+        }
+        //the engine that was live when the merge published is the newest one that can hold the old segments.
+        live.onClose(() -> {
+            for (Path segmentDir : segmentDirs) {
+                try {
+                    SegmentFiles.deleteRecursively(segmentDir);
+                    LOGGER.info("Deleted merged-away segment " + segmentDir.getFileName());
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Could not delete merged-away segment " + segmentDir, e);
+                }
+            }
+        });
+    }
+
+    public QueryMetrics getQueryMetrics() {
+        return queryMetrics;
+    }
+
+    public String getCurrentVersion() {
+        return current.get().getVersion();
+    }
+
+    private void track(QueryEngine engine) {
+        String version = engine.getVersion();
+        synchronized (openVersions) {
+            openVersions.merge(version, 1, Integer::sum);
+        }
+        engine.onClose(() -> untrack(version));
+    }
+
+    /**
+     * Runs when an engine closes, which is after its last query on a swapped-out version. Versions between the drained
+     * one and the live one that this manager never opened go too, nothing published them to it.
+     */
+    private void untrack(String version) {
+        Set<String> inUse;
+        synchronized (openVersions) {
+            if (openVersions.merge(version, -1, Integer::sum) == 0) openVersions.remove(version);
+            inUse = new HashSet<>(openVersions.keySet());
+        }
+        if (indexRoot == null) return;
+        try {
+            SegmentFiles.deleteVersionsBefore(indexRoot, current.get().getVersion(), inUse);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not delete drained index versions under " + indexRoot, e);
+        }
+    }
+
+    private void warm(QueryEngine engine) {
+        List<String> queries;
+        synchronized (recentQueries) {
+            queries = new ArrayList<>(recentQueries);
+        }
+        long start = System.nanoTime();
+        for (String query : queries) {
+            try {
+                engine.start(query);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Warm-up query failed: " + query, e);
+            }
+        }
+        LOGGER.info(String.format("Warmed index version %s with %d queries in %d ms", engine.getVersion(),
+                queries.size(), (System.nanoTime() - start) / 1_000_000));
+    }
+
+    private void rememberQuery(String query) {
+        synchronized (recentQueries) {
+            recentQueries.remove(query);
+            recentQueries.addLast(query);
+            if (recentQueries.size() > WARMUP_QUERIES) recentQueries.removeFirst();
+        }
+    }
+
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        current.get().decRef();
+    }
+}
@@ -0,0 +1,162 @@
+package com.pri1712.searchengine.wikiquerying.metrics;
+
+import com.pri1712.searchengine.utils.Accountable;
+import com.pri1712.searchengine.utils.LatencyHistogram;
+import com.pri1712.searchengine.utils.RamUsage;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where query time goes. Each query collects its stage times in a Trace, the segments of a query add to the same
+ * trace from their own threads, and the finished trace is recorded as one sample per stage it reached. Stage times
+ * of segments searched in parallel are summed, so with several segments the stages can add up to more than the
+ * query's wall time.
+ */
+public class QueryMetrics implements Accountable {
+
+    public enum Stage {
+        TOKENIZE,
+        //df lookups for the global statistics plus each segment's offset lookups.
+        DICTIONARY_LOOKUP,
+        //postings lines read and delta-decoded, and positions read for phrase matching.
+        POSTINGS_DECODE,
+        METADATA_FETCH,
+        //BM25, boosts and the proximity rerank.
+        SCORING,
+        //per-segment dedup and the final merge.
+        TOP_K,
+        CHUNK_READ
+    }
+
+    private final LatencyHistogram queryLatency = new LatencyHistogram();
+    private final Map<Stage, LatencyHistogram> stageLatency = new EnumMap<>(Stage.class);
+    private final LongAdder postingsDecoded = new LongAdder();
+    private final LongAdder candidatesScored = new LongAdder();
+    private final LongAdder chunkRecordsRead = new LongAdder();
+    //bytes of chunk text read for whole chunks or snippets.
+    private final LongAdder chunkBytesRead = new LongAdder();
+    //segment searches that stopped at the posting or time budget before every posting was scored.
+    private final LongAdder earlyTerminations = new LongAdder();
+
+    public QueryMetrics() {
+        for (Stage stage : Stage.values()) {
+            stageLatency.put(stage, new LatencyHistogram());
+        }
+    }
+
+    public Trace newTrace() {
+        return new Trace();
+    }
+
+    public void record(Trace trace, long queryNanos) {
+        queryLatency.record(queryNanos);
+        for (Stage stage : Stage.values()) {
+            if (trace.samples.get(stage.ordinal()) > 0) {
+                stageLatency.get(stage).record(trace.nanos.get(stage.ordinal()));
+            }
+        }
+        postingsDecoded.add(trace.postingsDecoded.sum());
+        candidatesScored.add(trace.candidatesScored.sum());
+        chunkRecordsRead.add(trace.chunkRecordsRead.sum());
+        chunkBytesRead.add(trace.chunkBytesRead.sum());
+        earlyTerminations.add(trace.earlyTerminations.sum());
+    }
+
+    public void reset() {
+        queryLatency.reset();
+        for (LatencyHistogram histogram : stageLatency.values()) {
+            histogram.reset();
+        }
+        postingsDecoded.reset();
+        candidatesScored.reset();
+        chunkRecordsRead.reset();
+        chunkBytesRead.reset();
+        earlyTerminations.reset();
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long bytes = RamUsage.shallowInstance(7, 0) + queryLatency.ramBytesUsed()
+                + RamUsage.shallowInstance(3, 4) + RamUsage.sizeOfReferenceArray(Stage.values().length)
+                + 5 * RamUsage.shallowInstance(1, 8 + 4);
+        for (LatencyHistogram histogram : stageLatency.values()) {
+            bytes += histogram.ramBytesUsed();
+        }
+        return bytes;
+    }
+
+    /**
+     * Percentiles of the whole query and of every stage in microseconds, followed by the work counters.
+     */
+    public String report() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%-18s %9s %10s %10s %10s %10s %10s %10s%n", "stage (us)", "count", "mean", "p50",
+                "p90", "p99", "p999", "max"));
+        LatencyHistogram.Snapshot query = queryLatency.snapshot();
+        appendRow(report, "query", query);
+        for (Stage stage : Stage.values()) {
+            appendRow(report, stage.name().toLowerCase(), stageLatency.get(stage).snapshot());
+        }
+        long queries = query.getCount();
+        report.append(String.format("postings decoded: %d (%.1f per query), candidates scored: %d (%.1f per query)%n",
+                postingsDecoded.sum(), queries == 0 ? 0.0 : (double) postingsDecoded.sum() / queries,
+                candidatesScored.sum(), queries == 0 ? 0.0 : (double) candidatesScored.sum() / queries));
+        report.append(String.format("chunk records read: %d (%.1f per query)%n", chunkRecordsRead.sum(),
+                queries == 0 ? 0.0 : (double) chunkRecordsRead.sum() / queries));
+        report.append(String.format("chunk bytes read: %d (%.1f per query)%n", chunkBytesRead.sum(),
+                queries == 0 ? 0.0 : (double) chunkBytesRead.sum() / queries));
+        if (earlyTerminations.sum() > 0) {
+            report.append(String.format("segment searches stopped at the query budget: %d%n", earlyTerminations.sum()));
+        }
+        return report.toString();
+    }
+
+    private static void appendRow(StringBuilder report, String name, LatencyHistogram.Snapshot snapshot) {
+        report.append(String.format("%-18s %9d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n", name, snapshot.getCount(),
+                snapshot.getMean() / 1000.0, snapshot.percentile(50) / 1000.0, snapshot.percentile(90) / 1000.0,
+                snapshot.percentile(99) / 1000.0, snapshot.percentile(99.9) / 1000.0, snapshot.getMax() / 1000.0));
+    }
+
+    /**
+     * Stage times and counters of one query, safe to add to from the segment threads.
+     */
+    public static class Trace {
+        private final AtomicLongArray nanos = new AtomicLongArray(Stage.values().length);
+        private final AtomicLongArray samples = new AtomicLongArray(Stage.values().length);
+        private final LongAdder postingsDecoded = new LongAdder();
+        private final LongAdder candidatesScored = new LongAdder();
+        private final LongAdder chunkRecordsRead = new LongAdder();
+        private final LongAdder chunkBytesRead = new LongAdder();
+        private final LongAdder earlyTerminations = new LongAdder();
+
+        private Trace() {}
+
+        public void add(Stage stage, long stageNanos) {
+            nanos.addAndGet(stage.ordinal(), stageNanos);
+            samples.incrementAndGet(stage.ordinal());
+        }
+
+        public void addPostingsDecoded(long postings) {
+            postingsDecoded.add(postings);
+        }
+
+        public void addCandidatesScored(long candidates) {
+            candidatesScored.add(candidates);
+        }
+
+        public void addChunkRecordsRead(long records) {
+            chunkRecordsRead.add(records);
+        }
+
+        public void addChunkBytesRead(long bytes) {
+            chunkBytesRead.add(bytes);
+        }
+
+        public void addEarlyTermination() {
+            earlyTerminations.increment();
+        }
+    }
+}
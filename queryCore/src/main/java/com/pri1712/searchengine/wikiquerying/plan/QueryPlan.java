@@ -0,0 +1,149 @@
+package com.pri1712.searchengine.wikiquerying.plan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How one segment evaluates a query, decided by QueryPlanner from document frequencies before any postings are read.
+ */
+public class QueryPlan {
+
+    public enum Strategy {
+        //fewer of the query's terms occur in the segment than a chunk has to match, nothing is read.
+        NO_MATCH,
+        //impact-ordered traversal under the query budget.
+        SCORE_AT_A_TIME,
+        //chunks containing every quoted phrase, then the min-should-match filter.
+        PHRASE,
+        //the required terms are intersected, rarest first with galloping advances, the others only score.
+        CONJUNCTIVE,
+        //min-should-match with top-K pruning on per-term score bounds.
+        WAND,
+        //min-should-match over every candidate, each one is scored.
+        EXHAUSTIVE
+    }
+
+    private final Strategy strategy;
+    private final int querySize;
+    private final int minShouldMatch;
+    //in query order, duplicates included, terms missing from the segment left out.
+    private final List<Term> terms;
+    private final long estimatedCandidates;
+    private final String reason;
+
+    QueryPlan(Strategy strategy, int querySize, int minShouldMatch, List<Term> terms, long estimatedCandidates,
+              String reason) {
+        this.strategy = strategy;
+        this.querySize = querySize;
+        this.minShouldMatch = minShouldMatch;
+        this.terms = Collections.unmodifiableList(terms);
+        this.estimatedCandidates = estimatedCandidates;
+        this.reason = reason;
+    }
+
+    public Strategy getStrategy() {
+        return strategy;
+    }
+
+    public int getQuerySize() {
+        return querySize;
+    }
+
+    public int getMinShouldMatch() {
+        return minShouldMatch;
+    }
+
+    public List<Term> getTerms() {
+        return terms;
+    }
+
+    public boolean hasRequiredTerms() {
+        for (Term term : terms) {
+            if (term.isRequired()) return true;
+        }
+        return false;
+    }
+
+    public boolean hasScoringOnlyTerms() {
+        for (Term term : terms) {
+            if (term.isScoringOnly()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Upper bound on the chunks the strategy generates as candidates, from the segment's document frequencies.
+     */
+    public long getEstimatedCandidates() {
+        return estimatedCandidates;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    /**
+     * The strategy and why, then one line per term with its document frequencies and role, cheapest first.
+     */
+    public String explain(String segmentName) {
+        StringBuilder explain = new StringBuilder();
+        explain.append(String.format("%s: %s, %d of %d terms must match, ~%d candidates (%s)%n", segmentName,
+                strategy, minShouldMatch, querySize, estimatedCandidates, reason));
+        List<Term> byCost = new ArrayList<>(terms);
+        byCost.sort((a, b) -> Long.compare(a.getSegmentDocFreq(), b.getSegmentDocFreq()));
+        for (Term term : byCost) {
+            explain.append(String.format("  %-20s df %8d  segment df %8d  %s%n", term.getToken(), term.getDocFreq(),
+                    term.getSegmentDocFreq(), term.getRole()));
+        }
+        return explain.toString();
+    }
+
+    public static class Term {
+        private final String token;
+        private final int docFreq;
+        private final int segmentDocFreq;
+        private final boolean scoringOnly;
+        private final boolean required;
+
+        Term(String token, int docFreq, int segmentDocFreq, boolean scoringOnly, boolean required) {
+            this.token = token;
+            this.docFreq = docFreq;
+            this.segmentDocFreq = segmentDocFreq;
+            this.scoringOnly = scoringOnly;
+            this.required = required;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        //over the whole index.
+        public int getDocFreq() {
+            return docFreq;
+        }
+
+        public int getSegmentDocFreq() {
+            return segmentDocFreq;
+        }
+
+        /**
+         * Too common to propose candidates, the term is only looked up in chunks the rarer terms produced.
+         */
+        public boolean isScoringOnly() {
+            return scoringOnly;
+        }
+
+        /**
+         * Every candidate contains the term, the candidates are the intersection of the required terms.
+         */
+        public boolean isRequired() {
+            return required;
+        }
+
+        String getRole() {
+            if (required) return "required";
+            return scoringOnly ? "scoring-only" : "drives candidates";
+        }
+    }
+}
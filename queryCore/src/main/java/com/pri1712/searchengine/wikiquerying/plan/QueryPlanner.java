@@ -0,0 +1,184 @@
+package com.pri1712.searchengine.wikiquerying.plan;
+
+import com.pri1712.searchengine.indexreader.TokenOffsetData;
+import com.pri1712.searchengine.wikiquerying.plan.QueryPlan.Strategy;
+import com.pri1712.searchengine.wikiquerying.plan.QueryPlan.Term;
+import com.pri1712.searchengine.wikiquerying.query.ParsedQuery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Chooses how a segment evaluates a query from the document frequencies in its dictionary, before any postings are
+ * read. A chunk has to match minShouldMatch of the query terms, so at least one of the n - minShouldMatch + 1 rarest
+ * terms, which bounds the candidates. WAND is picked once that bound is well above the results the segment has to
+ * keep exact, below it scoring every candidate is cheaper than maintaining the bounds. With a df ceiling set, terms in
+ * more than that share of all chunks stop proposing candidates and are only scored on the chunks the rarer terms
+ * found, which drops chunks matching nothing but common terms. Queries with required terms skip all of this, the
+ * candidates are the chunks holding every required term and the remaining terms only score them.
+ */
+public final class QueryPlanner {
+    //WAND pays off once the candidates outnumber the results kept exact by this factor.
+    private static final int WAND_CANDIDATES_PER_RESULT = 4;
+
+    private QueryPlanner() {}
+
+    /**
+     * A chunk has to match at least half of the query's terms, counted with repeats and including terms a segment does
+     * not have, once the query has two or more. Same as requiring matched / querySize >= 0.5.
+     */
+    public static int minShouldMatch(int querySize) {
+        return querySize >= 2 ? (querySize + 1) / 2 : 1;
+    }
+
+    /**
+     * @param entries the segment's dictionary entries of the query tokens, in query order.
+     * @param docFreqs document frequency of every query token over the whole index.
+     * @param totalChunks chunks in the whole index, the df ceiling is a share of these.
+     * @param resultDepth best candidates the segment has to rank exactly, topK or the rerank depth if larger.
+     * @param scoreAtATime whether the segment can answer the query from impact-ordered postings under a budget.
+     * @param dfCeiling share of all chunks above which a term becomes scoring-only, 0 to never demote.
+     */
+    public static QueryPlan plan(ParsedQuery parsedQuery, List<TokenOffsetData> entries, Map<String, Integer> docFreqs,
+                                 long totalChunks, int resultDepth, boolean scoreAtATime, double dfCeiling) {
+        int querySize = parsedQuery.getTokens().size();
+        if (parsedQuery.hasRequiredTokens()) {
+            return planRequired(parsedQuery, entries, docFreqs);
+        }
+        int minShouldMatch = minShouldMatch(querySize);
+        int present = entries.size();
+        if (present < minShouldMatch) {
+            return new QueryPlan(Strategy.NO_MATCH, querySize, minShouldMatch, terms(entries, docFreqs, null, null), 0,
+                    present + " of the terms occur in the segment");
+        }
+        if (scoreAtATime && !parsedQuery.hasPhrases()) {
+            return new QueryPlan(Strategy.SCORE_AT_A_TIME, querySize, minShouldMatch,
+                    terms(entries, docFreqs, null, null), sumOfCheapest(segmentDocFreqs(entries, docFreqs, null), present),
+                    "query budget set");
+        }
+        boolean[] scoringOnly = dfCeiling > 0 ? scoringOnly(entries, docFreqs, totalChunks * dfCeiling) : null;
+        List<Term> terms = terms(entries, docFreqs, scoringOnly, null);
+        long[] segmentDocFreqs = segmentDocFreqs(entries, docFreqs, null);
+        long bound = sumOfCheapest(segmentDocFreqs, present - minShouldMatch + 1);
+        if (scoringOnly != null) {
+            bound = Math.min(bound, sumOfCheapest(segmentDocFreqs(entries, docFreqs, scoringOnly), present));
+        }
+        if (parsedQuery.hasPhrases()) {
+            return new QueryPlan(Strategy.PHRASE, querySize, minShouldMatch, terms, bound, "query has quoted phrases");
+        }
+        if (present > 1 && minShouldMatch == present) {
+            boolean[] required = new boolean[present];
+            Arrays.fill(required, true);
+            return new QueryPlan(Strategy.CONJUNCTIVE, querySize, minShouldMatch,
+                    terms(entries, docFreqs, null, required), sumOfCheapest(segmentDocFreqs, 1),
+                    "every term present has to match");
+        }
+        if (scoringOnly != null) {
+            int demoted = 0;
+            for (boolean demote : scoringOnly) if (demote) demoted++;
+            return new QueryPlan(Strategy.EXHAUSTIVE, querySize, minShouldMatch, terms, bound,
+                    demoted + " terms above the df ceiling of " + dfCeiling + " only score");
+        }
+        if (bound >= (long) WAND_CANDIDATES_PER_RESULT * resultDepth) {
+            return new QueryPlan(Strategy.WAND, querySize, minShouldMatch, terms, bound,
+                    "candidates exceed " + WAND_CANDIDATES_PER_RESULT + "x the " + resultDepth + " results kept");
+        }
+        return new QueryPlan(Strategy.EXHAUSTIVE, querySize, minShouldMatch, terms, bound,
+                "few candidates, scoring them all is cheapest");
+    }
+
+    /**
+     * Intersects the required terms, nothing matches once one of them is missing from the segment. Every other term is
+     * scoring-only, the match filter does not apply to them.
+     */
+    private static QueryPlan planRequired(ParsedQuery parsedQuery, List<TokenOffsetData> entries,
+                                          Map<String, Integer> docFreqs) {
+        int querySize = parsedQuery.getTokens().size();
+        boolean[] required = new boolean[entries.size()];
+        boolean[] scoringOnly = new boolean[entries.size()];
+        Set<String> missing = new TreeSet<>(parsedQuery.getRequiredTokens());
+        int requiredCount = 0;
+        long rarest = Long.MAX_VALUE;
+        for (int i = 0; i < entries.size(); i++) {
+            TokenOffsetData entry = entries.get(i);
+            required[i] = parsedQuery.isRequired(entry.getToken());
+            scoringOnly[i] = !required[i];
+            if (required[i]) {
+                requiredCount++;
+                missing.remove(entry.getToken());
+                rarest = Math.min(rarest, segmentDocFreq(entry, docFreqs));
+            }
+        }
+        List<Term> terms = terms(entries, docFreqs, scoringOnly, required);
+        if (!missing.isEmpty()) {
+            return new QueryPlan(Strategy.NO_MATCH, querySize, parsedQuery.getRequiredTokens().size(), terms, 0,
+                    "required " + missing + " not in the segment");
+        }
+        if (parsedQuery.hasPhrases()) {
+            return new QueryPlan(Strategy.PHRASE, querySize, requiredCount, terms, rarest,
+                    "query has quoted phrases and required terms");
+        }
+        return new QueryPlan(Strategy.CONJUNCTIVE, querySize, requiredCount, terms, rarest,
+                requiredCount == entries.size() ? "every term is required" : "other terms only score");
+    }
+
+    /**
+     * Terms above the df limit, null when there are none or when every term is above it, then there is no rarer term
+     * to find candidates with.
+     */
+    private static boolean[] scoringOnly(List<TokenOffsetData> entries, Map<String, Integer> docFreqs, double limit) {
+        boolean[] scoringOnly = new boolean[entries.size()];
+        int demoted = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            scoringOnly[i] = docFreq(entries.get(i), docFreqs) > limit;
+            if (scoringOnly[i]) demoted++;
+        }
+        return demoted == 0 || demoted == entries.size() ? null : scoringOnly;
+    }
+
+    private static List<Term> terms(List<TokenOffsetData> entries, Map<String, Integer> docFreqs, boolean[] scoringOnly,
+                                    boolean[] required) {
+        List<Term> terms = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            TokenOffsetData entry = entries.get(i);
+            terms.add(new Term(entry.getToken(), docFreq(entry, docFreqs), segmentDocFreq(entry, docFreqs),
+                    scoringOnly != null && scoringOnly[i], required != null && required[i]));
+        }
+        return terms;
+    }
+
+    /**
+     * Segment document frequencies of the terms, leaving out the scoring-only ones when given.
+     */
+    private static long[] segmentDocFreqs(List<TokenOffsetData> entries, Map<String, Integer> docFreqs,
+                                          boolean[] scoringOnly) {
+        long[] segmentDocFreqs = new long[entries.size()];
+        int count = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            if (scoringOnly != null && scoringOnly[i]) continue;
+            segmentDocFreqs[count++] = segmentDocFreq(entries.get(i), docFreqs);
+        }
+        return Arrays.copyOf(segmentDocFreqs, count);
+    }
+
+    private static long sumOfCheapest(long[] costs, int count) {
+        long[] sorted = costs.clone();
+        Arrays.sort(sorted);
+        long sum = 0;
+        for (int i = 0; i < Math.min(count, sorted.length); i++) sum += sorted[i];
+        return sum;
+    }
+
+    private static int docFreq(TokenOffsetData entry, Map<String, Integer> docFreqs) {
+        return docFreqs.getOrDefault(entry.getToken(), Math.max(entry.getDocFreq(), 0));
+    }
+
+    //dictionaries written before df was recorded fall back to the index-wide df, an upper bound.
+    private static int segmentDocFreq(TokenOffsetData entry, Map<String, Integer> docFreqs) {
+        return entry.getDocFreq() >= 0 ? entry.getDocFreq() : docFreq(entry, docFreqs);
+    }
+}
@@ -0,0 +1,47 @@
+package com.pri1712.searchengine.wikiquerying.query;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public class ParsedQuery {
+    //every query token, quoted or not, used for BM25 scoring exactly like an unquoted query.
+    private final List<String> tokens;
+    private final List<PhraseQuery> phrases;
+    //tokens every result has to contain, the others then only add to the score.
+    private final Set<String> requiredTokens;
+
+    public ParsedQuery(List<String> tokens, List<PhraseQuery> phrases) {
+        this(tokens, phrases, Collections.emptySet());
+    }
+
+    public ParsedQuery(List<String> tokens, List<PhraseQuery> phrases, Set<String> requiredTokens) {
+        this.tokens = tokens;
+        this.phrases = phrases;
+        this.requiredTokens = requiredTokens;
+    }
+
+    public List<String> getTokens() {
+        return tokens;
+    }
+
+    public List<PhraseQuery> getPhrases() {
+        return phrases;
+    }
+
+    public boolean hasPhrases() {
+        return !phrases.isEmpty();
+    }
+
+    public Set<String> getRequiredTokens() {
+        return requiredTokens;
+    }
+
+    public boolean isRequired(String token) {
+        return requiredTokens.contains(token);
+    }
+
+    public boolean hasRequiredTokens() {
+        return !requiredTokens.isEmpty();
+    }
+}
@@ -0,0 +1,51 @@
+package com.pri1712.searchengine.wikiquerying.query;
+
+import com.pri1712.searchengine.wikiquerying.scoring.ProximityScorer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A quoted part of the query. Slop is the number of position moves allowed between the terms, 0 is an exact phrase.
+ */
+public class PhraseQuery {
+    private final List<String> terms;
+    private final int slop;
+
+    public PhraseQuery(List<String> terms, int slop) {
+        this.terms = terms;
+        this.slop = slop;
+    }
+
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    public int getSlop() {
+        return slop;
+    }
+
+    /**
+     * Checks the phrase against the positions of its terms in one chunk, given in phrase order.
+     * Shifting every term's positions back by its offset in the phrase lines an exact occurrence up on the same value,
+     * so the phrase matches when some choice of one shifted position per term spans no more than slop.
+     */
+    public boolean matches(List<int[]> termPositions) {
+        List<int[]> shifted = new ArrayList<>(termPositions.size());
+        for (int offset = 0; offset < termPositions.size(); offset++) {
+            int[] positions = termPositions.get(offset);
+            if (positions == null || positions.length == 0) return false;
+            int[] shiftedPositions = new int[positions.length];
+            for (int i = 0; i < positions.length; i++) {
+                shiftedPositions[i] = positions[i] - offset;
+            }
+            shifted.add(shiftedPositions);
+        }
+        return ProximityScorer.minimalWindow(shifted) <= slop;
+    }
+
+    @Override
+    public String toString() {
+        return "\"" + String.join(" ", terms) + "\"" + (slop > 0 ? "~" + slop : "");
+    }
+}
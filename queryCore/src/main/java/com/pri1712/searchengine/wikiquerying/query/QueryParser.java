@@ -0,0 +1,73 @@
+package com.pri1712.searchengine.wikiquerying.query;
+
+import com.pri1712.searchengine.model.params.QueryParams;
+import com.pri1712.searchengine.utils.TextUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Splits a raw query into bag-of-words tokens and quoted phrases. "new york times" is an exact phrase and
+ * "new york times"~2 allows two position moves. An unterminated quote is treated as plain text. A word written +word is
+ * required, in AND mode every token is.
+ */
+public final class QueryParser {
+    private static final Logger LOGGER = Logger.getLogger(QueryParser.class.getName());
+
+    private QueryParser() {}
+
+    public static ParsedQuery parse(String queryText) {
+        return parse(queryText, QueryParams.isRequireAllTerms());
+    }
+
+    public static ParsedQuery parse(String queryText, boolean requireAllTerms) {
+        //phrase terms are scored like any other term, so the token list is the same as for the unquoted query.
+        List<String> tokens = TextUtils.tokenizeQuery(queryText);
+        List<PhraseQuery> phrases = new ArrayList<>();
+        if (queryText == null) {
+            return new ParsedQuery(tokens, phrases);
+        }
+        Set<String> requiredTokens = requireAllTerms ? new HashSet<>(tokens) : requiredTokens(queryText);
+        int start = queryText.indexOf('"');
+        while (start >= 0) {
+            int end = queryText.indexOf('"', start + 1);
+            if (end < 0) break;
+            List<String> phraseTerms = TextUtils.tokenizeQuery(queryText.substring(start + 1, end));
+            int slop = 0;
+            int next = end + 1;
+            if (next < queryText.length() && queryText.charAt(next) == '~') {
+                int digitsEnd = next + 1;
+                while (digitsEnd < queryText.length() && Character.isDigit(queryText.charAt(digitsEnd))) {
+                    digitsEnd++;
+                }
+                if (digitsEnd > next + 1) {
+                    slop = Integer.parseInt(queryText.substring(next + 1, Math.min(digitsEnd, next + 10)));
+                }
+                next = digitsEnd;
+            }
+            //a quote made only of stopwords has nothing left to constrain.
+            if (!phraseTerms.isEmpty()) {
+                phrases.add(new PhraseQuery(phraseTerms, slop));
+            }
+            start = queryText.indexOf('"', next);
+        }
+        LOGGER.fine("phrases: " + phrases + ", required: " + requiredTokens);
+        return new ParsedQuery(tokens, phrases, requiredTokens);
+    }
+
+    /**
+     * Tokens of the whitespace separated words starting with '+'. A required stopword is dropped like any other.
+     */
+    private static Set<String> requiredTokens(String queryText) {
+        Set<String> requiredTokens = new HashSet<>();
+        for (String word : queryText.split("\\s+")) {
+            if (word.length() > 1 && word.charAt(0) == '+') {
+                requiredTokens.addAll(TextUtils.tokenizeQuery(word.substring(1)));
+            }
+        }
+        return requiredTokens;
+    }
+}
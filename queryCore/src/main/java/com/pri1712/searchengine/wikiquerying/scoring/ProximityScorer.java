@@ -0,0 +1,60 @@
+package com.pri1712.searchengine.wikiquerying.scoring;
+
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Proximity boost computed from real token positions. The boost is based on the smallest window of the chunk that
+ * contains every query term present in it, so chunks where the matched terms sit next to each other rank higher.
+ */
+public final class ProximityScorer {
+    //an exact adjacent match of every query term gets at most this much on top of the base score.
+    private static final double MAX_PROXIMITY_BOOST = 0.25;
+
+    private ProximityScorer() {}
+
+    /**
+     * @param termPositions sorted positions of every distinct query term found in the chunk.
+     * @param queryTermCount number of distinct query terms.
+     */
+    public static double proximityBoost(List<int[]> termPositions, int queryTermCount) {
+        int matched = termPositions.size();
+        if (matched < 2 || queryTermCount < 2) return 1.0;
+        int window = minimalWindow(termPositions) + 1;
+        double coverage = (double) (matched - 1) / (queryTermCount - 1);
+        double tightness = (double) matched / window;
+        return 1.0 + MAX_PROXIMITY_BOOST * coverage * Math.min(1.0, tightness);
+    }
+
+    /**
+     * Smallest (max - min) over every choice of one position per list, found with a single sweep that always advances
+     * the list currently holding the minimum. Returns Integer.MAX_VALUE when a list is empty.
+     */
+    public static int minimalWindow(List<int[]> positions) {
+        int lists = positions.size();
+        int[] cursor = new int[lists];
+        PriorityQueue<int[]> heap = new PriorityQueue<>(lists, (a, b) -> Integer.compare(a[0], b[0]));
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < lists; i++) {
+            int[] termPositions = positions.get(i);
+            if (termPositions.length == 0) return Integer.MAX_VALUE;
+            heap.add(new int[]{termPositions[0], i});
+            max = Math.max(max, termPositions[0]);
+        }
+        int best = Integer.MAX_VALUE;
+        while (true) {
+            int[] min = heap.poll();
+            best = Math.min(best, max - min[0]);
+            if (best == 0) return 0;
+            int list = min[1];
+            int next = ++cursor[list];
+            int[] termPositions = positions.get(list);
+            if (next >= termPositions.length) {
+                return best;
+            }
+            min[0] = termPositions[next];
+            max = Math.max(max, min[0]);
+            heap.add(min);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.pri1712.searchengine.wikiquerying.scoring;
+
+import com.pri1712.searchengine.indexreader.decompression.ImpactSegmentsCursor;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Anytime traversal over impact-ordered postings. The impact segments of all query terms are visited in decreasing
+ * order of their contribution, weight times impact, and every posting adds that contribution to its chunk's
+ * accumulator. The highest contributions come first, so stopping at the posting or time budget leaves out the
+ * smallest score increments and the top of the ranking settles early. Run to the end it gives the same scores as
+ * scoring the doc-ordered impacts.
+ */
+public final class ScoreAtATime {
+    //the deadline is checked at every segment and every this many postings inside a long one.
+    private static final int DEADLINE_CHECK_INTERVAL = 4096;
+
+    private ScoreAtATime() {}
+
+    /**
+     * @param cursors one per query term in query order, duplicate terms have a cursor each like they have postings.
+     * @param weights idf times impact scale of each term.
+     * @param postingBudget postings to process before stopping, 0 for no limit.
+     * @param deadlineNanos System.nanoTime() after which the traversal stops, 0 for no limit.
+     */
+    public static Result traverse(List<ImpactSegmentsCursor> cursors, double[] weights, long postingBudget,
+                                  long deadlineNanos) throws IOException {
+        //highest contribution first, ties go to the earlier term so the order does not depend on the heap.
+        PriorityQueue<Integer> heads = new PriorityQueue<>(Math.max(1, cursors.size()), (a, b) -> {
+            int byContribution = Double.compare(weights[b] * cursors.get(b).impact(),
+                    weights[a] * cursors.get(a).impact());
+            return byContribution != 0 ? byContribution : Integer.compare(a, b);
+        });
+        for (int term = 0; term < cursors.size(); term++) {
+            if (cursors.get(term).nextSegment()) heads.add(term);
+        }
+        Result result = new Result();
+        while (!heads.isEmpty()) {
+            if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0) {
+                result.terminatedEarly = true;
+                break;
+            }
+            int term = heads.poll();
+            ImpactSegmentsCursor cursor = cursors.get(term);
+            double contribution = weights[term] * cursor.impact();
+            int[] chunkIds = cursor.chunkIds();
+            for (int i = 0; i < chunkIds.length; i++) {
+                if (postingBudget != 0 && result.postingsProcessed >= postingBudget) {
+                    result.terminatedEarly = true;
+                    return result;
+                }
+                if (deadlineNanos != 0 && i > 0 && i % DEADLINE_CHECK_INTERVAL == 0
+                        && System.nanoTime() - deadlineNanos > 0) {
+                    result.terminatedEarly = true;
+                    return result;
+                }
+                result.scores.merge(chunkIds[i], contribution, Double::sum);
+                result.matchedTerms.merge(chunkIds[i], 1, Integer::sum);
+                result.postingsProcessed++;
+            }
+            if (cursor.nextSegment()) heads.add(term);
+        }
+        return result;
+    }
+
+    public static class Result {
+        private final Map<Integer, Double> scores = new HashMap<>();
+        private final Map<Integer, Integer> matchedTerms = new HashMap<>();
+        private long postingsProcessed = 0;
+        private boolean terminatedEarly = false;
+
+        /**
+         * Accumulated BM25 score of every chunk reached, chunks past the budget are missing.
+         */
+        public Map<Integer, Double> getScores() {
+            return scores;
+        }
+
+        /**
+         * Number of query terms whose postings reached the chunk before the traversal stopped.
+         */
+        public Map<Integer, Integer> getMatchedTerms() {
+            return matchedTerms;
+        }
+
+        public long getPostingsProcessed() {
+            return postingsProcessed;
+        }
+
+        public boolean isTerminatedEarly() {
+            return terminatedEarly;
+        }
+    }
+}
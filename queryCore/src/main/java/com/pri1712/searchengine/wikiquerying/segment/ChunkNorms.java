@@ -0,0 +1,82 @@
+package com.pri1712.searchengine.wikiquerying.segment;
+
+import com.pri1712.searchengine.indexreader.postings.MonotonicInts;
+import com.pri1712.searchengine.indexreader.postings.PackedInts;
+import com.pri1712.searchengine.utils.Accountable;
+import com.pri1712.searchengine.utils.RamUsage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The docId and token count of every chunk of a segment, kept in memory so candidates are scored and collapsed to one
+ * chunk per doc without reading their chunk index records. Chunk ids are assigned in document order, so the docIds
+ * never decrease and pack into a few bits each.
+ */
+final class ChunkNorms implements Accountable {
+    private static final int RECORDS_PER_READ = 4096;
+
+    private final int baseChunkId;
+    private final MonotonicInts docIds;
+    private final PackedInts tokenCounts;
+
+    private ChunkNorms(int baseChunkId, MonotonicInts docIds, PackedInts tokenCounts) {
+        this.baseChunkId = baseChunkId;
+        this.docIds = docIds;
+        this.tokenCounts = tokenCounts;
+    }
+
+    /**
+     * Reads every record of the chunk index once, front to back.
+     */
+    static ChunkNorms load(FileChannel chunkIndexChannel, int baseChunkId, int recordSize) throws IOException {
+        int chunkCount = (int) (chunkIndexChannel.size() / recordSize);
+        int[] docIds = new int[chunkCount];
+        int[] tokenCounts = new int[chunkCount];
+        ByteBuffer records = ByteBuffer.allocate(recordSize * RECORDS_PER_READ);
+        for (int from = 0; from < chunkCount; from += RECORDS_PER_READ) {
+            int count = Math.min(RECORDS_PER_READ, chunkCount - from);
+            records.clear().limit(count * recordSize);
+            long position = (long) from * recordSize;
+            while (records.hasRemaining()) {
+                int read = chunkIndexChannel.read(records, position);
+                if (read < 0) throw new EOFException("EOF at position " + position);
+                position += read;
+            }
+            records.flip();
+            for (int i = from; i < from + count; i++) {
+                int chunkId = records.getInt();
+                if (chunkId != baseChunkId + i) {
+                    throw new IllegalStateException("Chunk index record " + i + " holds chunk " + chunkId
+                            + ", expected " + (baseChunkId + i));
+                }
+                //data offset and length are only needed to read the chunk.
+                records.position(records.position() + Long.BYTES + Integer.BYTES);
+                docIds[i] = records.getInt();
+                tokenCounts[i] = records.getInt();
+                records.position(records.position() + recordSize - 24);
+            }
+        }
+        return new ChunkNorms(baseChunkId, MonotonicInts.pack(docIds, chunkCount),
+                PackedInts.pack(tokenCounts, chunkCount));
+    }
+
+    boolean contains(int chunkId) {
+        return chunkId >= baseChunkId && chunkId - baseChunkId < docIds.size();
+    }
+
+    int docId(int chunkId) {
+        return docIds.get(chunkId - baseChunkId);
+    }
+
+    int tokenCount(int chunkId) {
+        return tokenCounts.get(chunkId - baseChunkId);
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        return RamUsage.shallowInstance(2, 4) + docIds.ramBytesUsed() + tokenCounts.ramBytesUsed();
+    }
+}
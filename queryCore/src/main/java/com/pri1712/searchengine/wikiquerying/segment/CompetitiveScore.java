@@ -0,0 +1,59 @@
+package com.pri1712.searchengine.wikiquerying.segment;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Lowest score a chunk still needs to change a segment's answer, from the scores seen so far. A chunk below the topK-th
+ * best distinct doc cannot make the deduplicated top-K, and with a proximity rerank it must also stay below the
+ * rerankDepth-th best chunk, otherwise leaving it out would let another chunk into the reranked set. Until enough
+ * scores are in the threshold is 0.
+ */
+final class CompetitiveScore {
+    private final int topK;
+    private final int rerankDepth;
+    private final PriorityQueue<Double> chunkScores = new PriorityQueue<>();
+    //one entry per doc, its best chunk score, so the head is the topK-th best distinct doc once full.
+    private final PriorityQueue<double[]> docScores = new PriorityQueue<>((a, b) -> Double.compare(a[0], b[0]));
+    private final Map<Integer, double[]> docEntries = new HashMap<>();
+
+    /**
+     * @param rerankDepth chunks reranked by proximity after scoring, 0 without a rerank.
+     */
+    CompetitiveScore(int topK, int rerankDepth) {
+        this.topK = topK;
+        this.rerankDepth = rerankDepth;
+    }
+
+    void add(int docId, double score) {
+        if (rerankDepth > 0) {
+            if (chunkScores.size() < rerankDepth) {
+                chunkScores.add(score);
+            } else if (score > chunkScores.peek()) {
+                chunkScores.poll();
+                chunkScores.add(score);
+            }
+        }
+        double[] entry = docEntries.get(docId);
+        if (entry != null) {
+            if (score <= entry[0]) return;
+            docScores.remove(entry);
+        } else if (docScores.size() >= topK) {
+            if (score <= docScores.peek()[0]) return;
+            docEntries.remove((int) docScores.poll()[1]);
+        }
+        entry = new double[]{score, docId};
+        docScores.add(entry);
+        docEntries.put(docId, entry);
+    }
+
+    double threshold() {
+        if (topK <= 0 || docScores.size() < topK) return 0;
+        double threshold = docScores.peek()[0];
+        if (rerankDepth > 0) {
+            threshold = chunkScores.size() < rerankDepth ? 0 : Math.min(threshold, chunkScores.peek());
+        }
+        return threshold;
+    }
+}
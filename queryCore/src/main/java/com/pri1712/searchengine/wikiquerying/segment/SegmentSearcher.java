@@ -0,0 +1,994 @@
+package com.pri1712.searchengine.wikiquerying.segment;
+
+import com.pri1712.searchengine.indexreader.IndexData;
+import com.pri1712.searchengine.indexreader.IndexReader;
+import com.pri1712.searchengine.indexreader.TokenOffsetData;
+import com.pri1712.searchengine.indexreader.chunks.BlockCache;
+import com.pri1712.searchengine.indexreader.chunks.ChunkBlockReader;
+import com.pri1712.searchengine.indexreader.decompression.ImpactSegmentsCursor;
+import com.pri1712.searchengine.indexreader.decompression.PositionsCursor;
+import com.pri1712.searchengine.indexreader.impacts.ImpactHeader;
+import com.pri1712.searchengine.indexreader.postings.ArrayPostingsIterator;
+import com.pri1712.searchengine.indexreader.postings.BitmapPostingsIterator;
+import com.pri1712.searchengine.indexreader.postings.ConjunctionIterator;
+import com.pri1712.searchengine.indexreader.postings.MinShouldMatchIterator;
+import com.pri1712.searchengine.indexreader.postings.PostingsIterator;
+import com.pri1712.searchengine.indexreader.postings.WandIterator;
+import com.pri1712.searchengine.model.BM25Stats;
+import com.pri1712.searchengine.model.ChunkMetaData;
+import com.pri1712.searchengine.model.ScoredChunk;
+import com.pri1712.searchengine.model.SegmentInfo;
+import com.pri1712.searchengine.model.Snippet;
+import com.pri1712.searchengine.model.params.QueryParams;
+import com.pri1712.searchengine.model.params.RankingParams;
+import com.pri1712.searchengine.utils.Accountable;
+import com.pri1712.searchengine.utils.SegmentFiles;
+import com.pri1712.searchengine.wikiquerying.metrics.QueryMetrics;
+import com.pri1712.searchengine.wikiquerying.metrics.QueryMetrics.Stage;
+import com.pri1712.searchengine.wikiquerying.plan.QueryPlan;
+import com.pri1712.searchengine.wikiquerying.plan.QueryPlan.Strategy;
+import com.pri1712.searchengine.wikiquerying.plan.QueryPlanner;
+import com.pri1712.searchengine.wikiquerying.query.ParsedQuery;
+import com.pri1712.searchengine.wikiquerying.query.PhraseQuery;
+import com.pri1712.searchengine.wikiquerying.scoring.ProximityScorer;
+import com.pri1712.searchengine.wikiquerying.scoring.ScoreAtATime;
+import com.pri1712.searchengine.wikiquerying.snippet.SnippetExtractor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scores a query against a single segment. Document frequencies and chunk statistics are passed in by the caller so
+ * every segment scores with the same global BM25 statistics. Chunk records and data are read with positional
+ * FileChannel reads, so one searcher can serve concurrent queries.
+ */
+public class SegmentSearcher implements Accountable {
+    private static final Logger LOGGER = Logger.getLogger(SegmentSearcher.class.getName());
+
+    //number of best candidates re-scored with positional proximity, independent of TOP_K so smaller K is always a prefix.
+    private static final int PROXIMITY_RERANK_DEPTH = 50;
+    //phrase verification stops after this many matching chunks, past it the phrase filter is no longer exhaustive.
+    private static final int PHRASE_MATCH_LIMIT = 1000;
+    //bytes read past the estimated end of a snippet's window, so short chunks are read whole in one go.
+    private static final int SNIPPET_PREFIX_MARGIN = 256;
+    //a chunk matching every query term scores this much more than its BM25 sum, less for fewer terms.
+    private static final double COVERAGE_BOOST = 0.3;
+    private static final double MAX_DENSITY_BOOST = 0.2;
+    //the boost calculateProximityBoostSimple gives the smallest chunks.
+    private static final double MAX_SIMPLE_PROXIMITY_BOOST = 1.15;
+    //equal scores go to the lower chunk id, so the order does not depend on which candidates a strategy visited.
+    private static final Comparator<ScoredChunk> BY_SCORE =
+            Comparator.comparingDouble(ScoredChunk::getScore).reversed().thenComparingInt(ScoredChunk::getChunkId);
+
+    private final String name;
+    private final int ordinal;
+    private final int baseChunkId;
+    private final int RECORD_SIZE;
+    private final double TERM_FREQUENCY_SATURATION; // k1
+    private final double DOCUMENT_LENGTH_NORMALIZATION; // b
+    private final IndexReader indexReader;
+    //null unless the segment was built with impacts, then k1 and b above are the ones the impacts were written with.
+    private final ImpactHeader impactHeader;
+    //avgdl the version's impacts share, from its manifest, 0 for an index written before they shared one.
+    private final long impactAverageChunkSize;
+    private final FileChannel chunkIndexChannel;
+    //exactly one of these two is open, the raw chunk data or the deflated blocks of a block store.
+    private final FileChannel chunkDataChannel;
+    private final ChunkBlockReader chunkBlocks;
+    //docId and token count of every chunk, candidates are scored and deduplicated without reading their records.
+    private final ChunkNorms chunkNorms;
+
+    private final AtomicLong queryCount = new AtomicLong();
+    private final AtomicLong totalLatencyNanos = new AtomicLong();
+    private final AtomicLong maxLatencyNanos = new AtomicLong();
+
+    /**
+     * @param chunkDataPath the raw chunk data, or a block store when it is named SegmentFiles.CHUNK_BLOCKS_FILE.
+     * @param chunkCache holds the inflated blocks of a block store.
+     */
+    public SegmentSearcher(String name, int ordinal, IndexReader indexReader, Path chunkIndexPath, Path chunkDataPath,
+                           int baseChunkId, int RECORD_SIZE, BlockCache chunkCache) throws IOException {
+        this(name, ordinal, indexReader, chunkIndexPath, chunkDataPath, baseChunkId, RECORD_SIZE, chunkCache, 0);
+    }
+
+    /**
+     * @param impactAverageChunkSize the manifest's impact avgdl, impacts quantized against any other are not used.
+     */
+    public SegmentSearcher(String name, int ordinal, IndexReader indexReader, Path chunkIndexPath, Path chunkDataPath,
+                           int baseChunkId, int RECORD_SIZE, BlockCache chunkCache, long impactAverageChunkSize)
+            throws IOException {
+        this.name = name;
+        this.ordinal = ordinal;
+        this.indexReader = indexReader;
+        this.baseChunkId = baseChunkId;
+        this.RECORD_SIZE = RECORD_SIZE;
+        this.impactHeader = indexReader.getImpactHeader();
+        if (impactHeader == null) {
+            this.TERM_FREQUENCY_SATURATION = RankingParams.getTERM_FREQUENCY_SATURATION();
+            this.DOCUMENT_LENGTH_NORMALIZATION = RankingParams.getDOCUMENT_LENGTH_NORMALIZATION();
+        } else {
+            //the stored impacts fix k1 and b, the exact fallback uses the same ones so both paths rank alike.
+            this.TERM_FREQUENCY_SATURATION = impactHeader.getK1();
+            this.DOCUMENT_LENGTH_NORMALIZATION = impactHeader.getB();
+            boolean configured = RankingParams.getTERM_FREQUENCY_SATURATION() != 0
+                    || RankingParams.getDOCUMENT_LENGTH_NORMALIZATION() != 0;
+            if (configured && (RankingParams.getTERM_FREQUENCY_SATURATION() != impactHeader.getK1()
+                    || RankingParams.getDOCUMENT_LENGTH_NORMALIZATION() != impactHeader.getB())) {
+                LOGGER.warning("Segment " + name + " has " + impactHeader + ", the configured k1 and b are ignored "
+                        + "until the index is rebuilt");
+            }
+        }
+        this.impactAverageChunkSize = impactAverageChunkSize;
+        if (impactHeader != null && impactAverageChunkSize > 0
+                && impactHeader.getAverageChunkSize() != impactAverageChunkSize) {
+            LOGGER.warning("Segment " + name + " has " + impactHeader + " but the version's impacts use avgdl="
+                    + impactAverageChunkSize + ", it is scored with exact BM25 and without query budgets until merged");
+        }
+        this.chunkIndexChannel = FileChannel.open(chunkIndexPath, StandardOpenOption.READ);
+        if (chunkDataPath.getFileName().toString().equals(SegmentFiles.CHUNK_BLOCKS_FILE)) {
+            this.chunkDataChannel = null;
+            this.chunkBlocks = ChunkBlockReader.open(chunkDataPath, chunkCache);
+        } else {
+            this.chunkDataChannel = FileChannel.open(chunkDataPath, StandardOpenOption.READ);
+            this.chunkBlocks = null;
+        }
+        this.chunkNorms = ChunkNorms.load(chunkIndexChannel, baseChunkId, RECORD_SIZE);
+    }
+
+    /**
+     * @param impactAverageChunkSize avgdl the version's impacts are quantized against, see SegmentManifest.
+     */
+    public static SegmentSearcher open(Path indexRoot, SegmentInfo segmentInfo, long impactAverageChunkSize,
+                                       int ordinal, int RECORD_SIZE, BlockCache chunkCache) throws IOException {
+        Path segmentDir = SegmentFiles.segmentDir(indexRoot, segmentInfo.getName());
+        IndexReader indexReader = new IndexReader(segmentDir.toString(),
+                segmentDir.resolve(SegmentFiles.TOKEN_OFFSET_FILE).toString());
+        return new SegmentSearcher(segmentInfo.getName(), ordinal, indexReader,
+                segmentDir.resolve(SegmentFiles.CHUNK_INDEX_FILE), SegmentFiles.chunkDataFile(segmentDir),
+                segmentInfo.getBaseChunkId(), RECORD_SIZE, chunkCache, impactAverageChunkSize);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    public int docFreq(String token) throws IOException {
+        return indexReader.docFreq(token);
+    }
+
+    /**
+     * Best chunks of this segment for the query, at most one per docId and at most topK of them, best first.
+     * @param docFreqs document frequency of every query token over the whole index.
+     * @param trace collects the time of each stage of this segment's search.
+     */
+    public List<ScoredChunk> search(ParsedQuery parsedQuery, Map<String, Integer> docFreqs, BM25Stats stats,
+                                    int topK, QueryMetrics.Trace trace) throws IOException {
+        long start = System.nanoTime();
+        try {
+            return score(parsedQuery, docFreqs, stats, topK, trace);
+        } finally {
+            recordLatency(System.nanoTime() - start);
+        }
+    }
+
+    private List<ScoredChunk> score(ParsedQuery parsedQuery, Map<String, Integer> docFreqs, BM25Stats stats,
+                                    int topK, QueryMetrics.Trace trace) throws IOException {
+        List<String> tokens = parsedQuery.getTokens();
+        long stageStart = System.nanoTime();
+        List<TokenOffsetData> entries = indexReader.lookupTokens(tokens);
+        stageStart = endStage(trace, Stage.DICTIONARY_LOOKUP, stageStart);
+        String impactsUnusable = impactsUnusable(stats);
+        boolean useImpacts = impactsUnusable == null;
+        QueryPlan plan = plan(parsedQuery, entries, docFreqs, stats, topK, useImpacts);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine(explain(plan, impactsUnusable));
+        }
+        if (plan.getStrategy() == Strategy.NO_MATCH) {
+            LOGGER.fine("No matching tokens found in " + name);
+            return Collections.emptyList();
+        }
+        if (plan.getStrategy() == Strategy.SCORE_AT_A_TIME) {
+            return scoreAtATime(tokens, entries, docFreqs, stats, topK, trace, stageStart);
+        }
+        List<IndexData> queryIndexData = indexReader.readPostings(entries);
+        for (IndexData indexData : queryIndexData) {
+            trace.addPostingsDecoded(indexData.getIds().size());
+        }
+
+        int[] phraseMatches = null;
+        if (plan.getStrategy() == Strategy.PHRASE) {
+            //only chunks containing every phrase are candidates.
+            Set<Integer> matches = matchPhrases(parsedQuery.getPhrases(), queryIndexData);
+            if (matches.isEmpty()) {
+                endStage(trace, Stage.POSTINGS_DECODE, stageStart);
+                LOGGER.fine("No chunk of " + name + " matches the quoted phrases.");
+                return Collections.emptyList();
+            }
+            phraseMatches = matches.stream().mapToInt(Integer::intValue).sorted().toArray();
+        }
+        TermScorer termScorer = new TermScorer(queryIndexData, docFreqs, stats, useImpacts);
+        int[][] termValues = new int[queryIndexData.size()][];
+        List<Integer> candidates;
+        if (plan.getStrategy() == Strategy.WAND) {
+            //every chunk scored while traversing raises the threshold.
+            candidates = collectCompetitive(tokens, queryIndexData, plan, termScorer, topK, termValues);
+        } else {
+            candidates = collectCandidates(queryIndexData, plan, termScorer, phraseMatches, termValues);
+        }
+        stageStart = endStage(trace, Stage.POSTINGS_DECODE, stageStart);
+        //number of tokens per chunkID, to reward those with higher number of matches.
+        Map<Integer, Integer> matchedTerms = new HashMap<>();
+        Map<Integer, Double> aggregatedScores = new HashMap<>();
+
+        for (int c = 0; c < candidates.size(); c++) {
+            int chunkId = candidates.get(c);
+            if (!inSegment(chunkId)) continue;
+            int tokenCount = chunkNorms.tokenCount(chunkId);
+            //terms in query order, so the sums come out exactly as when adding up one term at a time.
+            for (int t = 0; t < termValues.length; t++) {
+                int value = termValues[t][c];
+                if (value == 0) continue;
+                aggregatedScores.merge(chunkId, termScorer.score(t, value, tokenCount), Double::sum);
+                matchedTerms.merge(chunkId, 1, Integer::sum);
+            }
+        }
+        return rank(tokens, plan.getMinShouldMatch(), queryIndexData, aggregatedScores, matchedTerms, topK, trace,
+                stageStart);
+    }
+
+    /**
+     * Plans the query for this segment from the dictionary entries, see QueryPlanner.
+     */
+    private QueryPlan plan(ParsedQuery parsedQuery, List<TokenOffsetData> entries, Map<String, Integer> docFreqs,
+                           BM25Stats stats, int topK, boolean useImpacts) {
+        boolean scoreAtATime = useImpacts && QueryParams.hasQueryBudget() && indexReader.hasImpactOrder();
+        int resultDepth = indexReader.hasPositions() ? Math.max(topK, PROXIMITY_RERANK_DEPTH) : topK;
+        return QueryPlanner.plan(parsedQuery, entries, docFreqs, stats.getTotalChunks(), resultDepth, scoreAtATime,
+                QueryParams.getDfCeiling());
+    }
+
+    /**
+     * How this segment would evaluate the query, without running it.
+     */
+    public String explain(ParsedQuery parsedQuery, Map<String, Integer> docFreqs, BM25Stats stats, int topK) {
+        List<TokenOffsetData> entries = indexReader.lookupTokens(parsedQuery.getTokens());
+        String impactsUnusable = impactsUnusable(stats);
+        return explain(plan(parsedQuery, entries, docFreqs, stats, topK, impactsUnusable == null), impactsUnusable);
+    }
+
+    /**
+     * The plan, plus why the query budget does not apply when one is set and the segment leaves the budgeted path.
+     */
+    private String explain(QueryPlan plan, String impactsUnusable) {
+        String explain = plan.explain(name);
+        if (!QueryParams.hasQueryBudget() || plan.getStrategy() == Strategy.SCORE_AT_A_TIME
+                || plan.getStrategy() == Strategy.NO_MATCH) {
+            return explain;
+        }
+        String why = impactsUnusable != null ? impactsUnusable
+                : !indexReader.hasImpactOrder() ? "segment has no impact-ordered postings"
+                : plan.getStrategy() == Strategy.PHRASE ? "query has quoted phrases" : "query has required terms";
+        return explain + "  query budget not applied: " + why + "\n";
+    }
+
+    /**
+     * Why this segment's impacts cannot stand in for its BM25 term scores, null when they can. Impacts are quantized
+     * against the avgdl in their header, which has to be the one all impacts of the version share, or for an index
+     * written before they shared one the index-wide avgdl.
+     */
+    private String impactsUnusable(BM25Stats stats) {
+        if (impactHeader == null) return "segment has no impacts";
+        long expected = impactAverageChunkSize > 0 ? impactAverageChunkSize : stats.getAverageChunkSize();
+        if (impactHeader.getAverageChunkSize() == expected) return null;
+        return "impacts quantized with avgdl " + impactHeader.getAverageChunkSize() + ", not " + expected;
+    }
+
+    /**
+     * Applies the match filter and the boosts to the aggregated BM25 scores and keeps the best topK, one per docId.
+     * Only those have their chunk index record read.
+     * @param minShouldMatch terms a chunk has to match, the plan's, which with required terms is their count.
+     * @param queryIndexData doc-ordered postings for the positional rerank, null when they were never decoded.
+     */
+    private List<ScoredChunk> rank(List<String> tokens, int minShouldMatch, List<IndexData> queryIndexData,
+                                   Map<Integer, Double> aggregatedScores, Map<Integer, Integer> matchedTerms, int topK,
+                                   QueryMetrics.Trace trace, long stageStart) throws IOException {
+        boolean positional = indexReader.hasPositions() && queryIndexData != null;
+        List<ScoredChunk> allScoredChunks = new ArrayList<>();
+
+        int querySize = tokens.size();
+
+        for (Map.Entry<Integer, Double> entry : aggregatedScores.entrySet()) {
+            int chunkId = entry.getKey();
+            double baseScore = entry.getValue();
+            if (!inSegment(chunkId)) continue;
+            int matched = matchedTerms.getOrDefault(chunkId, 0);
+
+            //the postings traversal already applied this, score-at-a-time results still need it.
+            if (matched < minShouldMatch) {
+                continue;
+            }
+            double finalScore = boostedScore(baseScore, matched, querySize, chunkNorms.tokenCount(chunkId), positional);
+
+            //without metadata until the chunk makes the top-K.
+            allScoredChunks.add(new ScoredChunk(finalScore, chunkId, null, ordinal));
+        }
+        if (positional) {
+            allScoredChunks = rerankByProximity(allScoredChunks, queryIndexData, new HashSet<>(tokens).size());
+        }
+        trace.addCandidatesScored(aggregatedScores.size());
+        stageStart = endStage(trace, Stage.SCORING, stageStart);
+
+        List<ScoredChunk> topChunks = filterTopKWithDeduplication(allScoredChunks, topK);
+        stageStart = endStage(trace, Stage.TOP_K, stageStart);
+        topChunks = withMetadata(topChunks, trace);
+        endStage(trace, Stage.METADATA_FETCH, stageStart);
+        return topChunks;
+    }
+
+    /**
+     * BM25 score of a chunk with the coverage, density and, without a positional index, the chunk size proximity boost.
+     * With positions the proximity boost is applied to the best candidates later, in rerankByProximity.
+     */
+    private static double boostedScore(double baseScore, int matched, int querySize, int tokenCount,
+                                       boolean positional) {
+        double coverage = (double) matched / querySize;
+        double coverageBoost = 1.0 + (COVERAGE_BOOST * coverage);
+        double termDensity = (double) matched / tokenCount;
+        double densityBoost = 1.0 + Math.min(MAX_DENSITY_BOOST, termDensity * 10);
+        double proximityBoost = positional ? 1.0 : calculateProximityBoostSimple(tokenCount, querySize);
+
+        return baseScore * coverageBoost * densityBoost * proximityBoost;
+    }
+
+    /**
+     * Largest factor boostedScore can apply to a chunk matching m of the terms, indexed by m.
+     */
+    private static double[] maxBoost(int termCount, int querySize, boolean positional) {
+        double[] maxBoost = new double[termCount + 1];
+        for (int matched = 0; matched <= termCount; matched++) {
+            double proximityBoost = positional || querySize <= 1 ? 1.0 : MAX_SIMPLE_PROXIMITY_BOOST;
+            //a little slack so rounding in the score never lands above its bound.
+            maxBoost[matched] = (1.0 + COVERAGE_BOOST * matched / querySize) * (1.0 + MAX_DENSITY_BOOST)
+                    * proximityBoost * (1 + 1e-9);
+        }
+        return maxBoost;
+    }
+
+    /**
+     * Document-at-a-time walk over the query's postings that only stops on chunks matching minShouldMatch of the
+     * terms, or every required term when the plan has them, and inside phraseMatches when that is not null. Candidates
+     * come from the plan's driving or required terms, the other terms are advanced to them. Returns those chunks in
+     * increasing chunk id order and fills termValues[t][i] with the term frequency, or the impact where the term is
+     * scored by impact, of term t in the i-th chunk, 0 when the term is missing from it.
+     */
+    private List<Integer> collectCandidates(List<IndexData> queryIndexData, QueryPlan plan, TermScorer termScorer,
+                                            int[] phraseMatches, int[][] termValues) {
+        List<PostingsIterator> iterators = termScorer.iterators(queryIndexData);
+        PostingsIterator candidateIterator;
+        if (plan.hasRequiredTerms()) {
+            //the rarest required list leads, the others gallop to its chunk ids.
+            List<PostingsIterator> required = new ArrayList<>();
+            for (int t = 0; t < iterators.size(); t++) {
+                if (plan.getTerms().get(t).isRequired()) required.add(iterators.get(t));
+            }
+            if (phraseMatches != null) {
+                required.add(new ArrayPostingsIterator(phraseMatches, null));
+            }
+            //bitmap lists are intersected word by word up front, the term iterators are advanced below either way.
+            candidateIterator = new ConjunctionIterator(BitmapPostingsIterator.intersectBitmaps(required));
+        } else {
+            //where one term is enough the bitmap lists are merged word by word into a single one.
+            List<PostingsIterator> candidateLists = plan.getMinShouldMatch() == 1
+                    ? BitmapPostingsIterator.unionBitmaps(iterators) : iterators;
+            candidateIterator = new MinShouldMatchIterator(candidateLists, plan.getMinShouldMatch());
+            List<PostingsIterator> required = new ArrayList<>();
+            if (plan.hasScoringOnlyTerms()) {
+                //copies of the driving terms' lists, the terms above the ceiling are only advanced to what they find.
+                List<PostingsIterator> copies = termScorer.iterators(queryIndexData);
+                List<PostingsIterator> driving = new ArrayList<>();
+                for (int t = 0; t < copies.size(); t++) {
+                    if (!plan.getTerms().get(t).isScoringOnly()) driving.add(copies.get(t));
+                }
+                required.add(new MinShouldMatchIterator(driving, 1));
+            }
+            if (phraseMatches != null) {
+                required.add(new ArrayPostingsIterator(phraseMatches, null));
+            }
+            if (!required.isEmpty()) {
+                required.add(candidateIterator);
+                candidateIterator = new ConjunctionIterator(required);
+            }
+        }
+
+        List<Integer> candidates = new ArrayList<>();
+        int capacity = (int) Math.min(candidateIterator.cost(), 1024);
+        for (int t = 0; t < termValues.length; t++) termValues[t] = new int[capacity];
+        for (int chunkId = candidateIterator.nextDoc(); chunkId != PostingsIterator.NO_MORE_DOCS;
+             chunkId = candidateIterator.nextDoc()) {
+            int c = candidates.size();
+            if (c == capacity) {
+                capacity = Math.max(capacity * 2, 16);
+                for (int t = 0; t < termValues.length; t++) termValues[t] = Arrays.copyOf(termValues[t], capacity);
+            }
+            for (int t = 0; t < termValues.length; t++) {
+                PostingsIterator iterator = iterators.get(t);
+                //terms outside the required intersection are only moved here.
+                int docId = iterator.docId() < chunkId ? iterator.advance(chunkId) : iterator.docId();
+                termValues[t][c] = docId == chunkId ? iterator.freq() : 0;
+            }
+            candidates.add(chunkId);
+        }
+        return candidates;
+    }
+
+    /**
+     * Like collectCandidates, but skips every chunk whose score bound is below what the results so far already beat,
+     * see CompetitiveScore. Each chunk returned is scored on the spot from the resident chunk norms and raises the
+     * threshold for the rest of the walk. The chunks left out could not have changed the top-K or the reranked
+     * set, so the answer is the same as scoring all of them.
+     */
+    private List<Integer> collectCompetitive(List<String> tokens, List<IndexData> queryIndexData, QueryPlan plan,
+                                             TermScorer termScorer, int topK, int[][] termValues) {
+        boolean positional = indexReader.hasPositions();
+        int querySize = tokens.size();
+        List<PostingsIterator> iterators = termScorer.iterators(queryIndexData);
+        double[] upperBounds = new double[iterators.size()];
+        for (int t = 0; t < upperBounds.length; t++) {
+            upperBounds[t] = termScorer.upperBound(t, queryIndexData.get(t));
+        }
+        WandIterator wand = new WandIterator(iterators, upperBounds, maxBoost(iterators.size(), querySize, positional),
+                plan.getMinShouldMatch());
+        CompetitiveScore competitive = new CompetitiveScore(topK, positional ? PROXIMITY_RERANK_DEPTH : 0);
+
+        List<Integer> candidates = new ArrayList<>();
+        int capacity = 64;
+        for (int t = 0; t < termValues.length; t++) termValues[t] = new int[capacity];
+        for (int chunkId = wand.nextDoc(); chunkId != PostingsIterator.NO_MORE_DOCS; chunkId = wand.nextDoc()) {
+            if (!inSegment(chunkId)) continue;
+            int tokenCount = chunkNorms.tokenCount(chunkId);
+            int c = candidates.size();
+            if (c == capacity) {
+                capacity *= 2;
+                for (int t = 0; t < termValues.length; t++) termValues[t] = Arrays.copyOf(termValues[t], capacity);
+            }
+            double baseScore = 0;
+            for (int t = 0; t < termValues.length; t++) {
+                int value = wand.matches(t) ? iterators.get(t).freq() : 0;
+                termValues[t][c] = value;
+                if (value != 0) baseScore += termScorer.score(t, value, tokenCount);
+            }
+            candidates.add(chunkId);
+            competitive.add(chunkNorms.docId(chunkId),
+                    boostedScore(baseScore, wand.freq(), querySize, tokenCount, positional));
+            wand.setMinCompetitiveScore(competitive.threshold());
+        }
+        return candidates;
+    }
+
+    /**
+     * Answers the query from the impact-ordered postings under the configured posting and time budget. Only the
+     * postings the traversal reaches are scored and only the chunks returned have metadata fetched. The JSON postings are
+     * never decoded, the proximity rerank of the best candidates takes its chunk ids from the impact-ordered stream.
+     */
+    private List<ScoredChunk> scoreAtATime(List<String> tokens, List<TokenOffsetData> entries,
+                                           Map<String, Integer> docFreqs, BM25Stats stats, int topK,
+                                           QueryMetrics.Trace trace, long stageStart) throws IOException {
+        if (entries.isEmpty()) {
+            LOGGER.fine("No matching tokens found in " + name);
+            return Collections.emptyList();
+        }
+        List<ImpactSegmentsCursor> cursors = new ArrayList<>(entries.size());
+        double[] weights = new double[entries.size()];
+        long timeBudgetNanos = QueryParams.getTimeBudgetMicros() * 1000;
+        long deadline = timeBudgetNanos == 0 ? 0 : stageStart + timeBudgetNanos;
+        ScoreAtATime.Result result;
+        try {
+            for (int i = 0; i < entries.size(); i++) {
+                TokenOffsetData entry = entries.get(i);
+                ImpactSegmentsCursor cursor = indexReader.openImpactSegments(entry);
+                if (cursor == null) {
+                    throw new IllegalStateException("Token " + entry.getToken() + " has no impact-ordered postings in " + name);
+                }
+                cursors.add(cursor);
+                int docFreq = docFreqs.getOrDefault(entry.getToken(), Math.max(entry.getDocFreq(), 1));
+                weights[i] = idf(docFreq, stats) * impactHeader.scale();
+            }
+            result = ScoreAtATime.traverse(cursors, weights, QueryParams.getPostingBudget(), deadline);
+        } finally {
+            for (ImpactSegmentsCursor cursor : cursors) cursor.close();
+        }
+        trace.addPostingsDecoded(result.getPostingsProcessed());
+        if (result.isTerminatedEarly()) {
+            trace.addEarlyTermination();
+            LOGGER.fine("Score-at-a-time traversal of " + name + " stopped after " + result.getPostingsProcessed()
+                    + " postings");
+        }
+        //the proximity rerank needs each term's chunk ids in doc order, it is skipped once the time budget is spent.
+        List<IndexData> rerankPostings = null;
+        if (indexReader.hasPositions() && (deadline == 0 || System.nanoTime() - deadline < 0)) {
+            rerankPostings = docOrderedChunkIds(entries);
+        }
+        stageStart = endStage(trace, Stage.POSTINGS_DECODE, stageStart);
+
+        return rank(tokens, QueryPlanner.minShouldMatch(tokens.size()), rerankPostings, result.getScores(),
+                result.getMatchedTerms(), topK, trace, stageStart);
+    }
+
+    /**
+     * Every chunk id of each entry in increasing order, collected from the impact-ordered postings. These are vints
+     * instead of a JSON postings line, and enough to walk the positions stream; the frequencies are not read.
+     */
+    private List<IndexData> docOrderedChunkIds(List<TokenOffsetData> entries) throws IOException {
+        List<IndexData> postings = new ArrayList<>(entries.size());
+        for (TokenOffsetData entry : entries) {
+            List<Integer> chunkIds = new ArrayList<>(Math.max(entry.getDocFreq(), 0));
+            try (ImpactSegmentsCursor cursor = indexReader.openImpactSegments(entry)) {
+                while (cursor.nextSegment()) {
+                    for (int chunkId : cursor.chunkIds()) chunkIds.add(chunkId);
+                }
+            }
+            Collections.sort(chunkIds);
+            postings.add(new IndexData(chunkIds, null, entry.getToken()));
+        }
+        return postings;
+    }
+
+    /**
+     * Adds the time since stageStart to the stage and returns now, the start of the next stage.
+     */
+    private static long endStage(QueryMetrics.Trace trace, Stage stage, long stageStart) {
+        long now = System.nanoTime();
+        trace.add(stage, now - stageStart);
+        return now;
+    }
+
+    /**
+     * The given chunks with their chunk index records read, in the same order. Called for the top-K only, ranking
+     * gets by on the resident chunk norms.
+     */
+    private List<ScoredChunk> withMetadata(List<ScoredChunk> scoredChunks, QueryMetrics.Trace trace)
+            throws IOException {
+        List<ScoredChunk> result = new ArrayList<>(scoredChunks.size());
+        ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        long indexLength = chunkIndexChannel.size();
+        for (ScoredChunk chunk : scoredChunks) {
+            ChunkMetaData meta = readMetadata(chunk.getChunkId(), record, indexLength);
+            if (meta != null) {
+                result.add(new ScoredChunk(chunk.getScore(), chunk.getChunkId(), meta, ordinal,
+                        chunk.getTermPositions()));
+            }
+        }
+        trace.addChunkRecordsRead(scoredChunks.size());
+        return result;
+    }
+
+    private boolean inSegment(int chunkId) {
+        if (chunkNorms.contains(chunkId)) return true;
+        LOGGER.warning("ChunkID " + chunkId + " is out of bounds in index file of " + name);
+        return false;
+    }
+
+    /**
+     * Reads one chunk record into record, null when the chunk id lies outside this segment's chunk index.
+     */
+    private ChunkMetaData readMetadata(int chunkId, ByteBuffer record, long indexLength) throws IOException {
+        //chunk ids are global, records in the segment's chunk index start at its base chunk id.
+        long positionInIndex = (long) (chunkId - baseChunkId) * RECORD_SIZE;
+
+        if (positionInIndex < 0 || positionInIndex + RECORD_SIZE > indexLength) {
+            LOGGER.warning("ChunkID " + chunkId + " is out of bounds in index file of " + name);
+            return null;
+        }
+
+        record.clear();
+        readFully(chunkIndexChannel, record, positionInIndex);
+        record.flip();
+        int trueChunkId = record.getInt();
+        long dataOffset = record.getLong();
+        int dataLength = record.getInt();
+        int docId = record.getInt();
+        int tokenCount = record.getInt();
+        LOGGER.finest("CHUNK_ID: " + chunkId +
+                " | DATA FILE OFFSET: " + dataOffset +
+                " | CHUNK LENGTH BYTES: " + dataLength +
+                " | TOKENS: " + tokenCount);
+        if (trueChunkId != chunkId) {
+            LOGGER.severe("Chunk ID being read does not match the chunk ID expected ");
+            throw new IllegalStateException("Chunk ID being read does not match the chunk ID expected ");
+        }
+        return new ChunkMetaData(dataOffset, dataLength, docId, tokenCount);
+    }
+
+    /**
+     * Calculates the BM25 score for a single term in a specific chunk. docFreq and stats describe the whole collection,
+     * not this segment, so the score is the same whichever segment or shard holds the chunk.
+     */
+    private double calculateBM25SingleTerm(int docLength, int tf, int docFreq, BM25Stats stats) {
+        double avgdl = stats.getAverageChunkSize();
+        double idf = idf(docFreq, stats);
+        double num = tf * (TERM_FREQUENCY_SATURATION + 1);
+        double denom = tf + TERM_FREQUENCY_SATURATION * (1 - DOCUMENT_LENGTH_NORMALIZATION +
+                DOCUMENT_LENGTH_NORMALIZATION * ((double) docLength / avgdl));
+
+        return idf * (num / denom);
+    }
+
+    private static double idf(int docFreq, BM25Stats stats) {
+        long totalDocs = stats.getTotalChunks();
+        return Math.log(1.0 + (totalDocs - docFreq + 0.5) / (docFreq + 0.5));
+    }
+
+    /**
+     * Chunks containing every phrase of the query. The distinct terms of a phrase are intersected with a galloping
+     * conjunction on chunk ids, and only chunks that survive it have their positions read and checked. Each phrase is
+     * intersected with the matches of the previous ones. Without a positional index a phrase degrades to requiring
+     * all of its terms.
+     */
+    private Set<Integer> matchPhrases(List<PhraseQuery> phrases, List<IndexData> queryIndexData) throws IOException {
+        Map<String, IndexData> indexDataByToken = new HashMap<>();
+        for (IndexData indexData : queryIndexData) {
+            indexDataByToken.putIfAbsent(indexData.getToken(), indexData);
+        }
+        if (!indexReader.hasPositions()) {
+            LOGGER.fine("Index has no positions, phrases are matched as conjunctions of their terms.");
+        }
+        int[] matches = null;
+        for (PhraseQuery phrase : phrases) {
+            List<String> distinctTerms = new ArrayList<>(new LinkedHashSet<>(phrase.getTerms()));
+            List<PostingsIterator> iterators = new ArrayList<>();
+            for (String term : distinctTerms) {
+                IndexData indexData = indexDataByToken.get(term);
+                if (indexData == null) return Collections.emptySet();
+                iterators.add(indexData.iterator());
+            }
+            if (matches != null) {
+                iterators.add(new ArrayPostingsIterator(matches, null));
+            }
+            Map<String, PositionsCursor> cursors = new HashMap<>();
+            try {
+                if (phrase.getTerms().size() > 1) {
+                    for (String term : distinctTerms) {
+                        PositionsCursor cursor = indexReader.openPositions(indexDataByToken.get(term));
+                        if (cursor != null) cursors.put(term, cursor);
+                    }
+                }
+                boolean verify = !cursors.isEmpty() && cursors.size() == distinctTerms.size();
+                List<Integer> phraseMatches = new ArrayList<>();
+                ConjunctionIterator conjunction =
+                        new ConjunctionIterator(BitmapPostingsIterator.intersectBitmaps(iterators));
+                for (int chunkId = conjunction.nextDoc(); chunkId != PostingsIterator.NO_MORE_DOCS; chunkId = conjunction.nextDoc()) {
+                    if (verify && !verifyPhrase(phrase, distinctTerms, cursors, chunkId)) continue;
+                    phraseMatches.add(chunkId);
+                    if (phraseMatches.size() >= PHRASE_MATCH_LIMIT) {
+                        LOGGER.fine("Phrase match limit reached for " + phrase);
+                        break;
+                    }
+                }
+                matches = phraseMatches.stream().mapToInt(Integer::intValue).toArray();
+            } finally {
+                for (PositionsCursor cursor : cursors.values()) cursor.close();
+            }
+            LOGGER.fine("Phrase " + phrase + " matched " + matches.length + " chunks");
+            if (matches.length == 0) return Collections.emptySet();
+        }
+        Set<Integer> matchedChunkIds = new HashSet<>();
+        for (int chunkId : matches) matchedChunkIds.add(chunkId);
+        return matchedChunkIds;
+    }
+
+    private boolean verifyPhrase(PhraseQuery phrase, List<String> distinctTerms, Map<String, PositionsCursor> cursors,
+                                 int chunkId) throws IOException {
+        Map<String, int[]> positions = new HashMap<>();
+        for (String term : distinctTerms) {
+            positions.put(term, cursors.get(term).positions(chunkId));
+        }
+        List<int[]> termPositions = new ArrayList<>(phrase.getTerms().size());
+        for (String term : phrase.getTerms()) {
+            termPositions.add(positions.get(term));
+        }
+        return phrase.matches(termPositions);
+    }
+
+    /**
+     * Re-scores the best PROXIMITY_RERANK_DEPTH candidates using the minimal window that holds their matched query terms.
+     * Positions are only read for those candidates, everything below the depth keeps its score.
+     */
+    private List<ScoredChunk> rerankByProximity(List<ScoredChunk> scoredChunks, List<IndexData> queryIndexData,
+                                                int queryTermCount) throws IOException {
+        if (queryTermCount < 2 || scoredChunks.isEmpty()) return scoredChunks;
+        scoredChunks.sort(BY_SCORE);
+        int depth = Math.min(PROXIMITY_RERANK_DEPTH, scoredChunks.size());
+        Set<Integer> candidates = new HashSet<>();
+        for (int i = 0; i < depth; i++) {
+            candidates.add(scoredChunks.get(i).getChunkId());
+        }
+        Map<String, Map<Integer, int[]>> positionsByTerm = new HashMap<>();
+        for (IndexData indexData : queryIndexData) {
+            if (!positionsByTerm.containsKey(indexData.getToken())) {
+                positionsByTerm.put(indexData.getToken(), indexReader.readPositions(indexData, candidates));
+            }
+        }
+        for (int i = 0; i < depth; i++) {
+            ScoredChunk chunk = scoredChunks.get(i);
+            List<int[]> termPositions = new ArrayList<>();
+            //kept on the chunk, a snippet of it picks its window from them without reading positions again.
+            Map<String, int[]> positionsOfChunk = new HashMap<>();
+            for (Map.Entry<String, Map<Integer, int[]>> entry : positionsByTerm.entrySet()) {
+                int[] chunkPositions = entry.getValue().get(chunk.getChunkId());
+                if (chunkPositions != null && chunkPositions.length > 0) {
+                    termPositions.add(chunkPositions);
+                    positionsOfChunk.put(entry.getKey(), chunkPositions);
+                }
+            }
+            double proximityBoost = ProximityScorer.proximityBoost(termPositions, queryTermCount);
+            LOGGER.finest("proximity boost " + proximityBoost + " for chunkID: " + chunk.getChunkId());
+            scoredChunks.set(i, new ScoredChunk(chunk.getScore() * proximityBoost, chunk.getChunkId(),
+                    chunk.getChunkMetaData(), ordinal, positionsOfChunk));
+        }
+        return scoredChunks;
+    }
+
+    /*
+    Handles deduplication by recording docId of chunks, allowing only one chunk per DocId in the segment's results.
+    A document never spans segments, so deduplicating per segment and again after the merge gives the global answer.
+     */
+    private List<ScoredChunk> filterTopKWithDeduplication(List<ScoredChunk> scoredChunkList, int topK) {
+        scoredChunkList.sort(BY_SCORE);
+
+        List<ScoredChunk> result = new ArrayList<>();
+        Set<Integer> usedDocIds = new HashSet<>();
+
+        for (ScoredChunk chunk : scoredChunkList) {
+            LOGGER.finest("Score is " + chunk.getScore() + " for chunkID: " + chunk.getChunkId());
+            int docId = chunkNorms.docId(chunk.getChunkId());
+            if (usedDocIds.add(docId)) {
+                LOGGER.fine("Score: " + chunk.getScore() + " | DocId: " + docId);
+                result.add(chunk);
+                if (result.size() >= topK) {
+                    break;
+                }
+            } else {
+                LOGGER.finest("Skipped duplicate docId: " + docId + " (overlap)");
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the actual text content of a chunk from the segment's chunk data file, null if the data is truncated.
+     */
+    public String readChunk(ChunkMetaData meta) throws IOException {
+        byte[] bytes = readChunkBytes(meta, meta.getDataLength());
+        if (bytes == null) return null;
+        String chunk = new String(bytes, StandardCharsets.UTF_8);
+        LOGGER.finest("data read is: " + chunk);
+        return chunk;
+    }
+
+    /**
+     * The first length bytes of a chunk's text, null if the data is truncated.
+     */
+    private byte[] readChunkBytes(ChunkMetaData meta, int length) throws IOException {
+        try {
+            if (chunkBlocks != null) {
+                return chunkBlocks.read(meta.getDataOffset(), length);
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            readFully(chunkDataChannel, buffer, meta.getDataOffset());
+            return buffer.array();
+        } catch (EOFException e) {
+            LOGGER.warning("Unexpected EOF reading chunk at offset: " + meta.getDataOffset() + " in " + name);
+            return null;
+        }
+    }
+
+    /**
+     * Snippets of chunks this segment's search returned, in the same order, leaving out those whose data is truncated.
+     * A chunk the proximity rerank read the positions of has its window picked from them, then only its bytes up to
+     * the window's end are read. Any other chunk is read whole and scanned once.
+     */
+    public List<Snippet> readSnippets(List<ScoredChunk> chunks, SnippetExtractor extractor, QueryMetrics.Trace trace)
+            throws IOException {
+        List<Snippet> snippets = new ArrayList<>(chunks.size());
+        long bytesRead = 0;
+        for (ScoredChunk chunk : chunks) {
+            ChunkMetaData meta = chunk.getChunkMetaData();
+            Snippet snippet;
+            if (chunk.getTermPositions() == null) {
+                byte[] bytes = readChunkBytes(meta, meta.getDataLength());
+                if (bytes == null) continue;
+                bytesRead += bytes.length;
+                snippet = extractor.extract(new String(bytes, StandardCharsets.UTF_8), chunk.getScore(),
+                        chunk.getChunkId(), meta.getDocId());
+            } else {
+                SnippetExtractor.Window window = extractor.window(chunk.getTermPositions(), meta.getTokenCount());
+                int length = snippetPrefixLength(meta, window.getTo());
+                byte[] bytes = readChunkBytes(meta, length);
+                if (bytes == null) continue;
+                bytesRead += bytes.length;
+                boolean complete = length == meta.getDataLength();
+                snippet = extractor.extract(prefixText(bytes, complete), window, complete, chunk.getScore(),
+                        chunk.getChunkId(), meta.getDocId());
+                if (snippet == null) {
+                    //the estimate fell short, the chunk has longer words before the window than on average.
+                    bytes = readChunkBytes(meta, meta.getDataLength());
+                    if (bytes == null) continue;
+                    bytesRead += bytes.length;
+                    snippet = extractor.extract(new String(bytes, StandardCharsets.UTF_8), window, true,
+                            chunk.getScore(), chunk.getChunkId(), meta.getDocId());
+                }
+            }
+            snippets.add(snippet);
+        }
+        trace.addChunkBytesRead(bytesRead);
+        return snippets;
+    }
+
+    /**
+     * Bytes of a chunk's text likely to hold its first tokens tokens, from the chunk's average bytes per token with a
+     * margin. The whole chunk when that is about as long.
+     */
+    private int snippetPrefixLength(ChunkMetaData meta, int tokens) {
+        int length = meta.getDataLength();
+        if (meta.getTokenCount() == 0) return length;
+        long estimate = (long) length * tokens / meta.getTokenCount();
+        estimate += estimate / 4 + SNIPPET_PREFIX_MARGIN;
+        return estimate >= length ? length : (int) estimate;
+    }
+
+    /**
+     * Text of a chunk's first bytes. Unless they are the whole chunk they are cut back to the last space, so the last
+     * word, or char, is never cut short. Tokens never span a space.
+     */
+    private static String prefixText(byte[] bytes, boolean complete) {
+        int end = bytes.length;
+        if (!complete) {
+            while (end > 0 && bytes[end - 1] != ' ') end--;
+        }
+        return new String(bytes, 0, end, StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException("EOF at position " + position);
+            position += read;
+        }
+    }
+
+    private static double calculateProximityBoostSimple(int chunkSize, int querySize) {
+        if (querySize <= 1) return 1.0;
+
+        // Without position data, we can only estimate based on:
+        // 1. Term frequency - if terms appear multiple times, more likely to be close
+        // 2. Chunk size - smaller chunks mean terms are inherently closer
+
+        // Smaller chunks get a small proximity boost
+        // Rationale: In a 100-token chunk, 3 terms are likely closer than in a 500-token chunk
+        if (chunkSize < 100) {
+            return MAX_SIMPLE_PROXIMITY_BOOST;
+        } else if (chunkSize < 200) {
+            return 1.10;
+        } else if (chunkSize < 300) {
+            return 1.05;
+        }
+
+        return 1.0;
+    }
+
+    /**
+     * Scores of each query term against this segment: its tf scored with exact BM25, or its impact when the segment's
+     * impacts are usable, with the global document frequency.
+     */
+    private final class TermScorer {
+        private final boolean[] byImpact;
+        private final int[] docFreq;
+        private final double[] impactWeight;
+        private final BM25Stats stats;
+
+        TermScorer(List<IndexData> queryIndexData, Map<String, Integer> docFreqs, BM25Stats stats, boolean useImpacts) {
+            int terms = queryIndexData.size();
+            this.byImpact = new boolean[terms];
+            this.docFreq = new int[terms];
+            this.impactWeight = new double[terms];
+            this.stats = stats;
+            for (int t = 0; t < terms; t++) {
+                IndexData indexData = queryIndexData.get(t);
+                byImpact[t] = useImpacts && indexData.getImpacts() != null;
+                docFreq[t] = docFreqs.getOrDefault(indexData.getToken(), indexData.getIds().size());
+                //idf changes with every append and merge, so it is applied here and not stored with the impact.
+                impactWeight[t] = byImpact[t] ? idf(docFreq[t], stats) * impactHeader.scale() : 0;
+            }
+        }
+
+        /**
+         * A fresh iterator per term whose freq() is the value score takes, the impact or the tf.
+         */
+        List<PostingsIterator> iterators(List<IndexData> queryIndexData) {
+            List<PostingsIterator> iterators = new ArrayList<>(queryIndexData.size());
+            for (int t = 0; t < queryIndexData.size(); t++) {
+                IndexData indexData = queryIndexData.get(t);
+                iterators.add(byImpact[t] ? indexData.impactIterator() : indexData.iterator());
+            }
+            return iterators;
+        }
+
+        double score(int t, int value, int tokenCount) {
+            return byImpact[t] ? impactWeight[t] * value : calculateBM25SingleTerm(tokenCount, value, docFreq[t], stats);
+        }
+
+        /**
+         * Highest score term t gives any chunk: its largest impact, or BM25 of its largest tf in a chunk of length 0.
+         */
+        double upperBound(int t, IndexData indexData) {
+            if (byImpact[t]) {
+                int maxImpact = 0;
+                for (int impact : indexData.getImpacts()) maxImpact = Math.max(maxImpact, impact);
+                return impactWeight[t] * maxImpact;
+            }
+            int maxTf = 0;
+            for (int tf : indexData.getFreqs()) maxTf = Math.max(maxTf, tf);
+            double k1 = TERM_FREQUENCY_SATURATION;
+            return idf(docFreq[t], stats) * maxTf * (k1 + 1) / (maxTf + k1 * (1 - DOCUMENT_LENGTH_NORMALIZATION));
+        }
+    }
+
+    private void recordLatency(long nanos) {
+        queryCount.incrementAndGet();
+        totalLatencyNanos.addAndGet(nanos);
+        maxLatencyNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Heap retained by the segment, its term dictionary, the chunk norms and a block store's block offsets. The chunk
+     * store is read through file channels and only occupies the OS page cache, inflated blocks are the cache's.
+     */
+    @Override
+    public long ramBytesUsed() {
+        return indexReader.ramBytesUsed() + chunkNorms.ramBytesUsed()
+                + (chunkBlocks == null ? 0 : chunkBlocks.ramBytesUsed());
+    }
+
+    public int getDictionarySize() {
+        return indexReader.getDictionarySize();
+    }
+
+    public long getChunkStoreBytes() throws IOException {
+        return chunkIndexChannel.size() + (chunkBlocks == null ? chunkDataChannel.size() : chunkBlocks.size());
+    }
+
+    public long getQueryCount() {
+        return queryCount.get();
+    }
+
+    public long getTotalLatencyNanos() {
+        return totalLatencyNanos.get();
+    }
+
+    public long getMaxLatencyNanos() {
+        return maxLatencyNanos.get();
+    }
+
+    public void close() throws IOException {
+        indexReader.close();
+        chunkIndexChannel.close();
+        if (chunkBlocks != null) {
+            chunkBlocks.close();
+        } else {
+            chunkDataChannel.close();
+        }
+    }
+}
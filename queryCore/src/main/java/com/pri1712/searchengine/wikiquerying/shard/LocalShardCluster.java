@@ -0,0 +1,108 @@
+package com.pri1712.searchengine.wikiquerying.shard;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.IntFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs every shard as a separate JVM on this machine. Each worker is expected to print ShardServer.READY_PREFIX and
+ * its port on stdout once it serves, and to exit when its stdin closes, so workers do not outlive the process that
+ * launched them.
+ */
+public class LocalShardCluster implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(LocalShardCluster.class.getName());
+
+    private final List<Process> workers = new ArrayList<>();
+    private final List<Integer> ports = new ArrayList<>();
+
+    /**
+     * Starts shardCount workers and waits until all of them serve.
+     * @param workerCommand command line of the worker for a shard number.
+     */
+    public static LocalShardCluster launch(IntFunction<List<String>> workerCommand, int shardCount,
+                                           long startTimeoutMillis) throws IOException {
+        LocalShardCluster cluster = new LocalShardCluster();
+        try {
+            List<CompletableFuture<Integer>> ready = new ArrayList<>();
+            for (int shard = 0; shard < shardCount; shard++) {
+                Process worker = new ProcessBuilder(workerCommand.apply(shard))
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+                cluster.workers.add(worker);
+                ready.add(readPort(worker, shard));
+            }
+            for (int shard = 0; shard < shardCount; shard++) {
+                cluster.ports.add(ready.get(shard).get(startTimeoutMillis, TimeUnit.MILLISECONDS));
+            }
+        } catch (ExecutionException | TimeoutException e) {
+            cluster.close();
+            throw new IOException("Shard workers did not start", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cluster.close();
+            throw new InterruptedIOException("Interrupted while starting shard workers");
+        }
+        LOGGER.info("Started " + shardCount + " shard workers on ports " + cluster.ports);
+        return cluster;
+    }
+
+    /**
+     * Completes with the port the worker announces, its remaining output is drained so it never blocks on a full pipe.
+     */
+    private static CompletableFuture<Integer> readPort(Process worker, int shard) {
+        CompletableFuture<Integer> port = new CompletableFuture<>();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader out = new BufferedReader(new InputStreamReader(worker.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = out.readLine()) != null) {
+                    if (!port.isDone() && line.startsWith(ShardServer.READY_PREFIX)) {
+                        port.complete(Integer.parseInt(line.substring(ShardServer.READY_PREFIX.length()).trim()));
+                    }
+                }
+                port.completeExceptionally(new EOFException("Shard " + shard + " exited with " + worker.waitFor()));
+            } catch (IOException | RuntimeException | InterruptedException e) {
+                port.completeExceptionally(e);
+            }
+        }, "shard-" + shard + "-stdout");
+        reader.setDaemon(true);
+        reader.start();
+        return port;
+    }
+
+    public int getShardCount() {
+        return ports.size();
+    }
+
+    /**
+     * One client per shard, in shard order.
+     */
+    public List<ShardClient> clients(int timeoutMillis) {
+        List<ShardClient> clients = new ArrayList<>();
+        for (int shard = 0; shard < ports.size(); shard++) {
+            clients.add(new ShardClient(shard, ports.get(shard), timeoutMillis));
+        }
+        return clients;
+    }
+
+    @Override
+    public void close() {
+        for (Process worker : workers) {
+            try {
+                //closing stdin asks the worker to shut down, it is killed if it does not.
+                worker.getOutputStream().close();
+                if (!worker.waitFor(5, TimeUnit.SECONDS)) worker.destroyForcibly();
+            } catch (IOException e) {
+                worker.destroyForcibly();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                worker.destroyForcibly();
+            }
+        }
+        LOGGER.log(Level.FINE, "Stopped " + workers.size() + " shard workers");
+    }
+}
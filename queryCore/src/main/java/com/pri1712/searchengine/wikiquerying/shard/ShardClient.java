@@ -0,0 +1,79 @@
+package com.pri1712.searchengine.wikiquerying.shard;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Connection from the coordinator to one shard. Calls are serialized over a single socket. Any failure, including a
+ * read timeout, drops the connection, so a late answer can never be taken as the reply to the next request; the
+ * next call reconnects.
+ */
+public class ShardClient implements Closeable {
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final int shard;
+    private final int port;
+    private final int timeoutMillis;
+
+    private Socket socket;
+    private BufferedReader in;
+    private Writer out;
+
+    public ShardClient(int shard, int port, int timeoutMillis) {
+        this.shard = shard;
+        this.port = port;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public int getShard() {
+        return shard;
+    }
+
+    public synchronized ShardResponse call(ShardRequest request) throws IOException {
+        try {
+            if (socket == null) connect();
+            out.write(mapper.writeValueAsString(request));
+            out.write('\n');
+            out.flush();
+            String line = in.readLine();
+            if (line == null) throw new EOFException("Shard " + shard + " closed the connection");
+            ShardResponse response = mapper.readValue(line, ShardResponse.class);
+            if (response.getError() != null) {
+                throw new IOException("Shard " + shard + " failed: " + response.getError());
+            }
+            return response;
+        } catch (IOException e) {
+            disconnect();
+            throw e;
+        }
+    }
+
+    private void connect() throws IOException {
+        socket = new Socket();
+        socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), timeoutMillis);
+        socket.setSoTimeout(timeoutMillis);
+        socket.setTcpNoDelay(true);
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+    }
+
+    private void disconnect() {
+        if (socket == null) return;
+        try {
+            socket.close();
+        } catch (IOException ignore) {
+        }
+        socket = null;
+        in = null;
+        out = null;
+    }
+
+    @Override
+    public synchronized void close() {
+        disconnect();
+    }
+}
@@ -0,0 +1,173 @@
+package com.pri1712.searchengine.wikiquerying.shard;
+
+import com.pri1712.searchengine.model.BM25Stats;
+import com.pri1712.searchengine.model.Snippet;
+import com.pri1712.searchengine.wikiquerying.query.ParsedQuery;
+import com.pri1712.searchengine.wikiquerying.query.QueryParser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Scatters queries over shards and gathers their top-K. A query takes two rounds: document frequencies are summed
+ * over every shard first, then each shard scores its chunks with those global frequencies and the global chunk
+ * stats, so a chunk gets the score it would get in a single index. A shard that fails or misses the timeout is left
+ * out of that round and the query is answered from the rest.
+ */
+public class ShardCoordinator implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(ShardCoordinator.class.getName());
+
+    private final List<ShardClient> shards;
+    private final ExecutorService scatterExecutor;
+    private final long timeoutMillis;
+    private final BM25Stats stats;
+    private int TOP_K;
+
+    private final AtomicLongArray timeouts;
+    private final AtomicLongArray failures;
+
+    /**
+     * Asks every shard for its stats to build the global ones, which fails if any shard does not answer.
+     */
+    public ShardCoordinator(List<ShardClient> shards, int TOP_K, long timeoutMillis) throws IOException {
+        this.shards = shards;
+        this.TOP_K = TOP_K;
+        this.timeoutMillis = timeoutMillis;
+        this.timeouts = new AtomicLongArray(shards.size());
+        this.failures = new AtomicLongArray(shards.size());
+        this.scatterExecutor = Executors.newFixedThreadPool(shards.size(), runnable -> {
+            Thread thread = new Thread(runnable, "shard-scatter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<BM25Stats> shardStats = new ArrayList<>();
+        for (ShardClient shard : shards) {
+            shardStats.add(shard.call(ShardRequest.stats()).getStats());
+        }
+        this.stats = BM25Stats.combine(shardStats);
+        LOGGER.info("Coordinating " + shards.size() + " shards with " + stats.getTotalChunks() + " chunks");
+    }
+
+    public void setTopK(int topK) {
+        this.TOP_K = topK;
+    }
+
+    /**
+     * Text of the top matching chunks over all shards, like QueryEngine.start.
+     */
+    public List<String> start(String query) {
+        List<String> result = new ArrayList<>();
+        for (ShardHit hit : searchShards(query, 0)) {
+            //a chunk whose data was truncated still takes its place, as it does in a single index.
+            if (hit.getText() != null) result.add(hit.getText());
+        }
+        return result;
+    }
+
+    /**
+     * Snippets of windowTokens tokens of the top matching chunks over all shards, like QueryEngine.snippets. Shards
+     * send only the snippets, not the chunk text.
+     */
+    public List<Snippet> snippets(String query, int windowTokens) {
+        List<Snippet> result = new ArrayList<>();
+        for (ShardHit hit : searchShards(query, Math.max(1, windowTokens))) {
+            if (hit.getSnippet() != null) result.add(hit.getSnippet());
+        }
+        return result;
+    }
+
+    /**
+     * Best TOP_K hits over all shards, with their text or, when snippetTokens is above 0, their snippet.
+     */
+    private List<ShardHit> searchShards(String query, int snippetTokens) {
+        ParsedQuery parsedQuery = QueryParser.parse(query);
+        List<String> tokens = new ArrayList<>(new LinkedHashSet<>(parsedQuery.getTokens()));
+        if (tokens.isEmpty()) return Collections.emptyList();
+
+        Map<String, Integer> docFreqs = new HashMap<>();
+        for (String token : tokens) docFreqs.put(token, 0);
+        for (ShardResponse response : scatter(ShardRequest.docFreqs(tokens)).values()) {
+            response.getDocFreqs().forEach((token, docFreq) -> docFreqs.merge(token, docFreq, Integer::sum));
+        }
+        if (docFreqs.values().stream().allMatch(df -> df == 0)) {
+            LOGGER.info("No matching tokens found in any shard.");
+            return Collections.emptyList();
+        }
+
+        List<ShardHit> hits = new ArrayList<>();
+        ShardRequest search = ShardRequest.search(query, docFreqs, stats, TOP_K, snippetTokens);
+        for (ShardResponse response : scatter(search).values()) {
+            hits.addAll(response.getHits());
+        }
+        return mergeTopK(hits);
+    }
+
+    /**
+     * Sends the request to every shard at once and waits for the answers until a shared deadline. The answers come
+     * back in shard order, shards that failed or timed out are missing.
+     */
+    private Map<Integer, ShardResponse> scatter(ShardRequest request) {
+        List<Future<ShardResponse>> futures = new ArrayList<>(shards.size());
+        for (ShardClient shard : shards) {
+            futures.add(scatterExecutor.submit(() -> shard.call(request)));
+        }
+        Map<Integer, ShardResponse> responses = new TreeMap<>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                responses.put(i, futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+            } catch (TimeoutException e) {
+                //the client's own read timeout drops the connection, cancelling only stops waiting for it.
+                futures.get(i).cancel(true);
+                timeouts.incrementAndGet(i);
+                LOGGER.warning("Shard " + i + " timed out on " + request.getType() + " after " + timeoutMillis + " ms");
+            } catch (ExecutionException e) {
+                failures.incrementAndGet(i);
+                LOGGER.log(Level.WARNING, "Shard " + i + " failed on " + request.getType(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<ShardResponse> future : futures) future.cancel(true);
+                break;
+            }
+        }
+        return responses;
+    }
+
+    /*
+    Same merge as QueryEngine: stable sort on score over the shard lists in shard order, one chunk per docId.
+     */
+    private List<ShardHit> mergeTopK(List<ShardHit> hits) {
+        hits.sort((a, b) -> Double.compare(b.getScore(), a.getScore()));
+        List<ShardHit> result = new ArrayList<>();
+        Set<Integer> usedDocIds = new HashSet<>();
+        for (ShardHit hit : hits) {
+            if (usedDocIds.add(hit.getDocId())) {
+                result.add(hit);
+                if (result.size() >= TOP_K) break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * One line per shard with its timeout and failure counts.
+     */
+    public String shardReport() {
+        StringBuilder report = new StringBuilder();
+        for (int i = 0; i < shards.size(); i++) {
+            report.append(String.format("shard %d: timeouts=%d failures=%d%n", i, timeouts.get(i), failures.get(i)));
+        }
+        return report.toString();
+    }
+
+    @Override
+    public void close() {
+        scatterExecutor.shutdownNow();
+        for (ShardClient shard : shards) shard.close();
+    }
+}
@@ -0,0 +1,64 @@
+package com.pri1712.searchengine.wikiquerying.shard;
+
+import com.pri1712.searchengine.model.Snippet;
+
+/**
+ * A scored chunk as returned by a shard, with its text so the coordinator never reads chunk data itself. When the
+ * search asked for snippets the hit carries its snippet and no text.
+ */
+public class ShardHit {
+    private double score;
+    private int chunkId;
+    private int docId;
+    private String text;
+    private Snippet snippet;
+
+    public ShardHit() {}
+
+    public ShardHit(double score, int chunkId, int docId, String text) {
+        this.score = score;
+        this.chunkId = chunkId;
+        this.docId = docId;
+        this.text = text;
+    }
+
+    public double getScore() {
+        return score;
+    }
+
+    public void setScore(double score) {
+        this.score = score;
+    }
+
+    public int getChunkId() {
+        return chunkId;
+    }
+
+    public void setChunkId(int chunkId) {
+        this.chunkId = chunkId;
+    }
+
+    public int getDocId() {
+        return docId;
+    }
+
+    public void setDocId(int docId) {
+        this.docId = docId;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    public Snippet getSnippet() {
+        return snippet;
+    }
+
+    public void setSnippet(Snippet snippet) {
+        this.snippet = snippet;
+    }
+}
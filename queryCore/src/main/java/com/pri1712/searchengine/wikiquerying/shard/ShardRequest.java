@@ -0,0 +1,116 @@
+package com.pri1712.searchengine.wikiquerying.shard;
+
+import com.pri1712.searchengine.model.BM25Stats;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One line of the coordinator to shard protocol. Which fields are set depends on the type.
+ */
+public class ShardRequest {
+    public enum Type {
+        //chunk and token totals of the shard, asked once when the coordinator connects.
+        STATS,
+        //document frequency of each token in the shard.
+        DOC_FREQS,
+        //top-K of the shard scored with the global docFreqs and stats.
+        SEARCH
+    }
+
+    private Type type;
+    private List<String> tokens;
+    private String query;
+    private Map<String, Integer> docFreqs;
+    private BM25Stats stats;
+    private int topK;
+    //with a SEARCH, hits carry snippets of this many tokens instead of their chunk text when above 0.
+    private int snippetTokens;
+
+    public ShardRequest() {}
+
+    public static ShardRequest stats() {
+        ShardRequest request = new ShardRequest();
+        request.setType(Type.STATS);
+        return request;
+    }
+
+    public static ShardRequest docFreqs(List<String> tokens) {
+        ShardRequest request = new ShardRequest();
+        request.setType(Type.DOC_FREQS);
+        request.setTokens(tokens);
+        return request;
+    }
+
+    public static ShardRequest search(String query, Map<String, Integer> docFreqs, BM25Stats stats, int topK) {
+        return search(query, docFreqs, stats, topK, 0);
+    }
+
+    public static ShardRequest search(String query, Map<String, Integer> docFreqs, BM25Stats stats, int topK,
+                                      int snippetTokens) {
+        ShardRequest request = new ShardRequest();
+        request.setType(Type.SEARCH);
+        request.setQuery(query);
+        request.setDocFreqs(docFreqs);
+        request.setStats(stats);
+        request.setTopK(topK);
+        request.setSnippetTokens(snippetTokens);
+        return request;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    public List<String> getTokens() {
+        return tokens;
+    }
+
+    public void setTokens(List<String> tokens) {
+        this.tokens = tokens;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public void setQuery(String query) {
+        this.query = query;
+    }
+
+    public Map<String, Integer> getDocFreqs() {
+        return docFreqs;
+    }
+
+    public void setDocFreqs(Map<String, Integer> docFreqs) {
+        this.docFreqs = docFreqs;
+    }
+
+    public BM25Stats getStats() {
+        return stats;
+    }
+
+    public void setStats(BM25Stats stats) {
+        this.stats = stats;
+    }
+
+    public int getTopK() {
+        return topK;
+    }
+
+    public void setTopK(int topK) {
+        this.topK = topK;
+    }
+
+    public int getSnippetTokens() {
+        return snippetTokens;
+    }
+
+    public void setSnippetTokens(int snippetTokens) {
+        this.snippetTokens = snippetTokens;
+    }
+}
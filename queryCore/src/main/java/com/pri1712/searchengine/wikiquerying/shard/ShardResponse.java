@@ -0,0 +1,50 @@
+package com.pri1712.searchengine.wikiquerying.shard;
+
+import com.pri1712.searchengine.model.BM25Stats;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Answer to a ShardRequest. A shard that fails a request sets error and leaves the rest empty.
+ */
+public class ShardResponse {
+    private BM25Stats stats;
+    private Map<String, Integer> docFreqs;
+    private List<ShardHit> hits;
+    private String error;
+
+    public ShardResponse() {}
+
+    public BM25Stats getStats() {
+        return stats;
+    }
+
+    public void setStats(BM25Stats stats) {
+        this.stats = stats;
+    }
+
+    public Map<String, Integer> getDocFreqs() {
+        return docFreqs;
+    }
+
+    public void setDocFreqs(Map<String, Integer> docFreqs) {
+        this.docFreqs = docFreqs;
+    }
+
+    public List<ShardHit> getHits() {
+        return hits;
+    }
+
+    public void setHits(List<ShardHit> hits) {
+        this.hits = hits;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public void setError(String error) {
+        this.error = error;
+    }
+}
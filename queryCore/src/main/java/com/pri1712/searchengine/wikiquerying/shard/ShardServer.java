@@ -0,0 +1,139 @@
+package com.pri1712.searchengine.wikiquerying.shard;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pri1712.searchengine.model.ScoredChunk;
+import com.pri1712.searchengine.model.Snippet;
+import com.pri1712.searchengine.wikiquerying.QueryEngine;
+import com.pri1712.searchengine.wikiquerying.query.ParsedQuery;
+import com.pri1712.searchengine.wikiquerying.query.QueryParser;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Serves one shard's QueryEngine on a loopback port. Requests and responses are single lines of JSON, a connection
+ * carries any number of them in turn and each connection gets its own thread.
+ */
+public class ShardServer implements Closeable {
+    private static final Logger LOGGER = Logger.getLogger(ShardServer.class.getName());
+    //printed on stdout once the port is bound, the process launching the shard waits for it.
+    public static final String READY_PREFIX = "SHARD_PORT ";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final QueryEngine queryEngine;
+    private final ServerSocket serverSocket;
+    private final ExecutorService connectionExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "shard-connection");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param port 0 binds any free port, see getPort.
+     */
+    public ShardServer(QueryEngine queryEngine, int port) throws IOException {
+        this.queryEngine = queryEngine;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void start() {
+        Thread acceptor = new Thread(this::acceptLoop, "shard-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOGGER.info("Shard serving " + queryEngine.getVersion() + " on port " + getPort());
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connectionExecutor.execute(() -> serve(socket));
+            } catch (SocketException e) {
+                //thrown by accept once the server socket is closed.
+                return;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed accepting shard connection", e);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            String line;
+            while ((line = in.readLine()) != null) {
+                ShardResponse response;
+                try {
+                    response = handle(mapper.readValue(line, ShardRequest.class));
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Shard request failed: " + line, e);
+                    response = new ShardResponse();
+                    response.setError(e.toString());
+                }
+                out.write(mapper.writeValueAsString(response));
+                out.write('\n');
+                out.flush();
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Shard connection closed", e);
+        }
+    }
+
+    private ShardResponse handle(ShardRequest request) throws IOException {
+        ShardResponse response = new ShardResponse();
+        switch (request.getType()) {
+            case STATS -> response.setStats(queryEngine.getStats());
+            case DOC_FREQS -> response.setDocFreqs(queryEngine.docFreqs(request.getTokens()));
+            case SEARCH -> {
+                ParsedQuery parsedQuery = QueryParser.parse(request.getQuery());
+                List<ScoredChunk> scoredChunks = queryEngine.search(parsedQuery, request.getDocFreqs(),
+                        request.getStats(), request.getTopK());
+                List<ShardHit> hits = new ArrayList<>(scoredChunks.size());
+                if (request.getSnippetTokens() > 0) {
+                    Map<Integer, Snippet> snippets = new HashMap<>();
+                    for (Snippet snippet : queryEngine.readSnippets(scoredChunks, parsedQuery.getTokens(),
+                            request.getSnippetTokens())) {
+                        snippets.put(snippet.getChunkId(), snippet);
+                    }
+                    for (ScoredChunk chunk : scoredChunks) {
+                        ShardHit hit = new ShardHit(chunk.getScore(), chunk.getChunkId(),
+                                chunk.getChunkMetaData().getDocId(), null);
+                        hit.setSnippet(snippets.get(chunk.getChunkId()));
+                        hits.add(hit);
+                    }
+                } else {
+                    for (ScoredChunk chunk : scoredChunks) {
+                        hits.add(new ShardHit(chunk.getScore(), chunk.getChunkId(),
+                                chunk.getChunkMetaData().getDocId(), queryEngine.readChunk(chunk)));
+                    }
+                }
+                response.setHits(hits);
+            }
+        }
+        return response;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connectionExecutor.shutdownNow();
+    }
+}
@@ -0,0 +1,205 @@
+package com.pri1712.searchengine.wikiquerying.snippet;
+
+import com.pri1712.searchengine.model.Snippet;
+import com.pri1712.searchengine.utils.TextUtils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Picks the window of windowTokens tokens of a chunk with the most distinct query terms, then the most matches, and
+ * cuts it out of the chunk text with the char range of every match. The window is found from the terms' positions when
+ * the search read them for the chunk, then only the text up to the window's end is needed. Otherwise the chunk text is
+ * scanned once, finding the matches and the window together.
+ */
+public class SnippetExtractor {
+    public static final int DEFAULT_WINDOW_TOKENS = 32;
+
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private final int windowTokens;
+
+    /**
+     * @param queryTokens the query's tokens, repeats count once.
+     */
+    public SnippetExtractor(List<String> queryTokens, int windowTokens) {
+        for (String token : queryTokens) {
+            termIds.putIfAbsent(token, termIds.size());
+        }
+        this.windowTokens = Math.max(1, windowTokens);
+    }
+
+    /**
+     * The best window of a chunk from its positional index.
+     * @param termPositions sorted positions in the chunk of the query terms it has, other tokens are ignored.
+     * @param tokenCount tokens in the chunk.
+     */
+    public Window window(Map<String, int[]> termPositions, int tokenCount) {
+        int count = 0;
+        for (Map.Entry<String, int[]> entry : termPositions.entrySet()) {
+            if (termIds.containsKey(entry.getKey())) count += entry.getValue().length;
+        }
+        //position in the high bits, so sorting orders the matches by position.
+        long[] matches = new long[count];
+        int n = 0;
+        for (Map.Entry<String, int[]> entry : termPositions.entrySet()) {
+            Integer term = termIds.get(entry.getKey());
+            if (term == null) continue;
+            for (int position : entry.getValue()) {
+                matches[n++] = (long) position << 32 | term;
+            }
+        }
+        Arrays.sort(matches);
+        int[] positions = new int[count];
+        int[] terms = new int[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = (int) (matches[i] >>> 32);
+            terms[i] = (int) matches[i];
+        }
+        return bestWindow(positions, terms, count, tokenCount);
+    }
+
+    /**
+     * The snippet of window from text, the chunk's text or a prefix of it. Null when the prefix ends before the window
+     * does, there is no telling then whether the chunk is longer.
+     * @param complete whether text is the whole chunk, the window is cut short instead of failing then.
+     */
+    public Snippet extract(String text, Window window, boolean complete, double score, int chunkId, int docId) {
+        Spans spans = new Spans(window.to - window.from);
+        if (window.from >= window.to) return spans.snippet(text, 0, 0, window.positions, score, chunkId, docId);
+        TextUtils.scanTokens(text, false, (position, start, end, token) -> {
+            if (position >= window.from) spans.add(position, start, end);
+            return position < window.to - 1;
+        });
+        if (!complete && spans.size < window.to - window.from) return null;
+        return spans.snippet(text, 0, spans.size, window.positions, score, chunkId, docId);
+    }
+
+    /**
+     * The snippet of a chunk without a positional index, matching the stemmed tokens of its text in a single pass.
+     */
+    public Snippet extract(String text, double score, int chunkId, int docId) {
+        Spans spans = new Spans(64);
+        int[][] matches = {new int[16], new int[16]};
+        int[] count = new int[1];
+        TextUtils.scanTokens(text, true, (position, start, end, token) -> {
+            spans.add(position, start, end);
+            Integer term = termIds.get(token);
+            if (term != null) {
+                if (count[0] == matches[0].length) {
+                    matches[0] = Arrays.copyOf(matches[0], count[0] * 2);
+                    matches[1] = Arrays.copyOf(matches[1], count[0] * 2);
+                }
+                matches[0][count[0]] = position;
+                matches[1][count[0]++] = term;
+            }
+            return true;
+        });
+        Window window = bestWindow(matches[0], matches[1], count[0], spans.size);
+        return spans.snippet(text, window.from, window.to, window.positions, score, chunkId, docId);
+    }
+
+    /**
+     * Two pointers over the matches in position order, the window ending at each match keeps the matches less than
+     * windowTokens before it. The first best one is centred on its matches and clamped to the chunk.
+     */
+    private Window bestWindow(int[] positions, int[] terms, int count, int tokenCount) {
+        int[] termMatches = new int[termIds.size()];
+        int distinct = 0;
+        int left = 0;
+        int bestDistinct = 0;
+        int bestMatches = 0;
+        int bestLeft = 0;
+        int bestRight = -1;
+        for (int right = 0; right < count; right++) {
+            if (termMatches[terms[right]]++ == 0) distinct++;
+            while (positions[right] - positions[left] >= windowTokens) {
+                if (--termMatches[terms[left]] == 0) distinct--;
+                left++;
+            }
+            if (distinct > bestDistinct || (distinct == bestDistinct && right - left + 1 > bestMatches)) {
+                bestDistinct = distinct;
+                bestMatches = right - left + 1;
+                bestLeft = left;
+                bestRight = right;
+            }
+        }
+        int from = 0;
+        if (bestRight >= 0) {
+            int slack = windowTokens - (positions[bestRight] - positions[bestLeft] + 1);
+            from = Math.max(0, Math.min(positions[bestLeft] - slack / 2, tokenCount - windowTokens));
+        }
+        int to = Math.min(tokenCount, from + windowTokens);
+        int[] inWindow = new int[count];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (positions[i] >= from && positions[i] < to) inWindow[n++] = positions[i];
+        }
+        return new Window(from, to, Arrays.copyOf(inWindow, n));
+    }
+
+    /**
+     * Tokens [from, to) of a chunk and the sorted positions of the query term matches among them.
+     */
+    public static final class Window {
+        private final int from;
+        private final int to;
+        private final int[] positions;
+
+        Window(int from, int to, int[] positions) {
+            this.from = from;
+            this.to = to;
+            this.positions = positions;
+        }
+
+        public int getFrom() {
+            return from;
+        }
+
+        public int getTo() {
+            return to;
+        }
+    }
+
+    //char ranges of consecutive tokens, the first one at position first.
+    private static final class Spans {
+        private int first = -1;
+        private int[] starts;
+        private int[] ends;
+        private int size = 0;
+
+        Spans(int capacity) {
+            starts = new int[Math.max(1, capacity)];
+            ends = new int[starts.length];
+        }
+
+        void add(int position, int start, int end) {
+            if (first < 0) first = position;
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size++] = end;
+        }
+
+        /**
+         * The text of spans from..to-1, counted from the first span, with the matches at the given positions.
+         */
+        Snippet snippet(String text, int from, int to, int[] matchPositions, double score, int chunkId, int docId) {
+            if (from >= to) return new Snippet(score, chunkId, docId, "", 0, new int[0]);
+            int offset = starts[from];
+            int[] highlights = new int[matchPositions.length * 2];
+            int n = 0;
+            for (int position : matchPositions) {
+                int span = position - first;
+                if (span < from || span >= to) continue;
+                highlights[n++] = starts[span] - offset;
+                highlights[n++] = ends[span] - offset;
+            }
+            return new Snippet(score, chunkId, docId, text.substring(offset, ends[to - 1]), offset,
+                    Arrays.copyOf(highlights, n));
+        }
+    }
+}
@@ -2,16 +2,31 @@ package com.pri1712.searchengine.wikisearchApp;
 
 import com.pri1712.searchengine.chunker.Chunker;
 import com.pri1712.searchengine.evaluator.RecallEvaluator;
-import com.pri1712.searchengine.indexwriter.IndexWriter;
+import com.pri1712.searchengine.model.Snippet;
 import com.pri1712.searchengine.model.params.ChunkParams;
+import com.pri1712.searchengine.indexwriter.merge.BackgroundMerger;
+import com.pri1712.searchengine.indexwriter.merge.SegmentMerger;
+import com.pri1712.searchengine.indexwriter.merge.TieredMergePolicy;
+import com.pri1712.searchengine.indexwriter.prune.IndexPruner;
+import com.pri1712.searchengine.indexwriter.prune.PruneReport;
+import com.pri1712.searchengine.model.params.IndexParams;
+import com.pri1712.searchengine.model.params.MergeParams;
 import com.pri1712.searchengine.model.params.ParsingParams;
 import com.pri1712.searchengine.model.params.QueryParams;
 import com.pri1712.searchengine.model.params.RankingParams;
 import com.pri1712.searchengine.parser.DocumentParser;
 import com.pri1712.searchengine.indexreader.IndexReader;
 import com.pri1712.searchengine.parser.ParserFactory;
+import com.pri1712.searchengine.utils.IoThrottle;
+import com.pri1712.searchengine.utils.SegmentFiles;
 import com.pri1712.searchengine.wikiquerying.QueryEngine;
+import com.pri1712.searchengine.wikiquerying.SearcherManager;
+import com.pri1712.searchengine.wikiquerying.shard.LocalShardCluster;
+import com.pri1712.searchengine.wikiquerying.shard.ShardCoordinator;
+import com.pri1712.searchengine.wikiquerying.shard.ShardServer;
+import com.pri1712.searchengine.wikiquerying.snippet.SnippetExtractor;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.nio.file.Path;
@@ -26,13 +41,23 @@ public class Main {
     private static int MAX_BATCH_SIZE = 10;
 
     private static final String PARSED_FILE_PATH = "data/parsed-data/";
+    private static final String PARSED_APPEND_PATH = "data/parsed-append/";
     private static final String INDEXED_FILE_PATH = "data/inverted-index/";
     private static final String TOKEN_INDEX_OFFSET_PATH = "data/inverted-index/token_index_offset.json.gz";
     private static final String DOC_STATS_PATH = "data/doc-stats/stats.json";
     private static final String CHUNKED_FILE_PATH = "data/chunked-data/";
+    private static final String INDEX_ROOT_PATH = "data/index/";
+    private static final String PRUNED_INDEX_ROOT_PATH = "data/index-pruned/";
 
     private static final int TOP_K = 10;
     private static final int RECORD_SIZE = 24;
+    private static long MEMORY_BUDGET_BYTES = 0; //resident index structures, 0 only reports them
+    private static long POSTING_BUDGET = 0; //postings scored per segment and query on impact indexes, 0 for no limit
+    private static long TIME_BUDGET_MICROS = 0; //traversal time per segment and query on impact indexes, 0 for no limit
+    private static double DF_CEILING = 0; //share of chunks above which a query term only scores, 0 never demotes
+    private static boolean REQUIRE_ALL_TERMS = false; //--query-mode=and requires every query term, like +term
+    private static long CHUNK_CACHE_BYTES = 64L * 1024 * 1024; //inflated chunk blocks kept on the heap, 0 keeps none
+    private static int SNIPPET_TOKENS = SnippetExtractor.DEFAULT_WINDOW_TOKENS; //tokens per snippet for ':snippets'
 
     static String parsedFilePath = PARSED_FILE_PATH;
 
@@ -40,6 +65,7 @@ public class Main {
     static String tokenIndexOffsetPath = TOKEN_INDEX_OFFSET_PATH;
     static String docStatsPath = DOC_STATS_PATH;
     static String chunkedFilePath = CHUNKED_FILE_PATH;
+    static String indexRootPath = INDEX_ROOT_PATH;
 
     private static int CHUNK_SIZE = 512; //in tokens, 1 word = ~0.75 token
     private static int CHUNK_OVERLAP = 100;
@@ -49,10 +75,31 @@ public class Main {
     private static double TERM_FREQUENCY_SATURATION = 1.2;
     private static double DOCUMENT_LENGTH_NORMALIZATION = 0.75;
 
+    private static boolean POSITIONAL_INDEX = false; //--positions writes token positions for phrases and proximity
+    private static int MAX_SEGMENT_CHUNKS = 50000; //0 writes the whole build into one segment
+    private static int IMPACT_BITS = 0; //8 or 16 stores quantized BM25 impacts with the postings, 0 leaves them out
+    private static String POSTINGS_CODEC = null; //vbyte or pfor adds binary block postings that queries decode
+    private static double DENSE_POSTINGS_RATIO = 1.0 / 8; //block postings of terms in this share of chunks are bitmaps
+    private static int CHUNK_BLOCK_SIZE = 32 * 1024; //chunk text is deflated in blocks of this size, 0 stores it raw
+    private static boolean SHARED_DOCUMENT_TEXT = true; //false stores each chunk's text on its own, overlap included
+    private static double PRUNE_KEEP_RATIO = 0.5; //share of postings a pruned index keeps
+
+    private static int SEGMENTS_PER_TIER = 4;
+    private static int MAX_MERGE_AT_ONCE = 10;
+    private static double TIER_SIZE_RATIO = 4.0;
+    private static int MAX_SEGMENT_COUNT = 16;
+    private static long MERGE_BYTES_PER_SECOND = 32L * 1024 * 1024;
+    private static long MERGE_INTERVAL_MILLIS = 30_000;
+
+    private static int SHARD_COUNT = 2;
+    private static int SHARD_TIMEOUT_MILLIS = 2000;
+    private static long SHARD_START_TIMEOUT_MILLIS = 60_000;
+
     private static String chunkDataFilePath = "data/chunked-data/chunked_data.data";
     private static String chunkIndexFilePath = "data/chunked-data/chunked_index.bin";
 
     private static int MAX_DOCS_EVALUATE = 20;
+    private static int EVAL_THREADS = Runtime.getRuntime().availableProcessors();
 
     public static void main(String[] args) throws IOException {
         long startTime = getStartTime();
@@ -60,32 +107,98 @@ public class Main {
         String mode = parsedArgs.getOrDefault("mode", "read");
         String dataPath = parsedArgs.get("data");
         indexedFilePath = parsedArgs.getOrDefault("index", indexedFilePath);
+        indexRootPath = parsedArgs.getOrDefault("index", indexRootPath);
+        if (parsedArgs.containsKey("eval-threads")) {
+            EVAL_THREADS = Integer.parseInt(parsedArgs.get("eval-threads"));
+        }
+        if (parsedArgs.containsKey("memory-budget-mb")) {
+            MEMORY_BUDGET_BYTES = Long.parseLong(parsedArgs.get("memory-budget-mb")) * 1024 * 1024;
+        }
+        if (parsedArgs.containsKey("posting-budget")) {
+            POSTING_BUDGET = Long.parseLong(parsedArgs.get("posting-budget"));
+        }
+        if (parsedArgs.containsKey("time-budget-us")) {
+            TIME_BUDGET_MICROS = Long.parseLong(parsedArgs.get("time-budget-us"));
+        }
+        if (parsedArgs.containsKey("df-ceiling")) {
+            DF_CEILING = Double.parseDouble(parsedArgs.get("df-ceiling"));
+        }
+        if (parsedArgs.containsKey("chunk-cache-mb")) {
+            CHUNK_CACHE_BYTES = Long.parseLong(parsedArgs.get("chunk-cache-mb")) * 1024 * 1024;
+        }
+        if (parsedArgs.containsKey("snippet-tokens")) {
+            SNIPPET_TOKENS = Integer.parseInt(parsedArgs.get("snippet-tokens"));
+        }
+        if (parsedArgs.containsKey("query-mode")) {
+            REQUIRE_ALL_TERMS = "and".equalsIgnoreCase(parsedArgs.get("query-mode"));
+        }
+        if (parsedArgs.containsKey("positions")) {
+            POSITIONAL_INDEX = !"false".equalsIgnoreCase(parsedArgs.get("positions"));
+        }
+        if (parsedArgs.containsKey("impact-bits")) {
+            IMPACT_BITS = Integer.parseInt(parsedArgs.get("impact-bits"));
+        }
+        if (parsedArgs.containsKey("postings-codec")) {
+            POSTINGS_CODEC = parsedArgs.get("postings-codec");
+        }
+        if (parsedArgs.containsKey("dense-ratio")) {
+            DENSE_POSTINGS_RATIO = Double.parseDouble(parsedArgs.get("dense-ratio"));
+        }
+        if (parsedArgs.containsKey("chunk-block-size")) {
+            CHUNK_BLOCK_SIZE = Integer.parseInt(parsedArgs.get("chunk-block-size"));
+        }
+        if (parsedArgs.containsKey("shared-text")) {
+            SHARED_DOCUMENT_TEXT = !"false".equalsIgnoreCase(parsedArgs.get("shared-text"));
+        }
         if ("write".equalsIgnoreCase(mode)) {
             runWritePipeline(dataPath);
             return;
         }
-        IndexReader indexReader = openIndexReader(indexedFilePath);
+        if ("append".equalsIgnoreCase(mode)) {
+            runAppendPipeline(dataPath);
+            return;
+        }
+        if ("prune".equalsIgnoreCase(mode)) {
+            runPrunePipeline(parsedArgs.getOrDefault("output", PRUNED_INDEX_ROOT_PATH),
+                    Double.parseDouble(parsedArgs.getOrDefault("prune-keep", String.valueOf(PRUNE_KEEP_RATIO))),
+                    Long.parseLong(parsedArgs.getOrDefault("prune-target-bytes", "0")),
+                    IndexPruner.Strategy.valueOf(parsedArgs.getOrDefault("prune-strategy", "term").toUpperCase()));
+            return;
+        }
+        new QueryParams(TOP_K, RECORD_SIZE, MEMORY_BUDGET_BYTES, POSTING_BUDGET, TIME_BUDGET_MICROS, DF_CEILING,
+                REQUIRE_ALL_TERMS, CHUNK_CACHE_BYTES);
+        if ("shard".equalsIgnoreCase(mode)) {
+            runShardWorker(Integer.parseInt(parsedArgs.get("shard")), Integer.parseInt(parsedArgs.get("shards")));
+            return;
+        }
+        if ("sharded".equalsIgnoreCase(mode)) {
+            runShardedPipeline(Integer.parseInt(parsedArgs.getOrDefault("shards", String.valueOf(SHARD_COUNT))));
+            return;
+        }
+        SearcherManager searcherManager = openSearcherManager();
+        BackgroundMerger backgroundMerger = "read".equalsIgnoreCase(mode) ? startBackgroundMerger(searcherManager) : null;
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
-                LOGGER.info("Shutting down, closing index reader...");
-                indexReader.close();
+                if (backgroundMerger != null) backgroundMerger.close();
+                LOGGER.info("Shutting down, closing searcher manager...");
+                searcherManager.close();
                 long endTime = getEndTime();
                 long elapsedTime = endTime - startTime;
-                LOGGER.log(Level.INFO,"Time taken to parse the data : {0} ms",elapsedTime/100000);
+                LOGGER.log(Level.INFO,"Time taken to parse the data : {0} ms",elapsedTime/1_000_000);
                 LOGGER.log(Level.INFO,"Memory used: {0} MB", (Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory())/(1024*1024));
 
             } catch (IOException e) {
-                LOGGER.log(Level.WARNING, "Failed closing index reader", e);
+                LOGGER.log(Level.WARNING, "Failed closing searcher manager", e);
             }
         }));
         if ("eval".equalsIgnoreCase(mode)) {
-            runEvalPipeline(indexReader,dataPath);
+            runEvalPipeline(searcherManager,dataPath);
             return;
         }
-        runReadPipeline(indexReader,indexedFilePath);
+        runReadPipeline(searcherManager);
         long endTime = getEndTime();
         long elapsedTime = endTime - startTime;
-        LOGGER.log(Level.INFO,"Time taken to parse the data : {0} ms",elapsedTime/100000);
+        LOGGER.log(Level.INFO,"Time taken to parse the data : {0} ms",elapsedTime/1_000_000);
         LOGGER.log(Level.INFO,"Memory used: {0} MB", (Runtime.getRuntime().totalMemory()-Runtime.getRuntime().freeMemory())/(1024*1024));
 
     }
@@ -111,7 +224,8 @@ public class Main {
         }
 
         try {
-            Chunker chunker = new Chunker(parsedFilePath, chunkedFilePath, chunkDataFilePath, chunkIndexFilePath,indexedFilePath, docStatsPath );
+            //every segment is merged and published by the chunker, there is no separate index merge step anymore.
+            Chunker chunker = new Chunker(parsedFilePath, indexRootPath);
             chunker.startChunking();
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -125,18 +239,56 @@ public class Main {
 //            LOGGER.log(Level.WARNING, e.getMessage());
 //            throw new RuntimeException(e);
 //        }
+    }
+
+    /**
+     * Writes a statically pruned copy of the live version under outputRoot and logs the expected recall loss. Running
+     * eval mode with --index=outputRoot measures the actual loss. A positive targetBytes replaces keepRatio.
+     */
+    private static void runPrunePipeline(String outputRoot, double keepRatio, long targetBytes,
+                                         IndexPruner.Strategy strategy) {
+        initParams();
+        try {
+            Path indexDir = SegmentFiles.resolveIndexDir(Paths.get(indexRootPath));
+            if (!SegmentFiles.hasManifest(indexDir)) {
+                throw new FileNotFoundException("No index to prune under " + indexRootPath);
+            }
+            IndexPruner indexPruner = targetBytes > 0 ? IndexPruner.forTargetBytes(targetBytes, strategy, TOP_K)
+                    : new IndexPruner(keepRatio, strategy, TOP_K);
+            PruneReport report = indexPruner.prune(indexDir, Paths.get(outputRoot));
+            LOGGER.info(report.summary());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Adds the documents of dataPath to the live index as new segments. They are parsed into their own directory
+     * without checkpoints so only the new documents are chunked, chunk and doc ids continue from the manifest, and
+     * readers pick the new segments up on their next reload.
+     */
+    private static void runAppendPipeline(String dataPath) {
+        initParams();
         try {
-            IndexWriter indexWriter = new IndexWriter(indexedFilePath);
-            indexWriter.mergeAllIndexes(indexedFilePath);
-        } catch (RuntimeException | IOException e) {
+            SegmentFiles.deleteRecursively(Paths.get(PARSED_APPEND_PATH));
+            DocumentParser documentParser = ParserFactory.createParser(dataPath, false, PARSED_APPEND_PATH);
+            LOGGER.log(Level.INFO,"Parsing data to append : {0}",PARSED_APPEND_PATH);
+            documentParser.parse();
+
+            Chunker chunker = new Chunker(PARSED_APPEND_PATH, indexRootPath, true);
+            chunker.startChunking();
+        } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static void runReadPipeline(IndexReader indexReader, String indexedFilePath) {
+    private static void runReadPipeline(SearcherManager searcherManager) {
 
         try (Scanner scanner = new Scanner(System.in)) {
-            System.out.println("Ready for queries. Type ':reload' to reload index, ':exit' to quit.");
+            System.out.println("Ready for queries. Type ':reload' to reload index, ':segments' for segment latencies, "
+                    + "':metrics' for stage latencies (':metrics reset' clears them), ':memory' for resident index "
+                    + "memory, ':explain <query>' for the query plan, ':snippets <query>' for highlighted snippets, "
+                    + "':exit' to quit. Prefix a word with '+' to require it.");
             while (true) {
                 System.out.print("> ");
                 if (!scanner.hasNextLine()) break;
@@ -147,38 +299,189 @@ public class Main {
                 }
 
                 if (line.equalsIgnoreCase(":reload")) {
+                    //the new version is opened and warmed while the old one keeps serving, then swapped in.
                     try {
-                        indexReader.close();
-                        indexReader = openIndexReader(indexedFilePath);
-                        System.out.println("Index reloaded.");
+                        if (searcherManager.maybeRefresh()) {
+                            System.out.println("Index reloaded, now serving " + searcherManager.getCurrentVersion() + ".");
+                        } else {
+                            System.out.println("Index already at the current version " + searcherManager.getCurrentVersion() + ".");
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        System.err.println("Reload failed, still serving " + searcherManager.getCurrentVersion() + ": " + e.getMessage());
+                    }
+                    continue;
+                }
+                if (line.equalsIgnoreCase(":metrics")) {
+                    System.out.print(searcherManager.getQueryMetrics().report());
+                    continue;
+                }
+                if (line.equalsIgnoreCase(":metrics reset")) {
+                    searcherManager.getQueryMetrics().reset();
+                    System.out.println("Query metrics reset.");
+                    continue;
+                }
+                if (line.equalsIgnoreCase(":memory")) {
+                    QueryEngine queryEngine = searcherManager.acquire();
+                    try {
+                        System.out.print(queryEngine.memoryReport());
+                    } finally {
+                        searcherManager.release(queryEngine);
+                    }
+                    continue;
+                }
+                if (line.toLowerCase().startsWith(":explain ")) {
+                    QueryEngine queryEngine = searcherManager.acquire();
+                    try {
+                        System.out.print(queryEngine.explain(line.substring(":explain ".length())));
                     } catch (IOException e) {
-                        System.err.println("Reload failed: " + e.getMessage());
+                        System.err.println("Explain failed: " + e.getMessage());
+                    } finally {
+                        searcherManager.release(queryEngine);
                     }
                     continue;
                 }
-                try {
-                    QueryEngine queryEngine = new QueryEngine(indexReader,indexedFilePath, docStatsPath, tokenIndexOffsetPath, TOP_K, chunkDataFilePath, chunkIndexFilePath, RECORD_SIZE);
-                    List<String> relevantChunks = queryEngine.start(line);
-                    LOGGER.info("relevant chunks: " + relevantChunks);
-                    queryEngine.close();
-                } catch (IOException e) {
-                    LOGGER.log(Level.WARNING, "Query failed", e);
-                    System.out.println("Query error: " + e.getMessage());
+                if (line.toLowerCase().startsWith(":snippets ")) {
+                    printSnippets(searcherManager.snippets(line.substring(":snippets ".length()), SNIPPET_TOKENS));
+                    continue;
+                }
+                if (line.equalsIgnoreCase(":segments")) {
+                    QueryEngine queryEngine = searcherManager.acquire();
+                    try {
+                        System.out.print(queryEngine.segmentLatencyReport());
+                    } finally {
+                        searcherManager.release(queryEngine);
+                    }
+                    continue;
                 }
+                List<String> relevantChunks = searcherManager.search(line);
+                LOGGER.info("relevant chunks: " + relevantChunks);
             }
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Read loop terminated unexpectedly", e);
         } finally {
-            try { indexReader.close(); } catch (IOException ignore) {}
+            try { searcherManager.close(); } catch (IOException ignore) {}
         }
     }
 
-    private static void runEvalPipeline(IndexReader indexReader, String dataPath) throws IOException {
-        QueryEngine queryEngine = new QueryEngine(indexReader,indexedFilePath, docStatsPath, tokenIndexOffsetPath, TOP_K, chunkDataFilePath, chunkIndexFilePath, RECORD_SIZE);
-        RecallEvaluator evaluator = new RecallEvaluator(queryEngine, MAX_DOCS_EVALUATE );
-        int[] topKValues = {1,5,10,15};
-        evaluator.runMultiTopKEvaluation(dataPath, topKValues);
-        queryEngine.close();
+    /**
+     * Serves one shard of the index until stdin closes, which is how the coordinator that launched it stops it.
+     */
+    private static void runShardWorker(int shard, int shardCount) throws IOException {
+        QueryEngine queryEngine = new QueryEngine(indexRootPath, shard, shardCount, TOP_K, RECORD_SIZE);
+        try (ShardServer shardServer = new ShardServer(queryEngine, 0)) {
+            shardServer.start();
+            System.out.println(ShardServer.READY_PREFIX + shardServer.getPort());
+            System.out.flush();
+            while (System.in.read() != -1) {
+                //nothing is sent on stdin, it only signals that the coordinator is still alive.
+            }
+        } finally {
+            queryEngine.close();
+        }
+    }
+
+    /**
+     * Read loop over the index split into shardCount shards, each served by its own JVM on this machine.
+     */
+    private static void runShardedPipeline(int shardCount) throws IOException {
+        Path indexDir = SegmentFiles.resolveIndexDir(Paths.get(indexRootPath));
+        if (!SegmentFiles.hasManifest(indexDir)) {
+            throw new FileNotFoundException("Sharded search needs a segmented index under " + indexDir.toAbsolutePath());
+        }
+        int segmentCount = SegmentFiles.readManifest(indexDir).getSegments().size();
+        if (shardCount > segmentCount) {
+            LOGGER.warning("Index has only " + segmentCount + " segments, using " + segmentCount + " shards");
+            shardCount = segmentCount;
+        }
+        //workers are pointed at the resolved version so they all serve the same one even if CURRENT moves meanwhile.
+        String javaCommand = ProcessHandle.current().info().command().orElse("java");
+        String classPath = System.getProperty("java.class.path");
+        int shards = shardCount;
+        try (LocalShardCluster cluster = LocalShardCluster.launch(shard -> List.of(javaCommand, "-cp", classPath,
+                     Main.class.getName(), "--mode=shard", "--shard=" + shard, "--shards=" + shards,
+                     "--index=" + indexDir, "--memory-budget-mb=" + MEMORY_BUDGET_BYTES / (1024 * 1024),
+                     "--posting-budget=" + POSTING_BUDGET, "--time-budget-us=" + TIME_BUDGET_MICROS,
+                     "--df-ceiling=" + DF_CEILING, "--query-mode=" + (REQUIRE_ALL_TERMS ? "and" : "or"),
+                     "--chunk-cache-mb=" + CHUNK_CACHE_BYTES / (1024 * 1024)), shards,
+                SHARD_START_TIMEOUT_MILLIS);
+             ShardCoordinator coordinator = new ShardCoordinator(cluster.clients(SHARD_TIMEOUT_MILLIS), TOP_K,
+                     SHARD_TIMEOUT_MILLIS);
+             Scanner scanner = new Scanner(System.in)) {
+            System.out.println("Ready for queries over " + shards + " shards. Type ':shards' for shard timeouts, "
+                    + "':snippets <query>' for highlighted snippets, ':exit' to quit.");
+            while (true) {
+                System.out.print("> ");
+                if (!scanner.hasNextLine()) break;
+                String line = scanner.nextLine().trim();
+                if (line.isEmpty()) continue;
+                if (line.equalsIgnoreCase(":exit")) {
+                    return;
+                }
+                if (line.equalsIgnoreCase(":shards")) {
+                    System.out.print(coordinator.shardReport());
+                    continue;
+                }
+                if (line.toLowerCase().startsWith(":snippets ")) {
+                    printSnippets(coordinator.snippets(line.substring(":snippets ".length()), SNIPPET_TOKENS));
+                    continue;
+                }
+                List<String> relevantChunks = coordinator.start(line);
+                LOGGER.info("relevant chunks: " + relevantChunks);
+            }
+        }
+    }
+
+    private static void printSnippets(List<Snippet> snippets) {
+        for (Snippet snippet : snippets) {
+            System.out.printf("[%.3f] chunk %d doc %d: ...%s...%n", snippet.getScore(), snippet.getChunkId(),
+                    snippet.getDocId(), snippet.highlighted("[", "]"));
+        }
+    }
+
+    private static void runEvalPipeline(SearcherManager searcherManager, String dataPath) throws IOException {
+        QueryEngine queryEngine = searcherManager.acquire();
+        try {
+            RecallEvaluator evaluator = new RecallEvaluator(queryEngine, MAX_DOCS_EVALUATE, EVAL_THREADS);
+            int[] topKValues = {1,5,10,15};
+            evaluator.runMultiTopKEvaluation(dataPath, topKValues);
+            LOGGER.info("Query stage latencies over the evaluation:\n" + searcherManager.getQueryMetrics().report());
+        } finally {
+            searcherManager.release(queryEngine);
+        }
+        searcherManager.close();
+    }
+
+    /**
+     * Keeps the segment count of a segmented index bounded while it is being served, merged-away segments are deleted
+     * once the searcher manager has drained them. Pre-segment indexes have nothing to merge.
+     */
+    private static BackgroundMerger startBackgroundMerger(SearcherManager searcherManager) throws IOException {
+        Path indexRoot = Paths.get(indexRootPath);
+        if (!SegmentFiles.hasManifest(SegmentFiles.resolveIndexDir(indexRoot))) {
+            return null;
+        }
+        initMergeParams();
+        TieredMergePolicy mergePolicy = new TieredMergePolicy(MergeParams.getSegmentsPerTier(),
+                MergeParams.getMaxMergeAtOnce(), MergeParams.getTierSizeRatio(), MergeParams.getMaxSegmentCount());
+        SegmentMerger segmentMerger = new SegmentMerger(new IoThrottle(MergeParams.getMergeBytesPerSecond()));
+        BackgroundMerger backgroundMerger = new BackgroundMerger(indexRoot, mergePolicy, segmentMerger,
+                searcherManager::retireSegments);
+        backgroundMerger.start(MergeParams.getMergeIntervalMillis());
+        return backgroundMerger;
+    }
+
+    /**
+     * Opens the current version of the segmented index under the index root, or the single pre-segment index when
+     * nothing has been published there.
+     */
+    private static SearcherManager openSearcherManager() throws IOException {
+        Path indexRoot = Paths.get(indexRootPath);
+        if (SegmentFiles.hasManifest(SegmentFiles.resolveIndexDir(indexRoot))) {
+            LOGGER.info("Opening segmented index at " + indexRoot.toAbsolutePath());
+            return new SearcherManager(indexRoot.toString(), TOP_K, RECORD_SIZE);
+        }
+        IndexReader indexReader = openIndexReader(indexedFilePath);
+        return new SearcherManager(new QueryEngine(indexReader,indexedFilePath, docStatsPath, tokenIndexOffsetPath, TOP_K, chunkDataFilePath, chunkIndexFilePath, RECORD_SIZE));
     }
     private static IndexReader openIndexReader(String indexPath) throws IOException {
         Path indexedPath = Paths.get(indexPath);
@@ -190,7 +493,16 @@ public class Main {
         new ParsingParams(MAX_DOCS_TO_PROCESS,MAX_BATCH_SIZE);
         new ChunkParams(CHUNK_SIZE, CHUNK_OVERLAP, MIN_CHUNK_LENGTH, ALPHABET_RATIO);
         new RankingParams(TERM_FREQUENCY_SATURATION,DOCUMENT_LENGTH_NORMALIZATION);
-        new QueryParams(TOP_K,RECORD_SIZE);
+        new QueryParams(TOP_K,RECORD_SIZE,MEMORY_BUDGET_BYTES,POSTING_BUDGET,TIME_BUDGET_MICROS,DF_CEILING,
+                REQUIRE_ALL_TERMS,CHUNK_CACHE_BYTES);
+        new IndexParams(POSITIONAL_INDEX, MAX_SEGMENT_CHUNKS, IMPACT_BITS, POSTINGS_CODEC, DENSE_POSTINGS_RATIO,
+                CHUNK_BLOCK_SIZE, SHARED_DOCUMENT_TEXT);
+        initMergeParams();
+    }
+
+    private static void initMergeParams() {
+        new MergeParams(SEGMENTS_PER_TIER, MAX_MERGE_AT_ONCE, TIER_SIZE_RATIO, MAX_SEGMENT_COUNT,
+                MERGE_BYTES_PER_SECOND, MERGE_INTERVAL_MILLIS);
     }
     private static long getStartTime() {
         return System.nanoTime();
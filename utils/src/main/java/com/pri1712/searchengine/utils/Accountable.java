@@ -0,0 +1,12 @@
+package com.pri1712.searchengine.utils;
+
+/**
+ * A structure that stays resident while an index is served and can say how much heap it retains.
+ */
+public interface Accountable {
+
+    /**
+     * Heap bytes retained by this structure, see RamUsage for the object layout it assumes.
+     */
+    long ramBytesUsed();
+}
@@ -76,7 +76,10 @@ public class BatchFileWriter {
         LOGGER.fine(String.format("Heap used: %d MB", used));
     }
 
-    public void writeChunk(Map<String, Map<Integer,Integer>> invertedIndex, int batchCount) throws IOException {
+    /**
+     * @return size of the written run file in bytes.
+     */
+    public long writeChunk(Map<String, Map<Integer,Integer>> invertedIndex, int batchCount) throws IOException {
         String outputFile = String.format("%sindex_%05d.json.gz", outputDir, batchCount);
         try (
                 FileOutputStream fos = new FileOutputStream(outputFile);
@@ -94,8 +97,28 @@ public class BatchFileWriter {
         LOGGER.log(Level.SEVERE, "Error while writing chunk",e);
         LOGGER.fine(String.format("Failed to write chunk %s", outputFile));
         }
-        Runtime rt = Runtime.getRuntime();
-        long used = (rt.totalMemory() - rt.freeMemory()) / (1024 * 1024);
-        LOGGER.fine(String.format("Heap used: %d MB", used));
+        return new File(outputFile).length();
+    }
+
+    public long writePositions(Map<String, Map<Integer, List<Integer>>> positionIndex, int batchCount) throws IOException {
+        //written at the same flush points as writeChunk, so both runs of a batch hold exactly the same tokens.
+        String outputFile = String.format("%spositions_%05d.json.gz", outputDir, batchCount);
+        try (
+                FileOutputStream fos = new FileOutputStream(outputFile);
+                GZIPOutputStream gos = new GZIPOutputStream(fos);
+                OutputStreamWriter osw = new OutputStreamWriter(gos, StandardCharsets.UTF_8);
+                BufferedWriter bw = new BufferedWriter(osw)
+        ) {
+            for (var entry : positionIndex.entrySet()) {
+                mapper.writeValue(bw, Map.of(entry.getKey(), entry.getValue()));
+                bw.write("\n");
+            }
+            bw.flush();
+            gos.finish();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Error while writing positions",e);
+            LOGGER.fine(String.format("Failed to write positions %s", outputFile));
+        }
+        return new File(outputFile).length();
     }
 }
@@ -0,0 +1,184 @@
+package com.pri1712.searchengine.utils;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Throughput counters of one index build. The chunker counts documents, chunks and tokens, the index writer counts
+ * run flushes, merge rounds and the final compression with the time and bytes each took. While reporting, a progress
+ * line with the rates of the last interval is logged periodically, and close logs a summary of the whole build. CPU and
+ * GC time are sampled next to the counters, so a slow build shows whether it is bound by the CPU, the collector or the
+ * disk.
+ */
+public class BuildMetrics implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(BuildMetrics.class.getName());
+
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder chunks = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder flushBytes = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final LongAdder mergeRounds = new LongAdder();
+    private final LongAdder mergeBytes = new LongAdder();
+    private final LongAdder mergeNanos = new LongAdder();
+    private final LongAdder compressions = new LongAdder();
+    private final LongAdder compressionBytes = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+
+    private final long startNanos = System.nanoTime();
+    private final long startGcMillis = gcMillis();
+    private final long startCpuNanos = processCpuNanos();
+    private ScheduledExecutorService reporter;
+    //counters at the previous progress line, only touched by the reporter thread.
+    private Sample lastSample = new Sample(startNanos, 0, 0, 0, startGcMillis, startCpuNanos);
+
+    public void addDocument() {
+        documents.increment();
+    }
+
+    public void addChunk(long chunkTokens) {
+        chunks.increment();
+        tokens.add(chunkTokens);
+    }
+
+    public void addFlush(long bytes, long nanos) {
+        flushes.increment();
+        flushBytes.add(bytes);
+        flushNanos.add(nanos);
+    }
+
+    public void addMergeRound(String runName, int round, int inputFiles, long bytes, long nanos) {
+        mergeRounds.increment();
+        mergeBytes.add(bytes);
+        mergeNanos.add(nanos);
+        LOGGER.info(String.format("Merge round %d of %s runs: %d files into %.1f MB in %d ms", round, runName,
+                inputFiles, bytes / 1048576.0, nanos / 1_000_000));
+    }
+
+    public void addCompression(long bytes, long nanos) {
+        compressions.increment();
+        compressionBytes.add(bytes);
+        compressionNanos.add(nanos);
+    }
+
+    /**
+     * Logs a progress line every intervalMillis until the metrics are closed.
+     */
+    public synchronized void startReporting(long intervalMillis) {
+        if (reporter != null) return;
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "build-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> LOGGER.info(progress()), intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Rates since the previous progress line.
+     */
+    String progress() {
+        Sample now = new Sample(System.nanoTime(), documents.sum(), chunks.sum(), tokens.sum(), gcMillis(),
+                processCpuNanos());
+        Sample last = lastSample;
+        lastSample = now;
+        double seconds = Math.max(now.nanos - last.nanos, 1) / 1e9;
+        return String.format("Build progress after %ds: %d docs (%.0f/s), %d chunks (%.0f/s), %d tokens (%.0f/s), "
+                        + "%d flushes, %d merge rounds, %s, heap %d MB",
+                (now.nanos - startNanos) / 1_000_000_000, now.documents, (now.documents - last.documents) / seconds,
+                now.chunks, (now.chunks - last.chunks) / seconds, now.tokens, (now.tokens - last.tokens) / seconds,
+                flushes.sum(), mergeRounds.sum(), cpuAndGc(now, last), usedHeapMegabytes());
+    }
+
+    /**
+     * Totals and average rates of the whole build.
+     */
+    public String summary() {
+        Sample now = new Sample(System.nanoTime(), documents.sum(), chunks.sum(), tokens.sum(), gcMillis(),
+                processCpuNanos());
+        Sample start = new Sample(startNanos, 0, 0, 0, startGcMillis, startCpuNanos);
+        double seconds = Math.max(now.nanos - startNanos, 1) / 1e9;
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format("Build finished in %.1fs%n", seconds));
+        summary.append(String.format("  documents:   %d (%.0f/s)%n", now.documents, now.documents / seconds));
+        summary.append(String.format("  chunks:      %d (%.0f/s)%n", now.chunks, now.chunks / seconds));
+        summary.append(String.format("  tokens:      %d (%.0f/s)%n", now.tokens, now.tokens / seconds));
+        summary.append(String.format("  flushes:     %d, %.1f MB in %d ms%n", flushes.sum(),
+                flushBytes.sum() / 1048576.0, flushNanos.sum() / 1_000_000));
+        summary.append(String.format("  merges:      %d rounds, %.1f MB in %d ms%n", mergeRounds.sum(),
+                mergeBytes.sum() / 1048576.0, mergeNanos.sum() / 1_000_000));
+        summary.append(String.format("  compression: %d indexes, %.1f MB in %d ms%n", compressions.sum(),
+                compressionBytes.sum() / 1048576.0, compressionNanos.sum() / 1_000_000));
+        summary.append(String.format("  %s%n", cpuAndGc(now, start)));
+        return summary.toString();
+    }
+
+    private static String cpuAndGc(Sample now, Sample last) {
+        double wallMillis = Math.max(now.nanos - last.nanos, 1) / 1e6;
+        String gc = String.format("gc %d ms (%.1f%%)", now.gcMillis - last.gcMillis,
+                100.0 * (now.gcMillis - last.gcMillis) / wallMillis);
+        if (now.cpuNanos < 0) return gc;
+        //above 100% means more than one core was busy, e.g. with parallel GC threads.
+        return String.format("cpu %.0f%%, %s", 100.0 * (now.cpuNanos - last.cpuNanos) / 1e6 / wallMillis, gc);
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(collector.getCollectionTime(), 0);
+        }
+        return total;
+    }
+
+    //-1 when the JVM does not expose the process CPU time.
+    private static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean sunOs) {
+            return sunOs.getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    private static long usedHeapMegabytes() {
+        Runtime rt = Runtime.getRuntime();
+        return (rt.totalMemory() - rt.freeMemory()) / (1024 * 1024);
+    }
+
+    /**
+     * Stops the progress reporter and logs the summary.
+     */
+    @Override
+    public synchronized void close() {
+        if (reporter != null) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        LOGGER.info(summary());
+    }
+
+    private static class Sample {
+        private final long nanos;
+        private final long documents;
+        private final long chunks;
+        private final long tokens;
+        private final long gcMillis;
+        private final long cpuNanos;
+
+        private Sample(long nanos, long documents, long chunks, long tokens, long gcMillis, long cpuNanos) {
+            this.nanos = nanos;
+            this.documents = documents;
+            this.chunks = chunks;
+            this.tokens = tokens;
+            this.gcMillis = gcMillis;
+            this.cpuNanos = cpuNanos;
+        }
+    }
+}
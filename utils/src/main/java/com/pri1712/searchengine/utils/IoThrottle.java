@@ -0,0 +1,59 @@
+package com.pri1712.searchengine.utils;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Caps the rate of background I/O. Callers report the bytes they moved and are put to sleep whenever they get ahead
+ * of the configured rate, so a merge spreads its reads and writes out instead of competing with queries for the disk.
+ * Credit builds up while the throttle is idle but never beyond one second of I/O, so a merge that starts after a long
+ * pause gets a short burst and is then held to the rate again.
+ */
+public class IoThrottle {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final long bytesPerSecond;
+    private long lastNanos = -1;
+    //bytes that may still be moved without sleeping, negative while the caller is ahead of the rate
+    private long available = 0;
+
+    //bytesPerSecond <= 0 disables throttling.
+    public IoThrottle(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public static IoThrottle unlimited() {
+        return new IoThrottle(0);
+    }
+
+    public synchronized void acquire(long byteCount) throws InterruptedIOException {
+        if (bytesPerSecond <= 0 || byteCount <= 0) return;
+        long now = System.nanoTime();
+        if (lastNanos < 0) {
+            available = bytesPerSecond;
+        } else {
+            long elapsed = now - lastNanos;
+            //a full second refills the bucket, so the multiply below only ever sees less than a second
+            long refill = elapsed >= NANOS_PER_SECOND ? bytesPerSecond : elapsed * bytesPerSecond / NANOS_PER_SECOND;
+            available = Math.min(bytesPerSecond, available + refill);
+        }
+        lastNanos = now;
+        available -= byteCount;
+        if (available >= 0) return;
+
+        long debt = -available;
+        long aheadNanos = debt / bytesPerSecond * NANOS_PER_SECOND
+                + debt % bytesPerSecond * NANOS_PER_SECOND / bytesPerSecond;
+        if (aheadNanos > 1_000_000) {
+            try {
+                Thread.sleep(aheadNanos / 1_000_000, (int) (aheadNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttling I/O");
+            }
+        }
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
@@ -0,0 +1,122 @@
+package com.pri1712.searchengine.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with a fixed relative error, in the style of HdrHistogram. Values below 256 ns get a
+ * bucket each, above that every power of two is split into 128 buckets, so a reported percentile is within 1% of the
+ * recorded value from nanoseconds up to MAX_VALUE. Recording is one atomic increment and never allocates.
+ */
+public class LatencyHistogram implements Accountable {
+    private static final int SUB_BUCKET_BITS = 8;
+    private static final int LINEAR_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_BUCKETS = LINEAR_BUCKETS / 2;
+    //about 18 minutes in nanoseconds, larger values are clamped to it.
+    public static final long MAX_VALUE = (1L << 40) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(bucketIndex(MAX_VALUE) + 1);
+    private final LongAdder totalValue = new LongAdder();
+    private final AtomicLong maxValue = new AtomicLong();
+
+    //counts, totalValue and maxValue, then the AtomicLongArray, the LongAdder's base and cells and the AtomicLong.
+    private static final long SHALLOW_BYTES = RamUsage.shallowInstance(3, 0) + RamUsage.shallowInstance(1, 0)
+            + RamUsage.shallowInstance(1, 8 + 4) + RamUsage.shallowInstance(0, 8);
+
+    public void record(long value) {
+        long clamped = Math.min(Math.max(value, 0), MAX_VALUE);
+        counts.incrementAndGet(bucketIndex(clamped));
+        totalValue.add(clamped);
+        maxValue.accumulateAndGet(clamped, Math::max);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) return (int) value;
+        //shift so that the top SUB_BUCKET_BITS - 1 bits of the value select the bucket inside its power of two.
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return LINEAR_BUCKETS + (shift - 1) * HALF_BUCKETS + (int) ((value >> shift) - HALF_BUCKETS);
+    }
+
+    /**
+     * Largest value that falls into the bucket.
+     */
+    static long highestValueIn(int index) {
+        if (index < LINEAR_BUCKETS) return index;
+        int shift = (index - LINEAR_BUCKETS) / HALF_BUCKETS + 1;
+        long subBucket = (index - LINEAR_BUCKETS) % HALF_BUCKETS + HALF_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+
+    /**
+     * Copy of the current counts. Records that race with the copy land in this snapshot or the next one.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[counts.length()];
+        long count = 0;
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = counts.get(i);
+            count += copy[i];
+        }
+        return new Snapshot(copy, count, totalValue.sum(), maxValue.get());
+    }
+
+    /**
+     * Fixed size, the buckets are allocated up front. LongAdder cells added under contention are not counted.
+     */
+    @Override
+    public long ramBytesUsed() {
+        return SHALLOW_BYTES + RamUsage.sizeOfArray(counts.length(), 8);
+    }
+
+    /**
+     * Clears the histogram. Not atomic with concurrent records, a record racing with reset may survive it.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        totalValue.reset();
+        maxValue.set(0);
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long totalValue;
+        private final long maxValue;
+
+        private Snapshot(long[] counts, long count, long totalValue, long maxValue) {
+            this.counts = counts;
+            this.count = count;
+            this.totalValue = totalValue;
+            this.maxValue = maxValue;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return maxValue;
+        }
+
+        public double getMean() {
+            return count == 0 ? 0.0 : (double) totalValue / count;
+        }
+
+        /**
+         * Smallest recorded value that percentile percent of the records are at or below, 0 when nothing was recorded.
+         */
+        public long percentile(double percentile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return Math.min(highestValueIn(i), maxValue);
+            }
+            return maxValue;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.pri1712.searchengine.utils;
+
+import com.pri1712.searchengine.model.SegmentManifest;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+/**
+ * The exclusive lock on one index directory's manifest, taken with SegmentFiles.lockManifest. The manifest is read and
+ * written through it while it is held, closing it releases the lock.
+ */
+public final class ManifestLock implements AutoCloseable {
+    private final Path indexDir;
+    private final FileChannel channel;
+
+    ManifestLock(Path indexDir, FileChannel channel) {
+        this.indexDir = indexDir;
+        this.channel = channel;
+    }
+
+    public SegmentManifest readManifest() throws IOException {
+        return SegmentFiles.readManifest(indexDir);
+    }
+
+    public void writeManifest(SegmentManifest manifest) throws IOException {
+        SegmentFiles.writeManifest(indexDir, manifest);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
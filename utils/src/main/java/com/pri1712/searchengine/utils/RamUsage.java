@@ -0,0 +1,69 @@
+package com.pri1712.searchengine.utils;
+
+/**
+ * Object sizes on a 64-bit HotSpot JVM, used by the Accountable structures to add up what they retain. References are
+ * compressed while the heap is below 32 GB, which is also when HotSpot compresses them by default, and every object is
+ * padded to 8 bytes.
+ */
+public final class RamUsage {
+    public static final boolean COMPRESSED_REFS = Runtime.getRuntime().maxMemory() < 32L * 1024 * 1024 * 1024;
+    public static final int REFERENCE_BYTES = COMPRESSED_REFS ? 4 : 8;
+    public static final int OBJECT_HEADER_BYTES = COMPRESSED_REFS ? 12 : 16;
+    //header plus the int length.
+    public static final int ARRAY_HEADER_BYTES = COMPRESSED_REFS ? 16 : 24;
+    private static final int OBJECT_ALIGNMENT = 8;
+
+    //value, hash, coder and hashIsZero of a JDK 9+ String.
+    public static final long STRING_BYTES = shallowInstance(1, 4 + 1 + 1);
+    //hash, key, value and next of a HashMap.Node.
+    public static final long HASHMAP_NODE_BYTES = shallowInstance(3, 4);
+    public static final long HASHMAP_BYTES = shallowInstance(4, 4 * 4);
+    private static final float HASHMAP_LOAD_FACTOR = 0.75f;
+
+    private RamUsage() {}
+
+    public static long align(long size) {
+        return (size + OBJECT_ALIGNMENT - 1) / OBJECT_ALIGNMENT * OBJECT_ALIGNMENT;
+    }
+
+    /**
+     * Size of an object with the given number of reference fields and bytes of primitive fields.
+     */
+    public static long shallowInstance(int references, int primitiveBytes) {
+        return align(OBJECT_HEADER_BYTES + (long) references * REFERENCE_BYTES + primitiveBytes);
+    }
+
+    public static long sizeOfArray(int length, int elementBytes) {
+        return align(ARRAY_HEADER_BYTES + (long) length * elementBytes);
+    }
+
+    public static long sizeOfReferenceArray(int length) {
+        return sizeOfArray(length, REFERENCE_BYTES);
+    }
+
+    /**
+     * String plus its byte array, one byte per char when every char is Latin-1 and two otherwise.
+     */
+    public static long sizeOf(String s) {
+        if (s == null) return 0;
+        int bytesPerChar = 1;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0xFF) {
+                bytesPerChar = 2;
+                break;
+            }
+        }
+        return STRING_BYTES + sizeOfArray(s.length(), bytesPerChar);
+    }
+
+    /**
+     * A HashMap with size entries that grew from the default capacity: the map, its table and one node per entry.
+     * Keys and values are not included.
+     */
+    public static long sizeOfHashMap(int size) {
+        if (size == 0) return HASHMAP_BYTES;
+        int capacity = 16;
+        while (size > capacity * HASHMAP_LOAD_FACTOR) capacity <<= 1;
+        return HASHMAP_BYTES + sizeOfReferenceArray(capacity) + size * HASHMAP_NODE_BYTES;
+    }
+}
@@ -0,0 +1,289 @@
+package com.pri1712.searchengine.utils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.pri1712.searchengine.model.SegmentManifest;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * File layout of a segmented index. The index root holds one directory per build version and a CURRENT file naming the
+ * live one. A version directory holds segments.json and one directory per segment, each segment directory is
+ * self-contained: postings, token dictionary, chunk store and BM25 stats.
+ */
+public final class SegmentFiles {
+    private static final Logger LOGGER = Logger.getLogger(SegmentFiles.class.getName());
+
+    public static final String MANIFEST_FILE = "segments.json";
+    public static final String CHUNK_DATA_FILE = "chunked_data.data";
+    //chunk text in deflated blocks, written instead of CHUNK_DATA_FILE.
+    public static final String CHUNK_BLOCKS_FILE = "chunked_data.blocks";
+    public static final String CHUNK_INDEX_FILE = "chunked_index.bin";
+    public static final String TOKEN_OFFSET_FILE = "token_index_offset.json.gz";
+    public static final String STATS_FILE = "stats.json";
+    public static final String CURRENT_FILE = "CURRENT";
+    private static final String LOCK_FILE = "write.lock";
+    private static final String APPEND_LOCK_FILE = "append.lock";
+    private static final String VERSION_PREFIX = "version_";
+
+    private static final ObjectMapper mapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    private SegmentFiles() {}
+
+    public static String segmentName(int segmentId) {
+        return String.format("segment_%05d", segmentId);
+    }
+
+    public static String versionName(long version) {
+        return String.format(VERSION_PREFIX + "%05d", version);
+    }
+
+    public static Path segmentDir(Path indexRoot, String segmentName) {
+        return indexRoot.resolve(segmentName);
+    }
+
+    public static boolean hasManifest(Path indexRoot) {
+        return Files.exists(indexRoot.resolve(MANIFEST_FILE));
+    }
+
+    public static SegmentManifest readManifest(Path indexRoot) throws IOException {
+        Path manifestPath = indexRoot.resolve(MANIFEST_FILE);
+        if (!Files.exists(manifestPath)) {
+            return new SegmentManifest();
+        }
+        return mapper.readValue(manifestPath.toFile(), SegmentManifest.class);
+    }
+
+    /**
+     * Publishes a manifest with a write to a temp file and an atomic rename, readers see either the old or the new list.
+     */
+    public static void writeManifest(Path indexRoot, SegmentManifest manifest) throws IOException {
+        Files.createDirectories(indexRoot);
+        Path tmp = indexRoot.resolve(MANIFEST_FILE + ".tmp");
+        mapper.writeValue(tmp.toFile(), manifest);
+        Files.move(tmp, indexRoot.resolve(MANIFEST_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Published segment manifest generation " + manifest.getGeneration() + " with "
+                + manifest.getSegments().size() + " segments");
+    }
+
+    /**
+     * Takes the exclusive lock that serializes manifest updates of one index directory. Writers re-read the manifest
+     * through the lock after taking it.
+     */
+    public static ManifestLock lockManifest(Path indexDir) throws IOException {
+        Files.createDirectories(indexDir);
+        FileChannel channel = FileChannel.open(indexDir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            channel.lock();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        return new ManifestLock(indexDir, channel);
+    }
+
+    /**
+     * Claims indexDir for one append run, held until the returned channel is closed or the process exits. The chunk
+     * ids of an append are only known once its segments are written, so a second append into the same directory is
+     * refused instead of being handed an overlapping id range.
+     */
+    public static FileChannel lockAppend(Path indexDir) throws IOException {
+        FileChannel channel = FileChannel.open(indexDir.resolve(APPEND_LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = channel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        if (lock == null) {
+            channel.close();
+            throw new IllegalStateException("Another append to " + indexDir + " is still running");
+        }
+        return channel;
+    }
+
+    /**
+     * Takes the next segment id of indexDir's manifest under the manifest lock, so a build and a merge running at the
+     * same time never write the same segment directory.
+     */
+    public static String reserveSegmentName(Path indexDir) throws IOException {
+        try (ManifestLock lock = lockManifest(indexDir)) {
+            SegmentManifest manifest = lock.readManifest();
+            int segmentId = manifest.getNextSegmentId();
+            manifest.setNextSegmentId(segmentId + 1);
+            lock.writeManifest(manifest);
+            return segmentName(segmentId);
+        }
+    }
+
+    /**
+     * The avgdl the impacts of indexDir's segments are quantized against, read under the manifest lock. The first
+     * segment to ask fixes it to its own averageChunkSize, so a build's segments, appends and merges all quantize
+     * against the same value and searchers can use their impacts together whatever the index-wide avgdl is.
+     */
+    public static long impactAverageChunkSize(Path indexDir, long averageChunkSize) throws IOException {
+        try (ManifestLock lock = lockManifest(indexDir)) {
+            SegmentManifest manifest = lock.readManifest();
+            if (manifest.getImpactAverageChunkSize() <= 0) {
+                manifest.setImpactAverageChunkSize(averageChunkSize);
+                lock.writeManifest(manifest);
+            }
+            return manifest.getImpactAverageChunkSize();
+        }
+    }
+
+    /**
+     * The chunk store of a segment, its deflated blocks or for segments written without them the raw chunk data.
+     */
+    public static Path chunkDataFile(Path segmentDir) {
+        Path blocks = segmentDir.resolve(CHUNK_BLOCKS_FILE);
+        return Files.exists(blocks) ? blocks : segmentDir.resolve(CHUNK_DATA_FILE);
+    }
+
+    /**
+     * The final postings file of a segment, there is exactly one per segment directory.
+     */
+    public static Path postingsFile(Path segmentDir) throws IOException {
+        try (var files = Files.list(segmentDir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith("_delta_encoded.json"))
+                    .findFirst()
+                    .orElseThrow(() -> new FileNotFoundException("No postings file in segment " + segmentDir));
+        }
+    }
+
+    /**
+     * The positions stream written next to a postings file, null for segments built without positions.
+     */
+    public static Path positionsFile(Path postingsFile) {
+        Path positions = postingsFile.resolveSibling(
+                postingsFile.getFileName().toString().replace("_delta_encoded.json", "_delta_encoded.pos"));
+        return Files.exists(positions) ? positions : null;
+    }
+
+    /**
+     * The impacts stream next to a postings file, null for an index built without impacts.
+     */
+    public static Path impactsFile(Path postingsFile) {
+        Path impacts = postingsFile.resolveSibling(
+                postingsFile.getFileName().toString().replace("_delta_encoded.json", "_delta_encoded.imp"));
+        return Files.exists(impacts) ? impacts : null;
+    }
+
+    /**
+     * The binary block postings next to a postings file, null for an index built with JSON postings only.
+     */
+    public static Path blockPostingsFile(Path postingsFile) {
+        Path blocks = postingsFile.resolveSibling(
+                postingsFile.getFileName().toString().replace("_delta_encoded.json", "_delta_encoded.blk"));
+        return Files.exists(blocks) ? blocks : null;
+    }
+
+    /**
+     * Name of the live version directory, null when nothing has been published yet.
+     */
+    public static String readCurrentVersion(Path indexRoot) throws IOException {
+        Path current = indexRoot.resolve(CURRENT_FILE);
+        if (!Files.exists(current)) {
+            return null;
+        }
+        String version = Files.readString(current, StandardCharsets.UTF_8).trim();
+        return version.isEmpty() ? null : version;
+    }
+
+    /**
+     * Directory holding the manifest that readers should open: the CURRENT version, or the root itself for indexes
+     * written before versions existed.
+     */
+    public static Path resolveIndexDir(Path indexRoot) throws IOException {
+        String version = readCurrentVersion(indexRoot);
+        return version == null ? indexRoot : indexRoot.resolve(version);
+    }
+
+    /**
+     * Directory for the next build, one past the highest version under the root whether or not it was published.
+     */
+    public static String nextVersionName(Path indexRoot) throws IOException {
+        return versionName(latestVersionNumber(indexRoot) + 1);
+    }
+
+    /**
+     * Points CURRENT at a fully written version directory. Same temp file and atomic rename as the manifest, a reader
+     * sees either the old version or the new one.
+     */
+    public static void publishCurrentVersion(Path indexRoot, String versionName) throws IOException {
+        if (!hasManifest(indexRoot.resolve(versionName))) {
+            throw new IllegalStateException("Version " + versionName + " has no manifest, refusing to publish it");
+        }
+        Path tmp = indexRoot.resolve(CURRENT_FILE + ".tmp");
+        Files.writeString(tmp, versionName, StandardCharsets.UTF_8);
+        Files.move(tmp, indexRoot.resolve(CURRENT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        LOGGER.info("Published index version " + versionName);
+    }
+
+    /**
+     * Deletes the version directories older than liveVersion except CURRENT and the ones in inUse. Versions newer than
+     * liveVersion are builds in progress or not opened yet and are left alone.
+     */
+    public static void deleteVersionsBefore(Path indexRoot, String liveVersion, Set<String> inUse) throws IOException {
+        long liveNumber = versionNumber(liveVersion);
+        if (liveNumber < 0) return;
+        String current = readCurrentVersion(indexRoot);
+        try (var entries = Files.list(indexRoot)) {
+            for (Path entry : entries.filter(Files::isDirectory).toList()) {
+                String name = entry.getFileName().toString();
+                long number = versionNumber(name);
+                if (number < 0 || number >= liveNumber || name.equals(current) || inUse.contains(name)) continue;
+                LOGGER.info("Removing old index version " + name);
+                deleteRecursively(entry);
+            }
+        }
+    }
+
+    private static long latestVersionNumber(Path indexRoot) throws IOException {
+        if (!Files.isDirectory(indexRoot)) return 0;
+        try (var entries = Files.list(indexRoot)) {
+            return entries.filter(Files::isDirectory)
+                    .mapToLong(p -> versionNumber(p.getFileName().toString()))
+                    .max().orElse(0);
+        }
+    }
+
+    private static long versionNumber(String name) {
+        if (!name.startsWith(VERSION_PREFIX)) return -1;
+        try {
+            return Long.parseLong(name.substring(VERSION_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    public static void deleteRecursively(Path path) throws IOException {
+        if (Files.isDirectory(path)) {
+            try (var children = Files.list(path)) {
+                for (Path child : children.toList()) deleteRecursively(child);
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+
+    public static long directorySize(Path dir) throws IOException {
+        try (var files = Files.list(dir)) {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+}
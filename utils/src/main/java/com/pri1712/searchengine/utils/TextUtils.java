@@ -125,6 +125,61 @@ public final class TextUtils {
         return new TokenizedChunk(textTokens,chunk.getChunkId().toString());
     }
 
+    /**
+     * Tokens of whitespace-free words in order, the same tokenizeChunk gives for the words joined by spaces. Tokens
+     * never span a space, so the tokens of words from..to-1 are tokens.subList(tokenStarts[from], tokenStarts[to]);
+     * tokenStarts needs room for words.length + 1 entries.
+     */
+    public static List<String> tokenizeWords(String[] words, int[] tokenStarts) {
+        PorterStemmer stemmer = new PorterStemmer();
+        List<String> tokens = new ArrayList<>();
+        for (int w = 0; w < words.length; w++) {
+            tokenStarts[w] = tokens.size();
+            Matcher matcher = WORD_PATTERN.matcher(words[w]);
+            while (matcher.find()) {
+                String token = matcher.group();
+                if (token.length() <= 1) continue;
+                String lower = token.toLowerCase();
+                if (ENGLISH_STOP_WORDS.contains(lower)) continue;
+                stemmer.setCurrent(lower);
+                stemmer.stem();
+                tokens.add(stemmer.getCurrent());
+            }
+        }
+        tokenStarts[words.length] = tokens.size();
+        return tokens;
+    }
+
+    /**
+     * Called by scanTokens for each token of a text, with the token's position as tokenizeChunk numbers it and the
+     * chars [start, end) it was taken from. Returning false stops the scan.
+     */
+    public interface TokenVisitor {
+        boolean visit(int position, int start, int end, String token);
+    }
+
+    /**
+     * Walks the tokens tokenizeChunk would give for text, in one pass, without building the token list. Tokens are
+     * only stemmed when stem is set, the lowercased word is passed otherwise.
+     */
+    public static void scanTokens(CharSequence text, boolean stem, TokenVisitor visitor) {
+        Matcher matcher = WORD_PATTERN.matcher(text);
+        PorterStemmer stemmer = stem ? new PorterStemmer() : null;
+        int position = 0;
+        while (matcher.find()) {
+            if (matcher.end() - matcher.start() <= 1) continue;
+            String lower = matcher.group().toLowerCase();
+            if (ENGLISH_STOP_WORDS.contains(lower)) continue;
+            String token = lower;
+            if (stem) {
+                stemmer.setCurrent(lower);
+                stemmer.stem();
+                token = stemmer.getCurrent();
+            }
+            if (!visitor.visit(position++, matcher.start(), matcher.end(), token)) return;
+        }
+    }
+
     public static List<String> tokenizeQuery(String queryText) {
         if (queryText == null || queryText.isEmpty()) {
             return Collections.emptyList();
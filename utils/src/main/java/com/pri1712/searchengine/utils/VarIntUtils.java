@@ -0,0 +1,66 @@
+package com.pri1712.searchengine.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length int encoding (7 bits per byte, high bit set when more bytes follow).
+ * Small deltas, which is what postings and positions mostly are, take a single byte.
+ */
+public final class VarIntUtils {
+
+    private VarIntUtils() {}
+
+    public static int writeVInt(OutputStream out, int value) throws IOException {
+        int written = 1;
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+            written++;
+        }
+        out.write(value);
+        return written;
+    }
+
+    public static int readVInt(InputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.read();
+            if (b == -1) {
+                throw new EOFException("Unexpected end of stream while reading vint");
+            }
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    public static int readVInt(ByteBuffer in) {
+        int value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.get();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    public static void skipVInts(InputStream in, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int b;
+            do {
+                b = in.read();
+                if (b == -1) {
+                    throw new EOFException("Unexpected end of stream while skipping vints");
+                }
+            } while ((b & 0x80) != 0);
+        }
+    }
+}